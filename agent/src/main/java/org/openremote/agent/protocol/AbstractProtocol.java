@@ -20,7 +20,6 @@
 package org.openremote.agent.protocol;
 
 import org.apache.camel.ProducerTemplate;
-import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.concurrent.GlobalLock;
 import org.openremote.container.message.MessageBrokerContext;
 import org.openremote.container.message.MessageBrokerService;
@@ -39,15 +38,18 @@ import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.Pair;
 import org.openremote.model.value.MetaItemType;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.model.protocol.ProtocolUtil.hasDynamicWriteValue;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
 
@@ -74,6 +76,9 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  */
 public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends AgentLink<?>> implements Protocol<T> {
 
+    // Max number of pending linked attribute writes per protocol instance, further writes are dropped
+    public static final String PROTOCOL_ACTUATOR_INBOX_SIZE = "PROTOCOL_ACTUATOR_INBOX_SIZE";
+    public static final int PROTOCOL_ACTUATOR_INBOX_SIZE_DEFAULT = 1000;
     private static final Logger LOG = SyslogCategory.getLogger(PROTOCOL, AbstractProtocol.class);
     protected final Map<AttributeRef, Attribute<?>> linkedAttributes = new HashMap<>();
     protected final Set<AttributeRef> dynamicAttributes = new HashSet<>();
@@ -83,6 +88,7 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
     protected ScheduledExecutorService executorService;
     protected ProtocolAssetService assetService;
     protected ProtocolPredictedAssetService predictedAssetService;
+    protected volatile ActuatorInbox actuatorInbox;
     protected T agent;
 
     public AbstractProtocol(T agent) {
@@ -99,33 +105,12 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
 
         withLock(getProtocolName() + "::start", () -> {
             try {
-                messageBrokerContext.addRoutes(new RouteBuilder() {
-                    @Override
-                    public void configure() throws Exception {
-                        from(ACTUATOR_TOPIC)
-                            .routeId("Actuator-" + getProtocolName() + getAgent().getId())
-                            .process(exchange -> {
-                                Protocol<?> protocolInstance = exchange.getIn().getHeader(ACTUATOR_TOPIC_TARGET_PROTOCOL, Protocol.class);
-                                if (protocolInstance != AbstractProtocol.this) {
-                                    return;
-                                }
-
-                                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                                Attribute<?> linkedAttribute = getLinkedAttributes().get(event.getAttributeRef());
-
-                                if (linkedAttribute == null) {
-                                    LOG.info("Attempt to write to attribute that is not actually linked to this protocol '" + AbstractProtocol.this + "': " + linkedAttribute);
-                                    return;
-                                }
-                                if (linkedAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false)) {
-                                    LOG.info("Attempt to write to readonly attribute: " + linkedAttribute);
-                                    return;
-                                }
-
-                                processLinkedAttributeWrite(event);
-                            });
-                    }
-                });
+                actuatorInbox = new ActuatorInbox(
+                    getProtocolName() + " " + getAgent().getId(),
+                    getInteger(container.getConfig(), PROTOCOL_ACTUATOR_INBOX_SIZE, PROTOCOL_ACTUATOR_INBOX_SIZE_DEFAULT),
+                    executorService,
+                    this::onLinkedAttributeWrite
+                );
 
                 doStart(container);
 
@@ -141,8 +126,9 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         withLock(getProtocolName() + "::stop", () -> {
             linkedAttributes.clear();
             try {
-                messageBrokerContext.stopRoute("Actuator-" + getProtocolName(), 1, TimeUnit.MILLISECONDS);
-                messageBrokerContext.removeRoute("Actuator-" + getProtocolName());
+                if (actuatorInbox != null) {
+                    actuatorInbox.close();
+                }
 
                 doStop(container);
 
@@ -152,6 +138,31 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         });
     }
 
+    @Override
+    public boolean dispatchLinkedAttributeWrite(AttributeEvent event) {
+        ActuatorInbox inbox = actuatorInbox;
+        return inbox != null && inbox.offer(event);
+    }
+
+    public ActuatorInbox getActuatorInbox() {
+        return actuatorInbox;
+    }
+
+    protected void onLinkedAttributeWrite(AttributeEvent event) {
+        Attribute<?> linkedAttribute = getLinkedAttributes().get(event.getAttributeRef());
+
+        if (linkedAttribute == null) {
+            LOG.info("Attempt to write to attribute that is not actually linked to this protocol '" + this + "': " + event.getAttributeRef());
+            return;
+        }
+        if (linkedAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false)) {
+            LOG.info("Attempt to write to readonly attribute: " + linkedAttribute);
+            return;
+        }
+
+        processLinkedAttributeWrite(event);
+    }
+
     protected void setConnectionStatus(ConnectionStatus connectionStatus) {
         sendAttributeEvent(new AttributeEvent(getAgent().getId(), Agent.STATUS, connectionStatus));
     }
@@ -288,6 +299,55 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvent, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
     }
 
+    /**
+     * Update the values of several linked attributes that were read at the same time (e.g. all the values of a single
+     * poll response). Each state goes through {@link ProtocolUtil#doInboundValueProcessing} as with
+     * {@link #updateLinkedAttribute}, the remaining updates are then sent on the sensor queue as a single message so
+     * they are processed in one database transaction rather than one transaction per attribute.
+     */
+    final protected void updateLinkedAttributes(final Collection<AttributeState> states, long timestamp) {
+        List<AttributeEvent> attributeEvents = new ArrayList<>(states.size());
+
+        for (AttributeState state : states) {
+            Attribute<?> attribute = linkedAttributes.get(state.getRef());
+
+            if (attribute == null) {
+                LOG.severe("Update linked attributes called for un-linked attribute: " + state);
+                continue;
+            }
+
+            Pair<Boolean, Object> ignoreAndConverted = ProtocolUtil.doInboundValueProcessing(state.getRef().getId(), attribute, agent.getAgentLink(attribute), state.getValue().orElse(null));
+
+            if (ignoreAndConverted.key) {
+                LOG.fine("Value conversion returned ignore so attribute will not be updated: " + state.getRef());
+                continue;
+            }
+
+            attributeEvents.add(new AttributeEvent(new AttributeState(state.getRef(), ignoreAndConverted.value), timestamp));
+        }
+
+        if (attributeEvents.isEmpty()) {
+            return;
+        }
+
+        if (attributeEvents.size() == 1) {
+            LOG.finer("Sending linked attribute update on sensor queue: " + attributeEvents.get(0));
+            producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvents.get(0), Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
+            return;
+        }
+
+        LOG.finer("Sending " + attributeEvents.size() + " linked attribute updates on sensor queue: " + attributeEvents);
+        producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvents.toArray(new AttributeEvent[0]), Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
+    }
+
+    /**
+     * Update the values of several linked attributes, with the current system time as event time see
+     * {@link #updateLinkedAttributes(Collection, long)} for more details.
+     */
+    final protected void updateLinkedAttributes(Collection<AttributeState> states) {
+        updateLinkedAttributes(states, timerService.getCurrentTimeMillis());
+    }
+
     /**
      * Update the value of one of this {@link Protocol}s linked {@link Agent}'s {@link Attribute}s.
      */
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.agent.protocol;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.syslog.SyslogCategory;
+import org.openremote.model.util.ValueUtil;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
+
+/**
+ * Bounded inbox of linked attribute writes for a single protocol instance; writes are consumed in order by at most one
+ * executor thread at a time so a slow protocol only backs up its own writes. When the inbox is full further writes are
+ * dropped and counted.
+ */
+public class ActuatorInbox {
+
+    private static final Logger LOG = SyslogCategory.getLogger(PROTOCOL, ActuatorInbox.class);
+    // Max writes consumed per executor task before yielding the thread to other tasks
+    protected static final int DRAIN_BATCH_SIZE = 100;
+    protected final String name;
+    protected final BlockingQueue<AttributeEvent> queue;
+    protected final Executor executor;
+    protected final Consumer<AttributeEvent> consumer;
+    protected final AtomicBoolean draining = new AtomicBoolean(false);
+    protected volatile boolean closed;
+
+    // Metrics
+    protected final AtomicLong acceptedWrites = new AtomicLong();
+    protected final AtomicLong processedWrites = new AtomicLong();
+    protected final AtomicLong failedWrites = new AtomicLong();
+    protected final AtomicLong droppedWrites = new AtomicLong();
+    protected volatile int maxQueueDepth;
+
+    public ActuatorInbox(String name, int capacity, Executor executor, Consumer<AttributeEvent> consumer) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.executor = executor;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @return <code>false</code> if the inbox is full or closed and the write has been dropped.
+     */
+    public boolean offer(AttributeEvent event) {
+        if (closed || !queue.offer(event)) {
+            if (droppedWrites.getAndIncrement() % 1000 == 0) {
+                LOG.warning("Actuator inbox " + (closed ? "closed" : "full (capacity=" + getCapacity() + ")") + ", dropped " + droppedWrites.get() + " write(s) so far: " + name);
+            }
+            return false;
+        }
+
+        acceptedWrites.incrementAndGet();
+        int depth = queue.size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    protected void scheduleDrain() {
+        if (!closed && draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                LOG.log(Level.WARNING, "Failed to schedule actuator inbox processing: " + name, e);
+            }
+        }
+    }
+
+    protected void drain() {
+        try {
+            AttributeEvent event;
+            int count = 0;
+            while (!closed && count++ < DRAIN_BATCH_SIZE && (event = queue.poll()) != null) {
+                try {
+                    consumer.accept(event);
+                    processedWrites.incrementAndGet();
+                } catch (Exception e) {
+                    failedWrites.incrementAndGet();
+                    LOG.log(Level.WARNING, "Failed to process linked attribute write on " + name + ": " + event, e);
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // Writes may have been queued after the last poll or the batch size was reached
+        if (!queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Drops all pending writes and rejects any further writes.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    public int getCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("capacity", getCapacity());
+        status.put("queueDepth", getQueueDepth());
+        status.put("maxQueueDepth", maxQueueDepth);
+        status.put("acceptedWrites", acceptedWrites.get());
+        status.put("processedWrites", processedWrites.get());
+        status.put("failedWrites", failedWrites.get());
+        status.put("droppedWrites", droppedWrites.get());
+        return status;
+    }
+}
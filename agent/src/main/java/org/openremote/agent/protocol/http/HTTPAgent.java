@@ -38,6 +38,16 @@ public class HTTPAgent extends Agent<HTTPAgent, HTTPProtocol, HTTPAgentLink> {
     public static final AttributeDescriptor<ValueType.MultivaluedStringMap> REQUEST_HEADERS = new AttributeDescriptor<>("requestHeaders", ValueType.MULTIVALUED_TEXT_MAP);
     public static final AttributeDescriptor<ValueType.MultivaluedStringMap> REQUEST_QUERY_PARAMETERS = new AttributeDescriptor<>("requestQueryParameters", ValueType.MULTIVALUED_TEXT_MAP);
     public static final AttributeDescriptor<Integer> REQUEST_TIMEOUT_MILLIS = new AttributeDescriptor<>("requestTimeoutMillis", ValueType.POSITIVE_INTEGER);
+    /**
+     * Maximum random delay added to each polling interval, spreads the requests of attributes polling at the same
+     * interval over time.
+     */
+    public static final AttributeDescriptor<Integer> POLLING_JITTER_MILLIS = new AttributeDescriptor<>("pollingJitterMillis", ValueType.POSITIVE_INTEGER);
+    /**
+     * Send the ETag/Last-Modified of the last polling response with the next request (If-None-Match/If-Modified-Since)
+     * so that unchanged responses (304 Not Modified) don't update the linked attributes.
+     */
+    public static final AttributeDescriptor<Boolean> CONDITIONAL_POLLING = new AttributeDescriptor<>("conditionalPolling", ValueType.BOOLEAN);
 
     public static final AgentDescriptor<HTTPAgent, HTTPProtocol, HTTPAgentLink> DESCRIPTOR = new AgentDescriptor<>(
         HTTPAgent.class, HTTPProtocol.class, HTTPAgentLink.class
@@ -98,6 +108,24 @@ public class HTTPAgent extends Agent<HTTPAgent, HTTPProtocol, HTTPAgentLink> {
         return this;
     }
 
+    public Optional<Integer> getPollingJitterMillis() {
+        return getAttributes().getValue(POLLING_JITTER_MILLIS);
+    }
+
+    public HTTPAgent setPollingJitterMillis(Integer value) {
+        getAttributes().getOrCreate(POLLING_JITTER_MILLIS).setValue(value);
+        return this;
+    }
+
+    public Optional<Boolean> getConditionalPolling() {
+        return getAttributes().getValue(CONDITIONAL_POLLING);
+    }
+
+    public HTTPAgent setConditionalPolling(Boolean value) {
+        getAttributes().getOrCreate(CONDITIONAL_POLLING).setValue(value);
+        return this;
+    }
+
     @Override
     public HTTPProtocol getProtocolInstance() {
         return new HTTPProtocol(this);
@@ -38,12 +38,14 @@ import org.openremote.model.auth.UsernamePassword;
 import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.TextUtil;
 import org.openremote.model.util.ValueUtil;
+import org.openremote.model.value.JsonPathFilter;
 import org.openremote.model.value.ValueType;
 
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
@@ -54,6 +56,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -74,6 +77,10 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * HTTPAgent#META_REQUEST_POLLING_MILLIS} {@link MetaItem}) can use the standard {@link Agent#META_VALUE_FILTERS} in
  * order to filter the received HTTP response.
  * <p>
+ * Attributes that poll the same request (method, path, headers, query parameters and body) share a single request per
+ * polling interval, see {@link PollingGroup}; {@link HTTPAgent#POLLING_JITTER_MILLIS} and
+ * {@link HTTPAgent#CONDITIONAL_POLLING} can be used to spread requests over time and to skip unchanged responses.
+ * <p>
  * <b>NOTE: if an exception is thrown during the request that means no response is returned then this is treated as if
  * a 500 response has been received</b>
  * <h1>Dynamic value injection</h1>
@@ -218,7 +225,18 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
         }
 
         public Response invoke(String value) {
+            return invoke(value, null);
+        }
+
+        /**
+         * @param additionalHeaders Headers to add to the configured headers of this request (e.g. conditional request
+         *                          headers); can be <code>null</code>.
+         */
+        public Response invoke(String value, MultivaluedMap<String, Object> additionalHeaders) {
             Invocation.Builder requestBuilder = getRequestBuilder(value);
+            if (additionalHeaders != null) {
+                additionalHeaders.forEach((name, values) -> values.forEach(headerValue -> requestBuilder.header(name, headerValue)));
+            }
             Invocation invocation = buildInvocation(requestBuilder, value);
             return invocation.invoke();
         }
@@ -269,6 +287,130 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
         }
     }
 
+    /**
+     * Attributes that poll an identical request (same method, path, headers, query parameters, body etc.) share a
+     * polling group, so only a single request is made per polling interval and the response is fanned out to all the
+     * attributes in the group. The group polls at the interval of its fastest attribute, each delay can be extended by
+     * a random jitter and when conditional polling is enabled the ETag/Last-Modified of the last response are sent
+     * with the next request so an unchanged payload is skipped.
+     */
+    protected class PollingGroup {
+
+        protected final List<Object> key;
+        protected final HttpClientRequest clientRequest;
+        protected final String body;
+        protected final Map<AttributeRef, Integer> attributePollingMillis = new LinkedHashMap<>();
+        protected int pollingMillis;
+        protected int generation;
+        protected ScheduledFuture<?> pollingFuture;
+        protected String eTag;
+        protected String lastModified;
+
+        protected PollingGroup(List<Object> key, HttpClientRequest clientRequest, String body) {
+            this.key = key;
+            this.clientRequest = clientRequest;
+            this.body = body;
+        }
+
+        protected synchronized void addAttribute(AttributeRef attributeRef, int pollingMillis) {
+            attributePollingMillis.put(attributeRef, pollingMillis);
+            // The new attribute needs the next response even if the payload hasn't changed
+            resetValidators();
+            this.pollingMillis = Collections.min(attributePollingMillis.values());
+            schedule(getJitterMillis());
+        }
+
+        /**
+         * @return <code>true</code> if the group has no attributes left and polling has been cancelled.
+         */
+        protected synchronized boolean removeAttribute(AttributeRef attributeRef) {
+            attributePollingMillis.remove(attributeRef);
+            if (attributePollingMillis.isEmpty()) {
+                cancel();
+                return true;
+            }
+            int pollingMillis = Collections.min(attributePollingMillis.values());
+            if (pollingMillis != this.pollingMillis) {
+                this.pollingMillis = pollingMillis;
+                schedule(pollingMillis + getJitterMillis());
+            }
+            return false;
+        }
+
+        protected synchronized void resetValidators() {
+            eTag = null;
+            lastModified = null;
+        }
+
+        protected synchronized List<AttributeRef> getAttributeRefs() {
+            return new ArrayList<>(attributePollingMillis.keySet());
+        }
+
+        protected synchronized void cancel() {
+            generation++;
+            if (pollingFuture != null) {
+                pollingFuture.cancel(false);
+                pollingFuture = null;
+            }
+        }
+
+        protected synchronized void schedule(long delayMillis) {
+            cancel();
+            int scheduledGeneration = generation;
+            pollingFuture = executorService.schedule(() -> poll(scheduledGeneration), delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        protected void poll(int scheduledGeneration) {
+            try {
+                executePollingRequest(clientRequest, body, getConditionalHeaders(), response -> {
+                    try {
+                        onPollingGroupResponse(response);
+                    } catch (Exception e) {
+                        LOG.log(Level.WARNING, prefixLogMessage("Exception thrown whilst processing polling response [" + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()) + "]: " + clientRequest));
+                    }
+                });
+            } finally {
+                synchronized (this) {
+                    // Don't continue if the group has been rescheduled or cancelled in the meantime
+                    if (scheduledGeneration == generation) {
+                        int nextGeneration = generation;
+                        pollingFuture = executorService.schedule(() -> poll(nextGeneration), pollingMillis + getJitterMillis(), TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }
+
+        protected synchronized MultivaluedMap<String, Object> getConditionalHeaders() {
+            if (!conditionalPolling || clientRequest.pagingEnabled || (eTag == null && lastModified == null)) {
+                return null;
+            }
+            MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+            if (eTag != null) {
+                headers.putSingle(HttpHeaders.IF_NONE_MATCH, eTag);
+            }
+            if (lastModified != null) {
+                headers.putSingle(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+            }
+            return headers;
+        }
+
+        protected void onPollingGroupResponse(Response response) {
+            if (response != null && response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+                LOG.finest(prefixLogMessage("Polling response not modified so skipping update: " + clientRequest));
+                return;
+            }
+
+            if (conditionalPolling && response != null && response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+                synchronized (this) {
+                    eTag = response.getHeaderString(HttpHeaders.ETAG);
+                    lastModified = response.getHeaderString(HttpHeaders.LAST_MODIFIED);
+                }
+            }
+
+            onPollingResponse(clientRequest, response, getAttributeRefs());
+        }
+    }
+
     public static final String PROTOCOL_DISPLAY_NAME = "HTTP Client";
     public static final String DEFAULT_HTTP_METHOD = HttpMethod.GET;
     public static final String DEFAULT_CONTENT_TYPE = MediaType.TEXT_PLAIN;
@@ -277,9 +419,12 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
 
     protected ResteasyWebTarget webTarget;
     protected final Map<AttributeRef, HttpClientRequest> requestMap = new HashMap<>();
-    protected final Map<AttributeRef, ScheduledFuture<?>> pollingMap = new HashMap<>();
+    protected final Map<AttributeRef, PollingGroup> pollingMap = new HashMap<>();
+    protected final Map<List<Object>, PollingGroup> pollingGroups = new HashMap<>();
     protected final Map<AttributeRef, Set<AttributeRef>> pollingLinkedAttributeMap = new HashMap<>();
     protected static ResteasyClient client;
+    protected int pollingJitterMillis;
+    protected boolean conditionalPolling;
 
     static {
         client = createClient(org.openremote.container.Container.EXECUTOR_SERVICE);
@@ -291,7 +436,8 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
 
     @Override
     protected void doStop(Container container) {
-        pollingMap.forEach((attributeRef, scheduledFuture) -> scheduledFuture.cancel(true));
+        pollingGroups.values().forEach(PollingGroup::cancel);
+        pollingGroups.clear();
         pollingMap.clear();
         requestMap.clear();
     }
@@ -324,6 +470,8 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
         Optional<ValueType.MultivaluedStringMap> queryParams = agent.getRequestQueryParameters();
 
         Integer readTimeout = agent.getRequestTimeoutMillis().orElse(null);
+        pollingJitterMillis = agent.getPollingJitterMillis().orElse(0);
+        conditionalPolling = agent.getConditionalPolling().orElse(false);
 
         WebTargetBuilder webTargetBuilder;
         if (readTimeout != null) {
@@ -368,8 +516,8 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
         String pollingAttribute = agentLink.getPollingAttribute().orElse(null);
 
         if (!TextUtil.isNullOrEmpty(pollingAttribute)) {
+            AttributeRef pollingSourceRef = new AttributeRef(attributeRef.getId(), pollingAttribute);
             synchronized (pollingLinkedAttributeMap) {
-                AttributeRef pollingSourceRef = new AttributeRef(attributeRef.getId(), pollingAttribute);
                 pollingLinkedAttributeMap.compute(pollingSourceRef, (ref, links) -> {
                     if (links == null) {
                         links = new HashSet<>();
@@ -379,6 +527,14 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
                     return links;
                 });
             }
+
+            // The linked attribute also needs the next response of the polling attribute even if it hasn't changed
+            withLock(getProtocolName() + "::resetPollingValidators", () -> {
+                PollingGroup pollingGroup = pollingMap.get(pollingSourceRef);
+                if (pollingGroup != null) {
+                    pollingGroup.resetValidators();
+                }
+            });
         }
 
         String body = agentLink.getWriteValue().orElse(null);
@@ -463,13 +619,7 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
 
         requestMap.put(attributeRef, clientRequest);
 
-        Optional.ofNullable(pollingMillis).ifPresent(seconds -> {
-            pollingMap.put(attributeRef, schedulePollingRequest(
-                attributeRef,
-                clientRequest,
-                body,
-                seconds));
-        });
+        Optional.ofNullable(pollingMillis).ifPresent(millis -> addPollingAttribute(attributeRef, clientRequest, body, millis));
     }
 
     protected HttpClientRequest buildClientRequest(String path, String method, MultivaluedMap<String, Object> headers, MultivaluedMap<String, String> queryParams, boolean pagingEnabled, String contentType) {
@@ -483,32 +633,40 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
                 contentType);
     }
 
-    protected ScheduledFuture<?> schedulePollingRequest(AttributeRef attributeRef,
-                                                     HttpClientRequest clientRequest,
-                                                     String body,
-                                                     int pollingMillis) {
-
-        LOG.fine("Scheduling polling request '" + clientRequest + "' to execute every " + pollingMillis + " ms for attribute: " + attributeRef);
+    protected void addPollingAttribute(AttributeRef attributeRef,
+                                       HttpClientRequest clientRequest,
+                                       String body,
+                                       int pollingMillis) {
+
+        List<Object> key = Arrays.asList(
+            clientRequest.method,
+            clientRequest.path,
+            clientRequest.headers,
+            clientRequest.queryParameters,
+            clientRequest.contentType,
+            clientRequest.pagingEnabled,
+            body);
+
+        PollingGroup pollingGroup = pollingGroups.computeIfAbsent(key, k -> new PollingGroup(k, clientRequest, body));
+        LOG.fine("Adding attribute to polling request '" + clientRequest + "' which executes every " + pollingMillis + " ms: " + attributeRef);
+        pollingMap.put(attributeRef, pollingGroup);
+        pollingGroup.addAttribute(attributeRef, pollingMillis);
+    }
 
-        return executorService.scheduleWithFixedDelay(() ->
-                executePollingRequest(clientRequest, body, response -> {
-                    try {
-                        onPollingResponse(
-                            clientRequest,
-                            response,
-                            attributeRef);
-                    } catch (Exception e) {
-                        LOG.log(Level.WARNING, prefixLogMessage("Exception thrown whilst processing polling response [" + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()) + "]: " + clientRequest.requestTarget.getUriBuilder().build().toString()));
-                    }
-                }), 0, pollingMillis, TimeUnit.MILLISECONDS);
+    protected int getJitterMillis() {
+        return pollingJitterMillis > 0 ? ThreadLocalRandom.current().nextInt(pollingJitterMillis + 1) : 0;
     }
 
     protected void executePollingRequest(HttpClientRequest clientRequest, String body, Consumer<Response> responseConsumer) {
+        executePollingRequest(clientRequest, body, null, responseConsumer);
+    }
+
+    protected void executePollingRequest(HttpClientRequest clientRequest, String body, MultivaluedMap<String, Object> additionalHeaders, Consumer<Response> responseConsumer) {
         Response originalResponse = null, lastResponse = null;
         List<String> entities = new ArrayList<>();
 
         try {
-            originalResponse = clientRequest.invoke(body);
+            originalResponse = clientRequest.invoke(body, additionalHeaders);
             if (clientRequest.pagingEnabled) {
                 lastResponse = originalResponse;
                 entities.add(lastResponse.readEntity(String.class));
@@ -560,7 +718,7 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
 
     protected void onPollingResponse(HttpClientRequest request,
                                      Response response,
-                                     AttributeRef attributeRef) {
+                                     Collection<AttributeRef> attributeRefs) {
 
         int responseCode = response != null ? response.getStatus() : 500;
         Object value = null;
@@ -573,22 +731,48 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
                 response.close();
             }
         } else {
-            LOG.fine(prefixLogMessage("Request returned an un-successful response code (" + responseCode + "):" + request.requestTarget.getUriBuilder().build().toString()));
+            LOG.fine(prefixLogMessage("Request returned an un-successful response code (" + responseCode + "):" + request));
             return;
         }
 
-        if (attributeRef != null) {
-            updateLinkedAttribute(new AttributeState(attributeRef, value));
+        if (attributeRefs != null && !attributeRefs.isEmpty()) {
+            Set<AttributeRef> refs = new LinkedHashSet<>(attributeRefs);
 
             // Look for any attributes that also want to use this polling response
             synchronized (pollingLinkedAttributeMap) {
-                Set<AttributeRef> linkedRefs = pollingLinkedAttributeMap.get(attributeRef);
-                if (linkedRefs != null) {
-                    Object finalValue = value;
-                    linkedRefs.forEach(ref -> updateLinkedAttribute(new AttributeState(ref, finalValue)));
-                }
+                attributeRefs.forEach(attributeRef -> {
+                    Set<AttributeRef> linkedRefs = pollingLinkedAttributeMap.get(attributeRef);
+                    if (linkedRefs != null) {
+                        refs.addAll(linkedRefs);
+                    }
+                });
+            }
+
+            // Parse a JSON response once and share the document with all attributes that apply a JSON path to it
+            Object document = null;
+            if (value instanceof String && refs.stream().anyMatch(this::isJsonPathFiltered)) {
+                document = ValueUtil.parse((String) value).orElse(null);
+            }
+
+            List<AttributeState> states = new ArrayList<>(refs.size());
+            for (AttributeRef ref : refs) {
+                states.add(new AttributeState(ref, document != null && isJsonPathFiltered(ref) ? document : value));
             }
+            updateLinkedAttributes(states);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the first value filter of the linked attribute is a {@link JsonPathFilter}.
+     */
+    protected boolean isJsonPathFiltered(AttributeRef attributeRef) {
+        Attribute<?> attribute = linkedAttributes.get(attributeRef);
+        if (attribute == null) {
+            return false;
         }
+        return agent.getAgentLink(attribute).getValueFilters()
+            .map(filters -> filters.length > 0 && filters[0] instanceof JsonPathFilter)
+            .orElse(false);
     }
 
     protected void onAttributeWriteResponse(HttpClientRequest request,
@@ -601,9 +785,9 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
 
     protected void cancelPolling(AttributeRef attributeRef) {
         withLock(getProtocolName() + "::cancelPolling", () -> {
-            ScheduledFuture<?> pollTask = pollingMap.remove(attributeRef);
-            if (pollTask != null) {
-                pollTask.cancel(false);
+            PollingGroup pollingGroup = pollingMap.remove(attributeRef);
+            if (pollingGroup != null && pollingGroup.removeAttribute(attributeRef)) {
+                pollingGroups.remove(pollingGroup.key);
             }
         });
     }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openremote.container.timer.TimerService;
+import org.openremote.container.util.UniqueIdentifierGenerator;
+import org.openremote.manager.rules.AssetQueryPredicate;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.impl.RoomAsset;
+import org.openremote.model.asset.impl.ThingAsset;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.filter.AttributePredicate;
+import org.openremote.model.query.filter.NumberPredicate;
+import org.openremote.model.query.filter.TenantPredicate;
+import org.openremote.model.rules.AssetState;
+import org.openremote.model.value.ValueType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching of rules asset states against an {@link AssetQuery} as done by the rules engine for every fact change.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AssetQueryPredicateBenchmark {
+
+    public static final int ASSET_STATE_COUNT = 1000;
+
+    protected List<AssetState<?>> assetStates;
+    protected AssetQueryPredicate typeAndValuePredicate;
+    protected AssetQueryPredicate idsPredicate;
+
+    @Setup
+    public void setup() {
+        TimerService timerService = new TimerService() {
+            @Override
+            public long getCurrentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        };
+
+        assetStates = new ArrayList<>(ASSET_STATE_COUNT);
+        List<String> ids = new ArrayList<>();
+        long timestamp = System.currentTimeMillis();
+
+        for (int i = 0; i < ASSET_STATE_COUNT; i++) {
+            Asset<?> asset = i % 2 == 0 ? new ThingAsset("Thing " + i) : new RoomAsset("Room " + i);
+            asset.setId(UniqueIdentifierGenerator.generateId()).setRealm(i % 4 == 0 ? "master" : "building");
+            Attribute<Double> attribute = new Attribute<>("temperature", ValueType.NUMBER, (double) (i % 40), timestamp);
+            asset.addOrReplaceAttributes(attribute);
+            assetStates.add(new AssetState<>(asset, attribute, AttributeEvent.Source.SENSOR));
+            if (i % 10 == 0) {
+                ids.add(asset.getId());
+            }
+        }
+
+        typeAndValuePredicate = new AssetQueryPredicate(timerService, null, new AssetQuery()
+            .tenant(new TenantPredicate("master"))
+            .types(ThingAsset.class)
+            .attributes(new AttributePredicate("temperature", new NumberPredicate(20, AssetQuery.Operator.GREATER_THAN))));
+
+        idsPredicate = new AssetQueryPredicate(timerService, null, new AssetQuery()
+            .ids(ids.toArray(new String[0])));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ASSET_STATE_COUNT)
+    public int testTypeAndValue() {
+        int matches = 0;
+        for (AssetState<?> assetState : assetStates) {
+            if (typeAndValuePredicate.test(assetState)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ASSET_STATE_COUNT)
+    public int testIds() {
+        int matches = 0;
+        for (AssetState<?> assetState : assetStates) {
+            if (idsPredicate.test(assetState)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
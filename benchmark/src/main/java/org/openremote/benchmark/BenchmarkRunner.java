@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Locale;
+
+/**
+ * Runs the JMH benchmarks of this project and writes the results in a machine readable format so they can be compared
+ * between releases; none of the benchmarks require a database or message broker.
+ * <p>
+ * Arguments (all optional): benchmark include regexp (default <code>.*</code>), result format (one of
+ * {@link ResultFormatType}, default <code>JSON</code>) and result file (default <code>jmh-results.json</code>).
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*";
+        ResultFormatType resultFormat = args.length > 1 ? ResultFormatType.valueOf(args[1].toUpperCase(Locale.ROOT)) : ResultFormatType.JSON;
+        String resultFile = args.length > 2 ? args[2] : "jmh-results." + resultFormat.name().toLowerCase(Locale.ROOT);
+
+        Options options = new OptionsBuilder()
+            .include(include)
+            .resultFormat(resultFormat)
+            .result(resultFile)
+            .shouldFailOnError(true)
+            .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.openjdk.jmh.annotations.*;
+import org.openremote.container.timer.TimerService;
+import org.openremote.container.util.UniqueIdentifierGenerator;
+import org.openremote.manager.event.ClientEventService;
+import org.openremote.manager.event.EventSubscriptions;
+import org.openremote.model.asset.AssetFilter;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.shared.EventSubscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of an {@link AttributeEvent} to the subscribed client sessions; subscriptions are spread over asset ID,
+ * attribute name and realm filters so the event only matches a small share of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventSubscriptionsBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int subscriptionCount;
+
+    protected EventSubscriptions eventSubscriptions;
+    protected Exchange exchange;
+
+    @Setup
+    public void setup() {
+        TimerService timerService = new TimerService() {
+            @Override
+            public long getCurrentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        };
+        eventSubscriptions = new EventSubscriptions(timerService);
+
+        List<String> assetIds = new ArrayList<>();
+        for (int i = 0; i < subscriptionCount; i++) {
+            String assetId = UniqueIdentifierGenerator.generateId();
+            assetIds.add(assetId);
+            AssetFilter<AttributeEvent> filter;
+
+            switch (i % 4) {
+                case 0:
+                    filter = new AssetFilter<AttributeEvent>().setRealm("master").setAttributeNames("attribute" + i);
+                    break;
+                case 1:
+                    filter = new AssetFilter<AttributeEvent>().setRealm(i % 8 == 1 ? "master" : "building");
+                    break;
+                default:
+                    filter = new AssetFilter<AttributeEvent>().setRealm("master").setAssetIds(assetId);
+            }
+
+            eventSubscriptions.createOrUpdate(
+                "session" + i,
+                false,
+                new EventSubscription<>(AttributeEvent.class, filter, "subscription" + i)
+            );
+        }
+
+        AttributeEvent event = new AttributeEvent(assetIds.get(assetIds.size() / 2), "attribute0", 21.5d)
+            .setRealm("master");
+        exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.getIn().setBody(event);
+        exchange.getIn().setHeader(ClientEventService.HEADER_ACCESS_RESTRICTED, false);
+    }
+
+    @Benchmark
+    public List<Message> splitForSubscribers() {
+        return eventSubscriptions.splitForSubscribers(exchange);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openremote.container.util.UniqueIdentifierGenerator;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.impl.ThingAsset;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.MetaItem;
+import org.openremote.model.geo.GeoJSONPoint;
+import org.openremote.model.util.ValueUtil;
+import org.openremote.model.value.ValueType;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.openremote.model.value.MetaItemType.*;
+
+/**
+ * Jackson (de)serialisation of {@link AttributeEvent}s and {@link Asset}s as done for client events, MQTT publishes
+ * and REST responses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    protected AttributeEvent attributeEvent;
+    protected byte[] attributeEventJson;
+    protected Asset<?> asset;
+    protected byte[] assetJson;
+
+    @Setup
+    public void setup() throws IOException {
+        String assetId = UniqueIdentifierGenerator.generateId();
+        long timestamp = System.currentTimeMillis();
+
+        attributeEvent = new AttributeEvent(assetId, "temperature", 21.5d, timestamp)
+            .setRealm("master")
+            .setParentId(UniqueIdentifierGenerator.generateId());
+        attributeEventJson = ValueUtil.JSON.writeValueAsBytes(attributeEvent);
+
+        asset = new ThingAsset("Benchmark asset")
+            .setId(assetId)
+            .setRealm("master")
+            .setLocation(new GeoJSONPoint(4.4, 51.9))
+            .addOrReplaceAttributes(
+                new Attribute<>("temperature", ValueType.NUMBER, 21.5d, timestamp)
+                    .addMeta(new MetaItem<>(STORE_DATA_POINTS, true), new MetaItem<>(RULE_STATE, true)),
+                new Attribute<>("targetTemperature", ValueType.NUMBER, 20d, timestamp),
+                new Attribute<>("status", ValueType.TEXT, "OK", timestamp)
+                    .addMeta(new MetaItem<>(READ_ONLY, true)),
+                new Attribute<>("enabled", ValueType.BOOLEAN, true, timestamp)
+            );
+        assetJson = ValueUtil.JSON.writeValueAsBytes(asset);
+    }
+
+    @Benchmark
+    public byte[] serialiseAttributeEvent() throws IOException {
+        return ValueUtil.JSON.writeValueAsBytes(attributeEvent);
+    }
+
+    @Benchmark
+    public AttributeEvent deserialiseAttributeEvent() throws IOException {
+        return ValueUtil.JSON.readValue(attributeEventJson, AttributeEvent.class);
+    }
+
+    @Benchmark
+    public byte[] serialiseAsset() throws IOException {
+        return ValueUtil.JSON.writeValueAsBytes(asset);
+    }
+
+    @Benchmark
+    public Asset<?> deserialiseAsset() throws IOException {
+        return ValueUtil.JSON.readValue(assetJson, Asset.class);
+    }
+}
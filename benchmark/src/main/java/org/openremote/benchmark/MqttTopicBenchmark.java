@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import io.moquette.broker.subscriptions.Topic;
+import org.openjdk.jmh.annotations.*;
+import org.openremote.manager.mqtt.DefaultMQTTHandler;
+import org.openremote.model.asset.AssetEvent;
+import org.openremote.model.asset.impl.ThingAsset;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.shared.SharedEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Expansion of MQTT subscription topic wildcards into the publish topic of each event delivered to a subscriber.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MqttTopicBenchmark {
+
+    public static final String ASSET_ID = "4hgXTmFGMRqwzQVW3ZvX7B";
+
+    @Param({
+        "master/client/attribute/+/#",
+        "master/client/attribute/+/+",
+        "master/client/attributevalue/temperature/" + ASSET_ID,
+        "master/client/asset/#"
+    })
+    public String topic;
+
+    protected Topic subscriptionTopic;
+    protected Function<SharedEvent, String> topicExpander;
+    protected SharedEvent event;
+
+    @Setup
+    public void setup() {
+        subscriptionTopic = Topic.asTopic(topic);
+        topicExpander = DefaultMQTTHandler.getTopicExpander(subscriptionTopic);
+        event = DefaultMQTTHandler.isAssetTopic(subscriptionTopic)
+            ? new AssetEvent(AssetEvent.Cause.UPDATE, new ThingAsset("Benchmark asset").setId(ASSET_ID).setRealm("master"), null)
+            : new AttributeEvent(ASSET_ID, "temperature", 21.5d).setRealm("master");
+    }
+
+    @Benchmark
+    public Function<SharedEvent, String> buildTopicExpander() {
+        return DefaultMQTTHandler.getTopicExpander(subscriptionTopic);
+    }
+
+    @Benchmark
+    public String expandTopic() {
+        return topicExpander.apply(event);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.MetaItem;
+import org.openremote.model.util.ValueUtil;
+import org.openremote.model.value.ValueType;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.openremote.model.value.MetaItemType.*;
+
+/**
+ * Value coercion and cloning as done for every attribute event by the asset processing chain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValueUtilBenchmark {
+
+    protected Object doubleValue;
+    protected Object stringValue;
+    protected Object integerValue;
+    protected Attribute<Double> attribute;
+
+    @Setup
+    public void setup() {
+        doubleValue = 21.5d;
+        stringValue = "21.5";
+        integerValue = 21;
+        attribute = new Attribute<>("temperature", ValueType.NUMBER, 21.5d, System.currentTimeMillis())
+            .addMeta(
+                new MetaItem<>(STORE_DATA_POINTS, true),
+                new MetaItem<>(RULE_STATE, true),
+                new MetaItem<>(READ_ONLY, true)
+            );
+    }
+
+    @Benchmark
+    public Optional<Double> getValueCoercedSameType() {
+        return ValueUtil.getValueCoerced(doubleValue, Double.class);
+    }
+
+    @Benchmark
+    public Optional<Double> getValueCoercedFromString() {
+        return ValueUtil.getValueCoerced(stringValue, Double.class);
+    }
+
+    @Benchmark
+    public Optional<Double> getValueCoercedFromInteger() {
+        return ValueUtil.getValueCoerced(integerValue, Double.class);
+    }
+
+    @Benchmark
+    public Attribute<Double> cloneAttribute() {
+        return ValueUtil.clone(attribute);
+    }
+}
@@ -20,14 +20,17 @@
 package org.openremote.manager.agent;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.agent.protocol.AbstractProtocol;
 import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
 import org.openremote.model.asset.agent.Agent;
 import org.openremote.model.asset.agent.ConnectionStatus;
+import org.openremote.model.asset.agent.Protocol;
 import org.openremote.model.system.HealthStatusProvider;
 import org.openremote.model.util.ValueUtil;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AgentHealthStatusProvider implements HealthStatusProvider, ContainerService {
 
@@ -71,6 +74,7 @@ public class AgentHealthStatusProvider implements HealthStatusProvider, Containe
         AtomicInteger disabledCount = new AtomicInteger(0);
         AtomicInteger errorCount = new AtomicInteger(0);
         AtomicInteger otherCount = new AtomicInteger(0);
+        AtomicLong droppedWrites = new AtomicLong(0);
 
         ObjectNode objectValue = ValueUtil.JSON.createObjectNode();
         objectValue.put("agents", agentService.getAgents().size());
@@ -106,6 +110,12 @@ public class AgentHealthStatusProvider implements HealthStatusProvider, Containe
             agentValue.put("name", agent.getName());
             agentValue.put("status", status != null ? status.name() : "null");
             agentValue.put("type", agent.getType());
+            Protocol<?> protocol = agentService.getProtocolInstance(agent.getId());
+            if (protocol instanceof AbstractProtocol && ((AbstractProtocol<?, ?>) protocol).getActuatorInbox() != null) {
+                ObjectNode actuatorInboxStatus = ((AbstractProtocol<?, ?>) protocol).getActuatorInbox().getStatus();
+                droppedWrites.addAndGet(actuatorInboxStatus.path("droppedWrites").asLong());
+                agentValue.set("actuatorInbox", actuatorInboxStatus);
+            }
             objectValue.set(agent.getId(), agentValue);
         }
 
@@ -114,6 +124,8 @@ public class AgentHealthStatusProvider implements HealthStatusProvider, Containe
         objectValue.put("errorAgents", errorCount.get());
         objectValue.put("disabledAgents", disabledCount.get());
         objectValue.put("otherAgents", otherCount.get());
+        objectValue.put("droppedActuatorWrites", droppedWrites.get());
+        objectValue.set("startup", agentService.startupTimings.getStatus());
 
         return objectValue;
     }
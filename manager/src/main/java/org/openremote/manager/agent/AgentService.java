@@ -31,6 +31,7 @@ import org.openremote.manager.asset.AssetUpdateProcessor;
 import org.openremote.manager.event.ClientEventService;
 import org.openremote.manager.gateway.GatewayService;
 import org.openremote.manager.security.ManagerIdentityService;
+import org.openremote.manager.system.StartupTimings;
 import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
@@ -66,13 +67,13 @@ import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
+import static org.apache.camel.builder.PredicateBuilder.or;
 import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
 import static org.openremote.manager.asset.AssetProcessingService.ASSET_QUEUE;
 import static org.openremote.manager.gateway.GatewayService.isNotForGateway;
-import static org.openremote.model.asset.agent.Protocol.ACTUATOR_TOPIC;
 import static org.openremote.model.asset.agent.Protocol.SENSOR_QUEUE;
 import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttributes;
 import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
@@ -102,6 +103,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     protected final Map<String, List<Consumer<PersistenceEvent<Asset<?>>>>> childAssetSubscriptions = new HashMap<>();
     protected boolean initDone;
     protected Container container;
+    protected final StartupTimings startupTimings = new StartupTimings(AgentService.class.getSimpleName());
 
     @Override
     public int getPriority() {
@@ -142,10 +144,15 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
 
         // Load all enabled agents and instantiate a protocol instance for each
         LOG.fine("Loading agents...");
-        Collection<Agent<?, ?, ?>> agents = getAgents().values();
+        Collection<Agent<?, ?, ?>> agents = startupTimings.timeReturning("loadAgents", () -> getAgents().values());
         LOG.fine("Found agent count = " + agents.size());
 
-        agents.stream().forEach(this::doAgentInit);
+        // Load the linked attributes of all agents at once rather than querying per agent
+        Map<String, Map<String, List<Attribute<?>>>> agentLinkedAttributes = startupTimings.timeReturning("loadLinkedAttributes", this::findAgentLinkedAttributes);
+
+        startupTimings.time("startProtocols", () ->
+            agents.forEach(agent -> doAgentInit(agent, agentLinkedAttributes.getOrDefault(agent.getId(), Collections.emptyMap())))
+        );
     }
 
     @Override
@@ -177,7 +184,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         // A protocol wants to write a new sensor value
         from(SENSOR_QUEUE)
             .routeId("FromSensorUpdates")
-            .filter(body().isInstanceOf(AttributeEvent.class))
+            .filter(or(body().isInstanceOf(AttributeEvent.class), body().isInstanceOf(AttributeEvent[].class)))
             .setHeader(HEADER_SOURCE, () -> SENSOR)
             .to(ASSET_QUEUE);
     }
@@ -299,56 +306,59 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         LOG.finest("Processing asset persistence event: " + persistenceEvent.getCause());
         Asset<?> asset = persistenceEvent.getEntity();
 
-        switch (persistenceEvent.getCause()) {
-            case CREATE:
-
-                // Link any AGENT_LINK attributes to their referenced agent asset
-                getGroupedAgentLinkAttributes(
-                    asset.getAttributes().stream(),
-                    attribute -> true
-                ).forEach((agent, attributes) -> this.linkAttributes(agent, asset.getId(), attributes));
+        if (persistenceEvent.getCause() == PersistenceEvent.Cause.UPDATE
+            && Arrays.asList(persistenceEvent.getPropertyNames()).indexOf("attributes") < 0) {
+            return;
+        }
 
-                break;
-            case UPDATE:
-                int attributesIndex = Arrays.asList(persistenceEvent.getPropertyNames()).indexOf("attributes");
-                if (attributesIndex < 0) {
-                    return;
+        // Quiesce the processing lane of this asset whilst its' attributes are (un)linked
+        assetProcessingService.withAssetLanesLocked(getClass().getSimpleName() + "::processAssetChange", Collections.singletonList(asset.getId()), () -> {
+            switch (persistenceEvent.getCause()) {
+                case CREATE:
+
+                    // Link any AGENT_LINK attributes to their referenced agent asset
+                    getGroupedAgentLinkAttributes(
+                        asset.getAttributes().stream(),
+                        attribute -> true
+                    ).forEach((agent, attributes) -> this.linkAttributes(agent, asset.getId(), attributes));
+
+                    break;
+                case UPDATE:
+                    List<Attribute<?>> oldLinkedAttributes = ((AttributeMap)persistenceEvent.getPreviousState("attributes"))
+                        .stream()
+                        .filter(attr -> attr.hasMeta(AGENT_LINK))
+                        .collect(toList());
+
+                    List<Attribute<?>> newLinkedAttributes = ((AttributeMap) persistenceEvent.getCurrentState("attributes"))
+                        .stream()
+                        .filter(attr -> attr.hasMeta(AGENT_LINK))
+                        .collect(Collectors.toList());
+
+                    // Unlink obsolete or modified linked attributes
+                    List<Attribute<?>> obsoleteOrModified = getAddedOrModifiedAttributes(newLinkedAttributes, oldLinkedAttributes).collect(toList());
+
+                    getGroupedAgentLinkAttributes(
+                        obsoleteOrModified.stream(),
+                        attribute -> true
+                    ).forEach((agent, attributes) -> unlinkAttributes(agent.getId(), asset.getId(), attributes));
+
+                    // Link new or modified attributes
+                    getGroupedAgentLinkAttributes(
+                        newLinkedAttributes.stream().filter(attr ->
+                            !oldLinkedAttributes.contains(attr) || obsoleteOrModified.contains(attr)),
+                        attribute -> true)
+                        .forEach((agent, attributes) -> linkAttributes(agent, asset.getId(), attributes));
+
+                    break;
+                case DELETE: {
+
+                    // Unlink any AGENT_LINK attributes from the referenced protocol
+                    getGroupedAgentLinkAttributes(asset.getAttributes().stream(), attribute -> true)
+                        .forEach((agent, attributes) -> unlinkAttributes(agent.getId(), asset.getId(), attributes));
+                    break;
                 }
-
-                List<Attribute<?>> oldLinkedAttributes = ((AttributeMap)persistenceEvent.getPreviousState("attributes"))
-                    .stream()
-                    .filter(attr -> attr.hasMeta(AGENT_LINK))
-                    .collect(toList());
-
-                List<Attribute<?>> newLinkedAttributes = ((AttributeMap) persistenceEvent.getCurrentState("attributes"))
-                    .stream()
-                    .filter(attr -> attr.hasMeta(AGENT_LINK))
-                    .collect(Collectors.toList());
-
-                // Unlink obsolete or modified linked attributes
-                List<Attribute<?>> obsoleteOrModified = getAddedOrModifiedAttributes(newLinkedAttributes, oldLinkedAttributes).collect(toList());
-
-                getGroupedAgentLinkAttributes(
-                    obsoleteOrModified.stream(),
-                    attribute -> true
-                ).forEach((agent, attributes) -> unlinkAttributes(agent.getId(), asset.getId(), attributes));
-
-                // Link new or modified attributes
-                getGroupedAgentLinkAttributes(
-                    newLinkedAttributes.stream().filter(attr ->
-                        !oldLinkedAttributes.contains(attr) || obsoleteOrModified.contains(attr)),
-                    attribute -> true)
-                    .forEach((agent, attributes) -> linkAttributes(agent, asset.getId(), attributes));
-
-                break;
-            case DELETE: {
-
-                // Unlink any AGENT_LINK attributes from the referenced protocol
-                getGroupedAgentLinkAttributes(asset.getAttributes().stream(), attribute -> true)
-                    .forEach((agent, attributes) -> unlinkAttributes(agent.getId(), asset.getId(), attributes));
-                break;
             }
-        }
+        });
 
         notifyAgentAncestor(asset, persistenceEvent);
     }
@@ -383,16 +393,28 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void doAgentInit(Agent<?,?,?> agent) {
+        doAgentInit(agent, null);
+    }
+
+    /**
+     * @param linkedAttributes The attributes linked to the agent grouped by asset ID; if <code>null</code> then they are
+     *                         loaded when the agent is started.
+     */
+    protected void doAgentInit(Agent<?,?,?> agent, Map<String, List<Attribute<?>>> linkedAttributes) {
         boolean isDisabled = agent.isDisabled().orElse(false);
         if (isDisabled) {
             LOG.fine("Agent is disabled so not starting: " + agent);
             sendAttributeEvent(new AttributeEvent(agent.getId(), Agent.STATUS.getName(), ConnectionStatus.DISABLED));
         } else {
-            this.startAgent(agent);
+            this.startAgent(agent, linkedAttributes);
         }
     }
 
     protected void startAgent(Agent<?,?,?> agent) {
+        startAgent(agent, null);
+    }
+
+    protected void startAgent(Agent<?,?,?> agent, Map<String, List<Attribute<?>>> linkedAttributes) {
         withLock(getClass().getSimpleName() + "::startAgent", () -> {
             try {
                 Protocol<?> protocol = agent.getProtocolInstance();
@@ -404,6 +426,12 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
 
                 LOG.finer("Linking attributes to protocol instance: " + protocol);
 
+                if (linkedAttributes != null) {
+                    LOG.finer("Found '" + linkedAttributes.size() + "' asset(s) with attributes linked to this protocol instance: " + protocol);
+                    linkedAttributes.forEach((assetId, attributes) -> linkAttributes(agent, assetId, attributes));
+                    return;
+                }
+
                 // Get all assets that have attributes with agent link meta for this agent
                 List<Asset<?>> assets = assetStorageService.findAll(
                     new AssetQuery()
@@ -435,8 +463,41 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         });
     }
 
+    /**
+     * Loads all assets with agent linked attributes in a single query.
+     *
+     * @return The linked attributes of each agent grouped by agent ID then asset ID.
+     */
+    protected Map<String, Map<String, List<Attribute<?>>>> findAgentLinkedAttributes() {
+        List<Asset<?>> assets = assetStorageService.findAll(
+            new AssetQuery()
+                .attributes(
+                    new AttributePredicate().meta(
+                        new NameValuePredicate(AGENT_LINK, null)
+                    )
+                )
+        );
+
+        LOG.fine("Found '" + assets.size() + "' asset(s) with agent linked attributes");
+        Map<String, Map<String, List<Attribute<?>>>> agentLinkedAttributes = new HashMap<>();
+
+        assets.forEach(asset ->
+            getGroupedAgentLinkAttributes(asset.getAttributes().stream(), attribute -> true)
+                .forEach((agent, attributes) ->
+                    agentLinkedAttributes.computeIfAbsent(agent.getId(), id -> new LinkedHashMap<>()).put(asset.getId(), attributes))
+        );
+
+        return agentLinkedAttributes;
+    }
+
     protected void stopAgent(String agentId) {
-        withLock(getClass().getSimpleName() + "::stopAgent", () -> {
+        Protocol<?> linkedProtocol = getProtocolInstance(agentId);
+        Set<String> linkedAssetIds = linkedProtocol == null ? Collections.emptySet() : linkedProtocol.getLinkedAttributes().keySet().stream()
+            .map(AttributeRef::getId)
+            .collect(Collectors.toSet());
+
+        // Only quiesce the processing lanes of assets linked to this agent
+        assetProcessingService.withAssetLanesLocked(getClass().getSimpleName() + "::stopAgent", linkedAssetIds, () -> withLock(getClass().getSimpleName() + "::stopAgent", () -> {
             Protocol<?> protocol = protocolInstanceMap.get(agentId);
 
             if (protocol == null) {
@@ -459,7 +520,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             // Remove child asset subscriptions for this agent
             childAssetSubscriptions.remove(agentId);
             protocolInstanceMap.remove(agentId);
-        });
+        }));
     }
 
     protected void linkAttributes(Agent<?,?,?> agent, String assetId, Collection<Attribute<?>> attributes) {
@@ -558,12 +619,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
                 .map(agentLink -> {
                     LOG.finer("Attribute write for agent linked attribute: agent=" + agentLink.getId() + ", asset=" + asset.getId() + ", attribute=" + attribute.getName());
 
-                    messageBrokerService.getProducerTemplate().sendBodyAndHeader(
-                        ACTUATOR_TOPIC,
-                        attributeEvent,
-                        Protocol.ACTUATOR_TOPIC_TARGET_PROTOCOL,
-                        getProtocolInstance(agentLink.getId())
-                    );
+                    Protocol<?> protocol = getProtocolInstance(agentLink.getId());
+
+                    if (protocol == null) {
+                        LOG.fine("Agent protocol instance not found so dropping attribute write: agent=" + agentLink.getId() + ", asset=" + asset.getId() + ", attribute=" + attribute.getName());
+                    } else if (!protocol.dispatchLinkedAttributeWrite(attributeEvent)) {
+                        LOG.fine("Agent protocol rejected attribute write: agent=" + agentLink.getId() + ", asset=" + asset.getId() + ", attribute=" + attribute.getName());
+                    }
                     return true; // Processing complete, skip other processors
                 }).orElse(false) // This is a regular attribute so allow the processing to continue
         );
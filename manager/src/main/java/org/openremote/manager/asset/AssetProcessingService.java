@@ -22,6 +22,7 @@ package org.openremote.manager.asset;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
+import org.openremote.container.concurrent.GlobalLock;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.security.AuthContext;
@@ -42,19 +43,22 @@ import org.openremote.model.asset.agent.Protocol;
 import org.openremote.model.attribute.*;
 import org.openremote.model.attribute.AttributeEvent.Source;
 import org.openremote.model.security.ClientRole;
+import org.openremote.model.util.Pair;
+import org.openremote.model.util.TextUtil;
 import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.MetaItemType;
 import org.openremote.model.value.ValueType;
 
 import javax.persistence.EntityManager;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.apache.camel.builder.PredicateBuilder.or;
 import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.model.attribute.AttributeWriteFailure.*;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
@@ -70,7 +74,8 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
  * <dt>{@link Source#INTERNAL}</dt>
  * <dd><p>Events sent to {@link #ASSET_QUEUE} or through {@link #sendAttributeEvent} convenience method by processors.</dd>
  * <dt>{@link Source#SENSOR}</dt>
- * <dd><p>Protocol sensor updates sent to {@link Protocol#SENSOR_QUEUE}.</dd>
+ * <dd><p>Protocol sensor updates sent to {@link Protocol#SENSOR_QUEUE}; a batch of sensor updates sent as an
+ * <code>AttributeEvent[]</code> is processed in a single transaction.</dd>
  * </dl>
  * NOTE: An attribute value can be changed during Asset<?> CRUD but this does not come through
  * this route but is handled separately, see {@link AssetResource}. Any attribute values
@@ -93,7 +98,7 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
  * When the update messages' source is {@link Source#SENSOR}, the agent service ignores the message.
  * The message will also be ignored if the updated attribute is not linked to an agent.
  * <p>
- * If the updated attribute has a valid agent link, an {@link AttributeEvent} is sent on the {@link Protocol#ACTUATOR_TOPIC},
+ * If the updated attribute has a valid agent link, an {@link AttributeEvent} is dispatched to the agent's {@link Protocol}
  * for execution on an actual device or service 'things'. The update is then considered complete, and no further processing
  * is necessary. The update will not reach the rules engine or the database.
  * <p>
@@ -126,6 +131,14 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     // TODO: Some of these options should be configurable depending on expected load etc.
     // Message topic for communicating individual asset attribute changes
     public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
+    // Number of lanes that attribute events are partitioned into by asset ID, 1 processes every event under the global lock
+    public static final String ASSET_PROCESSING_LANES = "ASSET_PROCESSING_LANES";
+    public static final int ASSET_PROCESSING_LANES_DEFAULT = 1;
+    public static final String ASSET_PROCESSING_LANE_QUEUE_SIZE = "ASSET_PROCESSING_LANE_QUEUE_SIZE";
+    public static final int ASSET_PROCESSING_LANE_QUEUE_SIZE_DEFAULT = 5000;
+    public static final String HEADER_PROCESSING_LANE = AssetProcessingService.class.getSimpleName() + ".PROCESSING_LANE";
+    protected static final String ASSET_QUEUE_LANE_PREFIX = "seda://AssetQueueLane";
+    protected static final String ASSET_QUEUE_LANE_OPTIONS = "?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&blockWhenFull=true&size=";
     private static final Logger LOG = Logger.getLogger(AssetProcessingService.class.getName());
     final protected List<AssetUpdateProcessor> processors = new ArrayList<>();
     protected TimerService timerService;
@@ -139,12 +152,16 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     protected AttributeLinkingService assetAttributeLinkingService;
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
+    protected int processingLanes;
+    protected int processingLaneQueueSize;
+    protected ReentrantLock[] processingLaneLocks;
     // Used in testing to detect if initial/startup processing has completed
-    protected long lastProcessedEventTimestamp = System.currentTimeMillis();
+    protected volatile long lastProcessedEventTimestamp = System.currentTimeMillis();
 
     protected static Processor handleAssetProcessingException(Logger logger) {
         return exchange -> {
-            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+            Object body = exchange.getIn().getBody();
+            String event = body instanceof AttributeEvent[] ? Arrays.toString((AttributeEvent[]) body) : String.valueOf(body);
             Exception exception = (Exception) exchange.getProperty(Exchange.EXCEPTION_CAUGHT);
 
             StringBuilder error = new StringBuilder();
@@ -163,10 +180,10 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
             if (exception instanceof AssetProcessingException) {
                 AssetProcessingException processingException = (AssetProcessingException) exception;
                 error.append(" - ").append(processingException.getMessage());
-                error.append(": ").append(event.toString());
+                error.append(": ").append(event);
                 logger.warning(error.toString());
             } else {
-                error.append(": ").append(event.toString());
+                error.append(": ").append(event);
                 logger.log(Level.WARNING, error.toString(), exception);
             }
 
@@ -193,6 +210,17 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         assetAttributeLinkingService = container.getService(AttributeLinkingService.class);
         messageBrokerService = container.getService(MessageBrokerService.class);
         clientEventService = container.getService(ClientEventService.class);
+
+        processingLanes = Math.max(1, getInteger(container.getConfig(), ASSET_PROCESSING_LANES, ASSET_PROCESSING_LANES_DEFAULT));
+        processingLaneQueueSize = getInteger(container.getConfig(), ASSET_PROCESSING_LANE_QUEUE_SIZE, ASSET_PROCESSING_LANE_QUEUE_SIZE_DEFAULT);
+        processingLaneLocks = new ReentrantLock[processingLanes];
+        for (int i = 0; i < processingLanes; i++) {
+            processingLaneLocks[i] = new ReentrantLock(true);
+        }
+        if (processingLanes > 1) {
+            LOG.info("Attribute events will be processed in " + processingLanes + " lanes partitioned by asset ID");
+        }
+
         EventSubscriptionAuthorizer assetEventAuthorizer = AssetStorageService.assetInfoAuthorizer(identityService, assetStorageService);
 
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
@@ -247,131 +275,263 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
          - See pseudocode here: http://activemq.apache.org/should-i-use-xa.html
          - Do we want JMS/AMQP/WSS or SOME_API/MQTT/WSS? ActiveMQ or Moquette?
         */
-        from(ASSET_QUEUE)
-            .routeId("AssetQueueProcessor")
-            .filter(body().isInstanceOf(AttributeEvent.class))
-            .doTry()
-            // Lock the global context, we can only process attribute events when the
-            // context isn't locked. Agent- and RulesService lock the context while protocols
-            // or rulesets are modified.
-            .process(exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () -> {
-
-                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                LOG.finest("Processing: " + event);
-                if (event.getAssetId() == null || event.getAssetId().isEmpty())
-                    return;
-                if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
-                    return;
-                Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
-                if (source == null) {
-                    throw new AssetProcessingException(MISSING_SOURCE);
-                }
+        if (processingLanes > 1) {
+            // Partition events by asset ID across the processing lanes, each lane has a single consumer so events
+            // for the same asset are processed in order whilst events for unrelated assets proceed in parallel
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueProcessor")
+                .filter(or(body().isInstanceOf(AttributeEvent.class), body().isInstanceOf(AttributeEvent[].class)))
+                // Batches spanning several lanes are split into a batch per lane
+                .split(method(this, "splitByProcessingLane"))
+                .process(exchange -> {
+                    Object body = exchange.getIn().getBody();
+                    AttributeEvent event = body instanceof AttributeEvent[] ? ((AttributeEvent[]) body)[0] : (AttributeEvent) body;
+                    exchange.getIn().setHeader(HEADER_PROCESSING_LANE, getProcessingLane(event.getAssetId()));
+                })
+                .toD(ASSET_QUEUE_LANE_PREFIX + "${header." + HEADER_PROCESSING_LANE + "}" + ASSET_QUEUE_LANE_OPTIONS + processingLaneQueueSize);
+
+            for (int i = 0; i < processingLanes; i++) {
+                final int lane = i;
+                from(getProcessingLaneQueue(lane))
+                    .routeId("AssetQueueProcessorLane" + lane)
+                    .doTry()
+                    // Only the lane is locked, processors still lock the global context whilst accessing their
+                    // own shared state
+                    .process(exchange -> withProcessingLaneLock(lane, () -> processFromAssetQueue(exchange)))
+                    .endDoTry()
+                    .doCatch(AssetProcessingException.class)
+                    .process(handleAssetProcessingException(LOG));
+            }
+        } else {
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueProcessor")
+                .filter(or(body().isInstanceOf(AttributeEvent.class), body().isInstanceOf(AttributeEvent[].class)))
+                .doTry()
+                // Lock the global context, we can only process attribute events when the
+                // context isn't locked. Agent- and RulesService lock the context while protocols
+                // or rulesets are modified.
+                .process(exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () -> processFromAssetQueue(exchange)))
+                .endDoTry()
+                .doCatch(AssetProcessingException.class)
+                .process(handleAssetProcessingException(LOG));
+        }
+    }
 
-                // Process the asset update in a database transaction, this ensures that processors
-                // will see consistent database state and we only commit if no processor failed. This
-                // still won't make this procedure consistent with the message queue from which we consume!
-                persistenceService.doTransaction(em -> {
-                    Asset<?> asset = assetStorageService.find(em, event.getAssetId(), true);
+    protected void processFromAssetQueue(Exchange exchange) throws AssetProcessingException {
+        if (exchange.getIn().getBody() instanceof AttributeEvent[]) {
+            processBatchFromAssetQueue(exchange, exchange.getIn().getBody(AttributeEvent[].class));
+            return;
+        }
 
-                    if (asset == null) {
-                        if (source == SENSOR) {
-                            // Fail silently as a protocol may have queued updates before the asset was deleted
-                            return;
-                        }
+        AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+        LOG.finest("Processing: " + event);
+        if (event.getAssetId() == null || event.getAssetId().isEmpty())
+            return;
+        if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
+            return;
+        Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+        if (source == null) {
+            throw new AssetProcessingException(MISSING_SOURCE);
+        }
+
+        // Process the asset update in a database transaction, this ensures that processors
+        // will see consistent database state and we only commit if no processor failed. This
+        // still won't make this procedure consistent with the message queue from which we consume!
+        Attribute<?> storedAttribute = persistenceService.doReturningTransaction(em -> {
+            Asset<?> asset = assetStorageService.findForProcessing(em, event.getAssetId());
+            Attribute<?> updatedAttribute = prepareAttributeUpdate(exchange, source, asset, event);
+
+            if (updatedAttribute == null) {
+                return null;
+            }
+
+            // Push through all processors
+            boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+
+            // Publish a new event for clients if no processor consumed the update completely
+            if (!consumedCompletely) {
+                publishClientEvent(asset, updatedAttribute);
+                return updatedAttribute;
+            }
+            return null;
+        });
+
+        // Keep the cached asset in sync once the new value has been committed
+        if (storedAttribute != null) {
+            assetStorageService.queueAttributeValueWrite(event.getAssetId(), storedAttribute);
+            assetStorageService.updateCachedAttribute(event.getAssetId(), storedAttribute);
+        }
+    }
+
+    /**
+     * Processes a batch of attribute events (e.g. several sensor values read at the same time) in a single database
+     * transaction; the datapoints of the batch are written together and client events are published once the batch
+     * has been committed. An event that fails validation is logged and skipped without affecting the rest of the batch
+     * but if a processor fails then the whole batch is rolled back.
+     */
+    protected void processBatchFromAssetQueue(Exchange exchange, AttributeEvent[] events) throws AssetProcessingException {
+        LOG.finest("Processing batch of " + events.length + " attribute event(s)");
+        Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+        if (source == null) {
+            throw new AssetProcessingException(MISSING_SOURCE);
+        }
+
+        List<Pair<Asset<?>, Attribute<?>>> storedAttributes;
+        assetDatapointService.beginDatapointBatch();
+
+        try {
+            storedAttributes = persistenceService.doReturningTransaction(em -> {
+                Map<String, Asset<?>> assets = new HashMap<>();
+                List<Pair<Asset<?>, Attribute<?>>> stored = new ArrayList<>(events.length);
 
-                        throw new AssetProcessingException(ASSET_NOT_FOUND);
+                for (AttributeEvent event : events) {
+                    if (event == null || TextUtil.isNullOrEmpty(event.getAssetId()) || TextUtil.isNullOrEmpty(event.getAttributeName())) {
+                        continue;
                     }
 
-                    Attribute<?> oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
-                    if (oldAttribute == null) {
-                        if (source == SENSOR) {
-                            // Fail silently as a protocol may have queued updates before the attribute was modified/deleted
-                            return;
-                        }
+                    Asset<?> asset = assets.computeIfAbsent(event.getAssetId(), assetId -> assetStorageService.findForProcessing(em, assetId));
+                    Attribute<?> updatedAttribute;
+
+                    try {
+                        updatedAttribute = prepareAttributeUpdate(exchange, source, asset, event);
+                    } catch (AssetProcessingException e) {
+                        LOG.warning("Error processing from " + source + " - " + e.getMessage() + ": " + event);
+                        continue;
+                    }
+
+                    if (updatedAttribute != null && !processAssetUpdate(em, asset, updatedAttribute, source)) {
+                        stored.add(new Pair<>(asset, updatedAttribute));
+                    }
+                }
+
+                try {
+                    // Written in the batch transaction so the datapoints are only committed with the attributes
+                    assetDatapointService.upsertValues(em, assetDatapointService.endDatapointBatch());
+                } catch (Exception e) {
+                    throw new AssetProcessingException(STATE_STORAGE_FAILED, "failed to store batched data points", e);
+                }
+
+                return stored;
+            });
+        } finally {
+            assetDatapointService.endDatapointBatch();
+        }
+
+        storedAttributes.forEach(assetAndAttribute -> {
+            Asset<?> asset = assetAndAttribute.key;
+            Attribute<?> attribute = assetAndAttribute.value;
+            publishClientEvent(asset, attribute);
+            assetStorageService.queueAttributeValueWrite(asset.getId(), attribute);
+            assetStorageService.updateCachedAttribute(asset.getId(), attribute);
+        });
+    }
+
+    /**
+     * Validates the event depending on its' source and returns a copy of the current attribute with the new value and
+     * timestamp applied.
+     *
+     * @return <code>null</code> if the event should be silently ignored.
+     */
+    protected Attribute<?> prepareAttributeUpdate(Exchange exchange, Source source, Asset<?> asset, AttributeEvent event) throws AssetProcessingException {
+        if (asset == null) {
+            if (source == SENSOR) {
+                // Fail silently as a protocol may have queued updates before the asset was deleted
+                return null;
+            }
+
+            throw new AssetProcessingException(ASSET_NOT_FOUND);
+        }
+
+        Attribute<?> oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
+        if (oldAttribute == null) {
+            if (source == SENSOR) {
+                // Fail silently as a protocol may have queued updates before the attribute was modified/deleted
+                return null;
+            }
 
-                        throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+            throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+        }
+
+        switch (source) {
+            case CLIENT:
+
+                AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
+                if (authContext == null) {
+                    // Check attribute has public write flag
+                    if (!oldAttribute.hasMeta(MetaItemType.ACCESS_PUBLIC_WRITE)) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                    }
+                    // Check read-only
+                    if (oldAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false)) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                    }
+                } else {
+                    // Check realm, must be accessible
+                    if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
+                        asset.getRealm())) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                     }
 
-                    switch (source) {
-                        case CLIENT:
-
-                            AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
-                            if (authContext == null) {
-                                // Check attribute has public write flag
-                                if (!oldAttribute.hasMeta(MetaItemType.ACCESS_PUBLIC_WRITE)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-                                // Check read-only
-                                if (oldAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-                            } else {
-                                // Check realm, must be accessible
-                                if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
-                                    asset.getRealm())) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check read-only
-                                if (oldAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false) && !authContext.isSuperUser()) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Regular user must have write attributes role
-                                if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
-                                    authContext.getClientId())) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check restricted user
-                                if (identityService.getIdentityProvider().isRestrictedUser(authContext)) {
-                                    // Must be asset linked to user
-                                    if (!assetStorageService.isUserAsset(authContext.getUserId(),
-                                        event.getAssetId())) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                    // Must be writable by restricted client
-                                    if (!oldAttribute.getMetaValue(MetaItemType.ACCESS_RESTRICTED_WRITE).orElse(false)) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                }
-                            }
-                            break;
-
-                        case SENSOR:
-                            Optional<Protocol<?>> protocol = oldAttribute.getMetaValue(AGENT_LINK)
-                                .map(agentLink -> agentService.getProtocolInstance(agentLink.getId()));
-
-                            // Sensor event must be for an attribute linked to an agent
-                            if (!protocol.isPresent()) {
-                                throw new AssetProcessingException(INVALID_AGENT_LINK);
-                            }
-                            break;
+                    // Check read-only
+                    if (oldAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false) && !authContext.isSuperUser()) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                     }
 
-                    // For executable attributes, non-sensor sources can set a writable attribute execute status
-                    if (oldAttribute.getType() == ValueType.EXECUTION_STATUS && source != SENSOR) {
-                        Optional<AttributeExecuteStatus> status = event.getValue()
-                            .flatMap(ValueUtil::getString)
-                            .flatMap(AttributeExecuteStatus::fromString);
+                    // Regular user must have write attributes role
+                    if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
+                        authContext.getClientId())) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                    }
 
-                        if (status.isPresent() && !status.get().isWrite()) {
-                            throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+                    // Check restricted user
+                    if (identityService.getIdentityProvider().isRestrictedUser(authContext)) {
+                        // Must be asset linked to user
+                        if (!assetStorageService.isUserAsset(authContext.getUserId(),
+                            event.getAssetId())) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
+                        // Must be writable by restricted client
+                        if (!oldAttribute.getMetaValue(MetaItemType.ACCESS_RESTRICTED_WRITE).orElse(false)) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                         }
                     }
+                }
+                break;
+
+            case SENSOR:
+                Optional<Protocol<?>> protocol = oldAttribute.getMetaValue(AGENT_LINK)
+                    .map(agentLink -> agentService.getProtocolInstance(agentLink.getId()));
+
+                // Sensor event must be for an attribute linked to an agent
+                if (!protocol.isPresent()) {
+                    throw new AssetProcessingException(INVALID_AGENT_LINK);
+                }
+                break;
+        }
 
-                    // Type coercion
-                    Object value = event.getValue().map(eventValue -> {
-                        Class<?> attributeValueType = oldAttribute.getType().getType();
-                        return ValueUtil.getValueCoerced(eventValue, attributeValueType).orElseThrow(() -> {
-                            LOG.info("Failed to coerce attribute event value into the correct value type: event value type=" + eventValue.getClass() + ", attribute value type=" + attributeValueType);
-                            return new AssetProcessingException(INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE);
-                        });
+        // For executable attributes, non-sensor sources can set a writable attribute execute status
+        if (oldAttribute.getType() == ValueType.EXECUTION_STATUS && source != SENSOR) {
+            Optional<AttributeExecuteStatus> status = event.getValue()
+                .flatMap(ValueUtil::getString)
+                .flatMap(AttributeExecuteStatus::fromString);
 
-                    }).orElse(null);
+            if (status.isPresent() && !status.get().isWrite()) {
+                throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+            }
+        }
+
+        // Type coercion
+        Object value = event.getValue().map(eventValue -> {
+            Class<?> attributeValueType = oldAttribute.getType().getType();
+            return ValueUtil.getValueCoerced(eventValue, attributeValueType).orElseThrow(() -> {
+                LOG.info("Failed to coerce attribute event value into the correct value type: event value type=" + eventValue.getClass() + ", attribute value type=" + attributeValueType);
+                return new AssetProcessingException(INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE);
+            });
+
+        }).orElse(null);
 
-                    // TODO: Use schema validation
-                    // Check if attribute is well known and the value is valid
+        // TODO: Use schema validation
+        // Check if attribute is well known and the value is valid
 //                    AssetModelUtil.getAssetDescriptor(asset.getType()).map(assetDescriptor -> assetDescriptor.get)
 //                    AssetModelUtil.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
 //                        // Check if the value is valid
@@ -384,50 +544,132 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 //                            });
 //                    });
 
-                    // Either use the timestamp of the event or set event time to processing time
-                    long processingTime = timerService.getCurrentTimeMillis();
-                    long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
-
-                    // Ensure timestamp of event is not in the future as that would essentially block access to
-                    // the attribute until after that time (maybe that is desirable behaviour)
-                    if (eventTime - processingTime > 0) {
-                        // TODO: Decide how to handle update events in the future - ignore or change timestamp
-                        throw new AssetProcessingException(
-                            EVENT_IN_FUTURE,
-                            "current time: " + new Date(processingTime) + "/" + processingTime
-                                + ", event time: " + new Date(eventTime) + "/" + eventTime
-                        );
-                    }
+        // Either use the timestamp of the event or set event time to processing time
+        long processingTime = timerService.getCurrentTimeMillis();
+        long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
 
-                    // Check the last update timestamp of the attribute, ignoring any event that is older than last update
-                    // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
-                    // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
-                    oldAttribute.getTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
-                        lastStateTime -> {
-                            throw new AssetProcessingException(
-                                EVENT_OUTDATED,
-                                "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
-                                    + ", event time: " + new Date(eventTime) + "/" + eventTime);
-                        }
-                    );
+        // Ensure timestamp of event is not in the future as that would essentially block access to
+        // the attribute until after that time (maybe that is desirable behaviour)
+        if (eventTime - processingTime > 0) {
+            // TODO: Decide how to handle update events in the future - ignore or change timestamp
+            throw new AssetProcessingException(
+                EVENT_IN_FUTURE,
+                "current time: " + new Date(processingTime) + "/" + processingTime
+                    + ", event time: " + new Date(eventTime) + "/" + eventTime
+            );
+        }
+
+        // Check the last update timestamp of the attribute, ignoring any event that is older than last update
+        // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
+        // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
+        oldAttribute.getTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
+            lastStateTime -> {
+                throw new AssetProcessingException(
+                    EVENT_OUTDATED,
+                    "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
+                        + ", event time: " + new Date(eventTime) + "/" + eventTime);
+            }
+        );
 
-                    // Create a copy of the attribute and set the new value and timestamp
-                    @SuppressWarnings("rawtypes")
-                    Attribute updatedAttribute = ValueUtil.clone(oldAttribute);
-                    updatedAttribute.setValue(value, eventTime);
+        // Create a copy of the attribute and set the new value and timestamp
+        @SuppressWarnings("rawtypes")
+        Attribute updatedAttribute = ValueUtil.clone(oldAttribute);
+        updatedAttribute.setValue(value, eventTime);
+        return updatedAttribute;
+    }
 
-                    // Push through all processors
-                    boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+    /**
+     * Splits a batch of attribute events into a batch per processing lane, a single event is passed through as is.
+     */
+    public List<Object> splitByProcessingLane(Object body) {
+        if (!(body instanceof AttributeEvent[])) {
+            return Collections.singletonList(body);
+        }
 
-                    // Publish a new event for clients if no processor consumed the update completely
-                    if (!consumedCompletely) {
-                        publishClientEvent(asset, updatedAttribute);
-                    }
-                });
-            }))
-            .endDoTry()
-            .doCatch(AssetProcessingException.class)
-            .process(handleAssetProcessingException(LOG));
+        Map<Integer, List<AttributeEvent>> laneEvents = new TreeMap<>();
+        for (AttributeEvent event : (AttributeEvent[]) body) {
+            if (event != null) {
+                laneEvents.computeIfAbsent(getProcessingLane(event.getAssetId()), lane -> new ArrayList<>()).add(event);
+            }
+        }
+
+        List<Object> batches = new ArrayList<>(laneEvents.size());
+        laneEvents.values().forEach(events -> batches.add(events.toArray(new AttributeEvent[0])));
+        return batches;
+    }
+
+    public int getProcessingLanes() {
+        return processingLanes;
+    }
+
+    /**
+     * @return The lane that events for the specified asset are processed in; always <code>0</code> when lanes are
+     * disabled.
+     */
+    public int getProcessingLane(String assetId) {
+        if (processingLanes <= 1 || assetId == null) {
+            return 0;
+        }
+        return Math.floorMod(assetId.hashCode(), processingLanes);
+    }
+
+    protected String getProcessingLaneQueue(int lane) {
+        return ASSET_QUEUE_LANE_PREFIX + lane + ASSET_QUEUE_LANE_OPTIONS + processingLaneQueueSize;
+    }
+
+    protected void withProcessingLaneLock(int lane, Runnable runnable) {
+        ReentrantLock laneLock = processingLaneLocks[lane];
+        laneLock.lock();
+        try {
+            runnable.run();
+        } finally {
+            laneLock.unlock();
+        }
+    }
+
+    /**
+     * Quiesce only the processing lanes that hold events for the specified assets whilst the runnable executes, events
+     * for other assets continue to be processed. When lanes are disabled the global lock already serialises processing
+     * so the runnable is simply executed.
+     * <p>
+     * Lanes must be locked before the global lock, so if the calling thread already holds the global lock or a lane lock
+     * (i.e. this is called from within attribute event processing) then the lanes are not locked as this could deadlock.
+     */
+    public void withAssetLanesLocked(String info, Collection<String> assetIds, Runnable runnable) {
+        if (processingLanes <= 1 || assetIds == null || assetIds.isEmpty()) {
+            runnable.run();
+            return;
+        }
+
+        if (GlobalLock.isHeldByCurrentThread() || Arrays.stream(processingLaneLocks).anyMatch(ReentrantLock::isHeldByCurrentThread)) {
+            LOG.finest("Lock already held by current thread so not quiescing processing lanes: " + info);
+            runnable.run();
+            return;
+        }
+
+        // Always lock in ascending lane order to avoid deadlocks between concurrent callers
+        int[] lanes = assetIds.stream().mapToInt(this::getProcessingLane).distinct().sorted().toArray();
+        List<ReentrantLock> acquired = new ArrayList<>(lanes.length);
+
+        try {
+            for (int lane : lanes) {
+                ReentrantLock laneLock = processingLaneLocks[lane];
+                if (!laneLock.tryLock(GlobalLock.getLockTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException(
+                        "Could not acquire processing lane " + lane + " lock after waiting " + GlobalLock.getLockTimeoutMillis() + "ms: " + Thread.currentThread().getName() + " executing " + info
+                    );
+                }
+                acquired.add(laneLock);
+            }
+            LOG.finest("Quiesced processing lanes " + Arrays.toString(lanes) + ": " + info);
+            runnable.run();
+        } catch (InterruptedException ex) {
+            // Don't silently skip the work, the caller must know it wasn't executed
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for processing lanes: " + Thread.currentThread().getName() + " executing " + info, ex);
+        } finally {
+            acquired.forEach(ReentrantLock::unlock);
+        }
     }
 
     /**
@@ -497,6 +739,11 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
     protected void storeAttributeValue(EntityManager em, Asset<?> asset, Attribute<?> attribute) throws AssetProcessingException {
 
+        if (assetStorageService.isAttributeWriteCoalescing()) {
+            // The value is queued for a coalesced write once the transaction has committed
+            return;
+        }
+
         if (!assetStorageService.updateAttributeValue(em, asset, attribute)) {
             throw new AssetProcessingException(
                 STATE_STORAGE_FAILED, "database update failed, no rows updated"
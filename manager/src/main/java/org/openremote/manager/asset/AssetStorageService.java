@@ -19,8 +19,17 @@
  */
 package org.openremote.manager.asset;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.vladmihalcea.hibernate.type.array.StringArrayType;
 import org.apache.camel.builder.RouteBuilder;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.jdbc.AbstractReturningWork;
 import org.openremote.container.message.MessageBrokerService;
@@ -32,6 +41,7 @@ import org.openremote.manager.asset.console.ConsoleResourceImpl;
 import org.openremote.manager.event.ClientEventService;
 import org.openremote.manager.event.EventSubscriptionAuthorizer;
 import org.openremote.manager.gateway.GatewayService;
+import org.openremote.manager.security.AuthorizationCache;
 import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Constants;
@@ -67,20 +77,23 @@ import javax.validation.ConstraintViolationException;
 import java.lang.reflect.Field;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.groupingBy;
 import static org.apache.camel.builder.PredicateBuilder.or;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttributes;
@@ -94,6 +107,11 @@ import static org.openremote.model.value.MetaItemType.ACCESS_RESTRICTED_READ;
 
 public class AssetStorageService extends RouteBuilder implements ContainerService {
 
+    /**
+     * The SQL and parameter binders of an {@link AssetQuery}; the SQL only depends on the shape of the query (see
+     * {@link #buildQueryShape}) and the binders read the parameter values from the query being executed, so it can be
+     * reused for any query with the same shape.
+     */
     protected static class PreparedAssetQuery {
 
         final protected String querySql;
@@ -104,29 +122,44 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             this.binders = binders;
         }
 
-        protected void apply(EntityManager em, org.hibernate.query.Query<Object[]> query) {
+        protected void apply(EntityManager em, org.hibernate.query.Query<Object[]> st, AssetQuery query, Supplier<Long> timeProvider) {
             for (ParameterBinder binder : binders) {
-                binder.accept(em, query);
+                binder.accept(em, st, query, timeProvider);
             }
         }
     }
 
-    public interface ParameterBinder extends BiConsumer<EntityManager, org.hibernate.query.Query<Object[]>> {
+    public interface ParameterBinder {
 
-        @Override
-        default void accept(EntityManager em, org.hibernate.query.Query<Object[]> st) {
+        default void accept(EntityManager em, org.hibernate.query.Query<Object[]> st, AssetQuery query, Supplier<Long> timeProvider) {
             try {
-                acceptStatement(em, st);
+                acceptStatement(em, st, query, timeProvider);
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
         }
 
-        void acceptStatement(EntityManager em, org.hibernate.query.Query<Object[]> st) throws SQLException;
+        void acceptStatement(EntityManager em, org.hibernate.query.Query<Object[]> st, AssetQuery query, Supplier<Long> timeProvider) throws SQLException;
     }
 
     private static final Logger LOG = Logger.getLogger(AssetStorageService.class.getName());
+    protected static final String UPDATE_ASSET_PATH_SQL = "update ASSET D set PATH = " +
+        "case when D.ID = ? then '{}'::text[] else D.PATH[1:array_position(D.PATH, ?::text) - 1] end " +
+        "|| array[?::text] || coalesce((select P.PATH from ASSET P where P.ID = ?), '{}'::text[]) " +
+        "where D.ID = ? or D.PATH @> array[?::text]";
     public static final int PRIORITY = MED_PRIORITY;
+    // Max number of assets held in the attribute processing cache, 0 disables the cache
+    public static final String ASSET_CACHE_SIZE = "ASSET_CACHE_SIZE";
+    public static final int ASSET_CACHE_SIZE_DEFAULT = 0;
+    public static final String ASSET_CACHE_EXPIRE_MINUTES = "ASSET_CACHE_EXPIRE_MINUTES";
+    public static final int ASSET_CACHE_EXPIRE_MINUTES_DEFAULT = 60;
+    // Window in which attribute value writes of the same asset are coalesced into one update, 0 writes each value
+    // in the attribute event processing transaction; asset queries can return values that are up to this window old
+    public static final String ASSET_ATTRIBUTE_WRITE_FLUSH_MILLIS = "ASSET_ATTRIBUTE_WRITE_FLUSH_MILLIS";
+    public static final int ASSET_ATTRIBUTE_WRITE_FLUSH_MILLIS_DEFAULT = 0;
+    // Max number of prepared asset query SQL statements cached by query shape, 0 builds the SQL for every query
+    public static final String ASSET_QUERY_CACHE_SIZE = "ASSET_QUERY_CACHE_SIZE";
+    public static final int ASSET_QUERY_CACHE_SIZE_DEFAULT = 0;
     protected static final Field assetParentNameField;
     protected static final Field assetParentTypeField;
 
@@ -216,6 +249,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected ManagerIdentityService identityService;
     protected ClientEventService clientEventService;
     protected GatewayService gatewayService;
+    protected Cache<String, Asset<?>> assetCache;
+    protected final AtomicLong assetCacheGeneration = new AtomicLong();
+    protected Cache<String, Pair<PreparedAssetQuery, Boolean>> queryCache;
+    protected AttributeWriteCoalescer attributeWriteCoalescer;
 
     /**
      * Will evaluate each {@link CalendarEventPredicate} and apply it depending on the {@link LogicGroup} type
@@ -301,6 +338,29 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         identityService = container.getService(ManagerIdentityService.class);
         clientEventService = container.getService(ClientEventService.class);
         gatewayService = container.getService(GatewayService.class);
+
+        int assetCacheSize = getInteger(container.getConfig(), ASSET_CACHE_SIZE, ASSET_CACHE_SIZE_DEFAULT);
+        if (assetCacheSize > 0) {
+            assetCache = CacheBuilder.newBuilder()
+                .maximumSize(assetCacheSize)
+                .expireAfterAccess(getInteger(container.getConfig(), ASSET_CACHE_EXPIRE_MINUTES, ASSET_CACHE_EXPIRE_MINUTES_DEFAULT), TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        }
+
+        int queryCacheSize = getInteger(container.getConfig(), ASSET_QUERY_CACHE_SIZE, ASSET_QUERY_CACHE_SIZE_DEFAULT);
+        if (queryCacheSize > 0) {
+            queryCache = CacheBuilder.newBuilder()
+                .maximumSize(queryCacheSize)
+                .recordStats()
+                .build();
+        }
+
+        int attributeWriteFlushMillis = getInteger(container.getConfig(), ASSET_ATTRIBUTE_WRITE_FLUSH_MILLIS, ASSET_ATTRIBUTE_WRITE_FLUSH_MILLIS_DEFAULT);
+        if (attributeWriteFlushMillis > 0) {
+            attributeWriteCoalescer = new AttributeWriteCoalescer(persistenceService, container.getExecutorService(), attributeWriteFlushMillis);
+        }
+
         EventSubscriptionAuthorizer assetEventAuthorizer = AssetStorageService.assetInfoAuthorizer(identityService, this);
 
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
@@ -332,12 +392,16 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     @Override
     public void start(Container container) throws Exception {
-
+        if (attributeWriteCoalescer != null) {
+            attributeWriteCoalescer.start();
+        }
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        if (attributeWriteCoalescer != null) {
+            attributeWriteCoalescer.stop();
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -498,6 +562,114 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return find(em, assetId, loadComplete, PRIVATE);
     }
 
+    /**
+     * Get the complete asset for attribute event processing; when the asset cache is enabled the asset is served from
+     * the cache if present. The returned instance may be shared so it must not be modified, use
+     * {@link #updateCachedAttribute} once an attribute value has been successfully stored.
+     */
+    public Asset<?> findForProcessing(EntityManager em, String assetId) {
+        if (assetCache == null) {
+            return loadForProcessing(em, assetId);
+        }
+
+        Asset<?> asset = assetCache.getIfPresent(assetId);
+
+        if (asset == null) {
+            // An invalidation that happens whilst the asset is loaded must win, otherwise the previous state of the
+            // asset could be cached until it expires
+            long generation = assetCacheGeneration.get();
+            asset = loadForProcessing(em, assetId);
+            if (asset != null) {
+                assetCache.asMap().putIfAbsent(assetId, asset);
+                if (assetCacheGeneration.get() != generation) {
+                    assetCache.invalidate(assetId);
+                }
+            }
+        }
+
+        return asset;
+    }
+
+    /**
+     * Load the asset from the database; when attribute writes are coalesced the values that haven't been written yet
+     * are applied (to a detached instance) so processing never validates against outdated values and timestamps.
+     */
+    protected Asset<?> loadForProcessing(EntityManager em, String assetId) {
+        if (attributeWriteCoalescer == null) {
+            return find(em, assetId, true);
+        }
+        return attributeWriteCoalescer.load(() -> {
+            Asset<?> asset = find(em, assetId, true);
+            if (asset != null) {
+                em.detach(asset);
+            }
+            return asset;
+        });
+    }
+
+    /**
+     * Update the attribute of the cached asset (if present) after its' value has been stored; the cached instance is
+     * replaced with an updated shallow copy as it may be in use by other threads.
+     */
+    public void updateCachedAttribute(String assetId, Attribute<?> attribute) {
+        if (assetCache == null) {
+            return;
+        }
+
+        Asset<?> asset = assetCache.getIfPresent(assetId);
+        if (asset != null) {
+            Asset<?> updatedAsset = asset.shallowCopy();
+            updatedAsset.getAttributes().addOrReplace(attribute);
+            // Only replace the instance that was copied so a concurrent invalidation isn't overwritten
+            if (!assetCache.asMap().replace(assetId, asset, updatedAsset)) {
+                assetCache.invalidate(assetId);
+            }
+        }
+    }
+
+    public void invalidateCachedAssets(Collection<String> assetIds) {
+        if (assetCache != null) {
+            assetCacheGeneration.incrementAndGet();
+            assetCache.invalidateAll(assetIds);
+        }
+    }
+
+    public void invalidateCachedAssets() {
+        if (assetCache != null) {
+            assetCacheGeneration.incrementAndGet();
+            assetCache.invalidateAll();
+        }
+    }
+
+    public Cache<String, Asset<?>> getAssetCache() {
+        return assetCache;
+    }
+
+    public Cache<String, Pair<PreparedAssetQuery, Boolean>> getQueryCache() {
+        return queryCache;
+    }
+
+    public AttributeWriteCoalescer getAttributeWriteCoalescer() {
+        return attributeWriteCoalescer;
+    }
+
+    /**
+     * @return <code>true</code> if attribute values are written by the {@link AttributeWriteCoalescer} after the
+     * attribute event processing transaction has committed.
+     */
+    public boolean isAttributeWriteCoalescing() {
+        return attributeWriteCoalescer != null;
+    }
+
+    /**
+     * Queue a committed attribute value for a coalesced write.
+     */
+    public void queueAttributeValueWrite(String assetId, Attribute<?> attribute) {
+        if (attributeWriteCoalescer != null) {
+            attributeWriteCoalescer.add(assetId, attribute);
+        }
+    }
+
     /**
      * @param loadComplete If the whole asset data (including path and attributes) should be loaded.
      * @param access       The required access permissions of the asset data.
@@ -531,6 +703,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return persistenceService.doReturningTransaction(em -> findAll(em, query));
     }
 
+    /**
+     * Streaming variant of {@link #findAll(AssetQuery)} for large results; the assets are read from a server side
+     * cursor in batches of the specified fetch size and passed to the consumer one at a time so the whole result is
+     * never held in memory. The consumer is called within the read transaction so should not block.
+     */
+    public void findAll(AssetQuery query, int fetchSize, Consumer<Asset<?>> consumer) {
+        persistenceService.doTransaction(em -> findAll(em, query, Math.max(1, fetchSize), consumer));
+    }
+
     public List<String> findNames(String... ids) {
         if (ids == null || ids.length == 0)
             return new ArrayList<>();
@@ -594,7 +775,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
      */
     @SuppressWarnings("unchecked")
     public <T extends Asset<?>> T merge(T asset, boolean overrideVersion, boolean skipGatewayCheck, String userName) throws IllegalStateException, ConstraintViolationException {
-        return persistenceService.doReturningTransaction(em -> {
+        UserAssetLink[] createdUserAssetLink = new UserAssetLink[1];
+        T mergedAsset = persistenceService.doReturningTransaction(em -> {
 
             T existingAsset = TextUtil.isNullOrEmpty(asset.getId()) ? null : (T)em.find(Asset.class, asset.getId());
 
@@ -758,7 +940,12 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 LOG.fine("Sending asset merge request to gateway: Gateway ID=" + gatewayId);
                 updatedAsset = gatewayService.mergeGatewayAsset(gatewayId, asset);
             } else {
+                // The existing asset is the managed instance so capture the parent before it is overwritten by the merge
+                boolean pathChanged = existingAsset == null || !Objects.equals(existingAsset.getParentId(), asset.getParentId());
                 updatedAsset = em.merge(asset);
+                if (pathChanged) {
+                    updateAssetPath(em, updatedAsset);
+                }
                 if (existingAsset == null) {
                     if (LOG.isLoggable(Level.FINER)) {
                         LOG.finer("Asset created: " + updatedAsset.toStringAll());
@@ -776,10 +963,43 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             if (user != null) {
                 storeUserAssetLinks(em, Collections.singletonList(new UserAssetLink(user.getRealm(), user.getId(), updatedAsset.getId())));
+                createdUserAssetLink[0] = new UserAssetLink(user.getRealm(), user.getId(), updatedAsset.getId());
             }
 
             return updatedAsset;
         });
+
+        if (createdUserAssetLink[0] != null) {
+            publishUserAssetLinkEvents(PersistenceEvent.Cause.CREATE, Collections.singletonList(createdUserAssetLink[0]));
+        }
+
+        // Invalidate straight away rather than waiting for the persistence event so attribute processing never
+        // validates against the previous structure
+        if (mergedAsset != null) {
+            invalidateCachedAssets(Collections.singletonList(mergedAsset.getId()));
+        }
+        return mergedAsset;
+    }
+
+    /**
+     * Updates the materialised path of the asset and of all its descendants (the parent's path can't change as it can't
+     * be a descendant of the asset); deleted assets never have descendants so deletion needs no path maintenance.
+     */
+    protected void updateAssetPath(EntityManager em, Asset<?> asset) {
+        em.flush();
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement st = connection.prepareStatement(UPDATE_ASSET_PATH_SQL)) {
+                st.setString(1, asset.getId());
+                st.setString(2, asset.getId());
+                st.setString(3, asset.getId());
+                st.setString(4, asset.getParentId());
+                st.setString(5, asset.getId());
+                st.setString(6, asset.getId());
+                int updated = st.executeUpdate();
+                LOG.finest("Updated path of asset and " + (updated - 1) + " descendant(s): " + asset.getId());
+            }
+        });
+        em.refresh(asset);
     }
 
     /**
@@ -882,6 +1102,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             return false;
         }
 
+        invalidateCachedAssets(ids);
+
         return true;
     }
 
@@ -893,6 +1115,13 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (TextUtil.isNullOrEmpty(userId) || TextUtil.isNullOrEmpty(assetId)) {
             return false;
         }
+        AuthorizationCache authorizationCache = identityService.getAuthorizationCache();
+        return authorizationCache != null
+            ? authorizationCache.isUserAsset(userId, assetId, this::isUserAssetFromDb)
+            : isUserAssetFromDb(userId, assetId);
+    }
+
+    protected boolean isUserAssetFromDb(String userId, String assetId) {
         return persistenceService.doReturningTransaction(entityManager -> {
             try {
                 String queryStr = TextUtil.isNullOrEmpty(userId) ?
@@ -986,7 +1215,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return persistenceService.doReturningTransaction(entityManager -> entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<Boolean>() {
             @Override
             public Boolean execute(Connection connection) throws SQLException {
-                try (PreparedStatement st = connection.prepareStatement("select count(*) from Asset a where ? = ANY(get_asset_tree_path(a.ID)) AND a.id = ANY(?)")) {
+                try (PreparedStatement st = connection.prepareStatement("select count(*) from Asset a where a.PATH @> array[?::text] AND a.id = ANY(?)")) {
                     st.setString(1, parentAssetId);
                     st.setArray(2, st.getConnection().createArrayOf("text", assetIds.toArray()));
                     ResultSet rs = st.executeQuery();
@@ -1059,6 +1288,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 throw new IllegalArgumentException("Cannot delete one or more requested user asset link as they don't exist");
             }
         });
+        publishUserAssetLinkEvents(PersistenceEvent.Cause.DELETE, userAssetLinks);
     }
 
     /**
@@ -1071,6 +1301,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             int deleteCount = query.executeUpdate();
             LOG.fine("Deleted all user asset links for realm: realm=" + realm + ", count=" + deleteCount);
         });
+        publishUserAssetLinkEvents(PersistenceEvent.Cause.DELETE, Collections.singletonList(new UserAssetLink(realm, null, null)));
     }
 
     /**
@@ -1083,6 +1314,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             int deleteCount = query.executeUpdate();
             LOG.fine("Deleted all user asset links for user: user ID=" + userId + ", count=" + deleteCount);
         });
+        publishUserAssetLinkEvents(PersistenceEvent.Cause.DELETE, Collections.singletonList(new UserAssetLink(null, userId, null)));
     }
 
     /**
@@ -1095,6 +1327,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             int deleteCount = query.executeUpdate();
             LOG.fine("Deleted all user asset links for asset: asset ID=" + assetId + ", count=" + deleteCount);
         });
+        publishUserAssetLinkEvents(PersistenceEvent.Cause.DELETE, Collections.singletonList(new UserAssetLink(null, null, assetId)));
     }
 
     /**
@@ -1107,6 +1340,22 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         }
 
         persistenceService.doTransaction(em -> storeUserAssetLinks(em, userAssetLinks));
+        publishUserAssetLinkEvents(PersistenceEvent.Cause.CREATE, userAssetLinks);
+    }
+
+    /**
+     * User asset links are written with SQL so persistence events must be published manually once committed; a link
+     * with a null user and/or asset ID represents all links of the asset/user/realm. Cached authorization data of the
+     * links is invalidated first, so the change applies to the next authorization decision.
+     */
+    protected void publishUserAssetLinkEvents(PersistenceEvent.Cause cause, List<UserAssetLink> userAssetLinks) {
+        AuthorizationCache authorizationCache = identityService.getAuthorizationCache();
+        userAssetLinks.forEach(userAssetLink -> {
+            if (authorizationCache != null) {
+                authorizationCache.invalidateUserAssets(userAssetLink.getId().getUserId(), userAssetLink.getId().getAssetId());
+            }
+            persistenceService.publishPersistenceEvent(cause, userAssetLink, null, null, null);
+        });
     }
     protected void storeUserAssetLinks(EntityManager em, List<UserAssetLink> userAssets) {
 
@@ -1147,8 +1396,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         );
     }
 
-    @SuppressWarnings("unchecked")
     protected List<Asset<?>> findAll(EntityManager em, AssetQuery query) {
+        List<Asset<?>> assets = new ArrayList<>();
+        findAll(em, query, 0, assets::add);
+        return assets;
+    }
+
+    /**
+     * Passes each asset matching the query to the consumer; if the fetch size is greater than zero then the results
+     * are read from a server side cursor in batches of that size and each asset is detached once consumed, otherwise
+     * the whole result is loaded before it is consumed.
+     */
+    @SuppressWarnings("unchecked")
+    protected void findAll(EntityManager em, AssetQuery query, int fetchSize, Consumer<Asset<?>> consumer) {
 
         if (query.access == null)
             query.access = PRIVATE;
@@ -1157,7 +1417,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (query.orderBy == null && query.ids == null)
             query.orderBy = new OrderBy(OrderBy.Property.CREATED_ON);
 
-        Pair<PreparedAssetQuery, Boolean> queryAndContainsCalendarPredicate = buildQuery(query, timerService::getCurrentTimeMillis);
+        Pair<PreparedAssetQuery, Boolean> queryAndContainsCalendarPredicate = getPreparedQuery(query);
         PreparedAssetQuery querySql = queryAndContainsCalendarPredicate.key;
         boolean containsCalendarPredicate = queryAndContainsCalendarPredicate.value;
 
@@ -1169,40 +1429,55 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         // Use a SqlResultSetMapping to allow auto hydration with retrieval of transient data as well
         // Using hibernate query object rather than JPA as postgres array parameter support doesn't work in JPQL without specifying the data type
         org.hibernate.query.Query<Object[]> jpql = em.createNativeQuery(querySql.querySql, "AssetMapping").unwrap(org.hibernate.query.Query.class);
-        querySql.apply(em, jpql);
-
-        List<Object[]> results = jpql.getResultList();
-
-        Stream<Asset<?>> assetStream = results.stream().map(objArr -> {
-            Asset<?> asset = (Asset<?>)objArr[0];
-
-            if (objArr.length == 3) {
-                // We have transient parent info
-                String parentName = (String)objArr[1];
-                String parentType = (String)objArr[2];
-                try {
-                    assetParentNameField.set(asset, parentName);
-                    assetParentTypeField.set(asset, parentType);
-                } catch (IllegalAccessException e) {
-                    LOG.log(Level.WARNING, "Failed to set asset parent name and/or type fields", e);
+        querySql.apply(em, jpql, query, timerService::getCurrentTimeMillis);
+
+        Predicate<Asset<?>> filter = asset -> !containsCalendarPredicate || calendarEventPredicateMatches(timerService::getCurrentTimeMillis, query, asset);
+
+        if (fetchSize <= 0) {
+            List<Object[]> results = jpql.getResultList();
+            results.stream().map(this::toAsset).filter(filter).forEach(consumer);
+            return;
+        }
+
+        jpql.setFetchSize(fetchSize);
+
+        try (ScrollableResults results = jpql.scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                Asset<?> asset = toAsset(results.get());
+                // Don't let the persistence context grow with the result
+                em.detach(asset);
+                if (filter.test(asset)) {
+                    consumer.accept(asset);
                 }
             }
-            return asset;
-        });
-
-        if (containsCalendarPredicate) {
-            assetStream = assetStream.filter(asset -> calendarEventPredicateMatches(timerService::getCurrentTimeMillis, query, asset));
         }
+    }
+
+    protected Asset<?> toAsset(Object[] objArr) {
+        Asset<?> asset = (Asset<?>)objArr[0];
 
-        return assetStream.collect(Collectors.toList());
+        if (objArr.length == 3) {
+            // We have transient parent info
+            String parentName = (String)objArr[1];
+            String parentType = (String)objArr[2];
+            try {
+                assetParentNameField.set(asset, parentName);
+                assetParentTypeField.set(asset, parentType);
+            } catch (IllegalAccessException e) {
+                LOG.log(Level.WARNING, "Failed to set asset parent name and/or type fields", e);
+            }
+        }
+        return asset;
     }
 
     protected boolean updateAttributeValue(EntityManager em, Asset<?> asset, Attribute<?> attribute) {
 
         try {
 
-            // Detach the asset from the em so we can manually update the attribute
-            em.detach(asset);
+            // Detach the asset from the em so we can manually update the attribute (cached assets are already detached)
+            if (em.contains(asset)) {
+                em.detach(asset);
+            }
             String attributeName = attribute.getName();
             Object value = attribute.getValue();
             long timestamp = attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis);
@@ -1258,6 +1533,17 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     protected void publishModificationEvents(PersistenceEvent<Asset<?>> persistenceEvent) {
         Asset<?> asset = persistenceEvent.getEntity();
+
+        if (assetCache != null) {
+            if (persistenceEvent.getCause() == PersistenceEvent.Cause.UPDATE
+                && Arrays.asList(persistenceEvent.getPropertyNames()).contains("parentId")
+                && !Objects.equals(persistenceEvent.getPreviousState("parentId"), persistenceEvent.getCurrentState("parentId"))) {
+                // Moving an asset changes the path of all descendants
+                invalidateCachedAssets();
+            } else {
+                invalidateCachedAssets(Collections.singletonList(asset.getId()));
+            }
+        }
         switch (persistenceEvent.getCause()) {
             case CREATE:
                 // Fully load the asset
@@ -1359,28 +1645,49 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
 
+    /**
+     * Get the prepared SQL for the query from the cache (if enabled) or build it; as the SQL text of queries with the
+     * same shape is identical the JDBC driver can also reuse its server side prepared statement and plan.
+     */
+    protected Pair<PreparedAssetQuery, Boolean> getPreparedQuery(AssetQuery query) {
+        if (queryCache == null) {
+            return buildQuery(query);
+        }
+
+        String shape = buildQueryShape(query);
+        Pair<PreparedAssetQuery, Boolean> preparedQuery = queryCache.getIfPresent(shape);
+
+        if (preparedQuery == null) {
+            preparedQuery = buildQuery(query);
+            queryCache.put(shape, preparedQuery);
+        }
+
+        return preparedQuery;
+    }
+
     /* SQL BUILDER METHODS */
 
 
-    protected static Pair<PreparedAssetQuery, Boolean> buildQuery(AssetQuery query, Supplier<Long> timeProvider) {
+    protected static Pair<PreparedAssetQuery, Boolean> buildQuery(AssetQuery query) {
         LOG.finest("Building: " + query);
         StringBuilder sb = new StringBuilder();
         boolean recursive = query.recursive;
         List<ParameterBinder> binders = new ArrayList<>();
-        sb.append(buildSelectString(query, 1, binders, timeProvider));
+        sb.append(buildSelectString(query, 1, binders));
         sb.append(buildFromString(query, 1));
-        boolean containsCalendarPredicate = appendWhereClause(sb, query, 1, binders, timeProvider);
+        boolean containsCalendarPredicate = appendWhereClause(sb, query, 1, binders);
 
         if (recursive) {
-            sb.insert(0, "WITH RECURSIVE top_level_assets AS ((");
-            sb.append(") UNION (");
-            sb.append(buildSelectString(query, 2, binders, timeProvider));
+            // Descendants are found using the materialised path rather than by walking the tree
+            sb.insert(0, "WITH top_level_assets AS (");
+            sb.append("), all_assets AS ((select * from top_level_assets) UNION (");
+            sb.append(buildSelectString(query, 2, binders));
             sb.append(buildFromString(query, 2));
-            containsCalendarPredicate = !containsCalendarPredicate && appendWhereClause(sb, query, 2, binders, timeProvider);
-            sb.append("))");
-            sb.append(buildSelectString(query, 3, binders, timeProvider));
+            containsCalendarPredicate = !containsCalendarPredicate && appendWhereClause(sb, query, 2, binders);
+            sb.append(" and A.PATH && (select array_agg(ID\\:\\:text) from top_level_assets) and not exists (select 1 from top_level_assets T where T.ID = A.ID)))");
+            sb.append(buildSelectString(query, 3, binders));
             sb.append(buildFromString(query, 3));
-            containsCalendarPredicate = !containsCalendarPredicate && appendWhereClause(sb, query, 3, binders, timeProvider);
+            containsCalendarPredicate = !containsCalendarPredicate && appendWhereClause(sb, query, 3, binders);
         }
 
         sb.append(buildOrderByString(query));
@@ -1388,7 +1695,141 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return new Pair<>(new PreparedAssetQuery(sb.toString(), binders), containsCalendarPredicate);
     }
 
-    protected static String buildSelectString(AssetQuery query, int level, List<ParameterBinder> binders, Supplier<Long> timeProvider) {
+    /**
+     * Builds a key that identifies the SQL produced by {@link #buildQuery}; it covers everything that affects the SQL
+     * text (which predicates are set and their operators, match types, negation etc.) but not the values that are bound
+     * as parameters, so queries with the same shape can share the same {@link PreparedAssetQuery}.
+     */
+    protected static String buildQueryShape(AssetQuery query) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("recursive=").append(query.recursive);
+
+        Select select = query.select;
+        sb.append(";select=");
+        if (select != null) {
+            sb.append(select.excludeParentInfo).append(",")
+                .append(select.excludePath).append(",")
+                .append(select.excludeAttributes).append(",")
+                .append(select.attributes != null && select.attributes.length > 0);
+        }
+
+        sb.append(";access=").append(query.access);
+        sb.append(";ids=").append(query.ids != null ? String.valueOf(query.ids.length > 0) : "");
+
+        sb.append(";names=");
+        if (query.names != null) {
+            for (StringPredicate name : query.names) {
+                appendStringPredicateShape(sb, name);
+            }
+        }
+
+        sb.append(";parents=");
+        if (query.parents != null) {
+            for (ParentPredicate parent : query.parents) {
+                sb.append("[")
+                    .append(parent.id != null).append(",")
+                    .append(parent.noParent).append(",")
+                    .append(parent.type != null).append(",")
+                    .append(parent.name != null)
+                    .append("]");
+            }
+        }
+
+        sb.append(";paths=");
+        if (hasPathConstraint(query.paths)) {
+            sb.append(query.paths.length);
+        }
+
+        sb.append(";tenant=").append(query.tenant != null && !TextUtil.isNullOrEmpty(query.tenant.realm));
+        sb.append(";userIds=").append(query.userIds != null && query.userIds.length > 0);
+        sb.append(";types=").append(query.types != null && query.types.length > 0);
+
+        sb.append(";attributes=");
+        if (query.attributes != null) {
+            Pair<ObjectNode, ArrayNode> containment = buildAttributeContainment(query.attributes);
+            sb.append(containment.key.size() > 0).append(",").append(containment.value.size() > 0);
+            appendAttributePredicateGroupShape(sb, query.attributes);
+        }
+
+        sb.append(";orderBy=");
+        if (query.orderBy != null) {
+            sb.append(query.orderBy.property).append(",").append(query.orderBy.descending);
+        }
+
+        sb.append(";limit=").append(query.limit);
+        sb.append(";after=").append(!TextUtil.isNullOrEmpty(query.after));
+        return sb.toString();
+    }
+
+    protected static void appendAttributePredicateGroupShape(StringBuilder sb, LogicGroup<AttributePredicate> attributePredicateGroup) {
+        LogicGroup.Operator operator = attributePredicateGroup.operator != null ? attributePredicateGroup.operator : LogicGroup.Operator.AND;
+        List<AttributePredicate> items = attributePredicateGroup.getItems();
+        sb.append("(").append(operator);
+
+        if (!items.isEmpty()) {
+            sb.append(getAttributePredicateIndexGroups(items, operator));
+            for (AttributePredicate item : items) {
+                appendNameValuePredicateShape(sb, item);
+            }
+        }
+
+        if (attributePredicateGroup.groups != null) {
+            for (LogicGroup<AttributePredicate> group : attributePredicateGroup.groups) {
+                appendAttributePredicateGroupShape(sb, group);
+            }
+        }
+        sb.append(")");
+    }
+
+    protected static void appendNameValuePredicateShape(StringBuilder sb, NameValuePredicate nameValuePredicate) {
+        sb.append("[").append(nameValuePredicate.negated).append(",");
+        appendStringPredicateShape(sb, nameValuePredicate.name);
+        sb.append(",").append(nameValuePredicate.path != null ? nameValuePredicate.path.getPaths().length : 0).append(",");
+
+        ValuePredicate value = nameValuePredicate.value;
+        if (value != null) {
+            sb.append(value.getClass().getSimpleName());
+
+            if (value instanceof StringPredicate) {
+                appendStringPredicateShape(sb, (StringPredicate) value);
+            } else if (value instanceof DateTimePredicate) {
+                sb.append(((DateTimePredicate) value).operator).append(((DateTimePredicate) value).negate);
+            } else if (value instanceof NumberPredicate) {
+                sb.append(((NumberPredicate) value).operator).append(((NumberPredicate) value).negate);
+            } else if (value instanceof ArrayPredicate) {
+                ArrayPredicate arrayPredicate = (ArrayPredicate) value;
+                sb.append(arrayPredicate.negated)
+                    .append(arrayPredicate.value != null)
+                    .append(arrayPredicate.index != null)
+                    .append(arrayPredicate.lengthEquals != null)
+                    .append(arrayPredicate.lengthGreaterThan != null)
+                    .append(arrayPredicate.lengthLessThan != null);
+            } else if (value instanceof GeofencePredicate) {
+                sb.append(((GeofencePredicate) value).negated);
+            } else if (value instanceof ValueEmptyPredicate) {
+                sb.append(((ValueEmptyPredicate) value).negate);
+            }
+        }
+
+        if (nameValuePredicate instanceof AttributePredicate && ((AttributePredicate) nameValuePredicate).meta != null) {
+            for (NameValuePredicate metaPredicate : ((AttributePredicate) nameValuePredicate).meta) {
+                appendNameValuePredicateShape(sb, metaPredicate);
+            }
+        }
+        sb.append("]");
+    }
+
+    protected static void appendStringPredicateShape(StringBuilder sb, StringPredicate stringPredicate) {
+        if (stringPredicate != null) {
+            sb.append("{")
+                .append(stringPredicate.match).append(",")
+                .append(stringPredicate.caseSensitive).append(",")
+                .append(stringPredicate.negate)
+                .append("}");
+        }
+    }
+
+    protected static String buildSelectString(AssetQuery query, int level, List<ParameterBinder> binders) {
         // level = 1 is main query select
         // level = 2 is union select
         // level = 3 is CTE select
@@ -1409,19 +1850,20 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             }
         }
 
-        if (!query.recursive || level == 3) {
-            if (select == null || !select.excludePath) {
-                sb.append(", get_asset_tree_path(A.ID) as PATH");
-            } else {
-                sb.append(", NULL as PATH");
-            }
+        if (query.recursive && level != 3) {
+            // The CTE always includes the path as the outer select reads it from there
+            sb.append(", A.PATH as PATH");
+        } else if (select == null || !select.excludePath) {
+            sb.append(", A.PATH as PATH");
+        } else {
+            sb.append(", NULL as PATH");
         }
 
         if (select == null || !select.excludeAttributes) {
             if (query.recursive && level != 3) {
                 sb.append(", A.ATTRIBUTES as ATTRIBUTES");
             } else {
-                sb.append(buildAttributeSelect(query, binders, timeProvider));
+                sb.append(buildAttributeSelect(query, binders));
             }
         } else {
             sb.append(", NULL as ATTRIBUTES");
@@ -1430,7 +1872,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return sb.toString();
     }
 
-    protected static String buildAttributeSelect(AssetQuery query, List<ParameterBinder> binders, Supplier<Long> timeProvider) {
+    protected static String buildAttributeSelect(AssetQuery query, List<ParameterBinder> binders) {
 
         Select select = query.select;
         boolean hasAttributeFilter = select != null && select.attributes != null && select.attributes.length > 0;
@@ -1451,7 +1893,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 .append("?")
                 .append(pos)
                 .append(")");
-            binders.add((em, st) -> st.setParameter(pos, select.attributes, StringArrayType.INSTANCE));
+            binders.add((em, st, q, tp) -> st.setParameter(pos, q.select.attributes, StringArrayType.INSTANCE));
         }
 
         if (query.access != PRIVATE) {
@@ -1477,10 +1919,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 sb.append("left outer join Asset P on A.PARENT_ID = P.id ");
             }
         } else if (level == 2) {
-            sb.append(" from top_level_assets P ");
-            sb.append("join Asset A on A.PARENT_ID = P.ID ");
+            sb.append(" from Asset A ");
+            sb.append("join Asset P on A.PARENT_ID = P.ID ");
         } else {
-            sb.append(" from top_level_assets A ");
+            sb.append(" from all_assets A ");
         }
 
         if ((!recursive || level == 3) && query.userIds != null && query.userIds.length > 0) {
@@ -1493,36 +1935,78 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected static String buildOrderByString(AssetQuery query) {
         StringBuilder sb = new StringBuilder();
 
-        if (query.ids != null && !query.recursive) {
+        if (query.ids != null && !query.recursive && TextUtil.isNullOrEmpty(query.after)) {
             return sb.toString();
         }
 
         if (query.orderBy != null && query.orderBy.property != null) {
-            sb.append(" order by ");
-
-            switch (query.orderBy.property) {
-                case CREATED_ON:
-                    sb.append(" A.CREATED_ON ");
-                    break;
-                case ASSET_TYPE:
-                    sb.append(" A.TYPE ");
-                    break;
-                case NAME:
-                    sb.append(" A.NAME ");
-                    break;
-                case PARENT_ID:
-                    sb.append(" A.PARENT_ID ");
-                    break;
-                case REALM:
-                    sb.append(" A.REALM ");
-                    break;
-            }
-            sb.append(query.orderBy.descending ? "desc " : "asc ");
+            String direction = query.orderBy.descending ? "desc " : "asc ";
+            // The asset ID is the tiebreaker so the order is stable which keyset pagination relies on
+            sb.append(" order by A.")
+                .append(getOrderByColumn(query.orderBy.property))
+                .append(" ")
+                .append(direction)
+                .append(", A.ID ")
+                .append(direction);
+        } else if (!TextUtil.isNullOrEmpty(query.after)) {
+            sb.append(" order by A.ID asc ");
         }
 
         return sb.toString();
     }
 
+    protected static String getOrderByColumn(OrderBy.Property property) {
+        switch (property) {
+            case ASSET_TYPE:
+                return "TYPE";
+            case NAME:
+                return "NAME";
+            case PARENT_ID:
+                return "PARENT_ID";
+            case REALM:
+                return "REALM";
+            default:
+                return "CREATED_ON";
+        }
+    }
+
+    /**
+     * Appends the keyset pagination predicate which restricts the results to the rows that come after the
+     * {@link AssetQuery#after} asset in the order produced by {@link #buildOrderByString}.
+     */
+    protected static void appendAfterPredicate(StringBuilder sb, AssetQuery query, int pos) {
+        boolean descending = query.orderBy != null && query.orderBy.descending;
+
+        if (query.orderBy == null || query.orderBy.property == null) {
+            sb.append(" and A.ID > ?").append(pos);
+            return;
+        }
+
+        String column = getOrderByColumn(query.orderBy.property);
+
+        if (query.orderBy.property != OrderBy.Property.PARENT_ID) {
+            // Not null columns so a row value comparison can be used
+            sb.append(" and (A.").append(column).append(", A.ID) ")
+                .append(descending ? "<" : ">")
+                .append(" (select C.").append(column).append(", C.ID from ASSET C where C.ID = ?").append(pos).append(")");
+            return;
+        }
+
+        // Nullable column; postgres sorts nulls last when ascending and first when descending
+        String a = "A." + column;
+        String c = "C." + column;
+        String op = descending ? "<" : ">";
+        sb.append(" and exists (select 1 from ASSET C where C.ID = ?").append(pos).append(" and (")
+            .append(a).append(" ").append(op).append(" ").append(c)
+            .append(" or (").append(a).append(" = ").append(c).append(" and A.ID ").append(op).append(" C.ID)");
+        if (descending) {
+            sb.append(" or (").append(c).append(" is null and ").append(a).append(" is not null)");
+        } else {
+            sb.append(" or (").append(c).append(" is not null and ").append(a).append(" is null)");
+        }
+        sb.append(" or (").append(c).append(" is null and ").append(a).append(" is null and A.ID ").append(op).append(" C.ID)))");
+    }
+
     protected static String buildLimitString(AssetQuery query) {
         if (query.limit > 0) {
             return " LIMIT " + query.limit;
@@ -1531,7 +2015,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
     @SuppressWarnings("unchecked")
-    protected static boolean appendWhereClause(StringBuilder sb, AssetQuery query, int level, List<ParameterBinder> binders, Supplier<Long> timeProvider) {
+    protected static boolean appendWhereClause(StringBuilder sb, AssetQuery query, int level, List<ParameterBinder> binders) {
         // level = 1 is main query
         // level = 2 is union
         // level = 3 is CTE
@@ -1548,7 +2032,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(" and A.ID = ANY(?")
                 .append(pos)
                 .append(")");
-            binders.add((em, st) -> st.setParameter(pos, query.ids, StringArrayType.INSTANCE));
+            binders.add((em, st, q, tp) -> st.setParameter(pos, q.ids, StringArrayType.INSTANCE));
         }
 
         if (level == 1 && query.names != null && query.names.length > 0) {
@@ -1556,15 +2040,17 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(" and (");
             boolean isFirst = true;
 
-            for (StringPredicate pred : query.names) {
+            for (int i = 0; i < query.names.length; i++) {
+                StringPredicate pred = query.names[i];
                 if (!isFirst) {
                     sb.append(" or ");
                 }
                 isFirst = false;
                 final int pos = binders.size() + 1;
+                final int index = i;
                 sb.append(pred.caseSensitive ? "A.NAME " : "upper(A.NAME)");
                 sb.append(buildMatchFilter(pred, pos));
-                binders.add((em, st) -> st.setParameter(pos, pred.prepareValue()));
+                binders.add((em, st, q, tp) -> st.setParameter(pos, q.names[index].prepareValue()));
             }
             sb.append(")");
         }
@@ -1574,7 +2060,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(" and (");
             boolean isFirst = true;
 
-            for (ParentPredicate pred : query.parents) {
+            for (int i = 0; i < query.parents.length; i++) {
+                ParentPredicate pred = query.parents[i];
+                final int index = i;
                 if (!isFirst) {
                     sb.append(" or (");
                 } else {
@@ -1585,17 +2073,16 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 if (level == 1 && pred.id != null) {
                     final int pos = binders.size() + 1;
                     sb.append("A.PARENT_ID = ?").append(pos);
-                    binders.add((em, st) -> st.setParameter(pos, pred.id));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos, q.parents[index].id));
                 } else if (level == 1 && pred.noParent) {
                     sb.append("A.PARENT_ID is null");
                 } else if (pred.type != null || pred.name != null) {
                     if (pred.type != null) {
-                        String[] resolvedTypes = getResolvedAssetTypes(new Class[]{pred.type});
                         final int pos = binders.size() + 1;
                         sb.append("P.TYPE = ANY(?")
                             .append(pos)
                             .append(")");
-                        binders.add((em, st) -> st.setParameter(pos, resolvedTypes, StringArrayType.INSTANCE));
+                        binders.add((em, st, q, tp) -> st.setParameter(pos, getResolvedAssetTypes(new Class[]{q.parents[index].type}), StringArrayType.INSTANCE));
                     }
                     if (pred.name != null) {
                         if (pred.type != null) {
@@ -1603,7 +2090,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                         }
                         final int pos = binders.size() + 1;
                         sb.append("P.NAME = ?").append(pos);
-                        binders.add((em, st) -> st.setParameter(pos, pred.name));
+                        binders.add((em, st, q, tp) -> st.setParameter(pos, q.parents[index].name));
                     }
                 } else {
                     sb.append("true");
@@ -1619,25 +2106,32 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(" and (");
             boolean isFirst = true;
 
-            for (PathPredicate pred : query.paths) {
+            for (int i = 0; i < query.paths.length; i++) {
                 if (!isFirst) {
                     sb.append(" or ");
                 }
                 isFirst = false;
 
                 final int pos = binders.size() + 1;
-                sb.append("?").append(pos).append(" <@ get_asset_tree_path(A.id)");
-                binders.add((em, st) -> st.setParameter(pos, pred.path, StringArrayType.INSTANCE));
+                final int index = i;
+                sb.append("A.PATH @> ?").append(pos);
+                binders.add((em, st, q, tp) -> st.setParameter(pos, q.paths[index].path, StringArrayType.INSTANCE));
             }
 
             sb.append(")");
         }
 
         if (!recursive || level == 3) {
+            if (!TextUtil.isNullOrEmpty(query.after)) {
+                final int pos = binders.size() + 1;
+                appendAfterPredicate(sb, query, pos);
+                binders.add((em, st, q, tp) -> st.setParameter(pos, q.after));
+            }
+
             if (query.tenant != null && !TextUtil.isNullOrEmpty(query.tenant.realm)) {
                 final int pos = binders.size() + 1;
                 sb.append(" and A.REALM = ?").append(pos);
-                binders.add((em, st) -> st.setParameter(pos, query.tenant.realm));
+                binders.add((em, st, q, tp) -> st.setParameter(pos, q.tenant.realm));
             }
 
             if (query.userIds != null && query.userIds.length > 0) {
@@ -1645,7 +2139,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 sb.append(" and UA.USER_ID = ANY(?")
                     .append(pos)
                     .append(")");
-                binders.add((em, st) -> st.setParameter(pos, query.userIds, StringArrayType.INSTANCE));
+                binders.add((em, st, q, tp) -> st.setParameter(pos, q.userIds, StringArrayType.INSTANCE));
             }
 
             if (level == 1 && query.access == Access.PUBLIC) {
@@ -1653,20 +2147,20 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             }
 
             if (query.types != null && query.types.length > 0) {
-                String[] resolvedTypes = getResolvedAssetTypes(query.types);
                 final int pos = binders.size() + 1;
                 sb.append(" and A.TYPE = ANY(?")
                     .append(pos)
                     .append(")");
-                binders.add((em, st) -> st.setParameter(pos, resolvedTypes, StringArrayType.INSTANCE));
+                binders.add((em, st, q, tp) -> st.setParameter(pos, getResolvedAssetTypes(q.types), StringArrayType.INSTANCE));
             }
 
             if (query.attributes != null) {
+                appendAttributeContainmentPredicates(sb, binders, query.attributes);
                 sb.append(" and A.id in (select A.id from ");
                 AtomicInteger offset = new AtomicInteger(sb.length());
                 Consumer<String> selectInserter = (str) -> sb.insert(offset.getAndAdd(str.length()), str);
                 sb.append(" where true AND ");
-                containsCalendarPredicate = addAttributePredicateGroupQuery(sb, binders, 0, selectInserter, query.attributes, timeProvider);
+                containsCalendarPredicate = addAttributePredicateGroupQuery(sb, binders, 0, selectInserter, query, q -> q.attributes);
                 sb.append(")");
             }
         }
@@ -1685,8 +2179,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             .toArray(String[]::new);
     }
 
-    protected static boolean addAttributePredicateGroupQuery(StringBuilder sb, List<ParameterBinder> binders, int groupIndex, Consumer<String> selectInserter, LogicGroup<AttributePredicate> attributePredicateGroup, Supplier<Long> timeProvider) {
+    protected static boolean addAttributePredicateGroupQuery(StringBuilder sb, List<ParameterBinder> binders, int groupIndex, Consumer<String> selectInserter, AssetQuery query, Function<AssetQuery, LogicGroup<AttributePredicate>> groupAccessor) {
 
+        LogicGroup<AttributePredicate> attributePredicateGroup = groupAccessor.apply(query);
         boolean containsCalendarPredicate = false;
         LogicGroup.Operator operator = attributePredicateGroup.operator;
 
@@ -1698,34 +2193,29 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
         if (!attributePredicateGroup.getItems().isEmpty()) {
 
-            Collection<List<AttributePredicate>> grouped;
-
-            if (operator == LogicGroup.Operator.AND) {
-                // Group predicates by their attribute name predicate
-                grouped = attributePredicateGroup.getItems().stream().collect(groupingBy(predicate -> predicate.name != null ? predicate.name : "")).values();
-            } else {
-                grouped = new ArrayList<>();
-                grouped.add(attributePredicateGroup.getItems());
-            }
-
             boolean isFirst = true;
 
-            for (List<AttributePredicate> group : grouped) {
+            for (List<Integer> group : getAttributePredicateIndexGroups(attributePredicateGroup.getItems(), operator)) {
                 if (!isFirst) {
                     sb.append(operator == LogicGroup.Operator.OR ? " or " : " and ");
                 }
                 isFirst = false;
 
+                List<Function<AssetQuery, NameValuePredicate>> predicateAccessors = group.stream()
+                    .map(index -> (Function<AssetQuery, NameValuePredicate>) q -> groupAccessor.apply(q).getItems().get(index))
+                    .collect(Collectors.toList());
+
                 selectInserter.accept((groupIndex > 0 ? ", " : "") + "jsonb_each(A.attributes) as AX" + groupIndex);
-                containsCalendarPredicate = !containsCalendarPredicate && addNameValuePredicates(group, sb, binders, "AX" + groupIndex, selectInserter, operator == LogicGroup.Operator.OR, timeProvider);
+                containsCalendarPredicate = !containsCalendarPredicate && addNameValuePredicates(query, predicateAccessors, sb, binders, "AX" + groupIndex, selectInserter, operator == LogicGroup.Operator.OR);
                 groupIndex++;
             }
         }
 
         if (attributePredicateGroup.groups != null && attributePredicateGroup.groups.size() > 0) {
-            for (LogicGroup<AttributePredicate> group : attributePredicateGroup.groups) {
+            for (int i = 0; i < attributePredicateGroup.groups.size(); i++) {
+                final int index = i;
                 sb.append(operator == LogicGroup.Operator.OR ? " or " : " and ");
-                boolean containsCalPred = addAttributePredicateGroupQuery(sb, binders, groupIndex, selectInserter, group, timeProvider);
+                boolean containsCalPred = addAttributePredicateGroupQuery(sb, binders, groupIndex, selectInserter, query, q -> groupAccessor.apply(q).groups.get(index));
                 if (!containsCalendarPredicate && containsCalPred) {
                     containsCalendarPredicate = true;
                 }
@@ -1736,12 +2226,173 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return containsCalendarPredicate;
     }
 
-    protected static boolean addNameValuePredicates(List<? extends NameValuePredicate> nameValuePredicates, StringBuilder sb, List<ParameterBinder> binders, String jsonObjName, Consumer<String> selectInserter, boolean useOr, Supplier<Long> timeProvider) {
+    /**
+     * Groups the indexes of the attribute predicates that are applied to the same attribute (AND groups are grouped by
+     * their attribute name predicate in order of first occurrence so the SQL is stable, OR groups are a single group).
+     */
+    protected static Collection<List<Integer>> getAttributePredicateIndexGroups(List<AttributePredicate> items, LogicGroup.Operator operator) {
+        if (operator == LogicGroup.Operator.AND) {
+            return IntStream.range(0, items.size()).boxed().collect(
+                groupingBy(i -> items.get(i).name != null ? (Object) items.get(i).name : "", LinkedHashMap::new, Collectors.toList())
+            ).values();
+        }
+
+        List<List<Integer>> grouped = new ArrayList<>();
+        grouped.add(IntStream.range(0, items.size()).boxed().collect(Collectors.toList()));
+        return grouped;
+    }
+
+    /**
+     * Appends containment (@>) predicates that are implied by the attribute predicates and can be served by the GIN
+     * indices on the attributes and their meta; these only narrow down the candidate rows, the attribute predicates are
+     * still fully applied by {@link #addAttributePredicateGroupQuery}. Only the predicates that must all match are
+     * used and only exact case sensitive names and values that can't match anything but the containment value.
+     */
+    protected static void appendAttributeContainmentPredicates(StringBuilder sb, List<ParameterBinder> binders, LogicGroup<AttributePredicate> attributePredicateGroup) {
+        Pair<ObjectNode, ArrayNode> containment = buildAttributeContainment(attributePredicateGroup);
+
+        if (containment.key.size() > 0) {
+            final int pos = binders.size() + 1;
+            sb.append(" and A.ATTRIBUTES @> ?").append(pos).append(" \\:\\:jsonb");
+            binders.add((em, st, q, tp) -> st.setParameter(pos, buildAttributeContainment(q.attributes).key.toString()));
+        }
+
+        if (containment.value.size() > 0) {
+            final int pos = binders.size() + 1;
+            sb.append(" and GET_ASSET_ATTRIBUTE_META(A.ATTRIBUTES) @> ?").append(pos).append(" \\:\\:jsonb");
+            binders.add((em, st, q, tp) -> st.setParameter(pos, buildAttributeContainment(q.attributes).value.toString()));
+        }
+    }
+
+    /**
+     * Builds the attributes and attribute meta containment documents used by
+     * {@link #appendAttributeContainmentPredicates}, either can be empty.
+     */
+    protected static Pair<ObjectNode, ArrayNode> buildAttributeContainment(LogicGroup<AttributePredicate> attributePredicateGroup) {
+        ObjectNode attributes = ValueUtil.JSON.createObjectNode();
+        ArrayNode meta = ValueUtil.JSON.createArrayNode();
+        boolean allMustMatch = attributePredicateGroup.operator == null
+            || attributePredicateGroup.operator == LogicGroup.Operator.AND
+            || (attributePredicateGroup.getItems().size() == 1 && (attributePredicateGroup.groups == null || attributePredicateGroup.groups.isEmpty()));
+
+        if (!allMustMatch) {
+            return new Pair<>(attributes, meta);
+        }
+
+        for (AttributePredicate attributePredicate : attributePredicateGroup.getItems()) {
+            if (attributePredicate.negated) {
+                continue;
+            }
+
+            String attributeName = getContainmentName(attributePredicate.name);
+
+            if (attributeName != null) {
+                ObjectNode attribute = attributes.has(attributeName) ? (ObjectNode) attributes.get(attributeName) : attributes.putObject(attributeName);
+                attribute.put("name", attributeName);
+
+                List<String> path = getContainmentPath(attributePredicate.path);
+                JsonNode value = getContainmentValue(attributePredicate.value);
+                if (path != null && value != null) {
+                    path.add(0, "value");
+                    setContainmentValue(attribute, path, value);
+                }
+            }
+
+            // Meta predicates are combined with or so only a single one is implied
+            if (attributePredicate.meta != null && attributePredicate.meta.length == 1 && !attributePredicate.meta[0].negated) {
+                NameValuePredicate metaPredicate = attributePredicate.meta[0];
+                String metaName = getContainmentName(metaPredicate.name);
+
+                if (metaName != null) {
+                    ObjectNode metaItem = meta.addObject();
+                    metaItem.put("name", metaName);
+
+                    List<String> path = getContainmentPath(metaPredicate.path);
+                    JsonNode value = getContainmentValue(metaPredicate.value);
+                    if (path != null && value != null) {
+                        path.add(0, "value");
+                        setContainmentValue(metaItem, path, value);
+                    }
+                }
+            }
+        }
+
+        return new Pair<>(attributes, meta);
+    }
+
+    protected static String getContainmentName(StringPredicate name) {
+        if (name == null || name.match != Match.EXACT || !name.caseSensitive || name.negate || isNullOrEmpty(name.value)) {
+            return null;
+        }
+        return name.value;
+    }
+
+    protected static List<String> getContainmentPath(NameValuePredicate.Path path) {
+        List<String> keys = new ArrayList<>();
+        if (path != null) {
+            for (Object key : path.getPaths()) {
+                if (!(key instanceof String)) {
+                    // Array indexes can't be expressed as containment
+                    return null;
+                }
+                keys.add((String) key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Get the JSON value that a value predicate implies is contained; string values are compared as text so only those
+     * that can't also be the text of a JSON number, boolean, object or array are used.
+     */
+    protected static JsonNode getContainmentValue(ValuePredicate valuePredicate) {
+        if (valuePredicate instanceof BooleanPredicate) {
+            return BooleanNode.valueOf(((BooleanPredicate) valuePredicate).value);
+        }
+
+        if (valuePredicate instanceof StringPredicate) {
+            StringPredicate stringPredicate = (StringPredicate) valuePredicate;
+            String value = stringPredicate.value;
+
+            if (stringPredicate.match != Match.EXACT || !stringPredicate.caseSensitive || stringPredicate.negate || isNullOrEmpty(value)
+                || value.startsWith("{") || value.startsWith("[") || "true".equals(value) || "false".equals(value)) {
+                return null;
+            }
+
+            try {
+                new java.math.BigDecimal(value);
+                return null;
+            } catch (NumberFormatException ignored) {
+            }
+
+            return TextNode.valueOf(value);
+        }
+
+        return null;
+    }
+
+    protected static void setContainmentValue(ObjectNode node, List<String> path, JsonNode value) {
+        for (int i = 0; i < path.size() - 1; i++) {
+            JsonNode child = node.get(path.get(i));
+            if (child == null) {
+                child = node.putObject(path.get(i));
+            } else if (!child.isObject()) {
+                // Conflicts with another predicate, which is still applied by the full query
+                return;
+            }
+            node = (ObjectNode) child;
+        }
+        node.set(path.get(path.size() - 1), value);
+    }
+
+    protected static boolean addNameValuePredicates(AssetQuery query, List<Function<AssetQuery, NameValuePredicate>> predicateAccessors, StringBuilder sb, List<ParameterBinder> binders, String jsonObjName, Consumer<String> selectInserter, boolean useOr) {
         boolean containsCalendarPredicate = false;
 
         boolean isFirst = true;
         int metaIndex = 0;
-        for (NameValuePredicate nameValuePredicate : nameValuePredicates) {
+        for (Function<AssetQuery, NameValuePredicate> predicateAccessor : predicateAccessors) {
+            NameValuePredicate nameValuePredicate = predicateAccessor.apply(query);
+
             if (!containsCalendarPredicate && nameValuePredicate.value instanceof CalendarEventPredicate) {
                 containsCalendarPredicate = true;
             }
@@ -1752,16 +2403,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             sb.append("(");
 
-            sb.append(buildNameValuePredicateFilter(nameValuePredicate, jsonObjName, binders, timeProvider));
+            sb.append(buildNameValuePredicateFilter(query, predicateAccessor, jsonObjName, binders));
 
             if (nameValuePredicate instanceof AttributePredicate) {
                 AttributePredicate attributePredicate = (AttributePredicate)nameValuePredicate;
 
                 if (attributePredicate.meta != null && attributePredicate.meta.length > 0) {
                     String metaJsonObjName = jsonObjName + "_AM" + metaIndex++;
+                    List<Function<AssetQuery, NameValuePredicate>> metaAccessors = IntStream.range(0, attributePredicate.meta.length)
+                        .mapToObj(index -> (Function<AssetQuery, NameValuePredicate>) q -> ((AttributePredicate) predicateAccessor.apply(q)).meta[index])
+                        .collect(Collectors.toList());
                     selectInserter.accept(" LEFT JOIN jsonb_each(" + jsonObjName + ".VALUE #> '{meta}') as " + metaJsonObjName + " ON true");
                     sb.append(" and (");
-                    addNameValuePredicates(Arrays.asList(attributePredicate.meta.clone()), sb, binders, metaJsonObjName, selectInserter, true, timeProvider);
+                    addNameValuePredicates(query, metaAccessors, sb, binders, metaJsonObjName, selectInserter, true);
                     sb.append(")");
                 }
             }
@@ -1794,7 +2448,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             .anyMatch(p -> !p.noParent && (p.type != null || p.name != null));
     }
 
-    protected static String buildNameValuePredicateFilter(NameValuePredicate nameValuePredicate, String jsonObjName, List<ParameterBinder> binders, Supplier<Long> timeProvider) {
+    protected static String buildNameValuePredicateFilter(AssetQuery query, Function<AssetQuery, NameValuePredicate> predicateAccessor, String jsonObjName, List<ParameterBinder> binders) {
+        NameValuePredicate nameValuePredicate = predicateAccessor.apply(query);
+
         if (nameValuePredicate.name == null && nameValuePredicate.value == null) {
             return "TRUE";
         }
@@ -1815,7 +2471,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             final int pos = binders.size() + 1;
             attributeBuilder.append(buildMatchFilter(nameValuePredicate.name, pos));
-            binders.add((em, st) -> st.setParameter(pos, nameValuePredicate.name.prepareValue()));
+            binders.add((em, st, q, tp) -> st.setParameter(pos, predicateAccessor.apply(q).name.prepareValue()));
 
         }
 
@@ -1832,21 +2488,16 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             // Inserts the SQL string and adds the parameters
             BiConsumer<StringBuilder, List<ParameterBinder>> valuePathInserter;
             boolean isAttributePredicate = nameValuePredicate instanceof AttributePredicate;
+            Function<AssetQuery, ValuePredicate> valueAccessor = q -> predicateAccessor.apply(q).value;
 
             if (nameValuePredicate.path == null || nameValuePredicate.path.getPaths().length == 0) {
                 valuePathInserter = (sb, b) ->
                     sb.append(isAttributePredicate ? "(" + jsonObjName + ".VALUE #> '{value}')" : jsonObjName + ".VALUE");
             } else {
-                List<String> paths = new ArrayList<>();
-                if (isAttributePredicate) {
-                    paths.add("value");
-                }
-                paths.addAll(Arrays.stream(nameValuePredicate.path.getPaths()).map(Object::toString).collect(Collectors.toList()));
-
                 valuePathInserter = (sb, b) -> {
                     final int pos = binders.size() + 1;
                     sb.append("(").append(jsonObjName).append(".VALUE #> ?").append(pos).append(")");
-                    binders.add((em, st) -> st.setParameter(pos, paths.toArray(new String[0]), StringArrayType.INSTANCE));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos, getValuePath(predicateAccessor.apply(q), isAttributePredicate), StringArrayType.INSTANCE));
                 };
             }
 
@@ -1862,14 +2513,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 }
                 final int pos = binders.size() + 1;
                 attributeBuilder.append(buildMatchFilter(stringPredicate, pos));
-                binders.add((em, st) -> st.setParameter(pos, stringPredicate.prepareValue()));
+                binders.add((em, st, q, tp) -> st.setParameter(pos, ((StringPredicate) valueAccessor.apply(q)).prepareValue()));
             } else if (nameValuePredicate.value instanceof BooleanPredicate) {
-                BooleanPredicate booleanPredicate = (BooleanPredicate) nameValuePredicate.value;
                 valuePathInserter.accept(attributeBuilder, binders);
+                final int pos = binders.size() + 1;
                 attributeBuilder
-                    .append(" = to_jsonb(")
-                    .append(booleanPredicate.value)
-                    .append(")");
+                    .append(" = ?")
+                    .append(pos)
+                    .append(" \\:\\:jsonb");
+                binders.add((em, st, q, tp) -> st.setParameter(pos, Boolean.toString(((BooleanPredicate) valueAccessor.apply(q)).value)));
             } else if (nameValuePredicate.value instanceof DateTimePredicate) {
                 DateTimePredicate dateTimePredicate = (DateTimePredicate) nameValuePredicate.value;
                 attributeBuilder.append("(");
@@ -1877,15 +2529,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 attributeBuilder
                     .append(" #>> '{}')\\:\\:timestamp");
 
-                Pair<Long, Long> fromAndTo = dateTimePredicate.asFromAndTo(timeProvider.get());
-
                 final int pos = binders.size() + 1;
-                binders.add((em, st) -> st.setParameter(pos, new java.sql.Timestamp(fromAndTo.key != null ? fromAndTo.key : 0L)));
+                binders.add((em, st, q, tp) -> {
+                    Pair<Long, Long> fromAndTo = ((DateTimePredicate) valueAccessor.apply(q)).asFromAndTo(tp.get());
+                    st.setParameter(pos, new java.sql.Timestamp(fromAndTo.key != null ? fromAndTo.key : 0L));
+                });
                 attributeBuilder.append(buildOperatorFilter(dateTimePredicate.operator, dateTimePredicate.negate, pos));
 
                 if (dateTimePredicate.operator == Operator.BETWEEN) {
                     final int pos2 = binders.size() + 1;
-                    binders.add((em, st) -> st.setParameter(pos2, new java.sql.Timestamp(fromAndTo.value != null ? fromAndTo.value : Long.MAX_VALUE)));
+                    binders.add((em, st, q, tp) -> {
+                        Pair<Long, Long> fromAndTo = ((DateTimePredicate) valueAccessor.apply(q)).asFromAndTo(tp.get());
+                        st.setParameter(pos2, new java.sql.Timestamp(fromAndTo.value != null ? fromAndTo.value : Long.MAX_VALUE));
+                    });
                 }
             } else if (nameValuePredicate.value instanceof NumberPredicate) {
                 NumberPredicate numberPredicate = (NumberPredicate) nameValuePredicate.value;
@@ -1895,13 +2551,14 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     .append(" #>> '{}')\\:\\:numeric");
                 final int pos = binders.size() + 1;
                 attributeBuilder.append(buildOperatorFilter(numberPredicate.operator, numberPredicate.negate, pos));
-                binders.add((em, st) -> st.setParameter(pos, numberPredicate.value));
+                binders.add((em, st, q, tp) -> st.setParameter(pos, ((NumberPredicate) valueAccessor.apply(q)).value));
                 if (numberPredicate.operator == Operator.BETWEEN) {
                     final int pos2 = binders.size() + 1;
-                    binders.add((em, st) -> st.setParameter(pos2, numberPredicate.rangeValue));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos2, ((NumberPredicate) valueAccessor.apply(q)).rangeValue));
                 }
             } else if (nameValuePredicate.value instanceof ArrayPredicate) {
                 ArrayPredicate arrayPredicate = (ArrayPredicate) nameValuePredicate.value;
+                Function<AssetQuery, ArrayPredicate> arrayAccessor = q -> (ArrayPredicate) valueAccessor.apply(q);
                 if (arrayPredicate.negated) {
                     attributeBuilder.append("NOT(");
                 }
@@ -1909,13 +2566,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     valuePathInserter.accept(attributeBuilder, binders);
 
                     if (arrayPredicate.index != null) {
+                        final int pos = binders.size() + 1;
                         attributeBuilder
-                            .append(" -> ")
-                            .append(arrayPredicate.index);
+                            .append(" -> ?")
+                            .append(pos);
+                        binders.add((em, st, q, tp) -> st.setParameter(pos, arrayAccessor.apply(q).index));
                     }
                     final int pos = binders.size() + 1;
                     attributeBuilder.append(" @> ?").append(pos).append(" \\:\\:jsonb");
-                    binders.add((em, st) -> st.setParameter(pos, ValueUtil.asJSON(arrayPredicate.value).orElse(ValueUtil.NULL_LITERAL)));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos, ValueUtil.asJSON(arrayAccessor.apply(q).value).orElse(ValueUtil.NULL_LITERAL)));
                 } else {
                     attributeBuilder.append("true");
                 }
@@ -1923,23 +2582,29 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 if (arrayPredicate.lengthEquals != null) {
                     attributeBuilder.append(" and jsonb_array_length(");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
-                        .append(") = ")
-                        .append(arrayPredicate.lengthEquals);
+                        .append(") = ?")
+                        .append(pos);
+                    binders.add((em, st, q, tp) -> st.setParameter(pos, arrayAccessor.apply(q).lengthEquals));
                 }
                 if (arrayPredicate.lengthGreaterThan != null) {
                     attributeBuilder.append(" and jsonb_array_length(");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
-                        .append(") > ")
-                        .append(arrayPredicate.lengthGreaterThan);
+                        .append(") > ?")
+                        .append(pos);
+                    binders.add((em, st, q, tp) -> st.setParameter(pos, arrayAccessor.apply(q).lengthGreaterThan));
                 }
                 if (arrayPredicate.lengthLessThan != null) {
                     attributeBuilder.append(" and jsonb_array_length(");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
-                        .append(") < ")
-                        .append(arrayPredicate.lengthLessThan);
+                        .append(") < ?")
+                        .append(pos);
+                    binders.add((em, st, q, tp) -> st.setParameter(pos, arrayAccessor.apply(q).lengthLessThan));
                 }
                 if (arrayPredicate.negated) {
                     attributeBuilder.append(")");
@@ -1947,22 +2612,28 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             } else if (nameValuePredicate.value instanceof GeofencePredicate) {
                 if (nameValuePredicate.value instanceof RadialGeofencePredicate) {
                     RadialGeofencePredicate location = (RadialGeofencePredicate) nameValuePredicate.value;
+                    Function<AssetQuery, RadialGeofencePredicate> locationAccessor = q -> (RadialGeofencePredicate) valueAccessor.apply(q);
                     attributeBuilder.append("ST_DistanceSphere(ST_MakePoint((");
                     valuePathInserter.accept(attributeBuilder, binders);
                     attributeBuilder
                         .append(" #>> '{coordinates,0}')\\:\\:numeric")
                         .append(", (");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
                         .append(" #>> '{coordinates,1}')\\:\\:numeric")
-                        .append("), ST_MakePoint(")
-                        .append(location.lng)
-                        .append(",")
-                        .append(location.lat)
-                        .append(location.negated ? ")) > " : ")) <= ")
-                        .append(location.radius);
+                        .append("), ST_MakePoint(?")
+                        .append(pos)
+                        .append(", ?")
+                        .append(pos + 1)
+                        .append(location.negated ? ")) > ?" : ")) <= ?")
+                        .append(pos + 2);
+                    binders.add((em, st, q, tp) -> st.setParameter(pos, locationAccessor.apply(q).lng));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos + 1, locationAccessor.apply(q).lat));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos + 2, locationAccessor.apply(q).radius));
                 } else if (nameValuePredicate.value instanceof RectangularGeofencePredicate) {
                     RectangularGeofencePredicate location = (RectangularGeofencePredicate) nameValuePredicate.value;
+                    Function<AssetQuery, RectangularGeofencePredicate> locationAccessor = q -> (RectangularGeofencePredicate) valueAccessor.apply(q);
                     if (location.negated) {
                         attributeBuilder.append("NOT");
                     }
@@ -1972,25 +2643,29 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                         .append(" #>> '{coordinates,0}')\\:\\:numeric")
                         .append(", (");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
                         .append(" #>> '{coordinates,1}')\\:\\:numeric")
                         .append(")")
-                        .append(", ST_MakeEnvelope(")
-                        .append(location.lngMin)
-                        .append(",")
-                        .append(location.latMin)
-                        .append(",")
-                        .append(location.lngMax)
-                        .append(",")
-                        .append(location.latMax)
+                        .append(", ST_MakeEnvelope(?")
+                        .append(pos)
+                        .append(", ?")
+                        .append(pos + 1)
+                        .append(", ?")
+                        .append(pos + 2)
+                        .append(", ?")
+                        .append(pos + 3)
                         .append("))");
+                    binders.add((em, st, q, tp) -> st.setParameter(pos, locationAccessor.apply(q).lngMin));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos + 1, locationAccessor.apply(q).latMin));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos + 2, locationAccessor.apply(q).lngMax));
+                    binders.add((em, st, q, tp) -> st.setParameter(pos + 3, locationAccessor.apply(q).latMax));
                 }
             } else if (nameValuePredicate.value instanceof ValueEmptyPredicate) {
                 valuePathInserter.accept(attributeBuilder, binders);
                 attributeBuilder.append(((ValueEmptyPredicate) nameValuePredicate.value).negate ? "\\:\\:text IS NOT NULL" : "\\:\\:text IS NULL");
             } else if (nameValuePredicate.value instanceof CalendarEventPredicate) {
                 final int pos = binders.size() + 1;
-                java.sql.Timestamp when = new java.sql.Timestamp(((CalendarEventPredicate)nameValuePredicate.value).timestamp.getTime());
 
                 // The recurrence logic is applied post DB query just check start key is present and in the past and also
                 // that the end key is numeric and in the future if no recurrence value
@@ -2010,8 +2685,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 valuePathInserter.accept(attributeBuilder, binders);
                 attributeBuilder
                     .append(" #> '{recurrence}') = 'string'))");
-                binders.add((em, st) -> st.setParameter(pos, when));
-                binders.add((em, st) -> st.setParameter(pos+1, when));
+                binders.add((em, st, q, tp) -> st.setParameter(pos, new java.sql.Timestamp(((CalendarEventPredicate) valueAccessor.apply(q)).timestamp.getTime())));
+                binders.add((em, st, q, tp) -> st.setParameter(pos+1, new java.sql.Timestamp(((CalendarEventPredicate) valueAccessor.apply(q)).timestamp.getTime())));
             } else {
                 throw new UnsupportedOperationException("Attribute value predicate is not supported: " + nameValuePredicate.value);
             }
@@ -2029,6 +2704,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return attributeBuilder.toString();
     }
 
+    protected static String[] getValuePath(NameValuePredicate nameValuePredicate, boolean isAttributePredicate) {
+        List<String> paths = new ArrayList<>();
+        if (isAttributePredicate) {
+            paths.add("value");
+        }
+        paths.addAll(Arrays.stream(nameValuePredicate.path.getPaths()).map(Object::toString).collect(Collectors.toList()));
+        return paths.toArray(new String[0]);
+    }
+
     protected static String buildOperatorFilter(AssetQuery.Operator operator, boolean negate, int pos) {
         switch (operator) {
             case EQUALS:
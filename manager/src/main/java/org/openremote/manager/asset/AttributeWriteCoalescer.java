@@ -0,0 +1,226 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.util.ValueUtil;
+import org.postgresql.util.PGobject;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces attribute value writes so that all value/timestamp changes of an asset within a flush window are written
+ * with a single UPDATE of the asset's ATTRIBUTES column, rather than one UPDATE (and therefore one new row version) per
+ * attribute event. Only the latest value of each attribute is written and a pending value never overwrites a newer
+ * value that was stored in the meantime (e.g. by an asset merge).
+ * <p>
+ * Assets must be loaded through {@link #load} so the writes that are not visible to the loaded row are applied; the
+ * writes of a committed flush are kept until every load that started before the commit has completed.
+ */
+public class AttributeWriteCoalescer {
+
+    private static final Logger LOG = Logger.getLogger(AttributeWriteCoalescer.class.getName());
+    protected static final String UPDATE_SQL = "update ASSET A set ATTRIBUTES = A.ATTRIBUTES || coalesce((" +
+        "select jsonb_object_agg(P.key, (A.ATTRIBUTES -> P.key) || P.value) from jsonb_each(?) P " +
+        "where A.ATTRIBUTES -> P.key is not null " +
+        "and coalesce((A.ATTRIBUTES -> P.key ->> 'timestamp')::bigint, 0) <= (P.value ->> 'timestamp')::bigint" +
+        "), '{}'::jsonb) where A.ID = ?";
+    protected final PersistenceService persistenceService;
+    protected final ScheduledExecutorService executorService;
+    protected final long flushIntervalMillis;
+    protected final Map<String, Map<String, Attribute<?>>> pendingWrites = new ConcurrentHashMap<>();
+    // The writes of the flush in progress, so they can still be read until they have been committed
+    protected volatile Map<String, Map<String, Attribute<?>>> flushingWrites = Collections.emptyMap();
+    // The writes of committed flushes by flush sequence, kept whilst a load that started before the commit is active
+    protected final ConcurrentSkipListMap<Long, Map<String, Map<String, Attribute<?>>>> committedWrites = new ConcurrentSkipListMap<>();
+    protected final AtomicLong committedFlushes = new AtomicLong();
+    // The committed flush sequence at the start of each active load
+    protected final Map<Object, Long> activeLoads = new ConcurrentHashMap<>();
+    protected ScheduledFuture<?> flushFuture;
+    protected final AtomicLong queuedWrites = new AtomicLong();
+    protected final AtomicLong writtenAttributes = new AtomicLong();
+    protected final AtomicLong assetUpdates = new AtomicLong();
+    protected final AtomicLong failedAssetUpdates = new AtomicLong();
+
+    public AttributeWriteCoalescer(PersistenceService persistenceService, ScheduledExecutorService executorService, long flushIntervalMillis) {
+        this.persistenceService = persistenceService;
+        this.executorService = executorService;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public void start() {
+        flushFuture = executorService.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        flush();
+    }
+
+    /**
+     * Queue the attribute value and timestamp to be written on the next flush; replaces any pending write of the same
+     * attribute with an older timestamp.
+     */
+    public void add(String assetId, Attribute<?> attribute) {
+        queuedWrites.incrementAndGet();
+        queue(assetId, attribute);
+    }
+
+    protected void queue(String assetId, Attribute<?> attribute) {
+        pendingWrites.compute(assetId, (id, attributes) -> {
+            // Copy on write so readers of the pending writes never see a map that is being modified
+            Map<String, Attribute<?>> updatedAttributes = attributes == null ? new LinkedHashMap<>() : new LinkedHashMap<>(attributes);
+            updatedAttributes.merge(attribute.getName(), attribute, (existing, updated) ->
+                updated.getTimestamp().orElse(0L) >= existing.getTimestamp().orElse(0L) ? updated : existing);
+            return updatedAttributes;
+        });
+    }
+
+    /**
+     * Load an asset and apply the values that were not visible to the loader: those that have not been written yet and
+     * those of flushes that committed whilst loading (only attributes that are present and older are replaced); the
+     * loaded asset must not be a managed entity.
+     */
+    public <T extends Asset<?>> T load(Supplier<T> loader) {
+        Object loadKey = new Object();
+        long sequence = committedFlushes.get();
+        activeLoads.put(loadKey, sequence);
+        try {
+            T asset = loader.get();
+            if (asset != null) {
+                applyWrites(asset, pendingWrites.get(asset.getId()));
+                applyWrites(asset, flushingWrites.get(asset.getId()));
+                committedWrites.tailMap(sequence, false).values().forEach(writes -> applyWrites(asset, writes.get(asset.getId())));
+            }
+            return asset;
+        } finally {
+            activeLoads.remove(loadKey);
+            pruneCommittedWrites();
+        }
+    }
+
+    protected void pruneCommittedWrites() {
+        if (committedWrites.isEmpty()) {
+            return;
+        }
+        // Loads that are registered after this point start after the pruned flushes have committed
+        long oldestLoad = activeLoads.values().stream().mapToLong(Long::longValue).min().orElse(Long.MAX_VALUE);
+        committedWrites.headMap(oldestLoad, true).clear();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected static void applyWrites(Asset<?> asset, Map<String, Attribute<?>> writes) {
+        if (writes == null) {
+            return;
+        }
+        writes.values().forEach(write -> asset.getAttribute(write.getName()).ifPresent(attribute -> {
+            // Only the value and timestamp are written so the meta of the loaded attribute is kept
+            if (write.getTimestamp().orElse(0L) >= attribute.getTimestamp().orElse(0L)) {
+                ((Attribute) attribute).setValue(write.getValue().orElse(null), write.getTimestamp().orElse(0L));
+            }
+        }));
+    }
+
+    public synchronized void flush() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+
+        List<String> assetIds = new ArrayList<>(pendingWrites.keySet());
+        Map<String, Map<String, Attribute<?>>> writes = new ConcurrentHashMap<>(assetIds.size());
+        flushingWrites = writes;
+        assetIds.forEach(assetId -> pendingWrites.computeIfPresent(assetId, (id, attributes) -> {
+            writes.put(id, attributes);
+            return null;
+        }));
+
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(UPDATE_SQL)) {
+                    for (Map.Entry<String, Map<String, Attribute<?>>> assetWrites : writes.entrySet()) {
+                        statement.setObject(1, toJsonb(assetWrites.getValue()));
+                        statement.setString(2, assetWrites.getKey());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            }));
+            // Make the writes readable by loads that started before the commit before they are no longer flushing
+            committedWrites.put(committedFlushes.incrementAndGet(), writes);
+            assetUpdates.addAndGet(writes.size());
+            writtenAttributes.addAndGet(writes.values().stream().mapToInt(Map::size).sum());
+            LOG.finest("Flushed coalesced attribute writes for " + writes.size() + " asset(s)");
+        } catch (Exception e) {
+            failedAssetUpdates.addAndGet(writes.size());
+            LOG.log(Level.WARNING, "Failed to flush coalesced attribute writes for " + writes.size() + " asset(s)", e);
+            // Re-queue the writes (without counting them again) unless newer values have been queued since
+            writes.forEach((assetId, attributes) -> attributes.values().forEach(attribute -> queue(assetId, attribute)));
+        } finally {
+            flushingWrites = Collections.emptyMap();
+            pruneCommittedWrites();
+        }
+    }
+
+    protected static PGobject toJsonb(Map<String, Attribute<?>> attributes) throws SQLException {
+        ObjectNode node = ValueUtil.JSON.createObjectNode();
+        attributes.forEach((name, attribute) -> {
+            ObjectNode valueNode = node.putObject(name);
+            valueNode.set("value", ValueUtil.JSON.valueToTree(attribute.getValue().orElse(null)));
+            valueNode.put("timestamp", attribute.getTimestamp().orElse(0L));
+        });
+        PGobject pgJsonValue = new PGobject();
+        pgJsonValue.setType("jsonb");
+        pgJsonValue.setValue(node.toString());
+        return pgJsonValue;
+    }
+
+    public ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("pendingAssets", pendingWrites.size());
+        status.put("retainedFlushes", committedWrites.size());
+        status.put("queuedWrites", queuedWrites.get());
+        status.put("writtenAttributes", writtenAttributes.get());
+        status.put("assetUpdates", assetUpdates.get());
+        status.put("failedAssetUpdates", failedAssetUpdates.get());
+        return status;
+    }
+}
@@ -12,6 +12,7 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.datapoint.DatapointDecimation;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.DatapointPeriod;
 import org.openremote.model.datapoint.ValueDatapoint;
@@ -20,16 +21,22 @@ import org.openremote.model.util.ValueUtil;
 import org.postgresql.util.PGInterval;
 import org.postgresql.util.PGobject;
 
+import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Level;
@@ -43,11 +50,14 @@ import static java.time.temporal.ChronoUnit.DAYS;
 public abstract class AbstractDatapointService<T extends Datapoint> implements ContainerService {
 
     public static final int PRIORITY = AssetStorageService.PRIORITY + 100;
+    protected static final int DECIMATION_FETCH_SIZE = 10000;
     protected PersistenceService persistenceService;
     protected AssetStorageService assetStorageService;
     protected TimerService timerService;
     protected ScheduledExecutorService executorService;
     protected ScheduledFuture<?> dataPointsPurgeScheduledFuture;
+    protected DatapointRollups rollups;
+    protected DatapointPartitions partitions;
 
     @Override
     public int getPriority() {
@@ -78,6 +88,12 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                         st = getUpsertPreparedStatement(connection);
                         setUpsertValues(st, assetId, attributeName, value, timestamp);
                         st.executeUpdate();
+
+                        if (rollups != null) {
+                            Map<AttributeRef, LocalDateTime[]> ranges = DatapointRollups.createRanges();
+                            DatapointRollups.addToRanges(ranges, assetId, attributeName, timestamp);
+                            rollups.markDirty(connection, ranges);
+                        }
                     } catch (Exception e) {
                         String msg = "Failed to insert/update data point: ";
                         getLogger().log(Level.WARNING, msg, e);
@@ -96,11 +112,18 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                     try {
                         st = getUpsertPreparedStatement(connection);
 
+                        Map<AttributeRef, LocalDateTime[]> ranges = DatapointRollups.createRanges();
+
                         for (Pair<?, LocalDateTime> valueAndTimestamp : valuesAndTimestamps) {
                             setUpsertValues(st, assetId, attributeName, valueAndTimestamp.key, valueAndTimestamp.value);
                             st.addBatch();
+                            DatapointRollups.addToRanges(ranges, assetId, attributeName, valueAndTimestamp.value);
                         }
                         st.executeBatch();
+
+                        if (rollups != null) {
+                            rollups.markDirty(connection, ranges);
+                        }
                     } catch (Exception e) {
                         String msg = "Failed to insert/update data points: " + assetId + ", name=" + attributeName + ", count=" + valuesAndTimestamps.size();
                         getLogger().log(Level.WARNING, msg, e);
@@ -109,6 +132,68 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                 }));
     }
 
+    /**
+     * Insert/update datapoints of any number of attributes using a single batch statement in one transaction.
+     */
+    public void upsertValues(List<? extends Datapoint> datapoints) throws IllegalStateException {
+        if (datapoints.isEmpty()) {
+            return;
+        }
+
+        persistenceService.doTransaction(em -> upsertValues(em, datapoints));
+    }
+
+    /**
+     * Insert/update datapoints of any number of attributes using a single batch statement in the transaction of the
+     * given entity manager, so they are only committed together with the caller's other changes.
+     */
+    public void upsertValues(EntityManager em, List<? extends Datapoint> datapoints) throws IllegalStateException {
+        if (datapoints.isEmpty()) {
+            return;
+        }
+
+        em.unwrap(Session.class).doWork(connection -> {
+            getLogger().finest("Storing datapoints: count=" + datapoints.size());
+
+            try (PreparedStatement st = getUpsertPreparedStatement(connection)) {
+                Map<AttributeRef, LocalDateTime[]> ranges = DatapointRollups.createRanges();
+
+                for (Datapoint datapoint : datapoints) {
+                    LocalDateTime timestamp = toLocalDateTime(datapoint.getTimestamp());
+                    setUpsertValues(
+                        st,
+                        datapoint.getAssetId(),
+                        datapoint.getAttributeName(),
+                        datapoint.getValue(),
+                        timestamp);
+                    st.addBatch();
+                    DatapointRollups.addToRanges(ranges, datapoint.getAssetId(), datapoint.getAttributeName(), timestamp);
+                }
+                st.executeBatch();
+
+                if (rollups != null) {
+                    rollups.markDirty(connection, ranges);
+                }
+            } catch (Exception e) {
+                String msg = "Failed to insert/update data points: count=" + datapoints.size();
+                getLogger().log(Level.WARNING, msg, e);
+                throw new IllegalStateException(msg, e);
+            }
+        });
+    }
+
+    protected static LocalDateTime toLocalDateTime(long timestamp) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+    }
+
+    public DatapointRollups getRollups() {
+        return rollups;
+    }
+
+    public DatapointPartitions getPartitions() {
+        return partitions;
+    }
+
     public List<T> getDatapoints(AttributeRef attributeRef) {
         return persistenceService.doReturningTransaction(entityManager ->
                 entityManager.createQuery(
@@ -175,25 +260,32 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
 
         getLogger().finer("Getting datapoints for: " + attributeRef);
 
+        Class<?> attributeType = attribute.getType().getType();
+        boolean isNumber = Number.class.isAssignableFrom(attributeType);
+        boolean isBoolean = Boolean.class.isAssignableFrom(attributeType);
+        boolean downsample = isNumber || isBoolean;
+        boolean useRollups = downsample && rollups != null && rollups.isAvailable();
+
+        if (useRollups) {
+            // Include datapoints written since the last refresh
+            rollups.refresh(attributeRef);
+        }
+
         return persistenceService.doReturningTransaction(entityManager ->
 
                 entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<ValueDatapoint<?>[]>() {
                     @Override
                     public ValueDatapoint<?>[] execute(Connection connection) throws SQLException {
 
-                        Class<?> attributeType = attribute.getType().getType();
-                        boolean isNumber = Number.class.isAssignableFrom(attributeType);
-                        boolean isBoolean = Boolean.class.isAssignableFrom(attributeType);
                         StringBuilder query = new StringBuilder();
-                        boolean downsample = isNumber || isBoolean;
 
                         String truncate = null;
                         String part = null;
                         String interval = null;
                         String stepStr = null;
                         String partQuery = "date_part(?, ?)::int";
-                        String partQuery2 = "date_part(?, TIMESTAMP)::int";
                         int step = 1;
+                        ChronoUnit stepUnit = null;
 
                         if (downsample) {
 
@@ -206,36 +298,41 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                                     part = "min";
                                     interval = "min";
                                     partQuery = "(date_part('hour', ?)::int * 60 + date_part(?, ?)::int)";
-                                    partQuery2 = "(date_part('hour', TIMESTAMP)::int * 60 + date_part(?, TIMESTAMP)::int)";
+                                    stepUnit = ChronoUnit.MINUTES;
                                     break;
                                 case HOUR:
                                     step = stepSize == null ? 1 : Math.max(1, Math.min(24, stepSize));
                                     truncate = "day";
                                     part = "hour";
+                                    stepUnit = ChronoUnit.HOURS;
                                     interval = "hour";
                                     break;
                                 case DAY:
                                     step = stepSize == null ? 1 : Math.max(1, Math.min(365, stepSize));
                                     truncate = "year";
                                     part = "doy";
+                                    stepUnit = ChronoUnit.DAYS;
                                     interval = "day";
                                     break;
                                 case WEEK:
                                     step = stepSize == null ? 1 : Math.max(1, Math.min(53, stepSize));
                                     truncate = "year";
                                     part = "week";
+                                    stepUnit = ChronoUnit.WEEKS;
                                     interval = "week";
                                     break;
                                 case MONTH:
                                     step = stepSize == null ? 1 : Math.max(1, Math.min(12, stepSize));
                                     truncate = "year";
                                     part = "month";
+                                    stepUnit = ChronoUnit.MONTHS;
                                     interval = "month";
                                     break;
                                 case YEAR:
                                     step = stepSize == null ? 1 : Math.max(1, stepSize);
                                     truncate = "decade";
                                     part = "year";
+                                    stepUnit = ChronoUnit.YEARS;
                                     interval = "year";
                                     break;
                                 default:
@@ -243,19 +340,29 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                             }
                             stepStr = step + " " + interval;
 
-                            // TODO: Change this to use something like this max min decimation algorithm https://knowledge.ni.com/KnowledgeArticleDetails?id=kA00Z0000019YLKSA2&l=en-GB)
+                            // Periods are whole buckets of the coarsest rollup tier that fits and still covers the first
+                            // period (which starts at most one step before from), so group its buckets instead of the datapoints
+                            DatapointRollups.Tier rollupTier = useRollups ? rollups.getTier(datapointInterval, step, fromTimestamp.minus(step, stepUnit)) : null;
+                            String timestampColumn = rollupTier != null ? "BUCKET" : "TIMESTAMP";
+                            String partQuery2 = datapointInterval == DatapointInterval.MINUTE
+                                ? "(date_part('hour', " + timestampColumn + ")::int * 60 + date_part(?, " + timestampColumn + ")::int)"
+                                : "date_part(?, " + timestampColumn + ")::int";
+
+                            // Averaging hides peaks, see getDecimatedDatapoints for a shape preserving alternative
                             query.append("select PERIOD as X, AVG_VALUE as Y " +
                                     "from generate_series(date_trunc(?, ?) + " + partQuery + " / ? * ?, date_trunc(?, ?) + " + partQuery + " / ? * ?, ?) PERIOD left join ( " +
-                                    "select (date_trunc(?, TIMESTAMP) + " + partQuery2 + " / ? * ?)::timestamp as TS, ");
+                                    "select (date_trunc(?, " + timestampColumn + ") + " + partQuery2 + " / ? * ?)::timestamp as TS, ");
 
-                            if (isNumber) {
-                                query.append(" AVG(VALUE::text::numeric) as AVG_VALUE ");
+                            if (rollupTier != null) {
+                                query.append(" SUM(SUM_VALUE) / SUM(VALUE_COUNT) as AVG_VALUE ");
+                            } else if (isNumber) {
+                                query.append(partitions != null ? " AVG(" + DatapointPartitions.NUMBER_VALUE_COLUMN + ") as AVG_VALUE " : " AVG(VALUE::text::numeric) as AVG_VALUE ");
                             } else {
-                                query.append(" AVG(case when VALUE::text::boolean is true then 1 else 0 end) as AVG_VALUE ");
+                                query.append(partitions != null ? " AVG(" + DatapointPartitions.BOOLEAN_VALUE_COLUMN + "::int) as AVG_VALUE " : " AVG(case when VALUE::text::boolean is true then 1 else 0 end) as AVG_VALUE ");
                             }
 
-                            query.append("from " + getDatapointTableName() +
-                                    " where TIMESTAMP >= date_trunc(?, ?) and TIMESTAMP < (date_trunc(?, ?) + ?) and ENTITY_ID = ? and ATTRIBUTE_NAME = ? group by TS) DP on DP.TS = PERIOD order by PERIOD asc");
+                            query.append("from " + (rollupTier != null ? rollups.getTableName(rollupTier) : getDatapointTableName()) +
+                                    " where " + timestampColumn + " >= date_trunc(?, ?) and " + timestampColumn + " < (date_trunc(?, ?) + ?) and ENTITY_ID = ? and ATTRIBUTE_NAME = ? group by TS) DP on DP.TS = PERIOD order by PERIOD asc");
 
                         } else {
                             query.append("select distinct TIMESTAMP AS X, value AS Y from " + getDatapointTableName() +
@@ -336,6 +443,112 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
         );
     }
 
+    /**
+     * Get the datapoints of the period reduced to at most the requested number of points (see {@link DatapointDecimator}),
+     * the datapoints are streamed from the database so memory use depends only on the number of points returned.
+     */
+    public ValueDatapoint<?>[] getDecimatedDatapoints(String assetId,
+                                                      Attribute<?> attribute,
+                                                      DatapointDecimation decimation,
+                                                      Integer maxPoints,
+                                                      LocalDateTime fromTimestamp,
+                                                      LocalDateTime toTimestamp) {
+
+        AttributeRef attributeRef = new AttributeRef(assetId, attribute.getName());
+
+        getLogger().finer("Getting decimated datapoints for: " + attributeRef);
+
+        Class<?> attributeType = attribute.getType().getType();
+        boolean isNumber = Number.class.isAssignableFrom(attributeType);
+        boolean isBoolean = Boolean.class.isAssignableFrom(attributeType);
+        boolean numeric = isNumber || isBoolean;
+        DatapointDecimation algorithm = decimation != null ? decimation : DatapointDecimation.LTTB;
+        int resolvedMaxPoints = DatapointDecimator.getMaxPoints(maxPoints);
+        int bucketCount = DatapointDecimator.getBucketCount(algorithm, resolvedMaxPoints);
+        long periodMillis = ChronoUnit.MILLIS.between(fromTimestamp, toTimestamp);
+        String offsetColumn = "(extract(epoch from (TIMESTAMP - ?)) * 1000)::bigint";
+        String valueColumn = numeric ? getNumericValueExpression(isNumber) : "VALUE";
+
+        return persistenceService.doReturningTransaction(entityManager ->
+
+                entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<ValueDatapoint<?>[]>() {
+                    @Override
+                    public ValueDatapoint<?>[] execute(Connection connection) throws SQLException {
+
+                        NavigableMap<Integer, double[]> bucketAverages = null;
+
+                        if (numeric && algorithm == DatapointDecimation.LTTB) {
+                            // Bucket arithmetic matches DatapointDecimator.getBucket (integer division)
+                            bucketAverages = new TreeMap<>();
+                            String query = "select least(greatest(OFFSET_MILLIS * ? / ?, 0), ? - 1) as BUCKET, avg(OFFSET_MILLIS), avg(Y) from (" +
+                                "select " + offsetColumn + " as OFFSET_MILLIS, " + valueColumn + " as Y from " + getDatapointTableName() +
+                                " where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP >= ? and TIMESTAMP <= ?) DP where Y is not null group by BUCKET";
+
+                            try (PreparedStatement st = connection.prepareStatement(query)) {
+                                st.setLong(1, bucketCount);
+                                st.setLong(2, Math.max(1L, periodMillis));
+                                st.setLong(3, bucketCount);
+                                st.setObject(4, fromTimestamp);
+                                st.setString(5, attributeRef.getId());
+                                st.setString(6, attributeRef.getName());
+                                st.setObject(7, fromTimestamp);
+                                st.setObject(8, toTimestamp);
+
+                                try (ResultSet rs = st.executeQuery()) {
+                                    while (rs.next()) {
+                                        bucketAverages.put(rs.getInt(1), new double[]{rs.getDouble(2), rs.getDouble(3)});
+                                    }
+                                }
+                            }
+                        }
+
+                        DatapointDecimator decimator = new DatapointDecimator(algorithm, resolvedMaxPoints, periodMillis, bucketAverages);
+                        String query = "select TIMESTAMP, " + offsetColumn + ", " + valueColumn + " from " + getDatapointTableName() +
+                            " where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP >= ? and TIMESTAMP <= ? order by TIMESTAMP asc";
+
+                        try (PreparedStatement st = connection.prepareStatement(query)) {
+                            st.setObject(1, fromTimestamp);
+                            st.setString(2, attributeRef.getId());
+                            st.setString(3, attributeRef.getName());
+                            st.setObject(4, fromTimestamp);
+                            st.setObject(5, toTimestamp);
+                            st.setFetchSize(DECIMATION_FETCH_SIZE);
+
+                            try (ResultSet rs = st.executeQuery()) {
+                                while (rs.next()) {
+                                    long timestamp = rs.getTimestamp(1).getTime();
+                                    long offset = rs.getLong(2);
+                                    Object value = rs.getObject(3);
+
+                                    if (numeric) {
+                                        if (value != null) {
+                                            decimator.add(offset, timestamp, rs.getDouble(3));
+                                        }
+                                    } else {
+                                        if (value instanceof PGobject) {
+                                            value = ValueUtil.parse(((PGobject) value).getValue()).orElse(null);
+                                        } else if (value != null) {
+                                            value = ValueUtil.getValueCoerced(value, JsonNode.class).orElse(null);
+                                        }
+                                        decimator.addSample(offset, timestamp, value);
+                                    }
+                                }
+                            }
+                        }
+
+                        return decimator.getResult();
+                    }
+                })
+        );
+    }
+
+    protected String getNumericValueExpression(boolean isNumber) {
+        if (partitions != null) {
+            return DatapointPartitions.VALUE_EXPRESSION;
+        }
+        return isNumber ? "VALUE::text::numeric" : "(case when VALUE::text::boolean is true then 1 else 0 end)";
+    }
+
     public DatapointPeriod getDatapointPeriod(String assetId, String attributeName) {
         return persistenceService.doReturningTransaction(em ->
                 em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<DatapointPeriod>() {
@@ -366,6 +579,15 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
     }
 
     protected PreparedStatement getUpsertPreparedStatement(Connection connection) throws SQLException {
+        if (partitions != null) {
+            return connection.prepareStatement("INSERT INTO " + getDatapointTableName() + " (entity_id, attribute_name, value, timestamp, " +
+                DatapointPartitions.NUMBER_VALUE_COLUMN + ", " + DatapointPartitions.BOOLEAN_VALUE_COLUMN + ") " +
+                "VALUES (?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE " +
+                "SET value = excluded.value, " +
+                DatapointPartitions.NUMBER_VALUE_COLUMN + " = excluded." + DatapointPartitions.NUMBER_VALUE_COLUMN + ", " +
+                DatapointPartitions.BOOLEAN_VALUE_COLUMN + " = excluded." + DatapointPartitions.BOOLEAN_VALUE_COLUMN);
+        }
         return connection.prepareStatement("INSERT INTO " + getDatapointTableName() + " (entity_id, attribute_name, value, timestamp) " +
                 "VALUES (?, ?, ?, ?) " +
                 "ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE " +
@@ -380,6 +602,10 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
         st.setString(2, attributeName);
         st.setObject(3, pgJsonValue);
         st.setObject(4, timestamp);
+        if (partitions != null) {
+            st.setObject(5, DatapointPartitions.getNumberValue(value), Types.DOUBLE);
+            st.setObject(6, DatapointPartitions.getBooleanValue(value), Types.BOOLEAN);
+        }
     }
 
     protected abstract Class<T> getDatapointClass();
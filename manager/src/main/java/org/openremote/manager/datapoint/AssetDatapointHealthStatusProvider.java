@@ -65,6 +65,15 @@ public class AssetDatapointHealthStatusProvider implements HealthStatusProvider,
     public Object getHealthStatus() {
         ObjectNode value = ValueUtil.JSON.createObjectNode();
         value.put("totalDatapoints", assetDatapointService.getDatapointsCount());
+        if (assetDatapointService.getWriteBuffer() != null) {
+            value.set("writeBuffer", assetDatapointService.getWriteBuffer().getStatus());
+        }
+        if (assetDatapointService.getRollups() != null) {
+            value.set("rollups", assetDatapointService.getRollups().getStatus());
+        }
+        if (assetDatapointService.getPartitions() != null) {
+            value.set("partitions", assetDatapointService.getPartitions().getStatus());
+        }
         return value;
     }
 }
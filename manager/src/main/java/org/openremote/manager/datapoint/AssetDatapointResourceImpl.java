@@ -20,7 +20,6 @@
 package org.openremote.manager.datapoint;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import org.apache.commons.io.IOUtils;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.security.ManagerIdentityService;
@@ -29,6 +28,8 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.AssetDatapointResource;
+import org.openremote.model.datapoint.DatapointDecimation;
+import org.openremote.model.datapoint.DatapointExportFormat;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.DatapointPeriod;
 import org.openremote.model.datapoint.ValueDatapoint;
@@ -40,16 +41,15 @@ import javax.ws.rs.BeanParam;
 import javax.ws.rs.NotSupportedException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.container.AsyncResponse;
-import javax.ws.rs.container.ConnectionCallback;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import java.io.*;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -60,6 +60,7 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
 
     private static final Logger LOG = Logger.getLogger(AssetDatapointResourceImpl.class.getName());
     private static final Logger DATA_EXPORT_LOG = SyslogCategory.getLogger(DATA, AssetDatapointResourceImpl.class);
+    protected static final int EXPORT_BUFFER_SIZE = 64 * 1024;
 
     protected final AssetStorageService assetStorageService;
     protected final AssetDatapointService assetDatapointService;
@@ -80,7 +81,9 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                                              DatapointInterval interval,
                                              Integer stepSize,
                                              long fromTimestamp,
-                                             long toTimestamp) {
+                                             long toTimestamp,
+                                             DatapointDecimation decimation,
+                                             Integer maxPoints) {
         try {
 
             if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), assetId)) {
@@ -102,6 +105,15 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                     new WebApplicationException(Response.Status.NOT_FOUND)
             );
 
+            if (decimation != null) {
+                return assetDatapointService.getDecimatedDatapoints(assetId,
+                    attribute,
+                    decimation,
+                    maxPoints,
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(fromTimestamp), ZoneId.systemDefault()),
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(toTimestamp), ZoneId.systemDefault()));
+            }
+
             return assetDatapointService.getValueDatapoints(assetId,
                     attribute,
                     interval,
@@ -146,9 +158,10 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
     }
 
     @Override
-    public void getDatapointExport(AsyncResponse asyncResponse, String attributeRefsString, long fromTimestamp, long toTimestamp) {
+    public void getDatapointExport(AsyncResponse asyncResponse, String attributeRefsString, long fromTimestamp, long toTimestamp, DatapointExportFormat format) {
         try {
             AttributeRef[] attributeRefs = JSON.readValue(attributeRefsString, AttributeRef[].class);
+            DatapointExportFormat exportFormat = format != null ? format : DatapointExportFormat.CSV_ZIP;
 
             for (AttributeRef attributeRef : attributeRefs) {
                 if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), attributeRef.getId())) {
@@ -173,43 +186,38 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
 
             DATA_EXPORT_LOG.info("User '" + getUsername() +  "' started data export for " + attributeRefsString + " from " + fromTimestamp + " to " + toTimestamp);
 
-            ScheduledFuture<File> exportFuture = assetDatapointService.exportDatapoints(attributeRefs, fromTimestamp, toTimestamp);
-            asyncResponse.register((ConnectionCallback) disconnected -> {
-                exportFuture.cancel(true);
-            });
-
-            File exportFile = null;
+            // Headers must be set before the first write, the response is then sent chunked as rows are read
+            response.setContentType(exportFormat.getContentType());
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + exportFormat.getFileName() + "\"");
 
             try {
-                exportFile = exportFuture.get();
-
-                ZipOutputStream zipOut = new ZipOutputStream(response.getOutputStream());
-                FileInputStream fin = new FileInputStream(exportFile);
-                ZipEntry zipEntry = new ZipEntry(exportFile.getName());
-                zipOut.putNextEntry(zipEntry);
-                IOUtils.copy(fin, zipOut);
-                zipOut.closeEntry();
-                zipOut.close();
-                fin.close();
-
-                response.setContentType("application/zip");
-                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"dataexport.zip\"");
+                OutputStream out = response.getOutputStream();
+
+                switch (exportFormat) {
+                    case CSV_ZIP:
+                        ZipOutputStream zipOut = new ZipOutputStream(out);
+                        zipOut.putNextEntry(new ZipEntry("dataexport.csv"));
+                        assetDatapointService.exportDatapoints(attributeRefs, fromTimestamp, toTimestamp, zipOut);
+                        zipOut.closeEntry();
+                        zipOut.finish();
+                        break;
+                    case CSV_GZIP:
+                        GZIPOutputStream gzipOut = new GZIPOutputStream(out, EXPORT_BUFFER_SIZE);
+                        assetDatapointService.exportDatapoints(attributeRefs, fromTimestamp, toTimestamp, gzipOut);
+                        gzipOut.finish();
+                        break;
+                    default:
+                        assetDatapointService.exportDatapoints(attributeRefs, fromTimestamp, toTimestamp, out);
+                }
 
+                out.flush();
                 asyncResponse.resume(
                     response
                 );
             } catch (Exception ex) {
-                exportFuture.cancel(true);
+                // Once streaming has started the status can no longer be changed, the client sees a truncated response
                 asyncResponse.resume(new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR));
-                DATA_EXPORT_LOG.log(Level.SEVERE, "Exception in ScheduledFuture: ", ex);
-            } finally {
-                if (exportFile != null && exportFile.exists()) {
-                    try {
-                        exportFile.delete();
-                    } catch (Exception e) {
-                        DATA_EXPORT_LOG.log(Level.SEVERE, "Failed to delete temporary export file: " + exportFile.getPath(), e);
-                    }
-                }
+                DATA_EXPORT_LOG.log(Level.SEVERE, "Data export failed for " + attributeRefsString, ex);
             }
         } catch (JsonProcessingException ex) {
             asyncResponse.resume(new BadRequestException(ex));
@@ -1,7 +1,7 @@
 package org.openremote.manager.datapoint;
 
+import org.hibernate.Session;
 import org.openremote.container.timer.TimerService;
-import org.openremote.container.util.UniqueIdentifierGenerator;
 import org.openremote.manager.asset.AssetProcessingException;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.asset.AssetUpdateProcessor;
@@ -18,21 +18,31 @@ import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.filter.AttributePredicate;
 import org.openremote.model.query.filter.NameValuePredicate;
 import org.openremote.model.util.Pair;
+import org.openremote.model.util.TextUtil;
 import org.openremote.model.value.MetaItemType;
 
 import javax.persistence.EntityManager;
-import java.io.File;
-import java.nio.file.Path;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -55,11 +65,36 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
 
     public static final String DATA_POINTS_MAX_AGE_DAYS = "DATA_POINTS_MAX_AGE_DAYS";
     public static final int DATA_POINTS_MAX_AGE_DAYS_DEFAULT = 31;
-    public static final String DATA_POINTS_EXPORT_DIR = "DATA_POINTS_EXPORT_DIR";
-    public static final String DATA_POINTS_EXPORT_DIR_DEFAULT = "/tmp";
+    // Size of the write-behind buffer, when 0 each datapoint is written in the asset processing transaction
+    public static final String DATA_POINTS_WRITE_BUFFER_SIZE = "DATA_POINTS_WRITE_BUFFER_SIZE";
+    public static final int DATA_POINTS_WRITE_BUFFER_SIZE_DEFAULT = 0;
+    public static final String DATA_POINTS_WRITE_BATCH_SIZE = "DATA_POINTS_WRITE_BATCH_SIZE";
+    public static final int DATA_POINTS_WRITE_BATCH_SIZE_DEFAULT = 500;
+    public static final String DATA_POINTS_WRITE_FLUSH_MILLIS = "DATA_POINTS_WRITE_FLUSH_MILLIS";
+    public static final int DATA_POINTS_WRITE_FLUSH_MILLIS_DEFAULT = 1000;
+    // Directory to spill datapoints to when the write buffer overflows, disabled when not set
+    public static final String DATA_POINTS_WRITE_SPILL_DIR = "DATA_POINTS_WRITE_SPILL_DIR";
+    // Interval for refreshing the minute/hour/day rollups used for downsampling, rollups are disabled when 0
+    public static final String DATA_POINTS_ROLLUP_REFRESH_MILLIS = "DATA_POINTS_ROLLUP_REFRESH_MILLIS";
+    public static final int DATA_POINTS_ROLLUP_REFRESH_MILLIS_DEFAULT = 0;
+    public static final String DATA_POINTS_ROLLUP_MINUTE_MAX_AGE_DAYS = "DATA_POINTS_ROLLUP_MINUTE_MAX_AGE_DAYS";
+    public static final int DATA_POINTS_ROLLUP_MINUTE_MAX_AGE_DAYS_DEFAULT = 31;
+    public static final String DATA_POINTS_ROLLUP_HOUR_MAX_AGE_DAYS = "DATA_POINTS_ROLLUP_HOUR_MAX_AGE_DAYS";
+    public static final int DATA_POINTS_ROLLUP_HOUR_MAX_AGE_DAYS_DEFAULT = 365;
+    public static final String DATA_POINTS_ROLLUP_DAY_MAX_AGE_DAYS = "DATA_POINTS_ROLLUP_DAY_MAX_AGE_DAYS";
+    public static final int DATA_POINTS_ROLLUP_DAY_MAX_AGE_DAYS_DEFAULT = 0;
+    public static final String DATA_POINTS_PARTITION_DAYS = "DATA_POINTS_PARTITION_DAYS";
+    public static final int DATA_POINTS_PARTITION_DAYS_DEFAULT = 0;
     private static final Logger LOG = Logger.getLogger(AssetDatapointService.class.getName());
+    protected static final int EXPORT_FETCH_SIZE = 10000;
+    protected static final String EXPORT_QUERY = "select AD.TIMESTAMP, A.NAME, AD.ATTRIBUTE_NAME, AD.VALUE from %s AD " +
+        "join ASSET A on AD.ENTITY_ID = A.ID " +
+        "join unnest(?::text[], ?::text[]) as REF(ENTITY_ID, ATTRIBUTE_NAME) on AD.ENTITY_ID = REF.ENTITY_ID and AD.ATTRIBUTE_NAME = REF.ATTRIBUTE_NAME " +
+        "where AD.TIMESTAMP >= ? and AD.TIMESTAMP <= ?";
     protected int maxDatapointAgeDays;
-    protected Path exportPath;
+    protected DatapointWriteBuffer<AssetDatapoint> writeBuffer;
+    // Datapoints of the attribute event batch being processed by the current thread, see beginDatapointBatch
+    protected final ThreadLocal<List<AssetDatapoint>> batchDatapoints = new ThreadLocal<>();
 
     @Override
     public void init(Container container) throws Exception {
@@ -80,12 +115,70 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
             LOG.warning(DATA_POINTS_MAX_AGE_DAYS + " value is not a valid value so data points won't be auto purged");
         }
 
-        exportPath = Paths.get(getString(container.getConfig(), DATA_POINTS_EXPORT_DIR, DATA_POINTS_EXPORT_DIR_DEFAULT));
+        int writeBufferSize = getInteger(container.getConfig(), DATA_POINTS_WRITE_BUFFER_SIZE, DATA_POINTS_WRITE_BUFFER_SIZE_DEFAULT);
+
+        if (writeBufferSize > 0) {
+            String spillDir = getString(container.getConfig(), DATA_POINTS_WRITE_SPILL_DIR, null);
+            writeBuffer = new DatapointWriteBuffer<>(
+                executorService,
+                writeBufferSize,
+                getInteger(container.getConfig(), DATA_POINTS_WRITE_BATCH_SIZE, DATA_POINTS_WRITE_BATCH_SIZE_DEFAULT),
+                getInteger(container.getConfig(), DATA_POINTS_WRITE_FLUSH_MILLIS, DATA_POINTS_WRITE_FLUSH_MILLIS_DEFAULT),
+                TextUtil.isNullOrEmpty(spillDir) ? null : Paths.get(spillDir),
+                this::upsertValues,
+                node -> new AssetDatapoint(
+                    node.path("assetId").asText(),
+                    node.path("attributeName").asText(),
+                    node.get("value"),
+                    node.path("timestamp").asLong())
+            );
+            LOG.info("Datapoints will be written in batches using a write buffer of size: " + writeBufferSize);
+        }
+
+        int partitionDays = getInteger(container.getConfig(), DATA_POINTS_PARTITION_DAYS, DATA_POINTS_PARTITION_DAYS_DEFAULT);
+
+        if (partitionDays > 0) {
+            partitions = new DatapointPartitions(persistenceService, timerService, getDatapointTableName(), partitionDays);
+            LOG.info("Datapoints will be stored in partitions of " + partitionDays + " day(s)");
+        }
+
+        int rollupRefreshMillis = getInteger(container.getConfig(), DATA_POINTS_ROLLUP_REFRESH_MILLIS, DATA_POINTS_ROLLUP_REFRESH_MILLIS_DEFAULT);
+
+        if (rollupRefreshMillis > 0) {
+            Map<DatapointRollups.Tier, Integer> tierMaxAgeDays = new EnumMap<>(DatapointRollups.Tier.class);
+            tierMaxAgeDays.put(DatapointRollups.Tier.MINUTE, getInteger(container.getConfig(), DATA_POINTS_ROLLUP_MINUTE_MAX_AGE_DAYS, DATA_POINTS_ROLLUP_MINUTE_MAX_AGE_DAYS_DEFAULT));
+            tierMaxAgeDays.put(DatapointRollups.Tier.HOUR, getInteger(container.getConfig(), DATA_POINTS_ROLLUP_HOUR_MAX_AGE_DAYS, DATA_POINTS_ROLLUP_HOUR_MAX_AGE_DAYS_DEFAULT));
+            tierMaxAgeDays.put(DatapointRollups.Tier.DAY, getInteger(container.getConfig(), DATA_POINTS_ROLLUP_DAY_MAX_AGE_DAYS, DATA_POINTS_ROLLUP_DAY_MAX_AGE_DAYS_DEFAULT));
+            rollups = new DatapointRollups(
+                persistenceService,
+                timerService,
+                executorService,
+                getDatapointTableName(),
+                rollupRefreshMillis,
+                maxDatapointAgeDays,
+                tierMaxAgeDays,
+                partitions != null ? DatapointPartitions.VALUE_EXPRESSION : DatapointRollups.VALUE_EXPRESSION
+            );
+            LOG.info("Datapoint rollups will be refreshed every: " + rollupRefreshMillis + "ms");
+        }
     }
 
     @Override
     public void start(Container container) throws Exception {
-        if (maxDatapointAgeDays > 0) {
+        // Partitions must exist before anything is written
+        if (partitions != null) {
+            partitions.start();
+        }
+
+        if (writeBuffer != null) {
+            writeBuffer.start();
+        }
+
+        if (rollups != null) {
+            rollups.start();
+        }
+
+        if (maxDatapointAgeDays > 0 || rollups != null || partitions != null) {
             dataPointsPurgeScheduledFuture = executorService.scheduleAtFixedRate(
                 this::purgeDataPoints,
                 getFirstPurgeMillis(timerService.getNow()),
@@ -94,6 +187,44 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         }
     }
 
+    @Override
+    public void stop(Container container) throws Exception {
+        super.stop(container);
+
+        if (writeBuffer != null) {
+            writeBuffer.stop();
+        }
+
+        if (rollups != null) {
+            rollups.stop();
+        }
+    }
+
+    public DatapointWriteBuffer<AssetDatapoint> getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    /**
+     * Collect the datapoints of asset updates subsequently processed by the calling thread instead of writing them one
+     * at a time, until {@link #endDatapointBatch} is called. Has no effect when the write buffer is enabled as the
+     * datapoints are then already written in batches.
+     */
+    public void beginDatapointBatch() {
+        if (writeBuffer == null) {
+            batchDatapoints.set(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Stop collecting datapoints for the calling thread; the caller is responsible for writing the returned datapoints
+     * in the transaction of the batch (see {@link #upsertValues(EntityManager, List)}).
+     */
+    public List<AssetDatapoint> endDatapointBatch() {
+        List<AssetDatapoint> datapoints = batchDatapoints.get();
+        batchDatapoints.remove();
+        return datapoints != null ? datapoints : Collections.emptyList();
+    }
+
     public static boolean attributeIsStoreDatapoint(Attribute<?> attribute) {
         return attribute.getMetaValue(STORE_DATA_POINTS).orElse(attribute.hasMeta(MetaItemType.AGENT_LINK));
     }
@@ -106,7 +237,18 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
 
         if (attributeIsStoreDatapoint(attribute) && attribute.getValue().isPresent()) { // Don't store datapoints with null value
             try {
-                upsertValue(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), LocalDateTime.ofInstant(Instant.ofEpochMilli(attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis)), ZoneId.systemDefault()));
+                long timestamp = attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis);
+
+                List<AssetDatapoint> batch = batchDatapoints.get();
+
+                if (writeBuffer != null) {
+                    // Written asynchronously in batches so not part of the processing transaction
+                    writeBuffer.add(new AssetDatapoint(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), timestamp));
+                } else if (batch != null) {
+                    batch.add(new AssetDatapoint(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), timestamp));
+                } else {
+                    upsertValue(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()));
+                }
             } catch (Exception e) {
                 throw new AssetProcessingException(AttributeWriteFailure.STATE_STORAGE_FAILED, "Failed to insert or update asset data point for attribute: " + attribute, e);
             }
@@ -132,6 +274,19 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
     protected void purgeDataPoints() {
         LOG.info("Starting data points purge daily task");
 
+        if (rollups != null) {
+            rollups.purge();
+        }
+
+        if (partitions != null) {
+            partitions.maintain();
+        }
+
+        if (maxDatapointAgeDays <= 0) {
+            LOG.info("Finished data points purge daily task");
+            return;
+        }
+
         try {
             // Get list of attributes that have custom durations
             List<Asset<?>> assets = assetStorageService.findAll(
@@ -151,6 +306,16 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
                 .flatMap(List::stream)
                 .collect(toList());
 
+            if (partitions != null) {
+                // Drop the partitions that only contain data points older than the longest max age, the remaining data
+                // points are deleted below
+                int longestMaxAgeDays = attributes.stream()
+                    .mapToInt(attributeRef -> attributeRef.value.getMetaValue(MetaItemType.DATA_POINTS_MAX_AGE_DAYS).orElse(maxDatapointAgeDays))
+                    .reduce(maxDatapointAgeDays, Math::max);
+                partitions.dropPartitionsBefore(
+                    LocalDateTime.ofInstant(timerService.getNow().truncatedTo(DAYS).minus(longestMaxAgeDays, DAYS), ZoneId.systemDefault()));
+            }
+
             // Purge data points not in the above list using default duration
             LOG.fine("Purging data points of attributes that use default max age days of " + maxDatapointAgeDays);
 
@@ -200,21 +365,60 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         return " and (dp.assetId, dp.attributeName) " + (negate ? "not " : "") + "in (" + whereStr + ")";
     }
 
-    public ScheduledFuture<File> exportDatapoints(AttributeRef[] attributeRefs,
-                                                  long fromTimestamp,
-                                                  long toTimestamp) {
-        return executorService.schedule(() -> {
-            String fileName = UniqueIdentifierGenerator.generateId() + ".csv";
-            StringBuilder sb = new StringBuilder(String.format("copy (select ad.timestamp, a.name, ad.attribute_name, value from asset_datapoint ad, asset a where ad.entity_id = a.id and ad.timestamp >= to_timestamp(%d) and ad.timestamp <= to_timestamp(%d) and (", fromTimestamp / 1000, toTimestamp / 1000));
-
-            sb.append(Arrays.stream(attributeRefs).map(attributeRef -> String.format("(ad.entity_id = '%s' and ad.attribute_name = '%s')", attributeRef.getId(), attributeRef.getName())).collect(Collectors.joining(" or ")));
+    /**
+     * Streams the datapoints of the specified attributes as CSV (with header row) to the supplied output stream; the
+     * datapoints are read with a server side cursor so memory use is independent of the size of the export. The output
+     * stream is flushed but not closed.
+     */
+    public void exportDatapoints(AttributeRef[] attributeRefs,
+                                 long fromTimestamp,
+                                 long toTimestamp,
+                                 OutputStream outputStream) throws IOException {
+        String[] assetIds = Arrays.stream(attributeRefs).map(AttributeRef::getId).toArray(String[]::new);
+        String[] attributeNames = Arrays.stream(attributeRefs).map(AttributeRef::getName).toArray(String[]::new);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
 
-            sb.append(String.format(")) to '/tmp/%s' delimiter ',' CSV HEADER;", fileName));
-
-            persistenceService.doTransaction(em -> em.createNativeQuery(sb.toString()).executeUpdate());
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement st = connection.prepareStatement(String.format(EXPORT_QUERY, getDatapointTableName()))) {
+                    st.setArray(1, connection.createArrayOf("text", assetIds));
+                    st.setArray(2, connection.createArrayOf("text", attributeNames));
+                    st.setObject(3, toLocalDateTime(fromTimestamp));
+                    st.setObject(4, toLocalDateTime(toTimestamp));
+                    // Only honoured by the driver within a transaction, rows are then fetched in chunks
+                    st.setFetchSize(EXPORT_FETCH_SIZE);
+
+                    try (ResultSet rs = st.executeQuery()) {
+                        writer.write("timestamp,name,attribute_name,value\n");
+                        while (rs.next()) {
+                            writer.write(toCsvField(rs.getString(1)));
+                            writer.write(',');
+                            writer.write(toCsvField(rs.getString(2)));
+                            writer.write(',');
+                            writer.write(toCsvField(rs.getString(3)));
+                            writer.write(',');
+                            writer.write(toCsvField(rs.getString(4)));
+                            writer.write('\n');
+                        }
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-            return exportPath.resolve(fileName).toFile();
-        }, 0, TimeUnit.MILLISECONDS);
+    protected static String toCsvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
     }
 
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.model.datapoint.DatapointDecimation;
+import org.openremote.model.datapoint.ValueDatapoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Reduces a stream of datapoints (in timestamp order) to at most a maximum number of points, memory use is proportional
+ * to the number of points returned rather than the number of datapoints added.
+ * <p>
+ * The period is divided into equally sized time buckets, a datapoint's position within the period is given by its
+ * offset (milliseconds since the start of the period). For {@link DatapointDecimation#LTTB} the average offset and value
+ * of each bucket must be supplied up front (see {@link #getBucket}) as the selection in a bucket depends on the average of
+ * the following bucket.
+ */
+public class DatapointDecimator {
+
+    public static final int MAX_POINTS_DEFAULT = 1000;
+    public static final int MAX_POINTS_LIMIT = 10000;
+    protected final DatapointDecimation decimation;
+    protected final long periodMillis;
+    protected final int bucketCount;
+    protected final NavigableMap<Integer, double[]> bucketAverages;
+    protected final List<ValueDatapoint<?>> result;
+    protected Point first;
+    protected Point last;
+    protected Point selected;
+    protected int bucket = -1;
+    protected double[] nextAverage;
+    // Candidates of the current bucket
+    protected Point best;
+    protected double bestArea;
+    protected Point min;
+    protected Point max;
+
+    protected static class Point {
+        protected final long offset;
+        protected final long timestamp;
+        protected final Object value;
+        protected final double y;
+
+        protected Point(long offset, long timestamp, Object value, double y) {
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.value = value;
+            this.y = y;
+        }
+    }
+
+    /**
+     * @param bucketAverages the average offset and value of each non empty bucket, only required for
+     *                       {@link DatapointDecimation#LTTB} of numeric values.
+     */
+    public DatapointDecimator(DatapointDecimation decimation, int maxPoints, long periodMillis, NavigableMap<Integer, double[]> bucketAverages) {
+        this.decimation = decimation;
+        this.periodMillis = Math.max(1L, periodMillis);
+        this.bucketCount = getBucketCount(decimation, maxPoints);
+        this.bucketAverages = bucketAverages;
+        this.result = new ArrayList<>(getMaxPoints(maxPoints));
+    }
+
+    public static int getMaxPoints(Integer maxPoints) {
+        return maxPoints == null ? MAX_POINTS_DEFAULT : Math.max(3, Math.min(MAX_POINTS_LIMIT, maxPoints));
+    }
+
+    /**
+     * The first and last datapoint are always returned so the remaining points are spread over the buckets.
+     */
+    public static int getBucketCount(DatapointDecimation decimation, Integer maxPoints) {
+        int innerPoints = getMaxPoints(maxPoints) - 2;
+        return decimation == DatapointDecimation.MIN_MAX ? Math.max(1, innerPoints / 2) : innerPoints;
+    }
+
+    public static int getBucket(long offset, long periodMillis, int bucketCount) {
+        long bucket = offset * bucketCount / Math.max(1L, periodMillis);
+        return (int) Math.max(0L, Math.min(bucketCount - 1, bucket));
+    }
+
+    /**
+     * Add a numeric (or boolean as 0/1) datapoint.
+     */
+    public void add(long offset, long timestamp, double value) {
+        Point point = new Point(offset, timestamp, value, value);
+
+        if (first == null) {
+            first = point;
+            last = point;
+            selected = point;
+            result.add(toDatapoint(point));
+            return;
+        }
+
+        last = point;
+        startBucket(getBucket(offset, periodMillis, bucketCount));
+
+        if (decimation == DatapointDecimation.MIN_MAX || bucketAverages == null) {
+            if (min == null || point.y < min.y) {
+                min = point;
+            }
+            if (max == null || point.y > max.y) {
+                max = point;
+            }
+        } else {
+            // Area of the triangle formed by the previously selected point, this point and the next bucket's average
+            double area = Math.abs((selected.offset - nextAverage[0]) * (point.y - selected.y)
+                - (selected.offset - point.offset) * (nextAverage[1] - selected.y));
+            if (best == null || area > bestArea) {
+                best = point;
+                bestArea = area;
+            }
+        }
+    }
+
+    /**
+     * Add a datapoint that can't be compared, the first datapoint of each bucket is returned.
+     */
+    public void addSample(long offset, long timestamp, Object value) {
+        Point point = new Point(offset, timestamp, value, 0d);
+
+        if (first == null) {
+            first = point;
+            last = point;
+            result.add(toDatapoint(point));
+            return;
+        }
+
+        last = point;
+        startBucket(getBucket(offset, periodMillis, bucketCount));
+
+        if (best == null) {
+            best = point;
+        }
+    }
+
+    public ValueDatapoint<?>[] getResult() {
+        closeBucket();
+        if (last != null && last != first && (result.isEmpty() || result.get(result.size() - 1).getTimestamp() != last.timestamp)) {
+            result.add(toDatapoint(last));
+        }
+        return result.toArray(new ValueDatapoint<?>[0]);
+    }
+
+    protected void startBucket(int newBucket) {
+        if (newBucket == bucket) {
+            return;
+        }
+        closeBucket();
+        bucket = newBucket;
+
+        if (bucketAverages != null) {
+            Map.Entry<Integer, double[]> next = bucketAverages.higherEntry(bucket);
+            // The last bucket has no following bucket so use its own average
+            nextAverage = next != null ? next.getValue() : bucketAverages.getOrDefault(bucket, new double[]{last.offset, last.y});
+        }
+    }
+
+    protected void closeBucket() {
+        if (best != null) {
+            addSelected(best);
+        } else if (min != null) {
+            if (min == max) {
+                addSelected(min);
+            } else if (min.timestamp <= max.timestamp) {
+                addSelected(min);
+                addSelected(max);
+            } else {
+                addSelected(max);
+                addSelected(min);
+            }
+        }
+        best = null;
+        min = null;
+        max = null;
+    }
+
+    protected void addSelected(Point point) {
+        if (point != first) {
+            result.add(toDatapoint(point));
+        }
+        selected = point;
+    }
+
+    protected static ValueDatapoint<?> toDatapoint(Point point) {
+        return new ValueDatapoint<>(point.timestamp, point.value);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.container.Container;
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.persistence.ManagerPersistenceService;
+import org.openremote.model.datapoint.AssetDatapoint;
+
+import java.util.logging.Logger;
+
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.manager.datapoint.AssetDatapointService.DATA_POINTS_PARTITION_DAYS;
+import static org.openremote.manager.datapoint.AssetDatapointService.DATA_POINTS_PARTITION_DAYS_DEFAULT;
+
+/**
+ * Converts the asset datapoint table to the partitioned table used when {@link AssetDatapointService#DATA_POINTS_PARTITION_DAYS}
+ * is set; the manager must be stopped whilst this runs. Uses the same database configuration (environment) as the
+ * manager and applies any pending database migrations first.
+ */
+public class DatapointPartitionConverter {
+
+    private static final Logger LOG = Logger.getLogger(DatapointPartitionConverter.class.getName());
+
+    public static void main(String[] args) throws Exception {
+        Container container = new Container(
+            new TimerService(),
+            new ManagerPersistenceService()
+        );
+
+        int partitionDays = getInteger(container.getConfig(), DATA_POINTS_PARTITION_DAYS, DATA_POINTS_PARTITION_DAYS_DEFAULT);
+        if (partitionDays <= 0) {
+            throw new IllegalArgumentException("Set " + DATA_POINTS_PARTITION_DAYS + " to the number of days per partition");
+        }
+
+        container.start();
+
+        try {
+            DatapointPartitions partitions = new DatapointPartitions(
+                container.getService(ManagerPersistenceService.class),
+                container.getService(TimerService.class),
+                AssetDatapoint.TABLE_NAME,
+                partitionDays
+            );
+
+            if (partitions.convert()) {
+                LOG.info("Converted datapoint table to partitions of " + partitionDays + " day(s): " + AssetDatapoint.TABLE_NAME);
+            } else {
+                LOG.info("Datapoint table is already partitioned: " + AssetDatapoint.TABLE_NAME);
+            }
+        } finally {
+            container.stop();
+        }
+    }
+}
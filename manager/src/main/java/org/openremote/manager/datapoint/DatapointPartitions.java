@@ -0,0 +1,352 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.container.timer.TimerService;
+import org.openremote.model.util.ValueUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Range partitions a datapoint table by timestamp into partitions of a fixed number of days so that retention can
+ * drop whole partitions instead of deleting rows. The partitioned table has an (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)
+ * primary key, which also serves as the access index of attribute queries, and typed {@link #NUMBER_VALUE_COLUMN} and
+ * {@link #BOOLEAN_VALUE_COLUMN} columns alongside the JSON value so aggregates don't need to cast the JSON value.
+ * <p>
+ * An existing unpartitioned table must be converted (the existing datapoints are copied) offline with the
+ * {@link DatapointPartitionConverter} whilst the manager is stopped, as the copy locks the table for its duration. On
+ * start partitions are created up to {@link #PREMAKE_PARTITIONS} partitions ahead of the current time; datapoints
+ * outside all partitions go to a default partition and are moved when a partition covering them is created. Requires
+ * PostgreSQL 11 or later.
+ */
+public class DatapointPartitions {
+
+    public static final String NUMBER_VALUE_COLUMN = "NUMBER_VALUE";
+    public static final String BOOLEAN_VALUE_COLUMN = "BOOLEAN_VALUE";
+    public static final int PREMAKE_PARTITIONS = 2;
+    /**
+     * Value expression for aggregating numbers and booleans (true = 1, false = 0) of a partitioned table.
+     */
+    public static final String VALUE_EXPRESSION = "coalesce(" + NUMBER_VALUE_COLUMN + ", " + BOOLEAN_VALUE_COLUMN + "::int)";
+    protected static final int MIN_SERVER_VERSION = 110000;
+    protected static final DateTimeFormatter PARTITION_SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    protected static final Pattern PARTITION_BOUND_PATTERN = Pattern.compile("FROM \\('([^']+)'\\) TO \\('([^']+)'\\)");
+    private static final Logger LOG = Logger.getLogger(DatapointPartitions.class.getName());
+    protected final PersistenceService persistenceService;
+    protected final TimerService timerService;
+    protected final String tableName;
+    protected final int partitionDays;
+
+    // Metrics
+    protected final AtomicLong createdPartitions = new AtomicLong();
+    protected final AtomicLong droppedPartitions = new AtomicLong();
+    protected volatile int partitionCount;
+
+    public DatapointPartitions(PersistenceService persistenceService, TimerService timerService, String tableName, int partitionDays) {
+        this.persistenceService = persistenceService;
+        this.timerService = timerService;
+        this.tableName = tableName.toLowerCase();
+        this.partitionDays = Math.max(1, partitionDays);
+    }
+
+    /**
+     * Creates any missing partitions.
+     *
+     * @throws IllegalStateException if the database doesn't support partitioning or the table hasn't been converted.
+     */
+    public void start() throws IllegalStateException {
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            checkServerVersion(connection);
+
+            if (!isPartitioned(connection)) {
+                throw new IllegalStateException("Datapoint table '" + tableName + "' isn't partitioned, stop the manager and run "
+                    + DatapointPartitionConverter.class.getName() + " to convert it first");
+            }
+        }));
+
+        maintain();
+    }
+
+    /**
+     * Converts the table if it isn't partitioned yet; this copies all datapoints in a single transaction so it must
+     * only be used when the manager isn't running.
+     *
+     * @return <code>false</code> if the table was already partitioned.
+     * @throws IllegalStateException if the database doesn't support partitioning.
+     */
+    public boolean convert() throws IllegalStateException {
+        boolean[] converted = new boolean[1];
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            checkServerVersion(connection);
+
+            if (!isPartitioned(connection)) {
+                convert(connection);
+                converted[0] = true;
+            }
+        }));
+
+        maintain();
+        return converted[0];
+    }
+
+    protected void checkServerVersion(Connection connection) throws SQLException {
+        int serverVersion = queryInt(connection, "select current_setting('server_version_num')::int");
+        if (serverVersion < MIN_SERVER_VERSION) {
+            throw new IllegalStateException("Datapoint partitioning requires PostgreSQL 11 or later, server version is: " + serverVersion);
+        }
+    }
+
+    /**
+     * Creates the partitions from the current time up to {@link #PREMAKE_PARTITIONS} partitions ahead.
+     */
+    public synchronized void maintain() {
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                LocalDate today = LocalDateTime.ofInstant(timerService.getNow(), ZoneId.systemDefault()).toLocalDate();
+                createPartitions(connection, today, today.plusDays((long) partitionDays * PREMAKE_PARTITIONS));
+                partitionCount = getPartitionBounds(connection).size();
+            }));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to create datapoint partitions of: " + tableName, e);
+        }
+    }
+
+    /**
+     * Drops all partitions that only contain datapoints older than the cutoff.
+     */
+    public synchronized void dropPartitionsBefore(LocalDateTime cutoff) {
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                for (PartitionBound bound : getPartitionBounds(connection)) {
+                    if (!bound.to.isAfter(cutoff)) {
+                        LOG.info("Dropping datapoint partition '" + bound.name + "' as it is older than: " + cutoff);
+                        execute(connection, "drop table " + bound.name);
+                        droppedPartitions.incrementAndGet();
+                    }
+                }
+                partitionCount = getPartitionBounds(connection).size();
+            }));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to drop datapoint partitions of: " + tableName, e);
+        }
+    }
+
+    protected boolean isPartitioned(Connection connection) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement("select c.relkind from pg_class c where c.oid = to_regclass(?)")) {
+            st.setString(1, tableName);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() && "p".equals(rs.getString(1));
+            }
+        }
+    }
+
+    protected void convert(Connection connection) throws SQLException {
+        String oldTableName = tableName + "_unpartitioned";
+        LOG.info("Converting datapoint table to partitioned table, this can take some time for large tables: " + tableName);
+        long start = System.currentTimeMillis();
+
+        execute(connection, "alter table " + tableName + " rename to " + oldTableName);
+        execute(connection, "alter index if exists " + tableName + "_pkey rename to " + oldTableName + "_pkey");
+        execute(connection, "create table " + tableName + " (" +
+            "TIMESTAMP timestamp not null, " +
+            "ENTITY_ID varchar(22) not null, " +
+            "ATTRIBUTE_NAME varchar(255) not null, " +
+            "VALUE jsonb not null, " +
+            NUMBER_VALUE_COLUMN + " double precision, " +
+            BOOLEAN_VALUE_COLUMN + " boolean, " +
+            "primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP), " +
+            "foreign key (ENTITY_ID) references ASSET (ID) on delete cascade" +
+            ") partition by range (TIMESTAMP)");
+        execute(connection, "create table " + tableName + "_default partition of " + tableName + " default");
+        execute(connection, "create index " + tableName + "_timestamp on " + tableName + " (TIMESTAMP)");
+
+        LocalDate from = null;
+        LocalDate to = null;
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("select min(TIMESTAMP), max(TIMESTAMP) from " + oldTableName)) {
+            if (rs.next() && rs.getTimestamp(1) != null) {
+                from = rs.getTimestamp(1).toLocalDateTime().toLocalDate();
+                to = rs.getTimestamp(2).toLocalDateTime().toLocalDate();
+            }
+        }
+
+        if (from != null) {
+            createPartitions(connection, from, to);
+        }
+
+        int count = executeUpdate(connection, "insert into " + tableName +
+            " (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE, " + NUMBER_VALUE_COLUMN + ", " + BOOLEAN_VALUE_COLUMN + ") " +
+            "select TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE, " +
+            "case when jsonb_typeof(VALUE) = 'number' then VALUE::text::double precision end, " +
+            "case when jsonb_typeof(VALUE) = 'boolean' then VALUE::text::boolean end " +
+            "from " + oldTableName);
+        execute(connection, "drop table " + oldTableName);
+
+        LOG.info("Converted datapoint table to partitioned table, copied " + count + " datapoints in " + (System.currentTimeMillis() - start) + "ms: " + tableName);
+    }
+
+    /**
+     * Creates any missing partitions covering the given dates (inclusive); datapoints of the new partition's range are
+     * moved out of the default partition first, as a partition can't be attached whilst the default partition contains
+     * rows that belong to it.
+     */
+    protected void createPartitions(Connection connection, LocalDate from, LocalDate to) throws SQLException {
+        List<PartitionBound> existing = getPartitionBounds(connection);
+        LocalDate partitionStart = getPartitionStart(from);
+
+        while (!partitionStart.isAfter(to)) {
+            LocalDate partitionEnd = partitionStart.plusDays(partitionDays);
+            LocalDateTime start = partitionStart.atStartOfDay();
+            LocalDateTime end = partitionEnd.atStartOfDay();
+
+            if (existing.stream().noneMatch(bound -> bound.from.isBefore(end) && bound.to.isAfter(start))) {
+                String partitionName = tableName + "_p" + PARTITION_SUFFIX_FORMAT.format(partitionStart);
+                String range = "'" + start + "'::timestamp";
+                String rangeEnd = "'" + end + "'::timestamp";
+                LOG.fine("Creating datapoint partition '" + partitionName + "' from " + start + " to " + end);
+
+                execute(connection, "create table " + partitionName + " (like " + tableName + " including defaults)");
+                executeUpdate(connection, "with MOVED as (delete from " + tableName + "_default " +
+                    "where TIMESTAMP >= " + range + " and TIMESTAMP < " + rangeEnd + " returning *) " +
+                    "insert into " + partitionName + " select * from MOVED");
+                execute(connection, "alter table " + tableName + " attach partition " + partitionName +
+                    " for values from ('" + start + "') to ('" + end + "')");
+                createdPartitions.incrementAndGet();
+            }
+            partitionStart = partitionEnd;
+        }
+    }
+
+    /**
+     * Partitions are aligned to multiples of the partition days since the epoch.
+     */
+    protected LocalDate getPartitionStart(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        return LocalDate.ofEpochDay(epochDay - Math.floorMod(epochDay, partitionDays));
+    }
+
+    protected static class PartitionBound {
+        protected final String name;
+        protected final LocalDateTime from;
+        protected final LocalDateTime to;
+
+        protected PartitionBound(String name, LocalDateTime from, LocalDateTime to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    protected List<PartitionBound> getPartitionBounds(Connection connection) throws SQLException {
+        List<PartitionBound> bounds = new ArrayList<>();
+
+        try (PreparedStatement st = connection.prepareStatement(
+            "select c.relname, pg_get_expr(c.relpartbound, c.oid) from pg_inherits i " +
+                "join pg_class c on c.oid = i.inhrelid where i.inhparent = to_regclass(?)")) {
+            st.setString(1, tableName);
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    Matcher matcher = PARTITION_BOUND_PATTERN.matcher(rs.getString(2));
+                    // The default partition has no range
+                    if (matcher.find()) {
+                        bounds.add(new PartitionBound(
+                            rs.getString(1),
+                            Timestamp.valueOf(matcher.group(1)).toLocalDateTime(),
+                            Timestamp.valueOf(matcher.group(2)).toLocalDateTime()));
+                    }
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Get the value to store in the {@link #NUMBER_VALUE_COLUMN}.
+     */
+    public static Double getNumberValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof JsonNode && ((JsonNode) value).isNumber()) {
+            return ((JsonNode) value).doubleValue();
+        }
+        return null;
+    }
+
+    /**
+     * Get the value to store in the {@link #BOOLEAN_VALUE_COLUMN}.
+     */
+    public static Boolean getBooleanValue(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof JsonNode && ((JsonNode) value).isBoolean()) {
+            return ((JsonNode) value).booleanValue();
+        }
+        return null;
+    }
+
+    protected static int queryInt(Connection connection, String sql) throws SQLException {
+        try (Statement st = connection.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    protected static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    protected static int executeUpdate(Connection connection, String sql) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            return st.executeUpdate(sql);
+        }
+    }
+
+    public ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("partitionDays", partitionDays);
+        status.put("partitions", partitionCount);
+        status.put("createdPartitions", createdPartitions.get());
+        status.put("droppedPartitions", droppedPartitions.get());
+        return status;
+    }
+}
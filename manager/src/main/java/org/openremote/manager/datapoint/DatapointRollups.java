@@ -0,0 +1,435 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.container.timer.TimerService;
+import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.datapoint.DatapointInterval;
+import org.openremote.model.util.ValueUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+/**
+ * Maintains minute, hour and day rollups (min/max/sum/count) of the numeric and boolean datapoints of a datapoint
+ * table; the minute tier is computed from the datapoints, each coarser tier from the tier below it. Writers mark the
+ * time range of an attribute as dirty in the dirty range table in the same transaction as the datapoints and only the
+ * buckets covering dirty ranges are recomputed on the next refresh, so updated datapoints are handled the same way as
+ * new ones and no dirty range is lost when the manager stops before a refresh.
+ * <p>
+ * On start the stored dirty ranges and any datapoints written since the latest bucket of each tier (or all datapoints
+ * when the tiers are empty) are rolled up before the rollups are reported as available; datapoints older than the
+ * latest bucket that were written while the rollups were disabled aren't, truncate the rollup tables to rebuild them.
+ */
+public class DatapointRollups {
+
+    public enum Tier {
+        MINUTE("minute", null),
+        HOUR("hour", MINUTE),
+        DAY("day", HOUR);
+
+        final String field;
+        final Tier source;
+
+        Tier(String field, Tier source) {
+            this.field = field;
+            this.source = source;
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(DatapointRollups.class.getName());
+    protected static final String VALUE_EXPRESSION = "case jsonb_typeof(VALUE) " +
+        "when 'number' then VALUE::text::double precision " +
+        "when 'boolean' then case when VALUE::text::boolean is true then 1 else 0 end end";
+    protected static final LocalDateTime CATCH_UP_FROM = LocalDateTime.of(1970, 1, 1, 0, 0);
+    protected final PersistenceService persistenceService;
+    protected final TimerService timerService;
+    protected final ScheduledExecutorService executorService;
+    protected final String datapointTableName;
+    protected final long refreshIntervalMillis;
+    protected final int datapointMaxAgeDays;
+    protected final Map<Tier, Integer> tierMaxAgeDays;
+    protected final String valueExpression;
+    protected ScheduledFuture<?> refreshFuture;
+    protected volatile boolean available;
+
+    // Metrics
+    protected final AtomicLong refreshCount = new AtomicLong();
+    protected final AtomicLong refreshedAttributes = new AtomicLong();
+    protected final AtomicLong refreshFailures = new AtomicLong();
+    protected volatile long lastRefreshMillis;
+    protected volatile long maxRefreshMillis;
+
+    /**
+     * @param datapointMaxAgeDays The max age of the datapoints, buckets are never recomputed from purged datapoints.
+     * @param tierMaxAgeDays      The max age of each tier, tiers without a max age (or a value &lt;= 0) are not purged.
+     */
+    public DatapointRollups(PersistenceService persistenceService,
+                            TimerService timerService,
+                            ScheduledExecutorService executorService,
+                            String datapointTableName,
+                            long refreshIntervalMillis,
+                            int datapointMaxAgeDays,
+                            Map<Tier, Integer> tierMaxAgeDays) {
+        this(persistenceService, timerService, executorService, datapointTableName, refreshIntervalMillis, datapointMaxAgeDays, tierMaxAgeDays, VALUE_EXPRESSION);
+    }
+
+    /**
+     * @param valueExpression SQL expression of a datapoint's numeric value, <code>null</code> for non numeric values.
+     */
+    public DatapointRollups(PersistenceService persistenceService,
+                            TimerService timerService,
+                            ScheduledExecutorService executorService,
+                            String datapointTableName,
+                            long refreshIntervalMillis,
+                            int datapointMaxAgeDays,
+                            Map<Tier, Integer> tierMaxAgeDays,
+                            String valueExpression) {
+        this.valueExpression = valueExpression;
+        this.persistenceService = persistenceService;
+        this.timerService = timerService;
+        this.executorService = executorService;
+        this.datapointTableName = datapointTableName;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.datapointMaxAgeDays = datapointMaxAgeDays;
+        this.tierMaxAgeDays = new EnumMap<>(Tier.class);
+        this.tierMaxAgeDays.putAll(tierMaxAgeDays);
+    }
+
+    public void start() {
+        executorService.execute(this::catchUp);
+        refreshFuture = executorService.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (refreshFuture != null) {
+            refreshFuture.cancel(false);
+            refreshFuture = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> once the rollups have caught up with the datapoints written before start.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public String getTableName(Tier tier) {
+        return datapointTableName + "_" + tier.name();
+    }
+
+    public String getDirtyTableName() {
+        return datapointTableName + "_ROLLUP_DIRTY";
+    }
+
+    /**
+     * @return The coarsest tier whose buckets fit exactly into the downsampling periods of the given interval and step
+     * and that hasn't been purged from the given timestamp onwards, <code>null</code> if no tier covers the timestamp
+     * and the datapoints must be used.
+     */
+    public Tier getTier(DatapointInterval interval, int step, LocalDateTime from) {
+        // Finer tiers fit whenever a coarser one does and may be retained for longer
+        for (Tier tier = getTier(interval, step); tier != null; tier = tier.source) {
+            Integer maxAgeDays = tierMaxAgeDays.get(tier);
+            if (maxAgeDays == null || maxAgeDays <= 0 || !from.isBefore(getCutoff(maxAgeDays))) {
+                return tier;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The coarsest tier whose buckets fit exactly into the downsampling periods of the given interval and step.
+     */
+    public static Tier getTier(DatapointInterval interval, int step) {
+        switch (interval) {
+            case MINUTE:
+                return step % 1440 == 0 ? Tier.DAY : step % 60 == 0 ? Tier.HOUR : Tier.MINUTE;
+            case HOUR:
+                return step % 24 == 0 ? Tier.DAY : Tier.HOUR;
+            default:
+                return Tier.DAY;
+        }
+    }
+
+    /**
+     * @return A map for collecting the dirty ranges of a write, ordered so concurrent writers lock the dirty range rows
+     * in the same order.
+     */
+    public static Map<AttributeRef, LocalDateTime[]> createRanges() {
+        return new TreeMap<>(Comparator.comparing(AttributeRef::getId).thenComparing(AttributeRef::getName));
+    }
+
+    public static void addToRanges(Map<AttributeRef, LocalDateTime[]> ranges, String assetId, String attributeName, LocalDateTime timestamp) {
+        ranges.merge(new AttributeRef(assetId, attributeName), new LocalDateTime[]{timestamp, timestamp}, (range1, range2) -> new LocalDateTime[]{
+            range1[0].isBefore(range2[0]) ? range1[0] : range2[0],
+            range1[1].isAfter(range2[1]) ? range1[1] : range2[1]
+        });
+    }
+
+    /**
+     * Mark the buckets containing the ranges as dirty; must be called in the transaction writing the datapoints.
+     */
+    public void markDirty(Connection connection, Map<AttributeRef, LocalDateTime[]> ranges) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement("insert into " + getDirtyTableName() +
+            " (ENTITY_ID, ATTRIBUTE_NAME, MIN_TIMESTAMP, MAX_TIMESTAMP) values (?, ?, ?, ?) " +
+            "on conflict (ENTITY_ID, ATTRIBUTE_NAME) do update set " +
+            "MIN_TIMESTAMP = least(" + getDirtyTableName() + ".MIN_TIMESTAMP, excluded.MIN_TIMESTAMP), " +
+            "MAX_TIMESTAMP = greatest(" + getDirtyTableName() + ".MAX_TIMESTAMP, excluded.MAX_TIMESTAMP)")) {
+            for (Map.Entry<AttributeRef, LocalDateTime[]> attributeRange : ranges.entrySet()) {
+                st.setString(1, attributeRange.getKey().getId());
+                st.setString(2, attributeRange.getKey().getName());
+                st.setObject(3, attributeRange.getValue()[0]);
+                st.setObject(4, attributeRange.getValue()[1]);
+                st.addBatch();
+            }
+            st.executeBatch();
+        }
+    }
+
+    /**
+     * Recompute the dirty buckets of all attributes.
+     */
+    public synchronized void refresh() {
+        doRefresh(null);
+    }
+
+    /**
+     * Recompute the dirty buckets of the attribute, used before querying the rollups of the attribute so recently
+     * written datapoints are included.
+     */
+    public synchronized void refresh(AttributeRef attributeRef) {
+        doRefresh(attributeRef);
+    }
+
+    /**
+     * Takes the dirty ranges of the attribute (or of all attributes) and recomputes their buckets in one transaction,
+     * so the ranges are only removed when their buckets have been recomputed. Ranges of writes that haven't been
+     * committed yet are skipped instead of waiting for the writers.
+     */
+    protected void doRefresh(AttributeRef attributeRef) {
+        long start = System.currentTimeMillis();
+
+        try {
+            int count = persistenceService.doReturningTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+                Map<AttributeRef, LocalDateTime[]> ranges = createRanges();
+                String filter = attributeRef != null ? " where ENTITY_ID = ? and ATTRIBUTE_NAME = ?" : "";
+
+                try (PreparedStatement st = connection.prepareStatement("delete from " + getDirtyTableName() +
+                    " where (ENTITY_ID, ATTRIBUTE_NAME) in (select ENTITY_ID, ATTRIBUTE_NAME from " + getDirtyTableName() + filter + " for update skip locked)" +
+                    " returning ENTITY_ID, ATTRIBUTE_NAME, MIN_TIMESTAMP, MAX_TIMESTAMP")) {
+                    if (attributeRef != null) {
+                        st.setString(1, attributeRef.getId());
+                        st.setString(2, attributeRef.getName());
+                    }
+                    try (ResultSet rs = st.executeQuery()) {
+                        while (rs.next()) {
+                            ranges.put(
+                                new AttributeRef(rs.getString(1), rs.getString(2)),
+                                new LocalDateTime[]{rs.getTimestamp(3).toLocalDateTime(), rs.getTimestamp(4).toLocalDateTime()});
+                        }
+                    }
+                }
+
+                if (ranges.isEmpty()) {
+                    return 0;
+                }
+
+                for (Tier tier : Tier.values()) {
+                    LocalDateTime sourceCutoff = getSourceCutoff(tier);
+
+                    try (PreparedStatement st = connection.prepareStatement(getRefreshSql(tier, true))) {
+                        for (Map.Entry<AttributeRef, LocalDateTime[]> attributeRange : ranges.entrySet()) {
+                            LocalDateTime from = attributeRange.getValue()[0];
+                            LocalDateTime to = attributeRange.getValue()[1];
+                            if (sourceCutoff != null && from.isBefore(sourceCutoff)) {
+                                if (to.isBefore(sourceCutoff)) {
+                                    continue;
+                                }
+                                from = sourceCutoff;
+                            }
+                            st.setString(1, attributeRange.getKey().getId());
+                            st.setString(2, attributeRange.getKey().getName());
+                            st.setObject(3, from);
+                            st.setObject(4, to);
+                            st.addBatch();
+                        }
+                        st.executeBatch();
+                    }
+                }
+                return ranges.size();
+            }));
+
+            if (count == 0) {
+                return;
+            }
+            long duration = System.currentTimeMillis() - start;
+            refreshCount.incrementAndGet();
+            refreshedAttributes.addAndGet(count);
+            lastRefreshMillis = duration;
+            maxRefreshMillis = Math.max(maxRefreshMillis, duration);
+            LOG.finest("Refreshed datapoint rollups of " + count + " attribute(s) in " + duration + "ms");
+        } catch (Exception e) {
+            // The dirty ranges are rolled back and refreshed next time
+            refreshFailures.incrementAndGet();
+            LOG.log(Level.WARNING, "Failed to refresh datapoint rollups" + (attributeRef != null ? " of: " + attributeRef : ""), e);
+        }
+    }
+
+    /**
+     * Roll up everything written since the latest bucket of each tier and the stored dirty ranges.
+     */
+    protected synchronized void catchUp() {
+        LOG.info("Catching up datapoint rollups of: " + datapointTableName);
+        long start = System.currentTimeMillis();
+
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                LocalDateTime to = LocalDateTime.ofInstant(timerService.getNow(), ZoneId.systemDefault()).plusDays(1);
+
+                for (Tier tier : Tier.values()) {
+                    LocalDateTime from = CATCH_UP_FROM;
+
+                    try (PreparedStatement st = connection.prepareStatement("select max(BUCKET) from " + getTableName(tier));
+                         ResultSet rs = st.executeQuery()) {
+                        if (rs.next() && rs.getTimestamp(1) != null) {
+                            from = rs.getTimestamp(1).toLocalDateTime();
+                        }
+                    }
+
+                    LocalDateTime sourceCutoff = getSourceCutoff(tier);
+                    if (sourceCutoff != null && from.isBefore(sourceCutoff)) {
+                        from = sourceCutoff;
+                    }
+
+                    try (PreparedStatement st = connection.prepareStatement(getRefreshSql(tier, false))) {
+                        st.setObject(1, from);
+                        st.setObject(2, to);
+                        st.executeUpdate();
+                    }
+                }
+            }));
+            // Dirty ranges before the latest buckets, e.g. of datapoints written since the last refresh before a restart
+            doRefresh(null);
+            available = true;
+            LOG.info("Caught up datapoint rollups of " + datapointTableName + " in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Failed to catch up datapoint rollups, rollups will not be used: " + datapointTableName, e);
+        }
+    }
+
+    /**
+     * Delete the buckets of each tier that are older than the max age of the tier.
+     */
+    public void purge() {
+        tierMaxAgeDays.forEach((tier, maxAgeDays) -> {
+            if (maxAgeDays == null || maxAgeDays <= 0) {
+                return;
+            }
+            LOG.fine("Purging " + tier + " datapoint rollups older than " + maxAgeDays + " days");
+            try {
+                persistenceService.doTransaction(em -> em.createNativeQuery(
+                    "delete from " + getTableName(tier) + " where BUCKET < ?"
+                ).setParameter(1, Timestamp.valueOf(getCutoff(maxAgeDays))).executeUpdate());
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to purge " + tier + " datapoint rollups", e);
+            }
+        });
+    }
+
+    /**
+     * @return The start of the oldest bucket of the tier that can still be computed from its source or
+     * <code>null</code> if the source isn't purged.
+     */
+    protected LocalDateTime getSourceCutoff(Tier tier) {
+        int maxAgeDays = tier.source == null ? datapointMaxAgeDays : tierMaxAgeDays.getOrDefault(tier.source, 0);
+        if (maxAgeDays <= 0) {
+            return null;
+        }
+        // The datapoint purge cutoff isn't necessarily at local midnight so skip the partially purged day
+        LocalDateTime cutoff = getCutoff(maxAgeDays);
+        return tier.source == null ? cutoff.plusDays(1) : cutoff;
+    }
+
+    protected LocalDateTime getCutoff(int maxAgeDays) {
+        return LocalDateTime.ofInstant(timerService.getNow(), ZoneId.systemDefault()).truncatedTo(DAYS).minusDays(maxAgeDays);
+    }
+
+    /**
+     * The statement recomputes all buckets of the tier between the two timestamp parameters (inclusive), optionally
+     * preceded by the asset ID and attribute name parameters.
+     */
+    protected String getRefreshSql(Tier tier, boolean attributeFilter) {
+        String filter = attributeFilter ? "ENTITY_ID = ? and ATTRIBUTE_NAME = ? and " : "";
+        String select;
+
+        if (tier.source == null) {
+            select = "select ENTITY_ID, ATTRIBUTE_NAME, date_trunc('" + tier.field + "', TIMESTAMP) as TRUNCATED_BUCKET, " +
+                "min(V), max(V), sum(V), count(V) from (" +
+                "select ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, " + valueExpression + " as V from " + datapointTableName +
+                " where " + filter + "TIMESTAMP >= date_trunc('" + tier.field + "', ?::timestamp) " +
+                "and TIMESTAMP < date_trunc('" + tier.field + "', ?::timestamp) + interval '1 " + tier.field + "'" +
+                ") DP where V is not null group by ENTITY_ID, ATTRIBUTE_NAME, TRUNCATED_BUCKET";
+        } else {
+            select = "select ENTITY_ID, ATTRIBUTE_NAME, date_trunc('" + tier.field + "', BUCKET) as TRUNCATED_BUCKET, " +
+                "min(MIN_VALUE), max(MAX_VALUE), sum(SUM_VALUE), sum(VALUE_COUNT) from " + getTableName(tier.source) +
+                " where " + filter + "BUCKET >= date_trunc('" + tier.field + "', ?::timestamp) " +
+                "and BUCKET < date_trunc('" + tier.field + "', ?::timestamp) + interval '1 " + tier.field + "'" +
+                " group by ENTITY_ID, ATTRIBUTE_NAME, TRUNCATED_BUCKET";
+        }
+
+        return "insert into " + getTableName(tier) + " (ENTITY_ID, ATTRIBUTE_NAME, BUCKET, MIN_VALUE, MAX_VALUE, SUM_VALUE, VALUE_COUNT) " +
+            select +
+            " on conflict (ENTITY_ID, ATTRIBUTE_NAME, BUCKET) do update set MIN_VALUE = excluded.MIN_VALUE, " +
+            "MAX_VALUE = excluded.MAX_VALUE, SUM_VALUE = excluded.SUM_VALUE, VALUE_COUNT = excluded.VALUE_COUNT";
+    }
+
+    public ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("available", available);
+        status.put("refreshCount", refreshCount.get());
+        status.put("refreshedAttributes", refreshedAttributes.get());
+        status.put("refreshFailures", refreshFailures.get());
+        status.put("lastRefreshMillis", lastRefreshMillis);
+        status.put("maxRefreshMillis", maxRefreshMillis);
+        return status;
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.util.ValueUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind buffer for {@link Datapoint}s; datapoints are accumulated in a bounded queue and written by the supplied
+ * writer in batches, either when the batch size is reached or when the flush interval elapses (whichever comes first).
+ * <p>
+ * Adding never blocks as producers may hold the global lock; when the queue is full the datapoint is appended to a
+ * spill file which is replayed once the queue has drained if a spill directory is configured, otherwise it is dropped
+ * and counted in the status.
+ * <p>
+ * When a batch fails to write it is split in halves until the datapoints rejected by the writer (e.g. due to a
+ * constraint violation after an asset delete) are isolated, so the rest of the batch is still written; rejected
+ * datapoints are appended to a quarantine file in the spill directory or dropped. If the writer is unavailable (e.g.
+ * the database connection failed) the unwritten datapoints are spilled or dropped without splitting.
+ */
+public class DatapointWriteBuffer<T extends Datapoint> {
+
+    public static final String SPILL_FILE_NAME = "datapoints-spill.jsonl";
+    public static final String SPILL_REPLAY_FILE_NAME = "datapoints-spill-replay.jsonl";
+    public static final String SPILL_QUARANTINE_FILE_NAME = "datapoints-spill-quarantine.jsonl";
+    private static final Logger LOG = Logger.getLogger(DatapointWriteBuffer.class.getName());
+    protected final BlockingQueue<T> queue;
+    protected final int batchSize;
+    protected final long flushIntervalMillis;
+    protected final Path spillDir;
+    protected final Consumer<List<T>> writer;
+    protected final Function<JsonNode, T> spillReader;
+    protected final ScheduledExecutorService executorService;
+    protected final ReentrantLock flushLock = new ReentrantLock();
+    protected final Object spillLock = new Object();
+    protected ScheduledFuture<?> flushFuture;
+
+    // Metrics
+    protected final AtomicLong flushCount = new AtomicLong();
+    protected final AtomicLong flushedDatapoints = new AtomicLong();
+    protected final AtomicLong flushFailures = new AtomicLong();
+    protected final AtomicLong spilledDatapoints = new AtomicLong();
+    protected final AtomicLong droppedDatapoints = new AtomicLong();
+    protected final AtomicLong replayedDatapoints = new AtomicLong();
+    protected final AtomicLong quarantinedDatapoints = new AtomicLong();
+    protected volatile long lastFlushMillis;
+    protected volatile long maxFlushMillis;
+    protected final AtomicLong totalFlushMillis = new AtomicLong();
+
+    public DatapointWriteBuffer(ScheduledExecutorService executorService,
+                                int capacity,
+                                int batchSize,
+                                long flushIntervalMillis,
+                                Path spillDir,
+                                Consumer<List<T>> writer,
+                                Function<JsonNode, T> spillReader) {
+        this.executorService = executorService;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = Math.max(1, Math.min(batchSize, capacity));
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.spillDir = spillDir;
+        this.writer = writer;
+        this.spillReader = spillReader;
+    }
+
+    public void start() {
+        if (spillDir != null) {
+            try {
+                Files.createDirectories(spillDir);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to create datapoint spill directory: " + spillDir, e);
+            }
+        }
+        flushFuture = executorService.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flush, waits for an in-flight flush to complete and synchronously writes all buffered
+     * datapoints.
+     */
+    public void stop() {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+
+        flushLock.lock();
+        try {
+            while (!queue.isEmpty()) {
+                if (!doFlush()) {
+                    break;
+                }
+            }
+            // Anything left over is persisted for replay on next start
+            List<T> remaining = new ArrayList<>(queue.size());
+            queue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                spillOrDrop(remaining);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Add a datapoint to the buffer without blocking; if the buffer is full the datapoint is spilled or, when there is
+     * no spill directory or spilling fails, dropped.
+     *
+     * @return <code>false</code> if the datapoint was dropped.
+     */
+    public boolean add(T datapoint) {
+        if (!queue.offer(datapoint)) {
+            if (!flushLock.isLocked()) {
+                executorService.execute(this::flush);
+            }
+            if (spillDir != null && spill(datapoint)) {
+                return true;
+            }
+            if (drop(1) % 1000 == 1) {
+                LOG.warning("Datapoint write buffer is full (capacity=" + getCapacity() + "), dropped datapoints: " + droppedDatapoints.get());
+            }
+            return false;
+        }
+
+        if (queue.size() >= batchSize && !flushLock.isLocked()) {
+            executorService.execute(this::flush);
+        }
+        return true;
+    }
+
+    public void flush() {
+        if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            // Keep writing whilst there's at least a full batch waiting
+            boolean ok;
+            do {
+                ok = doFlush();
+            } while (ok && queue.size() >= batchSize);
+
+            if (ok && spillDir != null && queue.size() < batchSize) {
+                replaySpill();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    protected boolean doFlush() {
+        List<T> batch = new ArrayList<>(batchSize);
+        queue.drainTo(batch, batchSize);
+
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        return write(batch);
+    }
+
+    protected boolean write(List<T> batch) {
+        long start = System.currentTimeMillis();
+        List<T> rejected = new ArrayList<>();
+        List<T> unwritten = new ArrayList<>();
+        int written = writeIsolating(batch, rejected, unwritten);
+        long duration = System.currentTimeMillis() - start;
+
+        if (written > 0) {
+            flushCount.incrementAndGet();
+            flushedDatapoints.addAndGet(written);
+            totalFlushMillis.addAndGet(duration);
+            lastFlushMillis = duration;
+            maxFlushMillis = Math.max(maxFlushMillis, duration);
+            LOG.finest("Flushed " + written + " datapoints in " + duration + "ms");
+        }
+
+        if (!rejected.isEmpty()) {
+            LOG.warning("Rejected " + rejected.size() + " of " + batch.size() + " buffered datapoints");
+            if (spillDir == null || !quarantine(rejected.stream().map(this::toLine).collect(Collectors.toList()))) {
+                drop(rejected.size());
+            }
+        }
+
+        if (!unwritten.isEmpty()) {
+            flushFailures.incrementAndGet();
+            spillOrDrop(unwritten);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the batch and when that fails splits it in halves until the datapoints rejected by the writer are
+     * isolated; once the writer is found to be unavailable the remaining datapoints are not attempted.
+     *
+     * @return the number of datapoints written.
+     */
+    protected int writeIsolating(List<T> batch, List<T> rejected, List<T> unwritten) {
+        if (!unwritten.isEmpty()) {
+            unwritten.addAll(batch);
+            return 0;
+        }
+
+        try {
+            writer.accept(batch);
+            return batch.size();
+        } catch (Exception e) {
+            if (isUnavailable(e)) {
+                LOG.log(Level.WARNING, "Failed to write " + batch.size() + " datapoints, writer is unavailable", e);
+                unwritten.addAll(batch);
+                return 0;
+            }
+            if (batch.size() == 1) {
+                LOG.log(Level.WARNING, "Datapoint rejected by writer: " + batch.get(0), e);
+                rejected.addAll(batch);
+                return 0;
+            }
+            LOG.log(Level.FINE, "Failed to write " + batch.size() + " datapoints, splitting batch to isolate rejected datapoints", e);
+            int middle = batch.size() / 2;
+            return writeIsolating(batch.subList(0, middle), rejected, unwritten)
+                + writeIsolating(batch.subList(middle, batch.size()), rejected, unwritten);
+        }
+    }
+
+    /**
+     * Failures that will affect any datapoint (connection failures, resource exhaustion, serialization failures and
+     * administrator shutdown) as opposed to a datapoint being rejected.
+     */
+    protected static boolean isUnavailable(Throwable e) {
+        while (e != null) {
+            if (e instanceof SQLTransientException || e instanceof SQLRecoverableException || e instanceof ConnectException) {
+                return true;
+            }
+            if (e instanceof SQLException) {
+                String state = ((SQLException) e).getSQLState();
+                if (state != null && (state.startsWith("08") || state.startsWith("40") || state.startsWith("53") || state.startsWith("57"))) {
+                    return true;
+                }
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+    protected void spillOrDrop(List<T> datapoints) {
+        int dropped = 0;
+        for (T datapoint : datapoints) {
+            if (spillDir == null || !spill(datapoint)) {
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            drop(dropped);
+            LOG.warning("Discarded " + dropped + " datapoints that could not be written");
+        }
+    }
+
+    protected long drop(int count) {
+        return droppedDatapoints.addAndGet(count);
+    }
+
+    protected String toLine(T datapoint) {
+        ObjectNode node = ValueUtil.JSON.createObjectNode();
+        node.put("assetId", datapoint.getAssetId());
+        node.put("attributeName", datapoint.getAttributeName());
+        node.put("timestamp", datapoint.getTimestamp());
+        node.set("value", ValueUtil.JSON.valueToTree(datapoint.getValue()));
+        try {
+            return ValueUtil.JSON.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialise datapoint: " + datapoint, e);
+        }
+    }
+
+    protected boolean spill(T datapoint) {
+        synchronized (spillLock) {
+            try (BufferedWriter out = Files.newBufferedWriter(spillDir.resolve(SPILL_FILE_NAME), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(toLine(datapoint));
+                out.newLine();
+                spilledDatapoints.incrementAndGet();
+                return true;
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Failed to spill datapoint to disk: " + datapoint, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Appends lines that were rejected by the writer to the quarantine file so they can be inspected and don't block
+     * the replay of other spilled datapoints.
+     */
+    protected boolean quarantine(List<String> lines) {
+        Path quarantineFile = spillDir.resolve(SPILL_QUARANTINE_FILE_NAME);
+        synchronized (spillLock) {
+            try (BufferedWriter out = Files.newBufferedWriter(quarantineFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (String line : lines) {
+                    out.write(line);
+                    out.newLine();
+                }
+                quarantinedDatapoints.addAndGet(lines.size());
+                LOG.warning("Moved " + lines.size() + " rejected datapoints to: " + quarantineFile);
+                return true;
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Failed to quarantine rejected datapoints: " + quarantineFile, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Replays the replay file in batches; rejected datapoints are quarantined so the file always drains, if the writer
+     * becomes unavailable the lines that haven't been written are kept as the new replay file.
+     */
+    protected void replaySpill() {
+        Path replayFile = spillDir.resolve(SPILL_REPLAY_FILE_NAME);
+
+        synchronized (spillLock) {
+            Path spillFile = spillDir.resolve(SPILL_FILE_NAME);
+            if (!Files.exists(replayFile)) {
+                if (!Files.exists(spillFile)) {
+                    return;
+                }
+                try {
+                    Files.move(spillFile, replayFile);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to move datapoint spill file for replay: " + spillFile, e);
+                    return;
+                }
+            }
+        }
+
+        LOG.info("Replaying spilled datapoints from: " + replayFile);
+        Path remainingFile = spillDir.resolve(SPILL_REPLAY_FILE_NAME + ".remaining");
+        List<T> batch = new ArrayList<>(batchSize);
+        List<String> batchLines = new ArrayList<>(batchSize);
+        List<String> unwrittenLines = null;
+
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+            String line;
+            while (unwrittenLines == null && (line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                T datapoint = ValueUtil.parse(line).map(spillReader).orElse(null);
+                if (datapoint == null) {
+                    LOG.warning("Quarantining invalid spilled datapoint: " + line);
+                    quarantine(Collections.singletonList(line));
+                    continue;
+                }
+                batch.add(datapoint);
+                batchLines.add(line);
+                if (batch.size() >= batchSize) {
+                    unwrittenLines = writeReplayed(batch, batchLines);
+                    batch = new ArrayList<>(batchSize);
+                    batchLines = new ArrayList<>(batchSize);
+                }
+            }
+            if (unwrittenLines == null && !batch.isEmpty()) {
+                unwrittenLines = writeReplayed(batch, batchLines);
+            }
+
+            if (unwrittenLines != null) {
+                // Keep only what hasn't been written or quarantined so the next replay continues from here
+                try (BufferedWriter out = Files.newBufferedWriter(remainingFile, StandardCharsets.UTF_8)) {
+                    for (String unwrittenLine : unwrittenLines) {
+                        out.write(unwrittenLine);
+                        out.newLine();
+                    }
+                    while ((line = reader.readLine()) != null) {
+                        out.write(line);
+                        out.newLine();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to read datapoint spill file: " + replayFile, e);
+            return;
+        }
+
+        try {
+            if (unwrittenLines != null) {
+                Files.move(remainingFile, replayFile, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(replayFile);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to update datapoint spill file: " + replayFile, e);
+        }
+    }
+
+    /**
+     * @return <code>null</code> if all datapoints were written or quarantined, otherwise the lines of the datapoints
+     * that weren't written because the writer is unavailable (they will be retried on the next flush).
+     */
+    protected List<String> writeReplayed(List<T> batch, List<String> lines) {
+        // Identity as datapoints with equal values may be in the same batch
+        Map<T, String> datapointLines = new IdentityHashMap<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            datapointLines.put(batch.get(i), lines.get(i));
+        }
+        List<T> rejected = new ArrayList<>();
+        List<T> unwritten = new ArrayList<>();
+        replayedDatapoints.addAndGet(writeIsolating(batch, rejected, unwritten));
+
+        if (!rejected.isEmpty()) {
+            List<String> rejectedLines = rejected.stream().map(datapointLines::get).collect(Collectors.toList());
+            if (!quarantine(rejectedLines)) {
+                // Can't lose these so treat them as unwritten
+                unwritten.addAll(rejected);
+            }
+        }
+
+        if (unwritten.isEmpty()) {
+            return null;
+        }
+        LOG.warning("Failed to write " + unwritten.size() + " spilled datapoints, will retry");
+        return unwritten.stream().map(datapointLines::get).collect(Collectors.toList());
+    }
+
+    public int getCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        long flushes = flushCount.get();
+        status.put("capacity", getCapacity());
+        status.put("queueDepth", getQueueDepth());
+        status.put("flushCount", flushes);
+        status.put("flushedDatapoints", flushedDatapoints.get());
+        status.put("flushFailures", flushFailures.get());
+        status.put("lastFlushMillis", lastFlushMillis);
+        status.put("maxFlushMillis", maxFlushMillis);
+        status.put("avgFlushMillis", flushes > 0 ? (double) totalFlushMillis.get() / flushes : 0d);
+        status.put("spilledDatapoints", spilledDatapoints.get());
+        status.put("droppedDatapoints", droppedDatapoints.get());
+        status.put("replayedDatapoints", replayedDatapoints.get());
+        status.put("quarantinedDatapoints", quarantinedDatapoints.get());
+        return status;
+    }
+}
@@ -19,8 +19,11 @@
  */
 package org.openremote.manager.event;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
+import org.openremote.container.concurrent.ContainerExecutor;
+import org.openremote.container.concurrent.ContainerThreadFactory;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
@@ -32,19 +35,32 @@ import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Constants;
 import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.TriggeredEventSubscription;
 import org.openremote.model.event.shared.*;
 import org.openremote.model.syslog.SyslogEvent;
+import org.openremote.model.util.ValueUtil;
 
 import javax.websocket.CloseReason;
 import javax.websocket.Session;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.apache.camel.builder.Builder.header;
 import static org.apache.camel.builder.PredicateBuilder.or;
+import static org.openremote.container.concurrent.ContainerThreads.DEFAULT_REJECTED_EXECUTION_HANDLER;
+import static org.openremote.container.util.MapAccess.getBoolean;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.web.ConnectionConstants.SESSION;
 
 /**
@@ -94,6 +110,7 @@ public class ClientEventService implements ContainerService {
     protected static class SessionInfo {
         String connectionType;
         Runnable closeRunnable;
+        SessionOutboundBuffer outboundBuffer;
 
         public SessionInfo(String connectionType, Runnable closeRunnable) {
             this.connectionType = connectionType;
@@ -109,6 +126,14 @@ public class ClientEventService implements ContainerService {
     public static final String HEADER_REQUEST_RESPONSE_MESSAGE_ID = ClientEventService.class.getName() + ".HEADER_REQUEST_RESPONSE_MESSAGE_ID";
     private static final Logger LOG = Logger.getLogger(ClientEventService.class.getName());
     public static final String WEBSOCKET_EVENTS = "events";
+    public static final String CLIENT_EVENT_SESSION_BUFFER_SIZE = "CLIENT_EVENT_SESSION_BUFFER_SIZE";
+    public static final int CLIENT_EVENT_SESSION_BUFFER_SIZE_DEFAULT = 0;
+    public static final String CLIENT_EVENT_SESSION_CONFLATION = "CLIENT_EVENT_SESSION_CONFLATION";
+    public static final boolean CLIENT_EVENT_SESSION_CONFLATION_DEFAULT = true;
+    public static final String CLIENT_EVENT_SESSION_SENDER_THREADS = "CLIENT_EVENT_SESSION_SENDER_THREADS";
+    public static final int CLIENT_EVENT_SESSION_SENDER_THREADS_DEFAULT = 10;
+    public static final String CLIENT_EVENT_SLOW_CONSUMER_MILLIS = "CLIENT_EVENT_SLOW_CONSUMER_MILLIS";
+    public static final int CLIENT_EVENT_SLOW_CONSUMER_MILLIS_DEFAULT = 0;
     protected static final String INTERNAL_SESSION_KEY = "ClientEventServiceInternal";
 
     // TODO: Some of these options should be configurable depending on expected load etc.
@@ -118,7 +143,7 @@ public class ClientEventService implements ContainerService {
 
     final protected Collection<EventSubscriptionAuthorizer> eventSubscriptionAuthorizers = new CopyOnWriteArraySet<>();
     final protected Collection<Consumer<Exchange>> exchangeInterceptors = new CopyOnWriteArraySet<>();
-    protected Map<String, SessionInfo> sessionKeyInfoMap = new HashMap<>();
+    protected Map<String, SessionInfo> sessionKeyInfoMap = new ConcurrentHashMap<>();
     protected TimerService timerService;
     protected MessageBrokerService messageBrokerService;
     protected ManagerIdentityService identityService;
@@ -126,6 +151,13 @@ public class ClientEventService implements ContainerService {
     protected GatewayService gatewayService;
     protected Set<EventSubscription<?>> pendingInternalSubscriptions;
     protected boolean stopped;
+    protected ScheduledExecutorService executorService;
+    protected int sessionBufferSize;
+    protected boolean sessionConflation;
+    protected int slowConsumerMillis;
+    protected ExecutorService sessionSenderExecutor;
+    protected ScheduledFuture<?> slowConsumerCheckFuture;
+    protected final AtomicLong slowConsumerDisconnects = new AtomicLong();
 
     /**
      * Method to stop further processing of the exchange
@@ -161,6 +193,24 @@ public class ClientEventService implements ContainerService {
         messageBrokerService = container.getService(MessageBrokerService.class);
         identityService = container.getService(ManagerIdentityService.class);
         gatewayService = container.getService(GatewayService.class);
+        executorService = container.getExecutorService();
+
+        sessionBufferSize = getInteger(container.getConfig(), CLIENT_EVENT_SESSION_BUFFER_SIZE, CLIENT_EVENT_SESSION_BUFFER_SIZE_DEFAULT);
+        sessionConflation = getBoolean(container.getConfig(), CLIENT_EVENT_SESSION_CONFLATION, CLIENT_EVENT_SESSION_CONFLATION_DEFAULT);
+        slowConsumerMillis = getInteger(container.getConfig(), CLIENT_EVENT_SLOW_CONSUMER_MILLIS, CLIENT_EVENT_SLOW_CONSUMER_MILLIS_DEFAULT);
+
+        if (sessionBufferSize > 0) {
+            int senderThreads = Math.max(1, getInteger(container.getConfig(), CLIENT_EVENT_SESSION_SENDER_THREADS, CLIENT_EVENT_SESSION_SENDER_THREADS_DEFAULT));
+            LOG.info("Client event sessions will be buffered: size=" + sessionBufferSize + ", conflation=" + sessionConflation + ", slowConsumerMillis=" + slowConsumerMillis);
+            sessionSenderExecutor = new ContainerExecutor(
+                new ContainerThreadFactory("Client event session sender"),
+                DEFAULT_REJECTED_EXECUTION_HANDLER,
+                senderThreads,
+                senderThreads,
+                60,
+                new LinkedBlockingQueue<>()
+            );
+        }
 
         eventSubscriptions = new EventSubscriptions(
             container.getService(TimerService.class)
@@ -187,7 +237,11 @@ public class ClientEventService implements ContainerService {
                     .when(header(ConnectionConstants.SESSION_OPEN))
                         .process(exchange -> {
                             String sessionKey = getSessionKey(exchange);
-                            sessionKeyInfoMap.put(sessionKey, createSessionInfo(sessionKey, exchange));
+                            SessionInfo sessionInfo = createSessionInfo(sessionKey, exchange);
+                            if (sessionSenderExecutor != null) {
+                                sessionInfo.outboundBuffer = new SessionOutboundBuffer(sessionKey, sessionBufferSize, sessionConflation, sessionSenderExecutor, System::currentTimeMillis);
+                            }
+                            sessionKeyInfoMap.put(sessionKey, sessionInfo);
                             passToInterceptors(exchange);
                         })
                         .stop()
@@ -197,7 +251,10 @@ public class ClientEventService implements ContainerService {
                     ))
                         .process(exchange -> {
                             String sessionKey = getSessionKey(exchange);
-                            sessionKeyInfoMap.remove(sessionKey);
+                            SessionInfo sessionInfo = sessionKeyInfoMap.remove(sessionKey);
+                            if (sessionInfo != null && sessionInfo.outboundBuffer != null) {
+                                sessionInfo.outboundBuffer.clear();
+                            }
                             eventSubscriptions.cancelAll(sessionKey);
                             passToInterceptors(exchange);
                         })
@@ -319,11 +376,24 @@ public class ClientEventService implements ContainerService {
     @Override
     public void start(Container container) {
         stopped = false;
+
+        if (sessionSenderExecutor != null && slowConsumerMillis > 0) {
+            long checkMillis = Math.max(100, slowConsumerMillis / 2);
+            slowConsumerCheckFuture = executorService.scheduleWithFixedDelay(this::checkSlowConsumers, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     public void stop(Container container) {
         stopped = true;
+
+        if (slowConsumerCheckFuture != null) {
+            slowConsumerCheckFuture.cancel(false);
+            slowConsumerCheckFuture = null;
+        }
+        if (sessionSenderExecutor != null) {
+            sessionSenderExecutor.shutdownNow();
+        }
     }
 
     public void addExchangeInterceptor(Consumer<Exchange> exchangeInterceptor) throws RuntimeException {
@@ -374,22 +444,105 @@ public class ClientEventService implements ContainerService {
                 LOG.info("Cannot send to requested session it doesn't exist or is disconnected");
                 return;
             }
-            if (sessionInfo.connectionType.equals(HEADER_CONNECTION_TYPE_WEBSOCKET)) {
-                messageBrokerService.getProducerTemplate().sendBodyAndHeader(
-                        "websocket://" + WEBSOCKET_EVENTS,
-                        data,
-                        ConnectionConstants.SESSION_KEY, sessionKey
-                );
-            } else if (sessionInfo.connectionType.equals(HEADER_CONNECTION_TYPE_MQTT)) {
-                messageBrokerService.getProducerTemplate().sendBodyAndHeader(
-                        MqttBrokerService.MQTT_CLIENT_QUEUE,
-                        data,
-                        ConnectionConstants.SESSION_KEY, sessionKey
-                );
+            if (sessionInfo.outboundBuffer != null) {
+                bufferForSession(sessionKey, sessionInfo, getConflationKey(data), () -> doSendToSession(sessionKey, sessionInfo, data));
+            } else {
+                doSendToSession(sessionKey, sessionInfo, data);
+            }
+        }
+    }
+
+    /**
+     * Deliver to a session using the supplied sender (e.g. for transports that consume events through internal
+     * subscriptions); the sender goes through the session's outbound buffer (if enabled) otherwise it is run
+     * immediately.
+     *
+     * @param conflationKey Key identifying deliveries that supersede each other when the session is lagging, can be
+     *                      <code>null</code>.
+     */
+    public void deliverToSession(String sessionKey, Object conflationKey, Runnable sender) {
+        SessionInfo sessionInfo = sessionKeyInfoMap.get(sessionKey);
+        if (sessionInfo != null && sessionInfo.outboundBuffer != null) {
+            bufferForSession(sessionKey, sessionInfo, conflationKey, sender);
+        } else {
+            sender.run();
+        }
+    }
+
+    protected void bufferForSession(String sessionKey, SessionInfo sessionInfo, Object conflationKey, Runnable sender) {
+        if (!sessionInfo.outboundBuffer.add(conflationKey, sender)) {
+            if (slowConsumerMillis > 0) {
+                disconnectSlowConsumer(sessionKey, "outbound buffer is full");
+            } else {
+                LOG.finest("Outbound buffer is full so dropped oldest message of session: " + sessionKey);
+            }
+        }
+    }
+
+    /**
+     * Messages containing a single attribute event of a subscription supersede each other.
+     */
+    protected static Object getConflationKey(Object data) {
+        if (data instanceof TriggeredEventSubscription) {
+            TriggeredEventSubscription<?> triggeredEventSubscription = (TriggeredEventSubscription<?>) data;
+            List<?> events = triggeredEventSubscription.getEvents();
+            if (events != null && events.size() == 1 && events.get(0) instanceof AttributeEvent) {
+                return Arrays.asList(triggeredEventSubscription.getSubscriptionId(), ((AttributeEvent) events.get(0)).getAttributeRef());
+            }
+        }
+        return null;
+    }
+
+    protected void checkSlowConsumers() {
+        sessionKeyInfoMap.forEach((sessionKey, sessionInfo) -> {
+            if (sessionInfo.outboundBuffer != null && sessionInfo.outboundBuffer.getLagMillis() > slowConsumerMillis) {
+                disconnectSlowConsumer(sessionKey, "lag exceeds " + slowConsumerMillis + "ms");
             }
+        });
+    }
+
+    protected void disconnectSlowConsumer(String sessionKey, String reason) {
+        SessionInfo sessionInfo = sessionKeyInfoMap.get(sessionKey);
+        if (sessionInfo == null || sessionInfo.outboundBuffer == null) {
+            return;
+        }
+        LOG.info("Disconnecting slow consumer session '" + sessionKey + "', " + reason + ": " + sessionInfo.outboundBuffer.getStatus());
+        slowConsumerDisconnects.incrementAndGet();
+        sessionInfo.outboundBuffer.clear();
+        closeSession(sessionKey);
+    }
+
+    protected void doSendToSession(String sessionKey, SessionInfo sessionInfo, Object data) {
+        if (sessionInfo.connectionType.equals(HEADER_CONNECTION_TYPE_WEBSOCKET)) {
+            messageBrokerService.getProducerTemplate().sendBodyAndHeader(
+                    "websocket://" + WEBSOCKET_EVENTS,
+                    data,
+                    ConnectionConstants.SESSION_KEY, sessionKey
+            );
+        } else if (sessionInfo.connectionType.equals(HEADER_CONNECTION_TYPE_MQTT)) {
+            messageBrokerService.getProducerTemplate().sendBodyAndHeader(
+                    MqttBrokerService.MQTT_CLIENT_QUEUE,
+                    data,
+                    ConnectionConstants.SESSION_KEY, sessionKey
+            );
         }
     }
 
+    public ObjectNode getSessionBufferStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("bufferSize", sessionBufferSize);
+        status.put("conflation", sessionConflation);
+        status.put("slowConsumerMillis", slowConsumerMillis);
+        status.put("slowConsumerDisconnects", slowConsumerDisconnects.get());
+        ObjectNode sessions = status.putObject("sessions");
+        sessionKeyInfoMap.forEach((sessionKey, sessionInfo) -> {
+            if (sessionInfo.outboundBuffer != null) {
+                sessions.set(sessionKey, sessionInfo.outboundBuffer.getStatus());
+            }
+        });
+        return status;
+    }
+
     public void closeSession(String sessionKey) {
         SessionInfo sessionInfo = sessionKeyInfoMap.get(sessionKey);
 
@@ -24,17 +24,27 @@ import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultMessage;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.ConnectionConstants;
+import org.openremote.model.asset.AssetFilter;
 import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.AssetInfo;
 import org.openremote.model.event.shared.CancelEventSubscription;
 import org.openremote.model.event.shared.EventSubscription;
 import org.openremote.model.event.shared.SharedEvent;
 import org.openremote.model.util.TextUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 
 /**
  * Manages subscriptions to events for WebSocket sessions.
+ * <p>
+ * Subscriptions are additionally kept in a {@link SubscriptionIndex} per event type, keyed by the asset IDs, attribute
+ * names or realm of their {@link AssetFilter}, so that {@link #splitForSubscribers} only has to evaluate the filters
+ * of subscriptions that can possibly match an event. The index is maintained incrementally whenever subscriptions are
+ * created or cancelled and can be read concurrently without any locking.
  */
 public class EventSubscriptions {
 
@@ -42,8 +52,16 @@ public class EventSubscriptions {
 
     final protected TimerService timerService;
     final protected Map<String, SessionSubscriptions> sessionSubscriptionIdMap = new HashMap<>();
+    final protected Map<String, SubscriptionIndex> eventTypeIndexMap = new ConcurrentHashMap<>();
 
     class SessionSubscriptions extends HashSet<SessionSubscription> {
+
+        final String sessionKey;
+
+        SessionSubscriptions(String sessionKey) {
+            this.sessionKey = sessionKey;
+        }
+
         public void createOrUpdate(boolean restrictedUser, EventSubscription<?> eventSubscription) {
 
             if (TextUtil.isNullOrEmpty(eventSubscription.getSubscriptionId())) {
@@ -52,7 +70,9 @@ public class EventSubscriptions {
                 cancelById(eventSubscription.getSubscriptionId());
             }
 
-            add(new SessionSubscription(restrictedUser, timerService.getCurrentTimeMillis(), eventSubscription));
+            SessionSubscription sessionSubscription = new SessionSubscription(sessionKey, restrictedUser, timerService.getCurrentTimeMillis(), eventSubscription);
+            add(sessionSubscription);
+            index(sessionSubscription);
         }
 
         public void update(boolean resstrictedUser, String[] subscriptionIds) {
@@ -66,21 +86,39 @@ public class EventSubscriptions {
         }
 
         public void cancelByType(String eventType) {
-            removeIf(sessionSubscription -> sessionSubscription.subscriptionId == null && sessionSubscription.subscription.getEventType().equals(eventType));
+            cancelIf(sessionSubscription -> sessionSubscription.subscriptionId == null && sessionSubscription.subscription.getEventType().equals(eventType));
         }
 
         public void cancelById(String subscriptionId) {
-            removeIf(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId));
+            cancelIf(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId));
+        }
+
+        public void cancelAll() {
+            forEach(EventSubscriptions.this::unindex);
+            clear();
+        }
+
+        protected void cancelIf(Predicate<SessionSubscription> predicate) {
+            Iterator<SessionSubscription> it = iterator();
+            while (it.hasNext()) {
+                SessionSubscription sessionSubscription = it.next();
+                if (predicate.test(sessionSubscription)) {
+                    it.remove();
+                    unindex(sessionSubscription);
+                }
+            }
         }
     }
 
     class SessionSubscription {
-        boolean restrictedUser;
-        long timestamp;
+        final String sessionKey;
+        volatile boolean restrictedUser;
+        volatile long timestamp;
         final EventSubscription subscription;
         final String subscriptionId;
 
-        public SessionSubscription(boolean restrictedUser, long timestamp, EventSubscription subscription) {
+        public SessionSubscription(String sessionKey, boolean restrictedUser, long timestamp, EventSubscription subscription) {
+            this.sessionKey = sessionKey;
             this.restrictedUser = restrictedUser;
             this.timestamp = timestamp;
             this.subscription = subscription;
@@ -92,6 +130,106 @@ public class EventSubscriptions {
         }
     }
 
+    /**
+     * The subscriptions of a single event type; a subscription is only added to the most selective bucket its
+     * {@link AssetFilter} allows (asset IDs, then attribute names, then realm), subscriptions without an
+     * {@link AssetFilter} are candidates for every event of the type. The filter of a candidate must still be applied.
+     */
+    static class SubscriptionIndex {
+        final Set<SessionSubscription> all = ConcurrentHashMap.newKeySet();
+        final Set<SessionSubscription> unindexed = ConcurrentHashMap.newKeySet();
+        final Map<String, Set<SessionSubscription>> byAssetId = new ConcurrentHashMap<>();
+        final Map<String, Set<SessionSubscription>> byAttributeName = new ConcurrentHashMap<>();
+        final Map<String, Set<SessionSubscription>> byRealm = new ConcurrentHashMap<>();
+
+        void add(SessionSubscription sessionSubscription) {
+            all.add(sessionSubscription);
+            forEachBucket(sessionSubscription, (map, key) -> {
+                if (map == null) {
+                    unindexed.add(sessionSubscription);
+                } else {
+                    map.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(sessionSubscription);
+                }
+            });
+        }
+
+        void remove(SessionSubscription sessionSubscription) {
+            all.remove(sessionSubscription);
+            forEachBucket(sessionSubscription, (map, key) -> {
+                if (map == null) {
+                    unindexed.remove(sessionSubscription);
+                } else {
+                    map.computeIfPresent(key, (k, subscriptions) -> {
+                        subscriptions.remove(sessionSubscription);
+                        return subscriptions.isEmpty() ? null : subscriptions;
+                    });
+                }
+            });
+        }
+
+        boolean isEmpty() {
+            return all.isEmpty();
+        }
+
+        void forEachBucket(SessionSubscription sessionSubscription, BiConsumer<Map<String, Set<SessionSubscription>>, String> consumer) {
+            if (sessionSubscription.subscription.getFilter() instanceof AssetFilter) {
+                AssetFilter<?> filter = (AssetFilter<?>) sessionSubscription.subscription.getFilter();
+                if (filter.getAssetIds() != null && filter.getAssetIds().length > 0) {
+                    Arrays.stream(filter.getAssetIds()).distinct().forEach(assetId -> consumer.accept(byAssetId, assetId));
+                    return;
+                }
+                if (filter.getAttributeNames() != null && filter.getAttributeNames().length > 0) {
+                    Arrays.stream(filter.getAttributeNames()).distinct().forEach(attributeName -> consumer.accept(byAttributeName, attributeName));
+                    return;
+                }
+                if (!TextUtil.isNullOrEmpty(filter.getRealm())) {
+                    consumer.accept(byRealm, filter.getRealm());
+                    return;
+                }
+            }
+            consumer.accept(null, null);
+        }
+
+        /**
+         * @return The subscriptions that can possibly match the event, each subscription is returned at most once.
+         */
+        Collection<SessionSubscription> getCandidates(SharedEvent event) {
+            if (!(event instanceof AssetInfo)) {
+                return all;
+            }
+
+            AssetInfo assetInfo = (AssetInfo) event;
+            Collection<SessionSubscription> candidates = new ArrayList<>(unindexed);
+            addBucket(candidates, byAssetId, assetInfo.getAssetId());
+            addBucket(candidates, byRealm, assetInfo.getRealm());
+
+            String[] attributeNames = assetInfo.getAttributeNames();
+            if (attributeNames != null && attributeNames.length > 0 && !byAttributeName.isEmpty()) {
+                if (attributeNames.length == 1) {
+                    addBucket(candidates, byAttributeName, attributeNames[0]);
+                } else {
+                    // Subscriptions for several of the event's attributes must only be triggered once
+                    Set<SessionSubscription> attributeCandidates = new LinkedHashSet<>();
+                    for (String attributeName : attributeNames) {
+                        addBucket(attributeCandidates, byAttributeName, attributeName);
+                    }
+                    candidates.addAll(attributeCandidates);
+                }
+            }
+            return candidates;
+        }
+
+        static void addBucket(Collection<SessionSubscription> candidates, Map<String, Set<SessionSubscription>> map, String key) {
+            if (key == null) {
+                return;
+            }
+            Set<SessionSubscription> subscriptions = map.get(key);
+            if (subscriptions != null) {
+                candidates.addAll(subscriptions);
+            }
+        }
+    }
+
     public EventSubscriptions(TimerService timerService) {
         LOG.info("Starting background task checking for expired event subscriptions from clients");
         this.timerService = timerService;
@@ -102,7 +240,7 @@ public class EventSubscriptions {
             // TODO Check if the user can actually subscribe to the events it wants, how do we do that?
             LOG.finer("For session '" + sessionKey + "', creating/updating: " + subscription);
             SessionSubscriptions sessionSubscriptions =
-                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, k -> new SessionSubscriptions());
+                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, SessionSubscriptions::new);
             sessionSubscriptions.createOrUpdate(restrictedUser, subscription);
         }
     }
@@ -140,13 +278,33 @@ public class EventSubscriptions {
 
     public void cancelAll(String sessionKey) {
         synchronized (this.sessionSubscriptionIdMap) {
-            if (this.sessionSubscriptionIdMap.containsKey(sessionKey)) {
+            SessionSubscriptions sessionSubscriptions = this.sessionSubscriptionIdMap.remove(sessionKey);
+            if (sessionSubscriptions != null) {
                 LOG.finer("Cancelling all subscriptions for session: " + sessionKey);
-                this.sessionSubscriptionIdMap.remove(sessionKey);
+                sessionSubscriptions.cancelAll();
             }
         }
     }
 
+    /**
+     * Must be called while holding the {@link #sessionSubscriptionIdMap} monitor.
+     */
+    protected void index(SessionSubscription sessionSubscription) {
+        eventTypeIndexMap
+            .computeIfAbsent(sessionSubscription.subscription.getEventType(), eventType -> new SubscriptionIndex())
+            .add(sessionSubscription);
+    }
+
+    /**
+     * Must be called while holding the {@link #sessionSubscriptionIdMap} monitor.
+     */
+    protected void unindex(SessionSubscription sessionSubscription) {
+        eventTypeIndexMap.computeIfPresent(sessionSubscription.subscription.getEventType(), (eventType, index) -> {
+            index.remove(sessionSubscription);
+            return index.isEmpty() ? null : index;
+        });
+    }
+
     @SuppressWarnings("unchecked")
     public <T extends SharedEvent> List<Message> splitForSubscribers(Exchange exchange) {
         List<Message> messageList = new ArrayList<>();
@@ -154,39 +312,34 @@ public class EventSubscriptions {
         if (event == null)
             return messageList;
 
+        SubscriptionIndex index = eventTypeIndexMap.get(event.getEventType());
+        if (index == null)
+            return messageList;
+
         boolean accessibleForRestrictedUsers = exchange.getIn().getHeader(ClientEventService.HEADER_ACCESS_RESTRICTED, false, Boolean.class);
 
-        Set<Map.Entry<String, SessionSubscriptions>> sessionSubscriptionsSet;
-        synchronized (this.sessionSubscriptionIdMap) {
-            sessionSubscriptionsSet = new HashSet<>(sessionSubscriptionIdMap.entrySet());
-        }
-
-        for (Map.Entry<String, SessionSubscriptions> entry : sessionSubscriptionsSet) {
-            String sessionKey = entry.getKey();
-            SessionSubscriptions subscriptions = entry.getValue();
-
-            for (SessionSubscription sessionSubscription : subscriptions) {
-
-                if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
-                    continue;
-
-                if (sessionSubscription.subscription.getFilter() == null
-                    || sessionSubscription.subscription.getFilter().apply(event)) {
-                    LOG.finer("Creating message for subscribed session '" + sessionKey + "': " + event);
-                    List<SharedEvent> events = Collections.singletonList(event);
-                    TriggeredEventSubscription<?> triggeredEventSubscription = new TriggeredEventSubscription<>(events, sessionSubscription.subscriptionId);
-
-                    if (sessionSubscription.subscription.getInternalConsumer() == null) {
-                        Message msg = new DefaultMessage();
-                        msg.setBody(triggeredEventSubscription); // Don't copy the event, use same reference
-                        msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
-                        msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
-                        messageList.add(msg);
-                    } else {
-                        if (triggeredEventSubscription.getEvents() != null) {
-                            triggeredEventSubscription.getEvents().forEach(ev ->
-                                sessionSubscription.subscription.getInternalConsumer().accept(ev));
-                        }
+        for (SessionSubscription sessionSubscription : index.getCandidates(event)) {
+            String sessionKey = sessionSubscription.sessionKey;
+
+            if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
+                continue;
+
+            if (sessionSubscription.subscription.getFilter() == null
+                || sessionSubscription.subscription.getFilter().apply(event)) {
+                LOG.finer("Creating message for subscribed session '" + sessionKey + "': " + event);
+                List<SharedEvent> events = Collections.singletonList(event);
+                TriggeredEventSubscription<?> triggeredEventSubscription = new TriggeredEventSubscription<>(events, sessionSubscription.subscriptionId);
+
+                if (sessionSubscription.subscription.getInternalConsumer() == null) {
+                    Message msg = new DefaultMessage();
+                    msg.setBody(triggeredEventSubscription); // Don't copy the event, use same reference
+                    msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
+                    msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
+                    messageList.add(msg);
+                } else {
+                    if (triggeredEventSubscription.getEvents() != null) {
+                        triggeredEventSubscription.getEvents().forEach(ev ->
+                            sessionSubscription.subscription.getInternalConsumer().accept(ev));
                     }
                 }
             }
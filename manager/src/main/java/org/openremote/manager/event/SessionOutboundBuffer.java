@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.util.ValueUtil;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded outbound buffer of a single client session; messages are sent in order by at most one sender at a time on
+ * the supplied executor so a slow client only holds up its own messages. When conflation is enabled a message with a
+ * conflation key (e.g. an attribute event of a subscription) that is still waiting to be sent is replaced by a newer
+ * message with the same key, so a lagging client only receives the latest value of each attribute. When the buffer is
+ * full the oldest message is dropped.
+ */
+public class SessionOutboundBuffer {
+
+    protected static class Delivery {
+        protected final Object conflationKey;
+        protected final long enqueuedMillis;
+        protected Runnable sender;
+
+        protected Delivery(Object conflationKey, long enqueuedMillis, Runnable sender) {
+            this.conflationKey = conflationKey;
+            this.enqueuedMillis = enqueuedMillis;
+            this.sender = sender;
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(SessionOutboundBuffer.class.getName());
+    protected final String sessionKey;
+    protected final int capacity;
+    protected final boolean conflate;
+    protected final Executor executor;
+    protected final LongSupplier clock;
+    protected final Deque<Delivery> queue = new ArrayDeque<>();
+    protected final Map<Object, Delivery> conflatable = new HashMap<>();
+    protected boolean sending;
+
+    // Metrics
+    protected long enqueued;
+    protected long sent;
+    protected long conflated;
+    protected long dropped;
+    protected long failed;
+    protected long lastLagMillis;
+    protected long maxLagMillis;
+
+    public SessionOutboundBuffer(String sessionKey, int capacity, boolean conflate, Executor executor, LongSupplier clock) {
+        this.sessionKey = sessionKey;
+        this.capacity = Math.max(1, capacity);
+        this.conflate = conflate;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue a message to be sent to the session.
+     *
+     * @param conflationKey Key identifying messages that supersede each other, <code>null</code> if the message must
+     *                      always be sent.
+     * @return <code>false</code> if the buffer was full and the oldest message had to be dropped.
+     */
+    public synchronized boolean add(Object conflationKey, Runnable sender) {
+        enqueued++;
+
+        if (conflate && conflationKey != null) {
+            Delivery pending = conflatable.get(conflationKey);
+            if (pending != null) {
+                pending.sender = sender;
+                conflated++;
+                return true;
+            }
+        }
+
+        boolean overflow = false;
+        if (queue.size() >= capacity) {
+            Delivery oldest = queue.poll();
+            removeConflatable(oldest);
+            dropped++;
+            overflow = true;
+        }
+
+        Delivery delivery = new Delivery(conflationKey, clock.getAsLong(), sender);
+        queue.add(delivery);
+        if (conflate && conflationKey != null) {
+            conflatable.put(conflationKey, delivery);
+        }
+
+        if (!sending) {
+            sending = true;
+            try {
+                executor.execute(this::send);
+            } catch (RejectedExecutionException e) {
+                // Otherwise no sender would ever be started again, the message is sent by the next accepted sender
+                sending = false;
+                LOG.log(Level.WARNING, "Failed to start sender of session: " + sessionKey, e);
+            }
+        }
+        return !overflow;
+    }
+
+    /**
+     * Discards all pending messages, called when the session is closed.
+     */
+    public synchronized void clear() {
+        queue.clear();
+        conflatable.clear();
+    }
+
+    protected void send() {
+        while (true) {
+            Delivery delivery;
+            synchronized (this) {
+                delivery = queue.poll();
+                if (delivery == null) {
+                    sending = false;
+                    return;
+                }
+                removeConflatable(delivery);
+            }
+
+            try {
+                delivery.sender.run();
+            } catch (Exception e) {
+                synchronized (this) {
+                    failed++;
+                }
+                LOG.log(Level.FINE, "Failed to send message to session: " + sessionKey, e);
+            }
+
+            long lag = clock.getAsLong() - delivery.enqueuedMillis;
+            synchronized (this) {
+                sent++;
+                lastLagMillis = lag;
+                maxLagMillis = Math.max(maxLagMillis, lag);
+            }
+        }
+    }
+
+    protected void removeConflatable(Delivery delivery) {
+        if (delivery != null && delivery.conflationKey != null) {
+            conflatable.remove(delivery.conflationKey, delivery);
+        }
+    }
+
+    public String getSessionKey() {
+        return sessionKey;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return How long the oldest pending message has been waiting to be sent.
+     */
+    public synchronized long getLagMillis() {
+        Delivery oldest = queue.peek();
+        return oldest != null ? clock.getAsLong() - oldest.enqueuedMillis : 0L;
+    }
+
+    public synchronized ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("capacity", capacity);
+        status.put("queueDepth", queue.size());
+        status.put("lagMillis", getLagMillis());
+        status.put("lastLagMillis", lastLagMillis);
+        status.put("maxLagMillis", maxLagMillis);
+        status.put("enqueued", enqueued);
+        status.put("sent", sent);
+        status.put("conflated", conflated);
+        status.put("dropped", dropped);
+        status.put("failed", failed);
+        return status;
+    }
+}
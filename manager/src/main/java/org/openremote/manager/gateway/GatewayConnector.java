@@ -61,6 +61,7 @@ public class GatewayConnector {
     public static long ASSET_CRUD_TIMEOUT_MILLIS = 10000; // How long to wait for a response when merging an asset before throwing an exception
     public static int MAX_SYNC_RETRIES = 5;
     public static int SYNC_ASSET_BATCH_SIZE = 20;
+    public static int SYNC_ASSET_PAGE_SIZE = 1000; // Number of gateway asset IDs requested per page during initial sync
     public static final String ASSET_READ_EVENT_NAME_INITIAL = "INITIAL";
     public static final String ASSET_READ_EVENT_NAME_BATCH = "BATCH";
     protected static final Map<String, Pair<Function<String, String>, Function<String, String>>> ASSET_ID_MAPPERS = new HashMap<>();
@@ -79,6 +80,9 @@ public class GatewayConnector {
     protected boolean initialSyncInProgress;
     protected ScheduledFuture<?> syncProcessorFuture;
     List<String> syncAssetIds;
+    Map<String, String> syncGatewayAssetParentIds;
+    String syncAfterAssetId;
+    boolean syncAssetPaging;
     int syncIndex;
     int syncErrors;
     GatewayAsset gateway;
@@ -167,6 +171,8 @@ public class GatewayConnector {
         cachedAssetEvents = new ArrayList<>();
         cachedAttributeEvents = new ArrayList<>();
         syncAssetIds = null;
+        syncGatewayAssetParentIds = null;
+        syncAssetPaging = SYNC_ASSET_PAGE_SIZE > 0;
         syncIndex = 0;
         syncErrors = 0;
 
@@ -265,15 +271,33 @@ public class GatewayConnector {
      * Get list of gateway assets (get basic details and then batch load them to minimise load)
      */
     synchronized protected void startSync() {
+        syncGatewayAssetParentIds = new LinkedHashMap<>();
+        requestAssetIds(null);
+    }
+
+    /**
+     * Request the basic details of the gateway assets that come after the specified asset, in pages of
+     * {@link #SYNC_ASSET_PAGE_SIZE} (keyset pagination) so the gateway doesn't have to load all of its assets at once
+     */
+    protected void requestAssetIds(String afterAssetId) {
 
         if (syncAborted()) {
             return;
         }
 
-        expectedSyncResponseName = ASSET_READ_EVENT_NAME_INITIAL;
+        AssetQuery query = new AssetQuery().select(selectExcludeAll()).recursive(true);
+
+        if (syncAssetPaging) {
+            query.orderBy(new AssetQuery.OrderBy(AssetQuery.OrderBy.Property.CREATED_ON))
+                .limit(SYNC_ASSET_PAGE_SIZE)
+                .after(afterAssetId);
+        }
+
+        syncAfterAssetId = afterAssetId;
+        expectedSyncResponseName = afterAssetId == null ? ASSET_READ_EVENT_NAME_INITIAL : ASSET_READ_EVENT_NAME_INITIAL + syncGatewayAssetParentIds.size();
         sendMessageToGateway(new EventRequestResponseWrapper<>(
-            ASSET_READ_EVENT_NAME_INITIAL,
-            new ReadAssetsEvent(new AssetQuery().select(selectExcludeAll()).recursive(true))));
+            expectedSyncResponseName,
+            new ReadAssetsEvent(query)));
         syncProcessorFuture = executorService.schedule(this::onSyncAssetsTimeout, SYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
     }
 
@@ -293,8 +317,8 @@ public class GatewayConnector {
         }
 
         if (syncAssetIds == null) {
-            // Haven't received initial list of assets so retry
-            startSync();
+            // Haven't received initial list of assets so retry the current page
+            requestAssetIds(syncAfterAssetId);
         } else {
             requestAssets();
         }
@@ -350,17 +374,42 @@ public class GatewayConnector {
 
         syncProcessorFuture.cancel(true);
         syncProcessorFuture = null;
-        boolean isInitialResponse = ASSET_READ_EVENT_NAME_INITIAL.equalsIgnoreCase(messageId);
+        boolean isInitialResponse = expectedSyncResponseName.startsWith(ASSET_READ_EVENT_NAME_INITIAL);
 
         if (isInitialResponse) {
 
+            if (syncAfterAssetId != null && cachedAssetEvents.stream().anyMatch(assetEvent ->
+                assetEvent.getCause() == AssetEvent.Cause.DELETE && syncAfterAssetId.equals(assetEvent.getAssetId()))) {
+                // The page cursor asset has been deleted so the page may be incomplete; start again
+                LOG.info("Gateway asset used as sync page cursor has been deleted so restarting sync: Gateway ID=" + gatewayId);
+                startSync();
+                return;
+            }
+
+            List<Asset<?>> pageAssets = e.getAssets();
+            boolean pageAdvanced = pageAssets.stream().noneMatch(asset -> syncGatewayAssetParentIds.containsKey(asset.getId()));
+            pageAssets.forEach(asset -> syncGatewayAssetParentIds.put(asset.getId(), asset.getParentId()));
+
+            if (syncAssetPaging && pageAssets.size() >= SYNC_ASSET_PAGE_SIZE) {
+                if (pageAdvanced) {
+                    requestAssetIds(pageAssets.get(pageAssets.size() - 1).getId());
+                } else {
+                    // Gateway doesn't support keyset pagination so request all asset IDs at once
+                    LOG.info("Gateway returned the same assets for the next page so requesting all assets at once: Gateway ID=" + gatewayId);
+                    syncAssetPaging = false;
+                    syncGatewayAssetParentIds.clear();
+                    requestAssetIds(null);
+                }
+                return;
+            }
+
             // Put assets in hierarchical order
-            Map<String, String> gatewayAssetIdParentIdMap = e.getAssets().stream()
-                .collect(HashMap::new, (m, v) -> m.put(v.getId(), v.getParentId()), HashMap::putAll);
+            Map<String, String> gatewayAssetIdParentIdMap = syncGatewayAssetParentIds;
+            syncGatewayAssetParentIds = null;
 
-            ToIntFunction<Asset<?>> assetLevelExtractor = asset -> {
+            ToIntFunction<String> assetLevelExtractor = assetId -> {
                 int level = 0;
-                String parentId = asset.getParentId();
+                String parentId = gatewayAssetIdParentIdMap.get(assetId);
                 while (parentId != null) {
                     level++;
                     parentId = gatewayAssetIdParentIdMap.get(parentId);
@@ -368,10 +417,9 @@ public class GatewayConnector {
                 return level;
             };
 
-            syncAssetIds = e.getAssets()
+            syncAssetIds = gatewayAssetIdParentIdMap.keySet()
                 .stream()
                 .sorted(Comparator.comparingInt(assetLevelExtractor))
-                .map(Asset::getId)
                 .collect(Collectors.toList());
 
             if (syncAssetIds.isEmpty()) {
@@ -472,18 +520,23 @@ public class GatewayConnector {
 
     protected void deleteObsoleteLocalAssets() {
 
-        // Find obsolete local assets
-        List<Asset<?>> localAssets = assetStorageService.findAll(
+        // Find obsolete local assets, streaming them as a gateway can have a lot of assets
+        Set<String> gatewayAssetIds = new HashSet<>(syncAssetIds);
+        List<String> obsoleteLocalAssetIds = new ArrayList<>();
+        assetStorageService.findAll(
             new AssetQuery()
                 .select(selectExcludeAll())
                 .recursive(true)
-                .parents(gatewayId)
+                .parents(gatewayId),
+            SYNC_ASSET_PAGE_SIZE,
+            localAsset -> {
+                if (!gatewayAssetIds.contains(mapAssetId(gatewayId, localAsset.getId(), true))) {
+                    obsoleteLocalAssetIds.add(localAsset.getId());
+                }
+            }
         );
 
         // Delete obsolete assets
-        List<String> obsoleteLocalAssetIds = localAssets.stream()
-            .filter(localAsset -> !syncAssetIds.contains(mapAssetId(gatewayId, localAsset.getId(), true)))
-            .map(Asset::getId).collect(Collectors.toList());
 
         if (!obsoleteLocalAssetIds.isEmpty()) {
             boolean deleted = deleteAssetsLocally(obsoleteLocalAssetIds);
@@ -19,6 +19,7 @@
  */
 package org.openremote.manager.mqtt;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import io.moquette.broker.subscriptions.Token;
 import io.moquette.broker.subscriptions.Topic;
 import io.moquette.interception.messages.*;
@@ -43,15 +44,18 @@ import org.openremote.model.util.ValueUtil;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import static org.openremote.manager.mqtt.PayloadEncoding.getTopicType;
 import static org.openremote.model.Constants.ASSET_ID_REGEXP;
 import static org.openremote.model.syslog.SyslogCategory.API;
 
@@ -76,19 +80,23 @@ public class DefaultMQTTHandler extends MQTTHandler {
     protected boolean isKeycloak;
 
     public static boolean isAttributeTopic(Topic topic) {
-        return ATTRIBUTE_TOPIC.equalsIgnoreCase(topicTokenIndexToString(topic, 2)) || ATTRIBUTE_VALUE_TOPIC.equalsIgnoreCase(topicTokenIndexToString(topic, 2));
+        return ATTRIBUTE_TOPIC.equalsIgnoreCase(getTopicType(topic)) || isAttributeValueTopic(topic);
+    }
+
+    public static boolean isAttributeValueTopic(Topic topic) {
+        return ATTRIBUTE_VALUE_TOPIC.equalsIgnoreCase(getTopicType(topic));
     }
 
     public static boolean isAttributeWriteTopic(Topic topic) {
-        return ATTRIBUTE_WRITE_TOPIC.equalsIgnoreCase(topicTokenIndexToString(topic, 2));
+        return ATTRIBUTE_WRITE_TOPIC.equalsIgnoreCase(getTopicType(topic));
     }
 
     public static boolean isAttributeValueWriteTopic(Topic topic) {
-        return ATTRIBUTE_VALUE_WRITE_TOPIC.equalsIgnoreCase(topicTokenIndexToString(topic, 2));
+        return ATTRIBUTE_VALUE_WRITE_TOPIC.equalsIgnoreCase(getTopicType(topic));
     }
 
     public static boolean isAssetTopic(Topic topic) {
-        return ASSET_TOPIC.equalsIgnoreCase(topicTokenIndexToString(topic, 2));
+        return ASSET_TOPIC.equalsIgnoreCase(getTopicType(topic));
     }
 
     @Override
@@ -349,17 +357,34 @@ public class DefaultMQTTHandler extends MQTTHandler {
     @Override
     public void doPublish(MqttConnection connection, Topic topic, InterceptPublishMessage msg) {
         List<String> topicTokens = topic.getTokens().stream().map(Token::toString).collect(Collectors.toList());
-        boolean isValueWrite = topicTokens.get(2).equals(ATTRIBUTE_VALUE_WRITE_TOPIC);
-        String payloadContent = msg.getPayload().toString(StandardCharsets.UTF_8);
+        boolean isValueWrite = isAttributeValueWriteTopic(topic);
+        PayloadEncoding encoding = PayloadEncoding.fromTopic(topic);
         AttributeEvent attributeEvent;
 
-        if (isValueWrite) {
-            String attributeName = topicTokens.get(3);
-            String assetId = topicTokens.get(4);
-            Object value = ValueUtil.parse(payloadContent).orElse(null);
-            attributeEvent = new AttributeEvent(assetId, attributeName, value);
+        if (encoding == PayloadEncoding.JSON) {
+            String payloadContent = msg.getPayload().toString(StandardCharsets.UTF_8);
+
+            if (isValueWrite) {
+                String attributeName = topicTokens.get(3);
+                String assetId = topicTokens.get(4);
+                Object value = ValueUtil.parse(payloadContent).orElse(null);
+                attributeEvent = new AttributeEvent(assetId, attributeName, value);
+            } else {
+                attributeEvent = ValueUtil.parse(payloadContent, AttributeEvent.class).orElse(null);
+            }
         } else {
-            attributeEvent = ValueUtil.parse(payloadContent, AttributeEvent.class).orElse(null);
+            try {
+                JsonNode payloadNode = encoding.decode(msg.getPayload());
+
+                if (isValueWrite) {
+                    attributeEvent = new AttributeEvent(topicTokens.get(4), topicTokens.get(3), payloadNode);
+                } else {
+                    attributeEvent = payloadNode != null ? ValueUtil.JSON.treeToValue(payloadNode, AttributeEvent.class) : null;
+                }
+            } catch (Exception e) {
+                LOG.log(Level.FINE, "Failed to decode " + encoding + " payload for publish topic '" + topic + "': " + connection, e);
+                attributeEvent = null;
+            }
         }
 
         if (attributeEvent == null) {
@@ -455,13 +480,40 @@ public class DefaultMQTTHandler extends MQTTHandler {
     }
 
     protected Consumer<SharedEvent> getSubscriptionEventConsumer(MqttConnection connection, Topic topic, MqttQoS mqttQoS) {
-        boolean isValueSubscription = ATTRIBUTE_VALUE_TOPIC.equalsIgnoreCase(topicTokenIndexToString(topic, 2));
+        boolean isValueSubscription = isAttributeValueTopic(topic);
         boolean isAssetTopic = isAssetTopic(topic);
+        PayloadEncoding encoding = PayloadEncoding.fromTopic(topic);
 
         // Build topic expander (replace wildcards) so it isn't computed for each event
+        Function<SharedEvent, String> topicExpander = getTopicExpander(topic);
+
+        String topicStr = topic.toString();
+
+        // Deliver through the client event service so the session's outbound buffer (if enabled) applies; attribute
+        // events of this subscription supersede each other when the client is lagging
+        return ev -> {
+
+            if (isAssetTopic) {
+                if (ev instanceof AssetEvent) {
+                    clientEventService.deliverToSession(connection.getClientId(), null, () ->
+                        mqttBrokerService.publishEvent(topicExpander.apply(ev), ev, false, encoding, mqttQoS));
+                }
+            } else {
+                if (ev instanceof AttributeEvent) {
+                    clientEventService.deliverToSession(connection.getClientId(), Arrays.asList(topicStr, ((AttributeEvent) ev).getAttributeRef()), () ->
+                        mqttBrokerService.publishEvent(topicExpander.apply(ev), ev, isValueSubscription, encoding, mqttQoS));
+                }
+            }
+        };
+    }
+
+    /**
+     * Builds a function that expands the wildcards of the subscription topic into the publish topic of an event.
+     */
+    public static Function<SharedEvent, String> getTopicExpander(Topic topic) {
         Function<SharedEvent, String> topicExpander;
 
-        if (isAssetTopic) {
+        if (isAssetTopic(topic)) {
             String topicStr = topic.toString();
             String replaceToken = topicStr.endsWith(TOKEN_MULTI_LEVEL_WILDCARD) ? TOKEN_MULTI_LEVEL_WILDCARD : topicStr.endsWith(TOKEN_SINGLE_LEVEL_WILDCARD) ? TOKEN_SINGLE_LEVEL_WILDCARD : null;
             topicExpander = ev -> replaceToken != null ? topicStr.replace(replaceToken, ((AssetEvent)ev).getAssetId()) : topicStr;
@@ -484,25 +536,7 @@ public class DefaultMQTTHandler extends MQTTHandler {
             };
         }
 
-
-        return ev -> {
-
-            if (isAssetTopic) {
-                if (ev instanceof AssetEvent) {
-                    mqttBrokerService.publishMessage(topicExpander.apply(ev), ev, mqttQoS);
-                }
-            } else {
-                if (ev instanceof AttributeEvent) {
-                    AttributeEvent attributeEvent = (AttributeEvent) ev;
-
-                    if (isValueSubscription) {
-                        mqttBrokerService.publishMessage(topicExpander.apply(ev), attributeEvent.getValue().orElse(null), mqttQoS);
-                    } else {
-                        mqttBrokerService.publishMessage(topicExpander.apply(ev), ev, mqttQoS);
-                    }
-                }
-            }
-        };
+        return topicExpander;
     }
 
     public static Map<String, Object> prepareHeaders(MqttConnection connection) {
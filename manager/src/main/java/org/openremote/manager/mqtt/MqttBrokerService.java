@@ -25,7 +25,8 @@ import io.moquette.broker.SessionRegistry;
 import io.moquette.broker.config.MemoryConfig;
 import io.moquette.broker.security.IAuthenticator;
 import io.moquette.interception.InterceptHandler;
-import io.netty.buffer.ByteBuf;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.mqtt.MqttMessageBuilders;
 import io.netty.handler.codec.mqtt.MqttPublishMessage;
@@ -40,18 +41,20 @@ import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.manager.security.ManagerKeycloakIdentityProvider;
 import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.shared.SharedEvent;
 import org.openremote.model.security.Tenant;
 import org.openremote.model.security.User;
 import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.TextUtil;
-import org.openremote.model.util.ValueUtil;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -72,6 +75,8 @@ public class MqttBrokerService extends RouteBuilder implements ContainerService,
     public static final String MQTT_CLIENT_QUEUE = "seda://MqttClientQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
     public static final String MQTT_SERVER_LISTEN_HOST = "MQTT_SERVER_LISTEN_HOST";
     public static final String MQTT_SERVER_LISTEN_PORT = "MQTT_SERVER_LISTEN_PORT";
+    protected static final int EVENT_PAYLOAD_CACHE_SIZE = 10000;
+    protected static final long EVENT_PAYLOAD_CACHE_EXPIRY_MILLIS = 10000;
 
     protected ManagerKeycloakIdentityProvider identityProvider;
     protected ClientEventService clientEventService;
@@ -81,6 +86,16 @@ public class MqttBrokerService extends RouteBuilder implements ContainerService,
     protected final Map<String, MqttConnection> clientIdConnectionMap = new HashMap<>();
     protected List<MQTTHandler> customHandlers = new ArrayList<>();
 
+    /**
+     * Encoded event payloads keyed by event instance (weak keys use identity equality) so an event fanned out to many
+     * subscriptions is only serialised once.
+     */
+    protected final Cache<SharedEvent, EventPayloads> eventPayloadCache = CacheBuilder.newBuilder()
+        .weakKeys()
+        .maximumSize(EVENT_PAYLOAD_CACHE_SIZE)
+        .expireAfterWrite(EVENT_PAYLOAD_CACHE_EXPIRY_MILLIS, TimeUnit.MILLISECONDS)
+        .build();
+
     protected boolean active;
     protected String host;
     protected int port;
@@ -341,18 +356,59 @@ public class MqttBrokerService extends RouteBuilder implements ContainerService,
     }
 
     public void publishMessage(String topic, Object data, MqttQoS qoS) {
-        try {
-            ByteBuf payload = Unpooled.copiedBuffer(ValueUtil.asJSON(data).orElseThrow(() -> new IllegalStateException("Failed to convert payload to JSON string: " + data)), Charset.defaultCharset());
+        publishMessage(topic, data, PayloadEncoding.JSON, qoS);
+    }
 
-            MqttPublishMessage publishMessage = MqttMessageBuilders.publish()
-                .qos(qoS)
-                .topicName(topic)
-                .payload(payload)
-                .build();
+    public void publishMessage(String topic, Object data, PayloadEncoding encoding, MqttQoS qoS) {
+        try {
+            publishPayload(topic, encoding.encode(data), qoS);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Couldn't send message to MQTT client", e);
+        }
+    }
 
-            mqttBroker.internalPublish(publishMessage, INTERNAL_CLIENT_ID);
+    /**
+     * Publishes an event to a subscriber; the payload is only serialised once per event, encoding and variant (full
+     * event or value only) and then shared by all subscribers the event is fanned out to.
+     */
+    public void publishEvent(String topic, SharedEvent event, boolean valueOnly, PayloadEncoding encoding, MqttQoS qoS) {
+        try {
+            byte[] payload = eventPayloadCache.get(event, EventPayloads::new).get(valueOnly, encoding, () -> {
+                Object data = valueOnly && event instanceof AttributeEvent ? ((AttributeEvent) event).getValue().orElse(null) : event;
+                return encoding.encode(data);
+            });
+            publishPayload(topic, payload, qoS);
         } catch (Exception e) {
-            LOG.log(Level.WARNING, "Couldn't send AttributeEvent to MQTT client", e);
+            LOG.log(Level.WARNING, "Couldn't send event to MQTT client", e);
+        }
+    }
+
+    protected void publishPayload(String topic, byte[] payload, MqttQoS qoS) {
+        // Wrapping doesn't copy so the payload is shared rather than copied for each subscriber
+        MqttPublishMessage publishMessage = MqttMessageBuilders.publish()
+            .qos(qoS)
+            .topicName(topic)
+            .payload(Unpooled.wrappedBuffer(payload))
+            .build();
+
+        mqttBroker.internalPublish(publishMessage, INTERNAL_CLIENT_ID);
+    }
+
+    /**
+     * Encoded payloads of a single event; index is the encoding ordinal, doubled for the value only variant.
+     */
+    protected static class EventPayloads {
+        protected final byte[][] payloads = new byte[PayloadEncoding.values().length * 2][];
+
+        protected EventPayloads() {
+        }
+
+        protected synchronized byte[] get(boolean valueOnly, PayloadEncoding encoding, Callable<byte[]> encoder) throws Exception {
+            int index = encoding.ordinal() * 2 + (valueOnly ? 1 : 0);
+            if (payloads[index] == null) {
+                payloads[index] = encoder.call();
+            }
+            return payloads[index];
         }
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.mqtt;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.moquette.broker.subscriptions.Topic;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.openremote.model.util.ValueUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The encoding of MQTT payloads; clients opt in to a compact binary encoding by prefixing the topic type token (the
+ * third token) of a subscribe or publish topic with the encoding prefix e.g. {@code {realm}/{clientId}/cbor.attribute/#};
+ * JSON is used when there is no prefix.
+ */
+public enum PayloadEncoding {
+
+    JSON(null) {
+        @Override
+        public byte[] encode(Object data) throws JsonProcessingException {
+            return ValueUtil.asJSONOrThrow(data).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public JsonNode decode(ByteBuf payload) {
+            return ValueUtil.parse(payload.toString(StandardCharsets.UTF_8)).orElse(null);
+        }
+    },
+
+    CBOR("cbor.") {
+        @Override
+        public byte[] encode(Object data) throws JsonProcessingException {
+            // Convert to tree using the JSON mapper so the same serialisation config and modules are used
+            return CBOR_MAPPER.writeValueAsBytes(ValueUtil.JSON.valueToTree(data));
+        }
+
+        @Override
+        public JsonNode decode(ByteBuf payload) throws IOException {
+            JsonNode node = CBOR_MAPPER.readTree(ByteBufUtil.getBytes(payload));
+            return node == null || node.isNull() || node.isMissingNode() ? null : node;
+        }
+    };
+
+    protected static final ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
+    protected final String topicPrefix;
+
+    PayloadEncoding(String topicPrefix) {
+        this.topicPrefix = topicPrefix;
+    }
+
+    public abstract byte[] encode(Object data) throws JsonProcessingException;
+
+    public abstract JsonNode decode(ByteBuf payload) throws IOException;
+
+    public String getTopicPrefix() {
+        return topicPrefix;
+    }
+
+    /**
+     * Get the encoding indicated by the topic type token (the third token) of the topic.
+     */
+    public static PayloadEncoding fromTopic(Topic topic) {
+        String typeToken = MQTTHandler.topicTokenIndexToString(topic, 2);
+        if (typeToken != null) {
+            for (PayloadEncoding encoding : values()) {
+                if (encoding.topicPrefix != null && typeToken.regionMatches(true, 0, encoding.topicPrefix, 0, encoding.topicPrefix.length())) {
+                    return encoding;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * Get the topic type token (the third token) of the topic without any encoding prefix.
+     */
+    public static String getTopicType(Topic topic) {
+        String typeToken = MQTTHandler.topicTokenIndexToString(topic, 2);
+        PayloadEncoding encoding = fromTopic(topic);
+        return typeToken != null && encoding.topicPrefix != null ? typeToken.substring(encoding.topicPrefix.length()) : typeToken;
+    }
+}
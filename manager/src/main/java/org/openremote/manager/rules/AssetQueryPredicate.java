@@ -32,10 +32,8 @@ import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.MetaHolder;
 import org.openremote.model.value.NameValueHolder;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -44,83 +42,149 @@ import java.util.stream.Collectors;
 
 /**
  * Test an {@link AssetState} with a {@link AssetQuery}.
+ * <p>
+ * The query is compiled into predicates once on construction, so a single instance should be reused to test many
+ * asset states; the query must not be modified afterwards.
  */
 public class AssetQueryPredicate implements Predicate<AssetState<?>> {
 
     final protected AssetQuery query;
     final protected TimerService timerService;
     final protected AssetStorageService assetStorageService;
+    final protected Set<String> ids;
+    final protected List<Predicate<Object>> namePredicates;
+    final protected List<Predicate<AssetState<?>>> parentPredicates;
+    final protected Map<String, Boolean> assetTypeMatches;
+    final protected List<Predicate<String[]>> pathPredicates;
+    final protected Predicate<AssetState<?>> tenantPredicate;
+    final protected Predicate<AssetState<?>> attributesPredicate;
+    final protected List<String> userIds;
 
     public AssetQueryPredicate(TimerService timerService, AssetStorageService assetStorageService, AssetQuery query) {
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
         this.query = query;
+
+        ids = query.ids != null && query.ids.length > 0
+            ? new HashSet<>(Arrays.asList(query.ids)) : null;
+        namePredicates = query.names != null && query.names.length > 0
+            ? Arrays.stream(query.names)
+                .map(stringPredicate -> stringPredicate.asPredicate(timerService::getCurrentTimeMillis))
+                .collect(Collectors.toList())
+            : null;
+        parentPredicates = query.parents != null && query.parents.length > 0
+            ? Arrays.stream(query.parents).map(AssetQueryPredicate::asPredicate).collect(Collectors.toList())
+            : null;
+        // Asset descriptors are resolved once per asset type rather than once per asset state
+        assetTypeMatches = query.types != null && query.types.length > 0 ? new ConcurrentHashMap<>() : null;
+        pathPredicates = query.paths != null && query.paths.length > 0
+            ? Arrays.stream(query.paths).map(AssetQueryPredicate::asPredicate).collect(Collectors.toList())
+            : null;
+        tenantPredicate = query.tenant != null ? asPredicate(query.tenant) : null;
+        // TODO: LogicGroup AND doesn't make much sense when applying to a single asset state
+        attributesPredicate = query.attributes != null ? asPredicate(timerService::getCurrentTimeMillis, query.attributes) : null;
+        userIds = query.userIds != null && query.userIds.length > 0 ? Arrays.asList(query.userIds) : null;
+    }
+
+    public AssetQuery getQuery() {
+        return query;
     }
 
     @Override
     public boolean test(AssetState<?> assetState) {
 
-        if (query.ids != null && query.ids.length > 0) {
-            if (Arrays.stream(query.ids).noneMatch(id -> assetState.getId().equals(id))) {
-                return false;
-            }
+        if (ids != null && !ids.contains(assetState.getId())) {
+            return false;
         }
 
-        if (query.names != null && query.names.length > 0) {
-            if (Arrays.stream(query.names)
-                    .map(stringPredicate -> stringPredicate.asPredicate(timerService::getCurrentTimeMillis))
-                    .noneMatch(np -> np.test(assetState.getAssetName()))) {
-                return false;
-            }
+        if (namePredicates != null && namePredicates.stream().noneMatch(np -> np.test(assetState.getAssetName()))) {
+            return false;
         }
 
-        if (query.parents != null && query.parents.length > 0) {
-            if (Arrays.stream(query.parents)
-                    .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState))) {
-                return false;
-            }
+        if (parentPredicates != null && parentPredicates.stream().noneMatch(np -> np.test(assetState))) {
+            return false;
         }
 
-        if (query.types != null && query.types.length > 0) {
-            if (Arrays.stream(query.types).noneMatch(type ->
-                        type.isAssignableFrom(
-                            ValueUtil.getAssetDescriptor(assetState.getAssetType())
-                                .orElse(ThingAsset.DESCRIPTOR).getType()))
-                    ) {
-                return false;
-            }
+        if (assetTypeMatches != null && !matchesAssetType(assetState.getAssetType())) {
+            return false;
         }
 
-        if (query.paths != null && query.paths.length > 0) {
-            if (Arrays.stream(query.paths)
-                    .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getPath()))) {
-                return false;
-            }
+        if (pathPredicates != null && pathPredicates.stream().noneMatch(np -> np.test(assetState.getPath()))) {
+            return false;
         }
 
-        if (query.tenant != null) {
-            if (!AssetQueryPredicate.asPredicate(query.tenant).test(assetState)) {
-                return false;
-            }
+        if (tenantPredicate != null && !tenantPredicate.test(assetState)) {
+            return false;
         }
 
-        if (query.attributes != null) {
-            // TODO: LogicGroup AND doesn't make much sense when applying to a single asset state
-            if (!asPredicate(timerService::getCurrentTimeMillis, query.attributes).test(assetState)) {
-                return false;
-            }
+        if (attributesPredicate != null && !attributesPredicate.test(assetState)) {
+            return false;
         }
 
         // Apply user ID predicate last as it is the most expensive
-        if (query.userIds != null && query.userIds.length > 0) {
-            return assetStorageService.isUserAsset(Arrays.asList(query.userIds), assetState.getId());
+        if (userIds != null) {
+            return assetStorageService.isUserAsset(userIds, assetState.getId());
         }
 
         return true;
     }
 
+    /**
+     * @return <code>true</code> if the query has no type constraint or the given asset type is assignable to one of
+     * the query types.
+     */
+    public boolean matchesAssetType(String assetType) {
+        if (assetTypeMatches == null) {
+            return true;
+        }
+        return assetTypeMatches.computeIfAbsent(assetType, type -> {
+            Class<?> assetClass = ValueUtil.getAssetDescriptor(type).orElse(ThingAsset.DESCRIPTOR).getType();
+            return Arrays.stream(query.types).anyMatch(queryType -> queryType.isAssignableFrom(assetClass));
+        });
+    }
+
+    /**
+     * @return The attribute names an asset state must have to possibly match the given condition or <code>null</code>
+     * if the condition doesn't constrain the attribute name to a set of exact values.
+     */
+    public static Set<String> getRequiredAttributeNames(LogicGroup<AttributePredicate> condition) {
+        if (condition == null || groupIsEmpty(condition)) {
+            return null;
+        }
+
+        List<Set<String>> itemNames = new ArrayList<>();
+        condition.getItems().forEach(item -> itemNames.add(getRequiredAttributeName(item)));
+        if (condition.groups != null) {
+            condition.groups.forEach(group -> itemNames.add(getRequiredAttributeNames(group)));
+        }
+
+        if (condition.operator == LogicGroup.Operator.OR) {
+            // Every branch must be constrained
+            Set<String> names = new HashSet<>();
+            for (Set<String> branchNames : itemNames) {
+                if (branchNames == null) {
+                    return null;
+                }
+                names.addAll(branchNames);
+            }
+            return names;
+        }
+
+        // Any constrained branch will do, use the most selective
+        return itemNames.stream()
+            .filter(Objects::nonNull)
+            .min(Comparator.comparingInt(Set::size))
+            .orElse(null);
+    }
+
+    protected static Set<String> getRequiredAttributeName(AttributePredicate predicate) {
+        StringPredicate name = predicate.name;
+        if (name == null || name.value == null || name.negate || !name.caseSensitive || name.match != AssetQuery.Match.EXACT) {
+            return null;
+        }
+        return Collections.singleton(name.value);
+    }
+
     public static Predicate<AssetState<?>> asPredicate(ParentPredicate predicate) {
         return assetState ->
             (predicate.id == null || predicate.id.equals(assetState.getParentId()))
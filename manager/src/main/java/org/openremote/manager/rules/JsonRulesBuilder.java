@@ -34,6 +34,9 @@ import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.LogicGroup;
 import org.openremote.model.query.UserQuery;
 import org.openremote.model.query.filter.AttributePredicate;
+import org.openremote.model.query.filter.CalendarEventPredicate;
+import org.openremote.model.query.filter.DateTimePredicate;
+import org.openremote.model.query.filter.ValuePredicate;
 import org.openremote.model.rules.*;
 import org.openremote.model.rules.json.*;
 import org.openremote.model.util.TextUtil;
@@ -71,8 +74,13 @@ public class JsonRulesBuilder extends RulesBuilder {
     /**
      * Stores all state for a given {@link RuleCondition} and calculates which {@link AssetState}s match and don't
      * match the condition.
+     * <p>
+     * Unless the attribute predicates depend on the current time, the condition is evaluated incrementally: the
+     * attribute predicates are only tested against asset states that changed since the last evaluation (the outcome
+     * for all other asset states is kept) and the evaluation is skipped altogether if nothing this condition depends on
+     * has changed.
      */
-    static class RuleConditionState {
+    protected static class RuleConditionState {
 
         RuleCondition ruleCondition;
         final TimerService timerService;
@@ -86,6 +94,13 @@ public class JsonRulesBuilder extends RulesBuilder {
         Set<AssetState<?>> previouslyUnmatchedAssetStates;
         Predicate<Long> timePredicate;
         RuleConditionEvaluationResult lastEvaluationResult;
+        boolean incremental;
+        boolean changed = true;
+        Map<AssetState<?>, AssetState<?>> evaluatedAssetStates = new HashMap<>();
+        Set<AssetState<?>> matchingAssetStates = new HashSet<>();
+        Set<AssetState<?>> changedAssetStates = new HashSet<>();
+        RuleConditionEvaluationResult cachedEvaluationResult;
+        Map<String, Long> evaluatedRecurAssetIdMap;
 
         public RuleConditionState(RuleCondition ruleCondition, boolean trackUnmatched, TimerService timerService) throws Exception {
             this.timerService = timerService;
@@ -148,6 +163,8 @@ public class JsonRulesBuilder extends RulesBuilder {
                 ruleCondition.assets.orderBy = null;
                 ruleCondition.assets.limit = 0;
                 ruleCondition.assets.attributes = null;
+
+                incremental = !isTimeDependent(attributePredicates);
             } else {
                 throw new IllegalStateException("Invalid rule condition either timer or asset query must be set");
             }
@@ -163,6 +180,22 @@ public class JsonRulesBuilder extends RulesBuilder {
                 if (event == null || event.cause == PersistenceEvent.Cause.CREATE) {
                     // Do a complete refresh of unfiltered asset states based on the asset query (without attribute predicates)
                     unfilteredAssetStates = facts.matchAssetState(ruleCondition.assets).collect(Collectors.toSet());
+
+                    if (incremental) {
+                        // Only asset states that aren't the exact instances evaluated before need to be tested
+                        unfilteredAssetStates.forEach(assetState -> {
+                            if (evaluatedAssetStates.get(assetState) != assetState) {
+                                // Asset states are equal by asset and attribute so replace any older pending instance
+                                changedAssetStates.remove(assetState);
+                                changedAssetStates.add(assetState);
+                            }
+                        });
+                        int evaluatedCount = evaluatedAssetStates.size();
+                        evaluatedAssetStates.keySet().removeIf(assetState -> !unfilteredAssetStates.contains(assetState));
+                        matchingAssetStates.retainAll(unfilteredAssetStates);
+                        changedAssetStates.retainAll(unfilteredAssetStates);
+                        changed = changed || !changedAssetStates.isEmpty() || evaluatedCount != evaluatedAssetStates.size();
+                    }
                 } else {
                     // Replace or remove asset state as required
                     switch (event.cause) {
@@ -170,10 +203,20 @@ public class JsonRulesBuilder extends RulesBuilder {
                             // Only insert if fact was already in there (i.e. it matches the asset type constraints)
                             if (unfilteredAssetStates.remove(event.assetState)) {
                                 unfilteredAssetStates.add(event.assetState);
+                                if (incremental) {
+                                    changedAssetStates.remove(event.assetState);
+                                    changedAssetStates.add(event.assetState);
+                                }
+                                changed = true;
                             }
                             break;
                         case DELETE:
-                            unfilteredAssetStates.remove(event.assetState);
+                            if (unfilteredAssetStates.remove(event.assetState)) {
+                                evaluatedAssetStates.remove(event.assetState);
+                                matchingAssetStates.remove(event.assetState);
+                                changedAssetStates.remove(event.assetState);
+                                changed = true;
+                            }
                             break;
                     }
                 }
@@ -203,6 +246,23 @@ public class JsonRulesBuilder extends RulesBuilder {
                 return;
             }
 
+            // Nothing this condition depends on has changed so the outcome would be the same
+            if (incremental && !changed && cachedEvaluationResult != null && nextRecurAssetIdMap.equals(evaluatedRecurAssetIdMap)) {
+                lastEvaluationResult = cachedEvaluationResult;
+                return;
+            }
+
+            evaluate(nextRecurAssetIdMap);
+
+            if (incremental) {
+                cachedEvaluationResult = lastEvaluationResult;
+                evaluatedRecurAssetIdMap = new HashMap<>(nextRecurAssetIdMap);
+                changed = false;
+            }
+        }
+
+        protected void evaluate(Map<String, Long> nextRecurAssetIdMap) {
+
             if (unfilteredAssetStates.isEmpty()) {
                 // Maybe assets have been deleted so remove any previous match data
                 previouslyMatchedAssetStates.clear();
@@ -220,6 +280,33 @@ public class JsonRulesBuilder extends RulesBuilder {
 
             if (attributePredicates == null) {
                 matchedAssetStates = new ArrayList<>(unfilteredAssetStates);
+            } else if (incremental) {
+
+                // Every asset state is tested on its own so only changed asset states have to be tested again
+                changedAssetStates.forEach(assetState -> {
+                    evaluatedAssetStates.put(assetState, assetState);
+                    matchingAssetStates.remove(assetState);
+                    if (assetStatePredicate.test(assetState)) {
+                        matchingAssetStates.add(assetState);
+                    }
+                });
+                changedAssetStates.clear();
+
+                matchedAssetStates = new ArrayList<>(matchingAssetStates.size());
+                unmatchedAssetStates = new ArrayList<>(unfilteredAssetStates.size() - matchingAssetStates.size());
+                for (AssetState<?> assetState : unfilteredAssetStates) {
+                    (matchingAssetStates.contains(assetState) ? matchedAssetStates : unmatchedAssetStates).add(assetState);
+                }
+
+                if (trackUnmatched) {
+                    Set<AssetState<?>> matchedAssetStateSet = new HashSet<>(matchedAssetStates);
+
+                    // Clear out previous unmatched that now match
+                    previouslyUnmatchedAssetStates.removeIf(matchedAssetStateSet::contains);
+
+                    // Filter out previous un-matches to avoid re-triggering
+                    unmatchedAssetStates.removeIf(previouslyUnmatchedAssetStates::contains);
+                }
             } else {
 
                 Map<Boolean, List<AssetState<?>>> results;
@@ -262,11 +349,11 @@ public class JsonRulesBuilder extends RulesBuilder {
             }
 
             // Remove previous matches where the asset state no longer matches
+            Map<AssetState<?>, AssetState<?>> matchedAssetStateMap = new HashMap<>(matchedAssetStates.size());
+            matchedAssetStates.forEach(matchedAssetState -> matchedAssetStateMap.putIfAbsent(matchedAssetState, matchedAssetState));
             previouslyMatchedAssetStates.removeIf(previousAssetState -> {
 
-                Optional<AssetState<?>> matched = matchedAssetStates.stream()
-                    .filter(matchedAssetState -> Objects.equals(previousAssetState, matchedAssetState))
-                    .findFirst();
+                Optional<AssetState<?>> matched = Optional.ofNullable(matchedAssetStateMap.get(previousAssetState));
 
                 boolean noLongerMatches = !matched.isPresent();
 
@@ -310,8 +397,9 @@ public class JsonRulesBuilder extends RulesBuilder {
                 Stream<AssetState<?>> unmatchedAssetStateStream = unmatchedAssetStates.stream().filter(distinctByKey(AssetState::getId));
 
                 // Filter out unmatched asset ids that are in the matched list
+                Set<String> matchedAssetIdSet = new HashSet<>(matchedAssetIds);
                 unmatchedAssetIds = unmatchedAssetStateStream
-                        .filter(assetState -> !matchedAssetIds.contains(assetState.getId()))
+                        .filter(assetState -> !matchedAssetIdSet.contains(assetState.getId()))
                         .map(AssetState::getId)
                         .collect(Collectors.toList());
             }
@@ -320,6 +408,25 @@ public class JsonRulesBuilder extends RulesBuilder {
             log(Level.FINEST, "Rule evaluation result: " + lastEvaluationResult);
         }
 
+        /**
+         * Attribute predicates that compare against the current time can change outcome without any asset state
+         * changing, so such conditions can't be evaluated incrementally.
+         */
+        static boolean isTimeDependent(LogicGroup<AttributePredicate> condition) {
+            if (condition == null) {
+                return false;
+            }
+            return condition.getItems().stream().anyMatch(attributePredicate ->
+                isTimeDependent(attributePredicate.value)
+                    || isTimeDependent(attributePredicate.previousValue)
+                    || (attributePredicate.meta != null && Arrays.stream(attributePredicate.meta).anyMatch(metaPredicate -> isTimeDependent(metaPredicate.value))))
+                || (condition.groups != null && condition.groups.stream().anyMatch(RuleConditionState::isTimeDependent));
+        }
+
+        static boolean isTimeDependent(ValuePredicate valuePredicate) {
+            return valuePredicate instanceof DateTimePredicate || valuePredicate instanceof CalendarEventPredicate;
+        }
+
         Collection<String> getMatchedAssetIds() {
 
             if (lastEvaluationResult == null) {
@@ -671,6 +778,7 @@ public class JsonRulesBuilder extends RulesBuilder {
 
                     // Clear last results
                     ruleConditionState.lastEvaluationResult = null;
+                    ruleConditionState.changed = true;
                 });
             }
         };
@@ -36,18 +36,29 @@ import org.openremote.model.query.filter.GeofencePredicate;
 import org.openremote.model.query.filter.LocationAttributePredicate;
 import org.openremote.model.rules.*;
 import org.openremote.model.syslog.SyslogCategory;
+import org.openremote.model.util.Pair;
 import org.openremote.model.util.TextUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import static org.openremote.container.concurrent.GlobalLock.getLockTimeoutMillis;
 import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.model.rules.RulesetStatus.*;
 
 public class RulesEngine<T extends Ruleset> {
@@ -97,11 +108,17 @@ public class RulesEngine<T extends Ruleset> {
 
     // Separate logger for periodic stats printer
     public static final Logger STATS_LOG = Logger.getLogger("org.openremote.rules.RulesEngineStats");
+
+    // Upper bounds of the fire latency histogram buckets, the last bucket counts all slower fire cycles
+    public static final long[] FIRE_LATENCY_BUCKETS_MILLIS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000};
     protected static BiConsumer<RulesEngine<?>, RulesetDeployment> UNPAUSE_SCHEDULER = RulesEngine::scheduleUnpause;
     // Here to facilitate testing
     protected static BiConsumer<RulesEngine<?>, RulesetDeployment> PAUSE_SCHEDULER = RulesEngine::schedulePause;
     final protected TimerService timerService;
     final protected ScheduledExecutorService executorService;
+    // When set the engine fires on this executor guarded by its own lock instead of the global lock
+    final protected ExecutorService fireExecutorService;
+    final protected ReentrantLock engineLock = new ReentrantLock(true);
     final protected AssetStorageService assetStorageService;
     final protected ClientEventService clientEventService;
 
@@ -120,10 +137,22 @@ public class RulesEngine<T extends Ruleset> {
     protected boolean running;
     protected long lastFireTimestamp;
     protected boolean trackLocationPredicates;
-    protected ScheduledFuture<?> fireTimer;
+    // Volatile as it's cleared without the engine lock when a firing couldn't obtain it
+    protected volatile ScheduledFuture<?> fireTimer;
     protected ScheduledFuture<?> statsTimer;
     protected Map<Long, ScheduledFuture<?>> pauseTimers = new HashMap<>();
     protected Map<Long, ScheduledFuture<?>> unpauseTimers = new HashMap<>();
+    protected boolean firing;
+    // Calls that need the global lock are deferred until a fire cycle has released the engine lock
+    protected List<Runnable> deferredUntilFired = new ArrayList<>();
+    // Fact changes queued without waiting for the engine lock, applied by the next thread releasing it
+    final protected Queue<Runnable> pendingFactChanges = new ConcurrentLinkedQueue<>();
+    protected boolean applyingFactChanges;
+    final protected AtomicLongArray fireLatencyCounts = new AtomicLongArray(FIRE_LATENCY_BUCKETS_MILLIS.length + 1);
+    final protected AtomicLong fireCount = new AtomicLong();
+    final protected AtomicLong totalFireMillis = new AtomicLong();
+    protected volatile long lastFireMillis;
+    protected volatile long maxFireMillis;
 
     // Only used to optimize toString(), contains the details of this engine
     protected String deploymentInfo;
@@ -142,8 +171,29 @@ public class RulesEngine<T extends Ruleset> {
                        AssetPredictedDatapointService assetPredictedDatapointService,
                        RulesEngineId<T> id,
                        AssetLocationPredicateProcessor assetLocationPredicatesConsumer) {
+        this(timerService, identityService, executorService, null, assetStorageService, assetProcessingService, notificationService, clientEventService, assetDatapointService, assetPredictedDatapointService, id, assetLocationPredicatesConsumer);
+    }
+
+    /**
+     * @param fireExecutorService If set then this engine fires on the given executor whilst only holding its own lock,
+     *                            so it can fire concurrently with other engines; otherwise the engine fires whilst
+     *                            holding the global lock.
+     */
+    public RulesEngine(TimerService timerService,
+                       ManagerIdentityService identityService,
+                       ScheduledExecutorService executorService,
+                       ExecutorService fireExecutorService,
+                       AssetStorageService assetStorageService,
+                       AssetProcessingService assetProcessingService,
+                       NotificationService notificationService,
+                       ClientEventService clientEventService,
+                       AssetDatapointService assetDatapointService,
+                       AssetPredictedDatapointService assetPredictedDatapointService,
+                       RulesEngineId<T> id,
+                       AssetLocationPredicateProcessor assetLocationPredicatesConsumer) {
         this.timerService = timerService;
         this.executorService = executorService;
+        this.fireExecutorService = fireExecutorService;
         this.assetStorageService = assetStorageService;
         this.clientEventService = clientEventService;
         this.id = id;
@@ -225,6 +275,10 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void addRuleset(T ruleset) {
+        withEngineLock(toString() + "::addRuleset", () -> doAddRuleset(ruleset));
+    }
+
+    protected void doAddRuleset(T ruleset) {
 
         // Check for previous version of this ruleset
         RulesetDeployment deployment = deployments.get(ruleset.getId());
@@ -237,6 +291,7 @@ public class RulesEngine<T extends Ruleset> {
         }
 
         deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade);
+        deployment.setLockRunner(this::withEngineLock);
         boolean compiled;
 
         if (TextUtil.isNullOrEmpty(ruleset.getRules())) {
@@ -279,6 +334,11 @@ public class RulesEngine<T extends Ruleset> {
      * @return <code>true</code> if this rules engine has no deployments.
      */
     public boolean removeRuleset(Ruleset ruleset) {
+        Boolean empty = withEngineLockReturning(toString() + "::removeRuleset", () -> doRemoveRuleset(ruleset));
+        return empty != null && empty;
+    }
+
+    protected boolean doRemoveRuleset(Ruleset ruleset) {
         RulesetDeployment deployment = deployments.get(ruleset.getId());
 
         if (deployment == null) {
@@ -304,6 +364,10 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void start() {
+        withEngineLock(toString() + "::start", this::doStart);
+    }
+
+    protected void doStart() {
         if (running) {
             return;
         }
@@ -359,6 +423,10 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void stop(boolean systemShutdownInProgress) {
+        withEngineLock(toString() + "::stop", () -> doStop(systemShutdownInProgress));
+    }
+
+    protected void doStop(boolean systemShutdownInProgress) {
         if (!running) {
             return;
         }
@@ -380,7 +448,7 @@ public class RulesEngine<T extends Ruleset> {
         running = false;
 
         if (!systemShutdownInProgress && assetLocationPredicatesConsumer != null) {
-            assetLocationPredicatesConsumer.accept(this, null);
+            runOrDeferUntilFired(() -> assetLocationPredicatesConsumer.accept(this, null));
         }
 
         updateDeploymentInfo();
@@ -431,40 +499,222 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void scheduleFire() {
-        withLock(toString() + "::scheduleFire", () -> {
+        withEngineLock(toString() + "::scheduleFire", () -> {
             // Schedule a firing within the guaranteed expiration time (so not immediately), and
             // only if the last firing is done. This effectively limits how often the rules engine
             // will fire, only once within the guaranteed minimum expiration time.
-            if (fireTimer == null || fireTimer.isDone()) {
+            if (fireTimer == null || (fireExecutorService == null && fireTimer.isDone())) {
                 LOG.fine("Scheduling rules firing on: " + this);
+                Runnable fireTask = fireExecutorService == null
+                    ? () -> withLock(RulesEngine.this.toString() + "::fire", this::fire)
+                    : this::submitFire;
                 fireTimer = executorService.schedule(
-                    () -> withLock(RulesEngine.this.toString() + "::fire", () -> {
+                    fireTask,
+                    TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS,
+                    TimeUnit.MILLISECONDS
+                );
+            }
+        });
+    }
 
-                        fireTimer = null;
+    /**
+     * Hands the firing over to the fire executor; the fire timer is only cleared once the firing has started so no
+     * further firing is scheduled in the meantime. If the engine lock can't be obtained the firing never starts, so
+     * the fire timer is cleared and the firing rescheduled as otherwise this engine would never fire again.
+     */
+    protected void submitFire() {
+        try {
+            fireExecutorService.execute(() -> {
+                AtomicBoolean fireStarted = new AtomicBoolean();
+                List<Runnable> deferred = null;
+                try {
+                    deferred = withEngineLockReturning(RulesEngine.this.toString() + "::fire", () -> {
+                        fireStarted.set(true);
+                        fire();
+                        List<Runnable> fireDeferred = deferredUntilFired;
+                        deferredUntilFired = new ArrayList<>();
+                        return fireDeferred;
+                    });
+                } catch (IllegalStateException e) {
+                    if (fireStarted.get()) {
+                        throw e;
+                    }
+                    LOG.log(Level.WARNING, "Rules firing couldn't obtain the engine lock, rescheduling on: " + this, e);
+                }
+                if (deferred != null) {
+                    deferred.forEach(Runnable::run);
+                } else {
+                    // Interrupted or timed out waiting for the engine lock
+                    fireTimer = null;
+                    if (running) {
+                        executorService.submit(this::scheduleFire);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.log(Level.WARNING, "Rules firing rejected by fire executor on: " + this, e);
+            withEngineLock(toString() + "::fireRejected", () -> fireTimer = null);
+        }
+    }
 
-                        // Are temporary facts present before rules are fired?
-                        boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
+    /**
+     * Must be called whilst holding the engine lock (see {@link #withEngineLock}).
+     */
+    protected void fire() {
+        fireTimer = null;
+        firing = true;
+        long startTimestamp = System.currentTimeMillis();
+
+        try {
+            // Are temporary facts present before rules are fired?
+            boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
+
+            // Process rules for all deployments
+            fireAllDeployments();
+
+            // If there are temporary facts, or if there were some before and
+            // now they are gone, schedule a new firing to guarantee processing
+            // of expired and removed temporary facts
+            if ((facts.hasTemporaryFacts() || (hadTemporaryFactsBefore && !facts.hasTemporaryFacts()))
+                && !disableTemporaryFactExpiration) {
+                LOG.fine("Temporary facts require firing rules on: " + this);
+                executorService.submit(this::scheduleFire);
+            } else if (!disableTemporaryFactExpiration) {
+                LOG.fine("No temporary facts present/changed when firing rules on: " + this);
+            }
+        } finally {
+            firing = false;
+            recordFireLatency(System.currentTimeMillis() - startTimestamp);
+        }
+    }
 
-                        // Process rules for all deployments
-                        fireAllDeployments();
+    protected void recordFireLatency(long millis) {
+        int bucket = 0;
+        while (bucket < FIRE_LATENCY_BUCKETS_MILLIS.length && millis > FIRE_LATENCY_BUCKETS_MILLIS[bucket]) {
+            bucket++;
+        }
+        fireLatencyCounts.incrementAndGet(bucket);
+        fireCount.incrementAndGet();
+        totalFireMillis.addAndGet(millis);
+        lastFireMillis = millis;
+        maxFireMillis = Math.max(maxFireMillis, millis);
+    }
 
-                        // If there are temporary facts, or if there were some before and
-                        // now they are gone, schedule a new firing to guarantee processing
-                        // of expired and removed temporary facts
-                        if ((facts.hasTemporaryFacts() || (hadTemporaryFactsBefore && !facts.hasTemporaryFacts()))
-                            && !disableTemporaryFactExpiration) {
-                            LOG.fine("Temporary facts require firing rules on: " + this);
-                            executorService.submit(this::scheduleFire);
-                        } else if (!disableTemporaryFactExpiration) {
-                            LOG.fine("No temporary facts present/changed when firing rules on: " + this);
-                        }
+    /**
+     * @return The number of fire cycles per {@link #FIRE_LATENCY_BUCKETS_MILLIS} bucket, the last element counts the
+     * fire cycles that took longer than the largest bucket.
+     */
+    public long[] getFireLatencyHistogram() {
+        long[] histogram = new long[fireLatencyCounts.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = fireLatencyCounts.get(i);
+        }
+        return histogram;
+    }
 
-                    }),
-                    TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS,
-                    TimeUnit.MILLISECONDS
+    public long getFireCount() {
+        return fireCount.get();
+    }
+
+    public long getTotalFireMillis() {
+        return totalFireMillis.get();
+    }
+
+    public long getLastFireMillis() {
+        return lastFireMillis;
+    }
+
+    public long getMaxFireMillis() {
+        return maxFireMillis;
+    }
+
+    /**
+     * Obtain the lock guarding this engine's state; this is the global lock unless the engine has its own fire
+     * executor. The lock is always obtained after the global lock, so whilst holding the engine lock the global lock
+     * must not be obtained (see {@link #runOrDeferUntilFired}).
+     */
+    protected void withEngineLock(String info, Runnable runnable) {
+        withEngineLockReturning(info, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    protected <R> R withEngineLockReturning(String info, Supplier<R> supplier) {
+        if (fireExecutorService == null) {
+            return withLockReturning(info, supplier);
+        }
+
+        try {
+            if (!engineLock.tryLock(getLockTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException(
+                    "Could not acquire engine lock after waiting " + getLockTimeoutMillis() + "ms: " + Thread.currentThread().getName() + " executing " + info
                 );
             }
-        });
+        } catch (InterruptedException e) {
+            LOG.log(Level.FINEST, "Interrupted while waiting for engine lock: " + info);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        try {
+            return supplier.get();
+        } finally {
+            engineLock.unlock();
+            applyPendingFactChanges();
+        }
+    }
+
+    /**
+     * Changes the facts under the engine lock; when the engine has its own fire executor the change is queued instead
+     * of waiting for the engine lock, which is held for a whole fire cycle, so callers holding the global lock are never
+     * blocked by a firing. Queued changes are applied in order by the caller if the engine lock is free, otherwise by
+     * the thread holding it once it has been released.
+     */
+    protected void withFactChange(String info, Runnable change) {
+        if (fireExecutorService == null) {
+            withEngineLock(info, change);
+            return;
+        }
+
+        pendingFactChanges.add(change);
+        applyPendingFactChanges();
+    }
+
+    protected void applyPendingFactChanges() {
+        // Nested engine lock holders (e.g. a fire cycle) leave the changes to the outermost one
+        while (!pendingFactChanges.isEmpty() && !engineLock.isHeldByCurrentThread() && engineLock.tryLock()) {
+            List<Runnable> deferred;
+            try {
+                applyingFactChanges = true;
+                Runnable change;
+                while ((change = pendingFactChanges.poll()) != null) {
+                    try {
+                        change.run();
+                    } catch (Exception e) {
+                        LOG.log(Level.SEVERE, "Failed to apply fact change on: " + this, e);
+                    }
+                }
+            } finally {
+                applyingFactChanges = false;
+                deferred = deferredUntilFired;
+                deferredUntilFired = new ArrayList<>();
+                engineLock.unlock();
+            }
+            deferred.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Runs the given code immediately unless the engine is firing or applying queued fact changes on its own fire
+     * executor, in which case it is run once the engine lock has been released.
+     */
+    protected void runOrDeferUntilFired(Runnable runnable) {
+        if ((firing || applyingFactChanges) && fireExecutorService != null) {
+            deferredUntilFired.add(runnable);
+        } else {
+            runnable.run();
+        }
     }
 
     private void fireDeployments(Collection<RulesetDeployment> deploymentList) {
@@ -543,30 +793,55 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void updateOrInsertAssetState(AssetState<?> assetState, boolean insert) {
-        facts.putAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        withFactChange(toString() + "::updateOrInsertAssetState", () -> {
+            facts.putAssetState(assetState);
+            // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+            trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
+            notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
+            if (running) {
+                scheduleFire();
+            }
+        });
+    }
+
+    /**
+     * Bulk variant of {@link #updateOrInsertAssetState} used to load the initial asset states; the engine lock is
+     * acquired and a fire is scheduled only once for the whole collection.
+     */
+    public void insertAssetStates(Collection<Pair<AssetState<?>, Boolean>> assetStates) {
+        withEngineLock(toString() + "::insertAssetStates", () -> {
+            for (Pair<AssetState<?>, Boolean> assetStateInsert : assetStates) {
+                AssetState<?> assetState = assetStateInsert.key;
+                boolean insert = assetStateInsert.value;
+                facts.putAssetState(assetState);
+                trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
+                notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
+            }
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     public void removeAssetState(AssetState<?> assetState) {
-        facts.removeAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || assetState.getName().equals(Asset.LOCATION.getName()));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        withFactChange(toString() + "::removeAssetState", () -> {
+            facts.removeAssetState(assetState);
+            // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+            trackLocationPredicates(trackLocationPredicates || assetState.getName().equals(Asset.LOCATION.getName()));
+            notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     public void insertAssetEvent(String expires, AssetState<?> assetState) {
-        facts.insertAssetEvent(expires, assetState);
-        if (running) {
-            scheduleFire();
-        }
+        withFactChange(toString() + "::insertAssetEvent", () -> {
+            facts.insertAssetEvent(expires, assetState);
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     protected void updateDeploymentInfo() {
@@ -578,7 +853,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void printSessionStats() {
-        withLock(toString() + "::printSessionStats", () -> {
+        withEngineLock(toString() + "::printSessionStats", () -> {
             Collection<AssetState<?>> assetStateFacts = facts.getAssetStates();
             Collection<TemporaryFact<AssetState<?>>> assetEventFacts = facts.getAssetEvents();
             Map<String, Object> namedFacts = facts.getNamedFacts();
@@ -604,7 +879,7 @@ public class RulesEngine<T extends Ruleset> {
      */
     protected void processLocationRules(List<AssetStateLocationPredicates> assetStateLocationPredicates) {
         if (assetLocationPredicatesConsumer != null) {
-            assetLocationPredicatesConsumer.accept(this, assetStateLocationPredicates);
+            runOrDeferUntilFired(() -> assetLocationPredicatesConsumer.accept(this, assetStateLocationPredicates));
         }
     }
 
@@ -617,7 +892,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesEngineStatus() {
-        withLock(getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
+        withEngineLock(getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
 
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
             int compilationErrors = getCompilationErrorDeploymentCount();
@@ -641,7 +916,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesetStatus(RulesetDeployment deployment) {
-        withLock(getClass().getSimpleName() + "::publishRulesetStatus", () -> {
+        withEngineLock(getClass().getSimpleName() + "::publishRulesetStatus", () -> {
 
             Ruleset ruleset = deployment.ruleset;
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
@@ -675,7 +950,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + ":pauseRuleset", () -> {
+        withEngineLock(getClass().getSimpleName() + ":pauseRuleset", () -> {
             LOG.info("Pausing ruleset: " + deployment.getRuleset().getName());
             stopRuleset(deployment);
             deployment.updateValidity();
@@ -705,7 +980,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + "::unpauseRuleset", () -> {
+        withEngineLock(getClass().getSimpleName() + "::unpauseRuleset", () -> {
             LOG.info("Un-pausing ruleset: " + deployment.getRuleset().getName());
             startRuleset(deployment);
         });
@@ -30,6 +30,8 @@ import org.openremote.model.asset.AssetEvent;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.filter.GeofencePredicate;
+import org.openremote.model.query.filter.ParentPredicate;
+import org.openremote.model.query.filter.PathPredicate;
 import org.openremote.model.rules.AssetState;
 import org.openremote.model.rules.Assets;
 import org.openremote.model.rules.TemporaryFact;
@@ -55,6 +57,9 @@ public class RulesFacts extends Facts implements RuleListener {
 
     public static final int INITIAL_CAPACITY = 100000;
 
+    // Asset state candidate sets at least this large are matched with a parallel stream
+    public static final int PARALLEL_MATCH_THRESHOLD = 1000;
+
     public static final String CLOCK = "INTERNAL_CLOCK";
     public static final String ASSET_STATES = "INTERNAL_ASSET_STATES";
     public static final String ASSET_EVENTS = "INTERNAL_ASSET_EVENTS";
@@ -68,6 +73,11 @@ public class RulesFacts extends Facts implements RuleListener {
     final protected Logger LOG;
     final protected Map<String, Collection<AssetState<?>>> assetIdIndex = new HashMap<>();
     final protected Map<String, Collection<AssetState<?>>> assetTypeIndex = new HashMap<>();
+    final protected Map<String, Collection<AssetState<?>>> attributeNameIndex = new HashMap<>();
+    final protected Map<String, Collection<AssetState<?>>> realmIndex = new HashMap<>();
+    final protected Map<String, Collection<AssetState<?>>> parentIdIndex = new HashMap<>();
+    // Asset states by each asset ID in their path
+    final protected Map<String, Collection<AssetState<?>>> pathIndex = new HashMap<>();
     public RulesClock clock;
     protected int triggerCount;
     protected boolean trackLocationRules;
@@ -80,7 +90,7 @@ public class RulesFacts extends Facts implements RuleListener {
         this.loggingContext = loggingContext;
         this.LOG = logger;
 
-        super.put(ASSET_STATES, new ArrayDeque<AssetState<?>>(INITIAL_CAPACITY));
+        super.put(ASSET_STATES, new LinkedHashSet<AssetState<?>>(INITIAL_CAPACITY));
         super.put(ASSET_EVENTS, new ArrayDeque<AssetEvent>(INITIAL_CAPACITY));
         super.put(EXECUTION_VARS, new HashMap<>());
         super.put(ANONYMOUS_FACTS, new ArrayDeque<>(INITIAL_CAPACITY));
@@ -213,15 +223,15 @@ public class RulesFacts extends Facts implements RuleListener {
         getAssetStates().remove(assetState);
         getAssetStates().add(assetState);
 
-        // Maintain index of all asset states for this asset by ID
-        assetIdIndex.putIfAbsent(assetState.getId(), new ArrayDeque<>());
-        assetIdIndex.get(assetState.getId()).remove(assetState);
-        assetIdIndex.get(assetState.getId()).add(assetState);
-
-        // Maintain index of all asset states for this asset by type
-        assetTypeIndex.putIfAbsent(assetState.getAssetType(), new ArrayDeque<>());
-        assetTypeIndex.get(assetState.getAssetType()).remove(assetState);
-        assetTypeIndex.get(assetState.getAssetType()).add(assetState);
+        // The previous state may have been indexed with different asset details (e.g. moved to another parent)
+        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
+        if (assetIdIndexCollection != null) {
+            assetIdIndexCollection.stream()
+                .filter(assetState::equals)
+                .findFirst()
+                .ifPresent(this::removeFromIndexes);
+        }
+        addToIndexes(assetState);
 
         return this;
     }
@@ -231,20 +241,51 @@ public class RulesFacts extends Facts implements RuleListener {
             LOG.finest("Fact change (DELETE): " + assetState + " - on: " + loggingContext);
         }
         getAssetStates().remove(assetState);
+        removeFromIndexes(assetState);
 
-        // Maintain index of all asset states for this asset by ID
-        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-        if (assetIdIndexCollection != null) {
-            assetIdIndexCollection.remove(assetState);
+        return this;
+    }
+
+    protected void addToIndexes(AssetState<?> assetState) {
+        addToIndex(assetIdIndex, assetState.getId(), assetState);
+        addToIndex(assetTypeIndex, assetState.getAssetType(), assetState);
+        addToIndex(attributeNameIndex, assetState.getName(), assetState);
+        addToIndex(realmIndex, assetState.getRealm(), assetState);
+        addToIndex(parentIdIndex, assetState.getParentId(), assetState);
+        if (assetState.getPath() != null) {
+            for (String pathId : assetState.getPath()) {
+                addToIndex(pathIndex, pathId, assetState);
+            }
         }
+    }
 
-        // Maintain index of all asset states for this asset by type
-        Collection<AssetState<?>> assetTypeIndexCollection = assetTypeIndex.get(assetState.getAssetType());
-        if (assetTypeIndexCollection != null) {
-            assetTypeIndexCollection.remove(assetState);
+    protected void removeFromIndexes(AssetState<?> assetState) {
+        removeFromIndex(assetIdIndex, assetState.getId(), assetState);
+        removeFromIndex(assetTypeIndex, assetState.getAssetType(), assetState);
+        removeFromIndex(attributeNameIndex, assetState.getName(), assetState);
+        removeFromIndex(realmIndex, assetState.getRealm(), assetState);
+        removeFromIndex(parentIdIndex, assetState.getParentId(), assetState);
+        if (assetState.getPath() != null) {
+            for (String pathId : assetState.getPath()) {
+                removeFromIndex(pathIndex, pathId, assetState);
+            }
         }
+    }
 
-        return this;
+    protected static void addToIndex(Map<String, Collection<AssetState<?>>> index, String key, AssetState<?> assetState) {
+        Collection<AssetState<?>> assetStates = index.computeIfAbsent(key, k -> new LinkedHashSet<>());
+        assetStates.remove(assetState);
+        assetStates.add(assetState);
+    }
+
+    protected static void removeFromIndex(Map<String, Collection<AssetState<?>>> index, String key, AssetState<?> assetState) {
+        Collection<AssetState<?>> assetStates = index.get(key);
+        if (assetStates != null) {
+            assetStates.remove(assetState);
+            if (assetStates.isEmpty()) {
+                index.remove(key);
+            }
+        }
     }
 
     public RulesFacts insertAssetEvent(String expires, AssetState<?> assetState) {
@@ -432,8 +473,13 @@ public class RulesFacts extends Facts implements RuleListener {
             storeLocationPredicates(getLocationPredicates(assetQuery.attributes));
         }
 
-        Predicate<AssetState<?>> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
-        return matchAssetState(p);
+        AssetQueryPredicate p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
+        Collection<AssetState<?>> candidates = getAssetStateCandidates(p);
+        Stream<AssetState<?>> assetStates = candidates.stream();
+        if (candidates.size() >= PARALLEL_MATCH_THRESHOLD) {
+            assetStates = assetStates.parallel();
+        }
+        return assetStates.filter(p);
     }
 
     public Stream<AssetState<?>> matchAssetState(Predicate<AssetState<?>> p) {
@@ -442,6 +488,93 @@ public class RulesFacts extends Facts implements RuleListener {
         return assetStates.parallel().filter(p);
     }
 
+    /**
+     * Uses the asset state indexes to find the smallest set of asset states that can possibly match the query of the
+     * given predicate; falls back to all asset states if the query has no indexable constraint. The candidates must
+     * still be tested with the predicate.
+     */
+    protected Collection<AssetState<?>> getAssetStateCandidates(AssetQueryPredicate predicate) {
+        AssetQuery query = predicate.getQuery();
+        List<Collection<AssetState<?>>> best = null;
+        boolean bestMayOverlap = false;
+        int bestSize = getAssetStates().size();
+
+        List<List<Collection<AssetState<?>>>> plans = new ArrayList<>(6);
+        List<Collection<AssetState<?>>> pathPlan = null;
+
+        if (query.ids != null && query.ids.length > 0) {
+            plans.add(getIndexBuckets(assetIdIndex, new HashSet<>(Arrays.asList(query.ids))));
+        }
+        if (query.tenant != null) {
+            plans.add(query.tenant.realm == null
+                ? Collections.emptyList()
+                : getIndexBuckets(realmIndex, Collections.singleton(query.tenant.realm)));
+        }
+        if (query.types != null && query.types.length > 0) {
+            plans.add(assetTypeIndex.entrySet().stream()
+                .filter(entry -> predicate.matchesAssetType(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList()));
+        }
+        if (query.parents != null && query.parents.length > 0) {
+            Set<String> parentIds = new HashSet<>();
+            boolean indexable = true;
+            for (ParentPredicate parentPredicate : query.parents) {
+                if (parentPredicate.id != null) {
+                    parentIds.add(parentPredicate.id);
+                } else if (parentPredicate.noParent) {
+                    parentIds.add(null);
+                } else {
+                    indexable = false;
+                    break;
+                }
+            }
+            if (indexable) {
+                plans.add(getIndexBuckets(parentIdIndex, parentIds));
+            }
+        }
+        Set<String> attributeNames = AssetQueryPredicate.getRequiredAttributeNames(query.attributes);
+        if (attributeNames != null) {
+            plans.add(getIndexBuckets(attributeNameIndex, attributeNames));
+        }
+        if (query.paths != null && query.paths.length > 0
+            && Arrays.stream(query.paths).allMatch(PathPredicate::hasPath)) {
+            // Paths of different predicates can share asset states
+            pathPlan = getIndexBuckets(pathIndex, Arrays.stream(query.paths).map(pathPredicate -> pathPredicate.path[0]).collect(Collectors.toSet()));
+            plans.add(pathPlan);
+        }
+
+        for (List<Collection<AssetState<?>>> plan : plans) {
+            int size = plan.stream().mapToInt(Collection::size).sum();
+            if (size < bestSize || (best == null && size == 0)) {
+                best = plan;
+                bestSize = size;
+                bestMayOverlap = plan == pathPlan;
+            }
+        }
+
+        if (best == null) {
+            return getAssetStates();
+        }
+        if (best.size() == 1) {
+            return best.get(0);
+        }
+        Collection<AssetState<?>> candidates = bestMayOverlap ? new LinkedHashSet<>(bestSize) : new ArrayList<>(bestSize);
+        best.forEach(candidates::addAll);
+        return candidates;
+    }
+
+    protected static List<Collection<AssetState<?>>> getIndexBuckets(Map<String, Collection<AssetState<?>>> index, Collection<String> keys) {
+        List<Collection<AssetState<?>>> buckets = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Collection<AssetState<?>> bucket = index.get(key);
+            if (bucket != null && !bucket.isEmpty()) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
     public Optional<TemporaryFact<AssetState<?>>> matchFirstAssetEvent(AssetQuery assetQuery) {
         return matchAssetEvent(assetQuery).findFirst();
     }
@@ -599,26 +732,19 @@ public class RulesFacts extends Facts implements RuleListener {
 
     protected RulesFacts invalidateAssetStateAndDispatch(String assetId, String attributeName, Object value) {
         // Remove the asset state from the facts, it is invalid now
-        getAssetStates()
-                .removeIf(assetState -> {
-                    boolean invalid = assetState.getId().equals(assetId) && assetState.getName().equals(attributeName);
-                    if (invalid) {
-                        if (LOG.isLoggable(Level.FINEST)) {
-                            LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
-                        }
-                        // Maintain index of all asset states for this asset by ID
-                        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-                        if (assetIdIndexCollection != null) {
-                            assetIdIndexCollection.remove(assetState);
-                        }
-                        // Maintain index of all asset states for this asset by type
-                        Collection<AssetState<?>> assetTypeIndexCollection = assetTypeIndex.get(assetState.getAssetType());
-                        if (assetTypeIndexCollection != null) {
-                            assetTypeIndexCollection.remove(assetState);
-                        }
+        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetId);
+        if (assetIdIndexCollection != null) {
+            assetIdIndexCollection.stream()
+                .filter(assetState -> assetState.getName().equals(attributeName))
+                .findFirst()
+                .ifPresent(assetState -> {
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
                     }
-                    return invalid;
+                    getAssetStates().remove(assetState);
+                    removeFromIndexes(assetState);
                 });
+        }
 
         // Dispatch the update to the asset processing service
         AttributeEvent attributeEvent = new AttributeEvent(assetId, attributeName, value);
@@ -111,6 +111,8 @@ public class RulesHealthStatusProvider implements HealthStatusProvider, Containe
         objectValue.put("totalEngines", totalEngines);
         objectValue.put("stoppedEngines", stoppedEngines);
         objectValue.put("errorEngines", errorEngines);
+        objectValue.put("maxConcurrency", rulesService.maxConcurrency);
+        objectValue.set("startup", rulesService.startupTimings.getStatus());
         if (rulesService.globalEngine != null) {
             objectValue.set("global", getEngineHealthStatus(rulesService.globalEngine));
         }
@@ -143,7 +145,26 @@ public class RulesHealthStatusProvider implements HealthStatusProvider, Containe
         }
 
         val.set("deployments", deployments);
+        val.set("fireLatency", getFireLatencyStatus(rulesEngine));
 
         return val;
     }
+
+    protected ObjectNode getFireLatencyStatus(RulesEngine<?> rulesEngine) {
+        long fireCount = rulesEngine.getFireCount();
+        ObjectNode val = ValueUtil.createJsonObject();
+        val.put("count", fireCount);
+        val.put("lastMillis", rulesEngine.getLastFireMillis());
+        val.put("maxMillis", rulesEngine.getMaxFireMillis());
+        val.put("avgMillis", fireCount > 0 ? (double) rulesEngine.getTotalFireMillis() / fireCount : 0d);
+
+        ObjectNode histogram = ValueUtil.createJsonObject();
+        long[] counts = rulesEngine.getFireLatencyHistogram();
+        for (int i = 0; i < RulesEngine.FIRE_LATENCY_BUCKETS_MILLIS.length; i++) {
+            histogram.put("le" + RulesEngine.FIRE_LATENCY_BUCKETS_MILLIS[i], counts[i]);
+        }
+        histogram.put("gt" + RulesEngine.FIRE_LATENCY_BUCKETS_MILLIS[RulesEngine.FIRE_LATENCY_BUCKETS_MILLIS.length - 1], counts[counts.length - 1]);
+        val.set("histogramMillis", histogram);
+        return val;
+    }
 }
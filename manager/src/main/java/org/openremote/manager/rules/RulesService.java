@@ -20,6 +20,8 @@
 package org.openremote.manager.rules;
 
 import org.apache.camel.builder.RouteBuilder;
+import org.openremote.container.concurrent.ContainerExecutor;
+import org.openremote.container.concurrent.ContainerThreadFactory;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.persistence.PersistenceService;
@@ -36,6 +38,7 @@ import org.openremote.manager.notification.NotificationService;
 import org.openremote.manager.rules.flow.FlowResourceImpl;
 import org.openremote.manager.rules.geofence.GeofenceAssetAdapter;
 import org.openremote.manager.security.ManagerIdentityService;
+import org.openremote.manager.system.StartupTimings;
 import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
@@ -56,6 +59,10 @@ import org.openremote.model.value.MetaItemType;
 
 import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.BiFunction;
 import java.util.logging.Logger;
@@ -69,6 +76,8 @@ import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.container.concurrent.ContainerThreads.DEFAULT_REJECTED_EXECUTION_HANDLER;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.manager.gateway.GatewayService.isNotForGateway;
 import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttributes;
@@ -100,12 +109,18 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     public static final int PRIORITY = LOW_PRIORITY;
     public static final String RULE_EVENT_EXPIRES = "RULE_EVENT_EXPIRES";
     public static final String RULE_EVENT_EXPIRES_DEFAULT = "PT1H";
+    // Number of rules engines that may fire concurrently, 0 fires one engine at a time whilst holding the global lock
+    public static final String RULES_MAX_CONCURRENCY = "RULES_MAX_CONCURRENCY";
+    public static final int RULES_MAX_CONCURRENCY_DEFAULT = 0;
+    protected static final int ASSET_STATE_FETCH_SIZE = 1000;
     private static final Logger LOG = Logger.getLogger(RulesService.class.getName());
     protected final Map<String, RulesEngine<TenantRuleset>> tenantEngines = new HashMap<>();
     protected final Map<String, RulesEngine<AssetRuleset>> assetEngines = new HashMap<>();
     protected List<GeofenceAssetAdapter> geofenceAssetAdapters = new ArrayList<>();
     protected TimerService timerService;
     protected ScheduledExecutorService executorService;
+    protected ExecutorService fireExecutorService;
+    protected int maxConcurrency;
     protected PersistenceService persistenceService;
     protected RulesetStorageService rulesetStorageService;
     protected ManagerIdentityService identityService;
@@ -127,6 +142,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     protected Set<AssetState<?>> assetStates = new HashSet<>();
     protected Set<AssetState<?>> preInitassetStates = new HashSet<>();
     protected String configEventExpires;
+    protected final StartupTimings startupTimings = new StartupTimings(RulesService.class.getSimpleName());
     protected boolean initDone;
     protected boolean startDone;
 
@@ -184,6 +200,18 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         geofenceAssetAdapters.sort(Comparator.comparingInt(GeofenceAssetAdapter::getPriority));
         container.getService(MessageBrokerService.class).getContext().addRoutes(this);
         configEventExpires = getString(container.getConfig(), RULE_EVENT_EXPIRES, RULE_EVENT_EXPIRES_DEFAULT);
+        maxConcurrency = getInteger(container.getConfig(), RULES_MAX_CONCURRENCY, RULES_MAX_CONCURRENCY_DEFAULT);
+        if (maxConcurrency > 0) {
+            LOG.info("Rules engines will fire concurrently on up to " + maxConcurrency + " thread(s)");
+            fireExecutorService = new ContainerExecutor(
+                new ContainerThreadFactory("Rules engine fire"),
+                DEFAULT_REJECTED_EXECUTION_HANDLER,
+                maxConcurrency,
+                maxConcurrency,
+                60,
+                new LinkedBlockingQueue<>()
+            );
+        }
 
         container.getService(ManagerWebService.class).getApiSingletons().add(
             new FlowResourceImpl(
@@ -243,6 +271,30 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             }
         }
 
+        startupTimings.time("deployRulesets", this::deployRulesets);
+
+        LOG.info("Loading all assets with fact attributes to initialize state of rules engines");
+        List<AssetState<?>> initialAssetStates = startupTimings.timeReturning("loadAssetStates", this::findRuleStateAssetStates);
+
+        // Insert the states into the engines in scope with a single bulk insert per engine
+        startupTimings.time("insertAssetStates", () -> insertAssetStates(initialAssetStates));
+
+        // Start the engines
+        startupTimings.time("startEngines", () -> {
+            if (globalEngine != null) {
+                globalEngine.start();
+            }
+            tenantEngines.values().forEach(RulesEngine::start);
+            assetEngines.values().forEach(RulesEngine::start);
+        });
+
+        startDone = true;
+
+        preInitassetStates.forEach(this::doProcessAssetUpdate);
+        preInitassetStates.clear();
+    }
+
+    protected void deployRulesets() {
         LOG.info("Deploying global rulesets");
         rulesetStorageService.findAll(
             GlobalRuleset.class,
@@ -274,32 +326,6 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     .setEnabledOnly(true)
                     .setFullyPopulate(true)))
             .count();//Needed in order to execute the stream. TODO: can this be done differently?
-
-        LOG.info("Loading all assets with fact attributes to initialize state of rules engines");
-        Stream<Pair<Asset<?>, Stream<Attribute<?>>>> stateAttributes = findRuleStateAttributes();
-
-        // Push each attribute as an asset update through the rule engine chain
-        // that will ensure the insert only happens to the engines in scope
-        stateAttributes
-            .forEach(pair -> {
-                Asset<?> asset = pair.key;
-                pair.value.forEach(ruleAttribute -> {
-                    AssetState<?> assetState = new AssetState<>(asset, ruleAttribute, Source.INTERNAL);
-                    updateAssetState(assetState);
-                });
-            });
-
-        // Start the engines
-        if (globalEngine != null) {
-            globalEngine.start();
-        }
-        tenantEngines.values().forEach(RulesEngine::start);
-        assetEngines.values().forEach(RulesEngine::start);
-
-        startDone = true;
-
-        preInitassetStates.forEach(this::doProcessAssetUpdate);
-        preInitassetStates.clear();
     }
 
     @Override
@@ -326,6 +352,10 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             assetStates.clear();
         });
 
+        if (fireExecutorService != null) {
+            fireExecutorService.shutdown();
+        }
+
         for (GeofenceAssetAdapter geofenceAssetAdapter : geofenceAssetAdapters) {
             geofenceAssetAdapter.stop(container);
         }
@@ -622,6 +652,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     timerService,
                     identityService,
                     executorService,
+                    fireExecutorService,
                     assetStorageService,
                     assetProcessingService,
                     notificationService,
@@ -663,6 +694,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                         timerService,
                         identityService,
                         executorService,
+                        fireExecutorService,
                         assetStorageService,
                         assetProcessingService,
                         notificationService,
@@ -738,6 +770,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                         timerService,
                         identityService,
                         executorService,
+                        fireExecutorService,
                         assetStorageService,
                         assetProcessingService,
                         notificationService,
@@ -813,6 +846,49 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         });
     }
 
+    /**
+     * Bulk variant of {@link #updateAssetState} used on startup; the states are grouped by the engines in scope and each
+     * engine gets a single bulk insert. When rules engines fire concurrently (see {@link #RULES_MAX_CONCURRENCY}) the
+     * engines are loaded in parallel as they then don't share the global lock.
+     */
+    protected void insertAssetStates(List<AssetState<?>> states) {
+        Map<RulesEngine<?>, List<Pair<AssetState<?>, Boolean>>> engineAssetStates = withLockReturning(getClass().getSimpleName() + "::insertAssetStates", () -> {
+            Map<RulesEngine<?>, List<Pair<AssetState<?>, Boolean>>> engineStates = new LinkedHashMap<>();
+
+            for (AssetState<?> assetState : states) {
+                boolean inserted = !assetStates.remove(assetState);
+                assetStates.add(assetState);
+
+                for (RulesEngine<?> rulesEngine : getEnginesInScope(assetState.getRealm(), assetState.getPath())) {
+                    engineStates.computeIfAbsent(rulesEngine, engine -> new ArrayList<>()).add(new Pair<>(assetState, inserted));
+                }
+            }
+            return engineStates;
+        });
+
+        LOG.info("Inserting " + states.size() + " asset state(s) into " + engineAssetStates.size() + " rules engine(s)");
+
+        if (fireExecutorService == null) {
+            engineAssetStates.forEach(RulesEngine::insertAssetStates);
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(engineAssetStates.size());
+        engineAssetStates.forEach((rulesEngine, engineStates) ->
+            futures.add(fireExecutorService.submit(() -> rulesEngine.insertAssetStates(engineStates))));
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOG.log(SEVERE, "Failed to insert initial asset states into rules engine", e.getCause());
+            }
+        }
+    }
+
     protected void retractAssetState(AssetState<?> assetState) {
         // Get the chain of rule engines that we need to pass through
         List<RulesEngine<?>> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
@@ -864,15 +940,15 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         return rulesEngines;
     }
 
-    protected Stream<Pair<Asset<?>, Stream<Attribute<?>>>> findRuleStateAttributes() {
-        // Get all assets then filter out any attributes with RULE_STATE=false
-        List<Asset<?>> assets = assetStorageService.findAll(new AssetQuery());
-
-        return assets.stream()
-            .map(asset ->
-                new Pair<>(asset, asset.getAttributes().stream()
-                    .filter(RulesService::attributeIsRuleState))
-            );
+    protected List<AssetState<?>> findRuleStateAssetStates() {
+        // Stream all assets and only keep the attributes with RULE_STATE=true so the assets aren't all held in memory
+        List<AssetState<?>> assetStates = new ArrayList<>();
+        assetStorageService.findAll(new AssetQuery(), ASSET_STATE_FETCH_SIZE, asset ->
+            asset.getAttributes().stream()
+                .filter(RulesService::attributeIsRuleState)
+                .forEach(ruleAttribute -> assetStates.add(new AssetState<>(asset, ruleAttribute, Source.INTERNAL)))
+        );
+        return assetStates;
     }
 
     /**
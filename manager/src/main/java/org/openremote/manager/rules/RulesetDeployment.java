@@ -31,6 +31,7 @@ import org.jeasy.rules.api.Rules;
 import org.jeasy.rules.core.RuleBuilder;
 import org.kohsuke.groovy.sandbox.GroovyValueFilter;
 import org.kohsuke.groovy.sandbox.SandboxTransformer;
+import org.openremote.container.concurrent.GlobalLock;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.model.calendar.CalendarEvent;
@@ -48,11 +49,10 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-
 public class RulesetDeployment {
 
     /**
@@ -131,6 +131,7 @@ public class RulesetDeployment {
     final protected HistoricDatapoints historicDatapointsFacade;
     final protected PredictedDatapoints predictedDatapointsFacade;
     final protected List<ScheduledFuture<?>> scheduledRuleActions = new ArrayList<>();
+    protected BiConsumer<String, Runnable> lockRunner = GlobalLock::withLock;
     protected RulesetStatus status = RulesetStatus.READY;
     protected Throwable error;
     protected JsonRulesBuilder jsonRulesBuilder;
@@ -253,10 +254,18 @@ public class RulesetDeployment {
         }
     }
 
+    /**
+     * Sets how the state of the rules engine this deployment belongs to is locked when running scheduled rule actions,
+     * defaults to the global lock.
+     */
+    public void setLockRunner(BiConsumer<String, Runnable> lockRunner) {
+        this.lockRunner = lockRunner;
+    }
+
     protected void scheduleRuleAction(Runnable action, long delayMillis) {
-        withLock(toString() + "::scheduleRuleAction", () -> {
+        lockRunner.accept(toString() + "::scheduleRuleAction", () -> {
             ScheduledFuture<?> future = executorService.schedule(() ->
-                    withLock(toString() + "::scheduledRuleActionFire", () -> {
+                    lockRunner.accept(toString() + "::scheduledRuleActionFire", () -> {
                         scheduledRuleActions.removeIf(Future::isDone);
                         action.run();
                     }), delayMillis, TimeUnit.MILLISECONDS);
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.security;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.openremote.model.security.Tenant;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * Short lived cache of the data behind authorization decisions that are made for every client write and subscription
+ * (tenant activity/accessibility and user asset links); entries are invalidated when the underlying {@link Tenant} or
+ * {@link org.openremote.model.asset.UserAssetLink} changes and otherwise expire after the configured time so changes
+ * made outside of the manager (e.g. in the Keycloak admin console) are picked up.
+ * <p>
+ * Callers must invalidate entries once their change has been committed; each entry records the invalidation generation
+ * at the start of its load and is reloaded on its next use once the generation has moved on, so an entry loaded from
+ * the old state and stored after a concurrent invalidation is never returned.
+ */
+public class AuthorizationCache {
+
+    protected final Cache<String, Entry<Optional<Tenant>>> tenantCache;
+    protected final Cache<List<String>, Entry<Boolean>> userAssetCache;
+    protected final AtomicLong tenantGeneration = new AtomicLong();
+    protected final AtomicLong userAssetGeneration = new AtomicLong();
+
+    protected static class Entry<V> {
+        protected final V value;
+        protected final long generation;
+
+        protected Entry(V value, long generation) {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+
+    public AuthorizationCache(int maximumSize, int expireSeconds) {
+        tenantCache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+            .build();
+        userAssetCache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
+    /**
+     * The returned tenant is shared so must not be modified.
+     */
+    public Tenant getTenant(String realm, Function<String, Tenant> loader) {
+        if (realm == null) {
+            return null;
+        }
+        return get(tenantCache, tenantGeneration, realm, () -> Optional.ofNullable(loader.apply(realm))).orElse(null);
+    }
+
+    public boolean isUserAsset(String userId, String assetId, BiPredicate<String, String> loader) {
+        return get(userAssetCache, userAssetGeneration, Arrays.asList(userId, assetId), () -> loader.test(userId, assetId));
+    }
+
+    protected static <K, V> V get(Cache<K, Entry<V>> cache, AtomicLong generation, K key, Callable<V> loader) {
+        try {
+            Entry<V> entry = cache.get(key, () -> {
+                long loadGeneration = generation.get();
+                return new Entry<>(loader.call(), loadGeneration);
+            });
+            long currentGeneration = generation.get();
+            if (entry.generation == currentGeneration) {
+                return entry.value;
+            }
+            // Invalidated since the entry's load started; it may have been read before the change was committed and
+            // stored after the invalidation, so reload it once for the current generation
+            V value = loader.call();
+            cache.asMap().replace(key, entry, new Entry<>(value, currentGeneration));
+            return value;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void invalidateTenant(String realm) {
+        tenantGeneration.incrementAndGet();
+        if (realm == null) {
+            tenantCache.invalidateAll();
+        } else {
+            tenantCache.invalidate(realm);
+        }
+    }
+
+    /**
+     * Invalidates the user asset links of the specified user and/or asset, all links are invalidated if both are null.
+     */
+    public void invalidateUserAssets(String userId, String assetId) {
+        userAssetGeneration.incrementAndGet();
+        if (userId == null && assetId == null) {
+            userAssetCache.invalidateAll();
+            return;
+        }
+        userAssetCache.asMap().keySet().removeIf(key ->
+            (userId == null || userId.equals(key.get(0))) && (assetId == null || assetId.equals(key.get(1))));
+    }
+}
@@ -29,15 +29,31 @@ import javax.persistence.EntityManager;
 import java.util.Locale;
 import java.util.logging.Logger;
 
+import static org.openremote.container.util.MapAccess.getInteger;
+
 public class ManagerIdentityService extends IdentityService {
 
+    // Max number of cached tenants and user asset links used for authorization, 0 disables the cache
+    public static final String AUTHORIZATION_CACHE_SIZE = "AUTHORIZATION_CACHE_SIZE";
+    public static final int AUTHORIZATION_CACHE_SIZE_DEFAULT = 0;
+    public static final String AUTHORIZATION_CACHE_EXPIRE_SECONDS = "AUTHORIZATION_CACHE_EXPIRE_SECONDS";
+    public static final int AUTHORIZATION_CACHE_EXPIRE_SECONDS_DEFAULT = 10;
     private static final Logger LOG = Logger.getLogger(ManagerIdentityService.class.getName());
 
     protected ManagerIdentityProvider identityProvider;
     protected PersistenceService persistenceService;
+    protected AuthorizationCache authorizationCache;
 
     @Override
     public void init(Container container) throws Exception {
+        // Must exist before the identity provider is initialised
+        int authorizationCacheSize = getInteger(container.getConfig(), AUTHORIZATION_CACHE_SIZE, AUTHORIZATION_CACHE_SIZE_DEFAULT);
+        if (authorizationCacheSize > 0) {
+            authorizationCache = new AuthorizationCache(
+                authorizationCacheSize,
+                getInteger(container.getConfig(), AUTHORIZATION_CACHE_EXPIRE_SECONDS, AUTHORIZATION_CACHE_EXPIRE_SECONDS_DEFAULT));
+        }
+
         super.init(container);
         persistenceService = container.getService(PersistenceService.class);
 
@@ -53,6 +69,13 @@ public class ManagerIdentityService extends IdentityService {
         return identityProvider;
     }
 
+    /**
+     * @return the cache of authorization data or <code>null</code> if caching is disabled.
+     */
+    public AuthorizationCache getAuthorizationCache() {
+        return authorizationCache;
+    }
+
     @Override
     public ManagerIdentityProvider createIdentityProvider(Container container, String identityProviderType) {
         if (identityProvider == null) {
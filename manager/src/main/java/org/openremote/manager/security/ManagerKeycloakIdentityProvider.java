@@ -97,6 +97,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
     protected ConsoleAppService consoleAppService;
     protected String keycloakAdminPassword;
     protected Container container;
+    protected AuthorizationCache authorizationCache;
 
     @Override
     public void init(Container container) {
@@ -115,6 +116,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
         this.messageBrokerService = container.getService(MessageBrokerService.class);
         this.clientEventService = container.getService(ClientEventService.class);
         this.consoleAppService = container.getService(ConsoleAppService.class);
+        this.authorizationCache = container.getService(ManagerIdentityService.class).getAuthorizationCache();
     }
 
     @Override
@@ -810,6 +812,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
 
             Tenant updatedTenant = convert(realmRepresentation, Tenant.class);
             updatedTenant.setRealmRoles((tenant.getRealmRoles() == null) ? existingRealmRoles : tenant.getNormalisedRealmRoles());
+            invalidateCachedTenant(tenant.getRealm());
             persistenceService.publishPersistenceEvent(PersistenceEvent.Cause.UPDATE, updatedTenant, existingTenant, Tenant.getPropertyFields());
             return null;
         });
@@ -849,6 +852,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
 
                 Tenant createdTenant = convert(realmRepresentation, Tenant.class);
                 createdTenant.setRealmRoles(tenant.getRealmRoles());
+                invalidateCachedTenant(tenant.getRealm());
                 persistenceService.publishPersistenceEvent(PersistenceEvent.Cause.CREATE, tenant, null, Tenant.getPropertyFields());
                 return createdTenant;
             } catch (Exception e) {
@@ -868,10 +872,17 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
                 realmsResource.realm(realm).remove();
                 return null;
             });
+            invalidateCachedTenant(realm);
             persistenceService.publishPersistenceEvent(PersistenceEvent.Cause.DELETE, null, tenant, Tenant.getPropertyFields());
         }
     }
 
+    protected void invalidateCachedTenant(String realm) {
+        if (authorizationCache != null) {
+            authorizationCache.invalidateTenant(realm);
+        }
+    }
+
     /**
      * Load keycloak proxy credentials from file system
      */
@@ -1033,7 +1044,8 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
      */
     @Override
     public boolean isTenantActiveAndAccessible(AuthContext authContext, String realm) {
-        return isTenantActiveAndAccessible(authContext, getTenant(realm));
+        Tenant tenant = authorizationCache != null ? authorizationCache.getTenant(realm, this::getTenant) : getTenant(realm);
+        return isTenantActiveAndAccessible(authContext, tenant);
     }
 
     @Override
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.system;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.util.ValueUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Records the duration of the phases of a service's startup so they can be reported by a
+ * {@link org.openremote.model.system.HealthStatusProvider}, use {@link #time} and {@link #timeReturning}.
+ */
+public class StartupTimings {
+
+    private static final Logger LOG = Logger.getLogger(StartupTimings.class.getName());
+    protected final String name;
+    protected final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+
+    public StartupTimings(String name) {
+        this.name = name;
+    }
+
+    public void time(String phase, Runnable runnable) {
+        timeReturning(phase, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public <R> R timeReturning(String phase, Supplier<R> supplier) {
+        long start = System.currentTimeMillis();
+        try {
+            return supplier.get();
+        } finally {
+            long duration = System.currentTimeMillis() - start;
+            synchronized (phaseMillis) {
+                phaseMillis.put(phase, duration);
+            }
+            LOG.info(name + " startup phase '" + phase + "' took " + duration + "ms");
+        }
+    }
+
+    public ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        long total = 0;
+        synchronized (phaseMillis) {
+            for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+                status.put(phase.getKey() + "Millis", phase.getValue());
+                total += phase.getValue();
+            }
+        }
+        status.put("totalMillis", total);
+        return status;
+    }
+}
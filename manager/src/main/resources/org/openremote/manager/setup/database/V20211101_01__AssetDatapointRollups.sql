@@ -0,0 +1,76 @@
+/*
+  ############################# TABLES #############################
+ */
+
+/*
+  Rollups of numeric and boolean (true = 1, false = 0) asset datapoints, maintained by the AssetDatapointService. The
+  minute tier is computed from ASSET_DATAPOINT, the hour tier from the minute tier and the day tier from the hour tier.
+ */
+create table ASSET_DATAPOINT_MINUTE (
+  ENTITY_ID      varchar(22)      not null,
+  ATTRIBUTE_NAME varchar(255)     not null,
+  BUCKET         timestamp        not null,
+  MIN_VALUE      double precision not null,
+  MAX_VALUE      double precision not null,
+  SUM_VALUE      double precision not null,
+  VALUE_COUNT    int8             not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, BUCKET)
+);
+
+create table ASSET_DATAPOINT_HOUR (
+  ENTITY_ID      varchar(22)      not null,
+  ATTRIBUTE_NAME varchar(255)     not null,
+  BUCKET         timestamp        not null,
+  MIN_VALUE      double precision not null,
+  MAX_VALUE      double precision not null,
+  SUM_VALUE      double precision not null,
+  VALUE_COUNT    int8             not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, BUCKET)
+);
+
+create table ASSET_DATAPOINT_DAY (
+  ENTITY_ID      varchar(22)      not null,
+  ATTRIBUTE_NAME varchar(255)     not null,
+  BUCKET         timestamp        not null,
+  MIN_VALUE      double precision not null,
+  MAX_VALUE      double precision not null,
+  SUM_VALUE      double precision not null,
+  VALUE_COUNT    int8             not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, BUCKET)
+);
+
+/*
+  Time ranges of the asset datapoints written since the buckets covering them were last recomputed, written in the same
+  transaction as the datapoints.
+ */
+create table ASSET_DATAPOINT_ROLLUP_DIRTY (
+  ENTITY_ID      varchar(22)  not null,
+  ATTRIBUTE_NAME varchar(255) not null,
+  MIN_TIMESTAMP  timestamp    not null,
+  MAX_TIMESTAMP  timestamp    not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME)
+);
+
+/*
+  ############################# CONSTRAINTS #############################
+ */
+
+alter table ASSET_DATAPOINT_MINUTE
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_HOUR
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_DAY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_ROLLUP_DIRTY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+/*
+  ############################# INDICES #############################
+ */
+
+create index ASSET_DATAPOINT_MINUTE_BUCKET on ASSET_DATAPOINT_MINUTE(BUCKET);
+create index ASSET_DATAPOINT_HOUR_BUCKET on ASSET_DATAPOINT_HOUR(BUCKET);
+create index ASSET_DATAPOINT_DAY_BUCKET on ASSET_DATAPOINT_DAY(BUCKET);
@@ -0,0 +1,48 @@
+/*
+  ############################# TABLES #############################
+ */
+
+/*
+  Materialised asset tree path (the ID of the asset followed by the IDs of its parents up to the root asset), maintained
+  by the AssetStorageService whenever an asset is created or moved.
+ */
+alter table ASSET
+  add column PATH text[];
+
+with recursive ASSET_TREE(ID, PATH) as (
+  select
+    A1.ID,
+    array [text(A1.ID)]
+  from ASSET A1
+  where A1.PARENT_ID is null
+  union all
+  select
+    A2.ID,
+    array_prepend(text(A2.ID), AT.PATH)
+  from ASSET A2, ASSET_TREE AT
+  where A2.PARENT_ID = AT.ID
+)
+update ASSET A
+set PATH = ASSET_TREE.PATH
+from ASSET_TREE
+where A.ID = ASSET_TREE.ID;
+
+/*
+  ############################# FUNCTIONS #############################
+ */
+
+/*
+  Kept for custom queries, the path is now read from the materialised column rather than walking the tree.
+ */
+create or replace function GET_ASSET_TREE_PATH(ASSET_ID text)
+  returns text [] as
+$$
+  select PATH from ASSET where ID = ASSET_ID;
+$$
+language sql stable;
+
+/*
+  ############################# INDICES #############################
+ */
+
+create index ASSET_PATH on ASSET using gin (PATH);
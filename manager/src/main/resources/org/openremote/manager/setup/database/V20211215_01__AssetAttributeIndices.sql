@@ -0,0 +1,28 @@
+/*
+  ############################# FUNCTIONS #############################
+ */
+
+/*
+  The meta items of all attributes of an asset as an array of {"name": <meta name>, "value": <meta value>} objects; used
+  by the expression index below so that meta predicates on any attribute (e.g. agent links) can use containment queries.
+ */
+create or replace function GET_ASSET_ATTRIBUTE_META(ATTRIBUTES jsonb)
+  returns jsonb as
+$$
+  select coalesce(jsonb_agg(jsonb_build_object('name', M.key, 'value', M.value)), '[]'::jsonb)
+  from jsonb_each(ATTRIBUTES) A,
+    jsonb_each(case when jsonb_typeof(A.value -> 'meta') = 'object' then A.value -> 'meta' else '{}'::jsonb end) M;
+$$
+language sql immutable;
+
+/*
+  ############################# INDICES #############################
+ */
+
+/*
+  Serves containment (@>) predicates on the attributes, each attribute object contains its own name so attribute
+  presence can be expressed as {"<name>": {"name": "<name>"}}.
+ */
+create index ASSET_ATTRIBUTES on ASSET using gin (ATTRIBUTES jsonb_path_ops);
+
+create index ASSET_ATTRIBUTE_META on ASSET using gin (GET_ASSET_ATTRIBUTE_META(ATTRIBUTES) jsonb_path_ops);
@@ -23,7 +23,6 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.databind.annotation.JsonTypeIdResolver;
 import org.hibernate.annotations.Check;
 import org.hibernate.annotations.DynamicUpdate;
-import org.hibernate.annotations.Formula;
 import org.openremote.model.Constants;
 import org.openremote.model.IdentifiableEntity;
 import org.openremote.model.asset.impl.ThingAsset;
@@ -43,6 +42,7 @@ import org.openremote.model.util.ValueUtil;
 import javax.persistence.*;
 import javax.validation.Valid;
 import javax.validation.constraints.*;
+import java.lang.reflect.Constructor;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -305,8 +305,9 @@ public abstract class Asset<T extends Asset<?>> implements IdentifiableEntity<T>
     @Column(name = "TYPE", nullable = false, updatable = false, insertable = false)
     protected String type = getClass().getSimpleName();
 
-    // The following are expensive to query, so if they are null, they might not have been loaded
-    @Formula("get_asset_tree_path(ID)")
+    // Materialised path, maintained by the asset storage service when the asset is created or moved; if null it might
+    // not have been loaded
+    @Column(name = "PATH", updatable = false, insertable = false)
     @org.hibernate.annotations.Type(type = Constants.PERSISTENCE_STRING_ARRAY_TYPE)
     protected String[] path;
 
@@ -480,6 +481,35 @@ public abstract class Asset<T extends Asset<?>> implements IdentifiableEntity<T>
         return (T) this;
     }
 
+    /**
+     * Create a shallow copy of this asset with its own {@link AttributeMap}; the attribute instances are shared with
+     * this asset so in the copy they must be replaced rather than modified.
+     */
+    @SuppressWarnings("unchecked")
+    public T shallowCopy() {
+        Asset<?> copy;
+        try {
+            Constructor<?> constructor = getClass().getDeclaredConstructor();
+            constructor.setAccessible(true);
+            copy = (Asset<?>) constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to copy asset: " + this, e);
+        }
+        copy.id = id;
+        copy.version = version;
+        copy.createdOn = createdOn;
+        copy.name = name;
+        copy.accessPublicRead = accessPublicRead;
+        copy.parentId = parentId;
+        copy.realm = realm;
+        copy.parentName = parentName;
+        copy.parentType = parentType;
+        copy.type = type;
+        copy.path = path;
+        copy.attributes = attributes == null ? null : new AttributeMap(attributes);
+        return (T) copy;
+    }
+
     public Asset<?> setAttributes(Attribute<?>... attributes) {
         return setAttributes(Arrays.asList(attributes));
     }
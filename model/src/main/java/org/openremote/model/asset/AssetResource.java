@@ -272,6 +272,9 @@ public interface AssetResource {
      * assets must be linked to the user. An empty result is returned if the user does not have access to the assets.
      * What is populated on the returned assets is determined by the
      * {@link AssetQuery#select} value.
+     * <p>
+     * Large results can be paged by setting {@link AssetQuery#limit} and passing the ID of the last asset of each page
+     * as {@link AssetQuery#after} when requesting the next page.
      */
     @POST
     @Path("query")
@@ -27,7 +27,8 @@ import org.openremote.model.query.AssetQuery;
 
 /**
  * A client sends this event to the server to query assets, expecting
- * the server to answer "soon" with an {@link AssetsEvent} with the results.
+ * the server to answer "soon" with an {@link AssetsEvent} with the results. Large results can be paged using
+ * {@link AssetQuery#limit} and {@link AssetQuery#after}.
  */
 public class ReadAssetsEvent extends SharedEvent {
 
@@ -73,12 +73,12 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * If the actual state of the device (or service) changes, the linked protocol writes the new state into the attribute
  * value and notifies the context broker of the change. A protocol updates a linked attributes' value by sending  an
  * {@link AttributeEvent} messages on the {@link #SENSOR_QUEUE}, including the source protocol name in header {@link
- * #SENSOR_QUEUE_SOURCE_PROTOCOL}.
+ * #SENSOR_QUEUE_SOURCE_PROTOCOL}. Several values read at the same time can be sent as a single
+ * <code>AttributeEvent[]</code> message body, which is then processed as one unit.
  * <p>
  * If the user writes a new value into the linked attribute, the protocol translates this value change into a device (or
- * service) action. Write operations on attributes linked to an {@link Agent} can be consumed by the agent's protocol on
- * the {@link #ACTUATOR_TOPIC} where the message body will be an {@link AttributeEvent}. Each message also contains the
- * target protocol name in header {@link #ACTUATOR_TOPIC_TARGET_PROTOCOL}.
+ * service) action. Write operations on attributes linked to an {@link Agent} are dispatched directly to the agent's
+ * protocol instance by calling {@link #dispatchLinkedAttributeWrite} with the {@link AttributeEvent}.
  * <p>
  * To simplify protocol development some common protocol behaviour is recommended for generic protocols:
  * <h1>Inbound value conversion (Protocol -> Linked Attribute)</h1>
@@ -152,11 +152,19 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
 public interface Protocol<T extends Agent<T, ?, ?>> {
 
     Logger LOG = SyslogCategory.getLogger(PROTOCOL, Protocol.class);
+    /**
+     * @deprecated Linked attribute writes are dispatched using {@link #dispatchLinkedAttributeWrite}.
+     */
+    @Deprecated
     String ACTUATOR_TOPIC_TARGET_PROTOCOL = "Protocol";
     String SENSOR_QUEUE_SOURCE_PROTOCOL = "Protocol";
 
     // TODO: Some of these options should be configurable depending on expected load etc.
-    // Message topic for communicating from asset/thing to protocol layer (asset attribute changed, trigger actuator)
+    /**
+     * @deprecated Linked attribute writes are dispatched using {@link #dispatchLinkedAttributeWrite}; nothing is sent
+     * on this topic anymore.
+     */
+    @Deprecated
     String ACTUATOR_TOPIC = "seda://ActuatorTopic?multipleConsumers=true&concurrentConsumers=1&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&limitConcurrentConsumers=false&size=1000";
 
     // Message queue for communicating from protocol to asset/thing layer (sensor changed, trigger asset attribute update)
@@ -209,6 +217,13 @@ public interface Protocol<T extends Agent<T, ?, ?>> {
      */
     void unlinkAttribute(String assetId, Attribute<?> attribute) throws Exception;
 
+    /**
+     * Queue a write of a linked {@link Attribute} for processing by this protocol instance; this must not block the
+     * caller. Returns <code>false</code> if the write could not be accepted (e.g. the protocol isn't started or too
+     * many writes are pending) in which case the write is dropped.
+     */
+    boolean dispatchLinkedAttributeWrite(AttributeEvent event);
+
     /**
      * Called before any calls to {@link #linkAttribute} to allow the protocol to perform required tasks with {@link
      * ContainerService}s (e.g. register Camel routes). The protocol instance should validate the settings defined in
@@ -39,6 +39,9 @@ public interface AssetDatapointResource {
      * regular user tries to access an asset in a realm different than its authenticated realm, or if the user is
      * restricted and the asset is not linked to the user. A 400 status is returned if the asset attribute does
      * not have datapoint storage enabled.
+     * <p>
+     * When a decimation algorithm is specified the interval and step are ignored and the datapoints are instead reduced
+     * to at most the specified maximum number of points (default and upper limit are applied by the server).
      */
     @GET
     @Path("{assetId}/attribute/{attributeName}")
@@ -50,7 +53,9 @@ public interface AssetDatapointResource {
                                    @QueryParam("interval") DatapointInterval datapointInterval,
                                    @QueryParam("step") Integer stepSize,
                                    @QueryParam("fromTimestamp") long fromTimestamp,
-                                   @QueryParam("toTimestamp") long toTimestamp);
+                                   @QueryParam("toTimestamp") long toTimestamp,
+                                   @QueryParam("decimation") DatapointDecimation decimation,
+                                   @QueryParam("maxPoints") Integer maxPoints);
 
     @GET
     @Path("periods")
@@ -60,12 +65,17 @@ public interface AssetDatapointResource {
                                           @QueryParam("assetId") String assetId,
                                           @QueryParam("attributeName") String attributeName);
 
+    /**
+     * Export the historical datapoints of the specified asset attributes as CSV; the export is streamed to the client
+     * as it is read from the database. The format defaults to {@link DatapointExportFormat#CSV_ZIP}.
+     */
     @GET
     @Path("export")
-    @Produces("application/zip")
+    @Produces({"application/zip", "application/gzip", "text/csv"})
     @RolesAllowed({Constants.READ_ASSETS_ROLE})
     void getDatapointExport(@Suspended AsyncResponse asyncResponse,
                             @QueryParam("attributeRefs") String attributeRefsString,
                             @QueryParam("fromTimestamp") long fromTimestamp,
-                            @QueryParam("toTimestamp") long toTimestamp);
+                            @QueryParam("toTimestamp") long toTimestamp,
+                            @QueryParam("format") DatapointExportFormat format);
 }
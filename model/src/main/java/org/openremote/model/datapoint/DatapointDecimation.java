@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.datapoint;
+
+/**
+ * Algorithm used to reduce the datapoints of a period to a maximum number of points whilst preserving the shape of the
+ * data; the first and last datapoint of the period are always included. Datapoints of non numeric and non boolean
+ * attributes are sampled (first datapoint of each bucket) regardless of the algorithm.
+ */
+public enum DatapointDecimation {
+
+    /**
+     * Largest-Triangle-Three-Buckets, selects one datapoint per bucket.
+     */
+    LTTB,
+
+    /**
+     * Selects the minimum and maximum datapoint of each bucket, guarantees that peaks are retained.
+     */
+    MIN_MAX
+}
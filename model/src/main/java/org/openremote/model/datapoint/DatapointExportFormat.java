@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.datapoint;
+
+/**
+ * Encoding of a datapoint export; the exported data is always CSV with a header row.
+ */
+public enum DatapointExportFormat {
+
+    /**
+     * CSV file inside a zip archive (default).
+     */
+    CSV_ZIP("application/zip", "dataexport.zip"),
+
+    /**
+     * Gzip compressed CSV.
+     */
+    CSV_GZIP("application/gzip", "dataexport.csv.gz"),
+
+    /**
+     * Uncompressed CSV.
+     */
+    CSV("text/csv", "dataexport.csv");
+
+    protected final String contentType;
+    protected final String fileName;
+
+    DatapointExportFormat(String contentType, String fileName) {
+        this.contentType = contentType;
+        this.fileName = fileName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+}
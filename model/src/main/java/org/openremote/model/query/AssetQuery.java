@@ -228,6 +228,14 @@ public class AssetQuery implements Serializable {
     // Ordering
     public OrderBy orderBy;
     public int limit;
+    /**
+     * Keyset pagination cursor; the ID of the last asset of the previous page, only assets that come after this asset
+     * in the {@link #orderBy} order (with the asset ID as tiebreaker) are returned. The referenced asset must still
+     * exist; if it has been deleted then no assets are returned, which can't be told apart from the end of the results,
+     * so callers paging through assets that may be deleted meanwhile must watch for the deletion of the cursor asset
+     * and restart paging from the beginning.
+     */
+    public String after;
 
     public static class AssetClassToStringConverter extends StdConverter<Class<? extends Asset<?>>, String> {
 
@@ -435,6 +443,16 @@ public class AssetQuery implements Serializable {
         return this;
     }
 
+    public AssetQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public AssetQuery after(String assetId) {
+        this.after = assetId;
+        return this;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -448,6 +466,8 @@ public class AssetQuery implements Serializable {
                 ", type=" + Arrays.toString(types) +
                 ", attribute=" + (attributes != null ? attributes.toString() : "null") +
                 ", orderBy=" + orderBy +
+                ", limit=" + limit +
+                ", after='" + after + '\'' +
                 ", recursive=" + recursive +
                 '}';
     }
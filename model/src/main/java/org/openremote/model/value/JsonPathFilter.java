@@ -20,16 +20,20 @@
 package org.openremote.model.value;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.Option;
 import com.jayway.jsonpath.ParseContext;
 import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider;
 import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
 import com.kjetland.jackson.jsonSchema.annotations.JsonSchemaTitle;
+import org.openremote.model.util.Pair;
 import org.openremote.model.util.TextUtil;
 import org.openremote.model.util.ValueUtil;
 
@@ -38,6 +42,9 @@ import javax.validation.constraints.NotNull;
 /**
  * This filter works on any type of data; when applying the filter the data should be converted to JSON representation
  * using a tool like Jackson and then the JSON path expression should be applied to this JSON string.
+ * <p>
+ * A {@link JsonNode} value is used as the document directly, so a JSON string that several filters apply to can be
+ * parsed once and shared; the path is compiled on first use and cached with the filter instance.
  */
 @JsonSchemaTitle("JSON Path")
 @JsonTypeName(JsonPathFilter.NAME)
@@ -63,6 +70,9 @@ public class JsonPathFilter extends ValueFilter {
     @JsonProperty
     public boolean returnLast;
 
+    @JsonIgnore
+    protected transient volatile Pair<String, JsonPath> compiledPath;
+
     @JsonCreator
     public JsonPathFilter(@JsonProperty("path") String path,
                           @JsonProperty("returnFirst") boolean returnFirst,
@@ -78,18 +88,36 @@ public class JsonPathFilter extends ValueFilter {
             return null;
         }
 
-        String valueStr = ValueUtil.convert(value, String.class);
+        DocumentContext document;
 
-        if (valueStr == null) {
-            return null;
+        if (value instanceof JsonNode && ((JsonNode) value).isTextual()) {
+            document = jsonPathParser.parse(((JsonNode) value).asText());
+        } else if (value instanceof JsonNode) {
+            document = jsonPathParser.parse(value);
+        } else if (value instanceof String) {
+            document = jsonPathParser.parse((String) value);
+        } else {
+            document = jsonPathParser.parse(ValueUtil.JSON.valueToTree(value));
         }
 
-        Object obj = jsonPathParser.parse(valueStr).read(path);
+        Object obj = document.read(getCompiledPath());
 
         if ((returnFirst || returnLast) && obj != null && ValueUtil.isArray(obj.getClass())) {
-            ArrayNode arrayNode = ValueUtil.convert(obj, ArrayNode.class);
+            ArrayNode arrayNode = obj instanceof ArrayNode ? (ArrayNode) obj : ValueUtil.convert(obj, ArrayNode.class);
             obj = arrayNode.get(returnFirst ? 0 : arrayNode.size() - 1);
         }
         return obj;
     }
+
+    protected JsonPath getCompiledPath() {
+        Pair<String, JsonPath> compiled = compiledPath;
+
+        // Path is a public field so recompile if it has been changed
+        if (compiled == null || !compiled.key.equals(path)) {
+            compiled = new Pair<>(path, JsonPath.compile(path));
+            compiledPath = compiled;
+        }
+
+        return compiled.value;
+    }
 }
@@ -57,21 +57,24 @@ public class SubStringValueFilter extends ValueFilter {
         }
 
         String result = null;
+        // Resolve negative indexes into locals as the filter instance is reused for every value
+        int begin = beginIndex;
+        Integer end = endIndex;
 
-        if (beginIndex < 0) {
-            beginIndex = valueStr.get().length() + 1 + beginIndex;
-            beginIndex = Math.max(0, beginIndex);
+        if (begin < 0) {
+            begin = valueStr.get().length() + 1 + begin;
+            begin = Math.max(0, begin);
         }
 
         try {
-            if (endIndex != null) {
-                if (endIndex < 0) {
-                    endIndex = valueStr.get().length() + endIndex;
-                    endIndex = Math.max(beginIndex, endIndex);
+            if (end != null) {
+                if (end < 0) {
+                    end = valueStr.get().length() + end;
+                    end = Math.max(begin, end);
                 }
-                result = valueStr.get().substring(beginIndex, endIndex);
+                result = valueStr.get().substring(begin, end);
             } else {
-                result = valueStr.get().substring(beginIndex);
+                result = valueStr.get().substring(begin);
             }
         } catch (IndexOutOfBoundsException ignored) {}
 
@@ -7,8 +7,11 @@ import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.datapoint.AssetDatapointService
 import org.openremote.manager.setup.SetupService
 import org.openremote.test.setup.ManagerTestSetup
+import org.openremote.model.attribute.Attribute
 import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.datapoint.DatapointDecimation
 import org.openremote.model.datapoint.DatapointInterval
+import org.openremote.model.util.Pair
 import org.openremote.model.util.ValueUtil
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
@@ -24,6 +27,10 @@ import static java.util.concurrent.TimeUnit.DAYS
 import static java.util.concurrent.TimeUnit.MINUTES
 import static java.util.concurrent.TimeUnit.SECONDS
 import static org.openremote.manager.datapoint.AssetDatapointService.DATA_POINTS_MAX_AGE_DAYS_DEFAULT
+import static org.openremote.manager.datapoint.AssetDatapointService.DATA_POINTS_ROLLUP_HOUR_MAX_AGE_DAYS
+import static org.openremote.manager.datapoint.AssetDatapointService.DATA_POINTS_ROLLUP_MINUTE_MAX_AGE_DAYS
+import static org.openremote.manager.datapoint.AssetDatapointService.DATA_POINTS_ROLLUP_REFRESH_MILLIS
+import static org.openremote.model.value.ValueType.NUMBER
 import static org.openremote.test.setup.ManagerTestSetup.thingLightToggleAttributeName
 import static spock.util.matcher.HamcrestMatchers.closeTo
 
@@ -171,6 +178,25 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert aggregatedDatapoints[12].value == 14.95
         }
 
+        and: "when decimated datapoints are retrieved without a max number of points then the default is used"
+        conditions.eventually {
+            def thing = assetStorageService.find(managerTestSetup.thingId, true)
+            [DatapointDecimation.LTTB, DatapointDecimation.MIN_MAX].each {
+                def decimatedDatapoints = assetDatapointService.getDecimatedDatapoints(
+                    thing.getId(),
+                    thing.getAttribute("light1PowerConsumption").orElseThrow({ new RuntimeException("Missing attribute") }),
+                    it,
+                    null,
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS),
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+                )
+                assert decimatedDatapoints.size() == 5
+                assert decimatedDatapoints.collect { it.value } == [13.3d, 13.3d, 13.5d, 14.4d, 15.5d]
+                assert decimatedDatapoints[2].timestamp == datapoint1ExpectedTimestamp
+                assert decimatedDatapoints[4].timestamp == datapoint3ExpectedTimestamp
+            }
+        }
+
 
         // ------------------------------------
         // Test boolean data point storage
@@ -337,4 +363,64 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert datapoints.isEmpty()
         }
     }
+
+    def "Test downsampling using datapoint rollups"() {
+
+        given: "rollups that are only refreshed when queried and minute and hour tiers that are purged after 1 and 2 days"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+        def config = defaultConfig()
+        config << [(DATA_POINTS_ROLLUP_REFRESH_MILLIS): "3600000"]
+        config << [(DATA_POINTS_ROLLUP_MINUTE_MAX_AGE_DAYS): "1"]
+        config << [(DATA_POINTS_ROLLUP_HOUR_MAX_AGE_DAYS): "2"]
+
+        when: "the container is started"
+        def container = startContainer(config, defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def rollups = assetDatapointService.getRollups()
+        def attribute = new Attribute<>("rollupValue", NUMBER)
+        def now = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).truncatedTo(ChronoUnit.HOURS)
+
+        then: "the rollups should have caught up"
+        conditions.eventually {
+            assert rollups.isAvailable()
+        }
+
+        when: "datapoints are written in the last two hours and three days ago"
+        assetDatapointService.upsertValues(managerTestSetup.thingId, attribute.name, [
+            new Pair<>(10d, now.minusHours(2)),
+            new Pair<>(20d, now.minusHours(2).plusMinutes(30)),
+            new Pair<>(30d, now.minusHours(1)),
+            new Pair<>(5d, now.minusDays(3)),
+            new Pair<>(15d, now.minusDays(3).plusMinutes(10))
+        ])
+        def datapoints = assetDatapointService.getValueDatapoints(managerTestSetup.thingId, attribute, DatapointInterval.HOUR, 1, now.minusHours(2), now.minusHours(1))
+
+        then: "the hourly averages should be returned"
+        datapoints.length == 2
+        datapoints[0].value == 15d
+        datapoints[1].value == 30d
+
+        when: "a datapoint is written into an hour that has already been rolled up"
+        assetDatapointService.upsertValues(managerTestSetup.thingId, attribute.name, [new Pair<>(40d, now.minusHours(2).plusMinutes(45))])
+        datapoints = assetDatapointService.getValueDatapoints(managerTestSetup.thingId, attribute, DatapointInterval.HOUR, 1, now.minusHours(2), now.minusHours(1))
+
+        then: "the hour should have been recomputed"
+        datapoints.length == 2
+        datapoints[0].value closeTo(23.333d, 0.001d)
+        datapoints[1].value == 30d
+
+        when: "the rollups are purged"
+        rollups.purge()
+        def hourDatapoints = assetDatapointService.getValueDatapoints(managerTestSetup.thingId, attribute, DatapointInterval.HOUR, 1, now.minusDays(3), now.minusDays(3))
+        def dayDatapoints = assetDatapointService.getValueDatapoints(managerTestSetup.thingId, attribute, DatapointInterval.DAY, 1, now.minusDays(3), now.minusDays(3))
+
+        then: "hours older than the hour and minute tiers should be computed from the datapoints"
+        hourDatapoints.length == 1
+        hourDatapoints[0].value == 10d
+
+        and: "days should still be computed from the day tier"
+        dayDatapoints.length == 1
+        dayDatapoints[0].value == 10d
+    }
 }
@@ -19,6 +19,7 @@ import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
 import javax.persistence.EntityManager
+import java.util.concurrent.ConcurrentHashMap
 
 import static org.openremote.model.value.ValueType.*
 import static org.openremote.model.value.MetaItemType.*
@@ -236,4 +237,210 @@ class AssetProcessingTest extends Specification implements ManagerContainerTrait
         }
 
     }
+
+    def "Check attribute events of an asset are processed in order when processing lanes are enabled"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        when: "the container is started with processing lanes"
+        def config = defaultConfig()
+        config << [(AssetProcessingService.ASSET_PROCESSING_LANES): "4"]
+        def container = startContainer(config, defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        then: "the container should be running and initialised"
+        assetProcessingService.getProcessingLanes() == 4
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        when: "several things are created with an initial counter value older than the events that will be sent"
+        def startTime = getClockTimeOf(container) - 1000
+        def things = (1..4).collect {
+            def thing = new ThingAsset("Lane Thing " + it)
+                .setRealm(keycloakTestSetup.masterTenant.realm)
+            thing.addOrReplaceAttributes(new Attribute<>("counter", NUMBER, 0d, startTime))
+            assetStorageService.merge(thing)
+        }
+
+        and: "a processor records the values processed for each thing"
+        Map<String, List<Double>> processedValues = new ConcurrentHashMap<>()
+        AssetUpdateProcessor recordingProcessor = new AssetUpdateProcessor() {
+            @Override
+            boolean processAssetUpdate(EntityManager em, Asset asset, Attribute attribute, AttributeEvent.Source source) throws AssetProcessingException {
+                if (attribute.name == "counter") {
+                    processedValues.computeIfAbsent(asset.id, { Collections.synchronizedList(new ArrayList<Double>()) }).add(attribute.getValueAs(Double.class).orElse(null))
+                }
+                false
+            }
+        }
+        assetProcessingService.processors.add(0, recordingProcessor)
+
+        and: "interleaved attribute events with increasing timestamps are sent for the things"
+        (1..20).each { i ->
+            things.each { thing ->
+                assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "counter", i as Double, startTime + i))
+            }
+        }
+
+        then: "the events of each thing should have been processed in the order they were sent"
+        conditions.eventually {
+            things.each { thing ->
+                assert processedValues.get(thing.id) == (1..20).collect { it as Double }
+                assert assetStorageService.find(thing.id, true).getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 20d
+            }
+        }
+
+        when: "the processing lanes of an asset are locked from an interrupted thread"
+        def executed = false
+        Thread.currentThread().interrupt()
+        assetProcessingService.withAssetLanesLocked("test", [things[0].id], { executed = true })
+
+        then: "the work should fail rather than be silently skipped and the interrupt flag should be restored"
+        thrown(IllegalStateException)
+        !executed
+        Thread.interrupted()
+
+        cleanup: "the recording processor is removed"
+        assetProcessingService?.processors?.remove(recordingProcessor)
+    }
+
+    def "Check coalesced attribute writes remain readable by loads that started before the flush committed"() {
+
+        when: "the container is started with coalesced attribute writes that aren't flushed on a schedule during the test"
+        def config = defaultConfig()
+        config << [(AssetStorageService.ASSET_ATTRIBUTE_WRITE_FLUSH_MILLIS): "3600000"]
+        def container = startContainer(config, defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def coalescer = assetStorageService.getAttributeWriteCoalescer()
+
+        then: "attribute writes should be coalesced"
+        coalescer != null
+
+        when: "a thing is created and a newer counter value is queued for a coalesced write"
+        def startTime = getClockTimeOf(container) - 1000
+        def thing = new ThingAsset("Coalesced Thing")
+            .setRealm(keycloakTestSetup.masterTenant.realm)
+        thing.addOrReplaceAttributes(new Attribute<>("counter", NUMBER, 0d, startTime))
+        thing = assetStorageService.merge(thing)
+        coalescer.add(thing.id, new Attribute<>("counter", NUMBER, 1d, startTime + 1))
+
+        then: "the stored value should not have changed yet"
+        assetStorageService.find(thing.id, true).getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 0d
+
+        when: "the thing is loaded and the write is flushed and committed by another thread after the row was read"
+        def storedValueWhenLoaded = null
+        def loadedThing = coalescer.load {
+            def asset = assetStorageService.find(thing.id, true)
+            storedValueWhenLoaded = asset.getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null)
+            def flushThread = Thread.start { coalescer.flush() }
+            flushThread.join()
+            asset
+        }
+
+        then: "the loaded row should be outdated but the committed write should have been applied"
+        storedValueWhenLoaded == 0d
+        loadedThing.getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 1d
+        loadedThing.getAttribute("counter").flatMap { it.getTimestamp() }.orElse(null) == startTime + 1
+
+        and: "the write should be stored and no longer retained once the load has completed"
+        assetStorageService.find(thing.id, true).getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 1d
+        coalescer.getStatus().get("pendingAssets").asInt() == 0
+        coalescer.getStatus().get("retainedFlushes").asInt() == 0
+
+        when: "the thing is loaded again"
+        loadedThing = coalescer.load { assetStorageService.find(thing.id, true) }
+
+        then: "the stored value should be loaded"
+        loadedThing.getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 1d
+    }
+
+    def "Check attribute events are processed using the asset cache and the cache is invalidated when assets change"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        when: "the container is started with the asset cache enabled"
+        def config = defaultConfig()
+        config << [(AssetStorageService.ASSET_CACHE_SIZE): "100"]
+        def container = startContainer(config, defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def assetCache = assetStorageService.getAssetCache()
+
+        then: "the asset cache should be enabled"
+        assetCache != null
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        when: "a thing is created and an attribute event is sent"
+        def startTime = getClockTimeOf(container) - 1000
+        def thing = new ThingAsset("Cached Thing")
+            .setRealm(keycloakTestSetup.masterTenant.realm)
+        thing.addOrReplaceAttributes(
+            new Attribute<>("counter", NUMBER, 0d, startTime),
+            new Attribute<>("label", TEXT, "initial", startTime)
+        )
+        thing = assetStorageService.merge(thing)
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "counter", 1d, startTime + 1))
+
+        then: "the thing should be cached with the stored value"
+        conditions.eventually {
+            def cachedThing = assetCache.getIfPresent(thing.id)
+            assert cachedThing != null
+            assert cachedThing.getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 1d
+        }
+
+        when: "another attribute event is sent for the thing"
+        def cachedThing = assetCache.getIfPresent(thing.id)
+        def hitCount = assetCache.stats().hitCount()
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "counter", 2d, startTime + 2))
+
+        then: "the cached thing should have been used and replaced with a copy holding the new value"
+        conditions.eventually {
+            def updatedThing = assetCache.getIfPresent(thing.id)
+            assert updatedThing != null
+            assert !updatedThing.is(cachedThing)
+            assert updatedThing.getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 2d
+            assert updatedThing.getAttribute("label").flatMap { it.getValue() }.orElse(null) == "initial"
+            assert assetCache.stats().hitCount() > hitCount
+        }
+
+        and: "the previously cached instance should not have been modified"
+        cachedThing.getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 1d
+
+        and: "the stored value should have been updated"
+        assetStorageService.find(thing.id, true).getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 2d
+
+        when: "the thing is modified"
+        thing = assetStorageService.find(thing.id, true)
+        thing.setName("Renamed Cached Thing")
+        thing = assetStorageService.merge(thing)
+
+        then: "the cached thing should have been invalidated"
+        assetCache.getIfPresent(thing.id) == null
+
+        when: "another attribute event is sent for the thing"
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "counter", 3d, startTime + 3))
+
+        then: "the modified thing should be cached"
+        conditions.eventually {
+            def reloadedThing = assetCache.getIfPresent(thing.id)
+            assert reloadedThing != null
+            assert reloadedThing.name == "Renamed Cached Thing"
+            assert reloadedThing.getAttribute("counter").flatMap { it.getValueAs(Double.class) }.orElse(null) == 3d
+        }
+
+        when: "the thing is deleted"
+        assetStorageService.delete([thing.id])
+
+        then: "the cached thing should have been invalidated"
+        assetCache.getIfPresent(thing.id) == null
+    }
 }
@@ -0,0 +1,131 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.impl.RoomAsset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.StringPredicate
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import org.openremote.test.setup.ManagerTestSetup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import static org.openremote.manager.asset.AssetStorageService.ASSET_QUERY_CACHE_SIZE
+import static org.openremote.model.query.AssetQuery.*
+import static org.openremote.model.query.AssetQuery.Select.selectExcludePathAndAttributes
+import static org.openremote.model.value.ValueType.TEXT
+
+/**
+ * Runs asset queries with the prepared query cache enabled, {@link AssetQueryTest} runs them without it.
+ */
+class AssetQueryCacheTest extends Specification implements ManagerContainerTrait {
+
+    @Shared
+    static ManagerTestSetup managerTestSetup
+    @Shared
+    static KeycloakTestSetup keycloakTestSetup
+    @Shared
+    static AssetStorageService assetStorageService
+
+    def setupSpec() {
+        given: "the server container is started with the query cache enabled"
+        def config = defaultConfig()
+        config << [(ASSET_QUERY_CACHE_SIZE): "100"]
+        def container = startContainer(config, defaultServices())
+        managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        assetStorageService = container.getService(AssetStorageService.class)
+    }
+
+    def "Query shape cache"() {
+        given: "an empty query cache"
+        def queryCache = assetStorageService.getQueryCache()
+        queryCache.invalidateAll()
+
+        when: "a query is executed for the living rooms of apartment 1"
+        def assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .parents(managerTestSetup.apartment1Id)
+                .types(RoomAsset)
+                .names(new StringPredicate(Match.BEGIN, "Living"))
+        )
+
+        then: "only the living room of apartment 1 should be retrieved and the prepared query cached"
+        assets.size() == 1
+        assets[0].id == managerTestSetup.apartment1LivingroomId
+        queryCache.size() == 1
+
+        when: "a query of the same shape is executed for the bathrooms of apartment 2"
+        def hitCount = queryCache.stats().hitCount()
+        def cachedAssets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .parents(managerTestSetup.apartment2Id)
+                .types(RoomAsset)
+                .names(new StringPredicate(Match.BEGIN, "Bathroom"))
+        )
+
+        then: "the cached prepared query should be used with the values of the second query"
+        queryCache.stats().hitCount() == hitCount + 1
+        queryCache.size() == 1
+        cachedAssets.size() == 1
+        cachedAssets[0].id == managerTestSetup.apartment2BathroomId
+
+        when: "the same query is executed without a cached prepared query"
+        queryCache.invalidateAll()
+        assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .parents(managerTestSetup.apartment2Id)
+                .types(RoomAsset)
+                .names(new StringPredicate(Match.BEGIN, "Bathroom"))
+        )
+
+        then: "the results should be the same"
+        assets.collect {it.id} == cachedAssets.collect {it.id}
+
+        when: "attribute value queries of the same shape are executed with different values"
+        queryCache.invalidateAll()
+        def otherAssets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new AttributePredicate("containmentCode", new StringPredicate("other")))
+        )
+        def shapeThing = assetStorageService.merge(new ThingAsset("Shape cache thing")
+            .setRealm(keycloakTestSetup.masterTenant.realm)
+            .addOrReplaceAttributes(new Attribute<>("containmentCode", TEXT, "shape")))
+        hitCount = queryCache.stats().hitCount()
+        cachedAssets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new AttributePredicate("containmentCode", new StringPredicate("shape")))
+        )
+
+        then: "the cached prepared query should match the value of the second query only"
+        otherAssets.isEmpty()
+        queryCache.stats().hitCount() == hitCount + 1
+        cachedAssets.size() == 1
+        cachedAssets[0].id == shapeThing.id
+
+        when: "the same attribute value query is executed without a cached prepared query"
+        queryCache.invalidateAll()
+        assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new AttributePredicate("containmentCode", new StringPredicate("shape")))
+        )
+
+        then: "the results should be the same"
+        assets.collect {it.id} == cachedAssets.collect {it.id}
+
+        cleanup: "the thing is removed"
+        if (shapeThing != null) {
+            assetStorageService.delete([shapeThing.id])
+        }
+    }
+}
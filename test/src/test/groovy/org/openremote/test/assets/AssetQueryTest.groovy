@@ -29,6 +29,7 @@ import javax.persistence.EntityManager
 import java.time.Instant
 import java.time.ZoneOffset
 import java.time.ZonedDateTime
+import java.util.function.Consumer
 import java.util.function.Function
 
 import static java.time.format.DateTimeFormatter.ISO_ZONED_DATE_TIME
@@ -40,6 +41,8 @@ import static org.openremote.model.query.AssetQuery.OrderBy.Property.NAME
 import static org.openremote.model.query.AssetQuery.Select.selectExcludePathAndAttributes
 import static org.openremote.model.value.MetaItemType.*
 import static org.openremote.model.value.ValueType.CALENDAR_EVENT
+import static org.openremote.model.value.ValueType.INTEGER
+import static org.openremote.model.value.ValueType.TEXT
 import static org.openremote.model.value.ValueType.TIMESTAMP_ISO8601
 
 class AssetQueryTest extends Specification implements ManagerContainerTrait {
@@ -1051,4 +1054,205 @@ class AssetQueryTest extends Specification implements ManagerContainerTrait {
         assets.size() == 1
         assets[0].id == lobby.id
     }
+
+    def "Recursive queries"() {
+        when: "a recursive query is executed for the children of the smart building"
+        def assets = assetStorageService.findAll(
+                new AssetQuery()
+                    .parents(new ParentPredicate(managerTestSetup.smartBuildingId))
+                    .recursive(true)
+        )
+
+        then: "all descendants of the smart building should be retrieved with their path"
+        assets.size() == 12
+        assets.find {it.id == managerTestSetup.smartBuildingId} == null
+        assets.every {it.path != null && it.path.contains(managerTestSetup.smartBuildingId)}
+        def livingroom = assets.find {it.id == managerTestSetup.apartment1LivingroomId}
+        livingroom.path as List == [managerTestSetup.apartment1LivingroomId, managerTestSetup.apartment1Id, managerTestSetup.smartBuildingId]
+        livingroom.parentName == "Apartment 1"
+        livingroom.parentType == BuildingAsset.DESCRIPTOR.getName()
+
+        when: "a recursive query is executed for an asset with descendants only one level down"
+        assets = assetStorageService.findAll(
+                new AssetQuery()
+                    .ids(managerTestSetup.apartment2Id)
+                    .select(selectExcludePathAndAttributes())
+                    .recursive(true)
+        )
+
+        then: "the asset and its children should be retrieved"
+        assets.size() == 3
+        assets.find {it.id == managerTestSetup.apartment2Id} != null
+        assets.find {it.id == managerTestSetup.apartment2LivingroomId} != null
+        assets.find {it.id == managerTestSetup.apartment2BathroomId} != null
+    }
+
+    def "Keyset paging queries"() {
+        given: "a query for the assets of the building tenant ordered by name, which isn't unique"
+        def createQuery = {
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .tenant(new TenantPredicate(keycloakTestSetup.tenantBuilding.realm))
+                .orderBy(new OrderBy(NAME))
+        }
+
+        when: "all assets are retrieved at once"
+        def assets = assetStorageService.findAll(createQuery())
+
+        and: "the assets are retrieved in pages of 5 using the last asset of each page as the cursor"
+        def pagedAssets = []
+        def page = assetStorageService.findAll(createQuery().limit(5))
+        while (!page.isEmpty()) {
+            pagedAssets.addAll(page)
+            page = assetStorageService.findAll(createQuery().limit(5).after(page.last().id))
+        }
+
+        and: "the assets are streamed from a cursor in batches of 3"
+        def streamedAssets = []
+        assetStorageService.findAll(createQuery(), 3, { Asset<?> asset -> streamedAssets.add(asset) } as Consumer)
+
+        then: "the pages should contain every asset once in the same order"
+        assets.size() > 5
+        pagedAssets.collect {it.id} == assets.collect {it.id}
+
+        and: "the streamed assets should match"
+        streamedAssets.collect {it.id} == assets.collect {it.id}
+
+        when: "the cursor is the last asset"
+        page = assetStorageService.findAll(createQuery().limit(5).after(assets.last().id))
+
+        then: "no assets should be retrieved"
+        page.isEmpty()
+    }
+
+    def "Attribute containment queries"() {
+        given: "things with the same attribute holding the text 123, the number 123 and the text abc"
+        def textThing = assetStorageService.merge(new ThingAsset("Containment text")
+            .setRealm(keycloakTestSetup.masterTenant.realm)
+            .addOrReplaceAttributes(new Attribute<>("containmentCode", TEXT, "123")))
+        def numberThing = assetStorageService.merge(new ThingAsset("Containment number")
+            .setRealm(keycloakTestSetup.masterTenant.realm)
+            .addOrReplaceAttributes(new Attribute<>("containmentCode", INTEGER, 123)))
+        def otherThing = assetStorageService.merge(new ThingAsset("Containment other")
+            .setRealm(keycloakTestSetup.masterTenant.realm)
+            .addOrReplaceAttributes(new Attribute<>("containmentCode", TEXT, "abc")))
+
+        when: "a query is executed for assets that have the attribute"
+        def assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new AttributePredicate(new StringPredicate("containmentCode"), null))
+        )
+
+        then: "all things should be retrieved"
+        assets.collect {it.id} as Set == [textThing.id, numberThing.id, otherThing.id] as Set
+
+        when: "a query is executed for a text value that can't be the text of another JSON value"
+        assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new AttributePredicate("containmentCode", new StringPredicate("abc")))
+        )
+
+        then: "only the thing with that text should be retrieved"
+        assets.size() == 1
+        assets[0].id == otherThing.id
+
+        when: "a query is executed for a text value that is also the text of a number"
+        assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new AttributePredicate("containmentCode", new StringPredicate("123")))
+        )
+
+        then: "the things with the text and the number should be retrieved as values are compared as text"
+        assets.collect {it.id} as Set == [textThing.id, numberThing.id] as Set
+
+        when: "a query is executed for a text value with a different case"
+        assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new AttributePredicate("containmentCode", new StringPredicate(Match.EXACT, false, "ABC")))
+        )
+
+        then: "the case insensitive predicate should still match"
+        assets.size() == 1
+        assets[0].id == otherThing.id
+
+        when: "a query is executed where either of two values must match"
+        assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new LogicGroup<AttributePredicate>(
+                    LogicGroup.Operator.OR,
+                    new AttributePredicate("containmentCode", new StringPredicate("abc")),
+                    new AttributePredicate("containmentCode", new StringPredicate("xyz"))))
+        )
+
+        then: "the thing matching one of the values should be retrieved"
+        assets.size() == 1
+        assets[0].id == otherThing.id
+
+        cleanup: "the things are removed"
+        assetStorageService.delete([textThing.id, numberThing.id, otherThing.id])
+    }
+
+    def "Attribute meta containment queries"() {
+        given: "the asset IDs with an attribute linked to an agent"
+        def allAssets = assetStorageService.findAll(new AssetQuery())
+        def linkedAssetIds = { String agentId ->
+            allAssets.findAll { asset ->
+                asset.getAttributes().values().any { attribute ->
+                    attribute.getMetaValue(AGENT_LINK).map { agentId == null || it.id == agentId }.orElse(false)
+                }
+            }.collect { it.id } as Set
+        }
+        def expectedAssetIds = linkedAssetIds(managerTestSetup.agentId)
+
+        expect: "some assets to be linked to the agent"
+        !expectedAssetIds.isEmpty()
+
+        when: "a query is executed for assets with an attribute linked to the agent"
+        def query = new AssetQuery()
+            .select(selectExcludePathAndAttributes())
+            .attributes(new AttributePredicate().meta(
+                new NameValuePredicate(AGENT_LINK, new StringPredicate(managerTestSetup.agentId), false, new NameValuePredicate.Path("id"))))
+        def assets = assetStorageService.findAll(query)
+
+        then: "the meta containment filter should be used and the linked assets retrieved"
+        assetStorageService.getPreparedQuery(query).key.querySql.contains("GET_ASSET_ATTRIBUTE_META(A.ATTRIBUTES) @>")
+        assets.collect {it.id} as Set == expectedAssetIds
+
+        when: "a query is executed for assets with an attribute linked to an agent that doesn't exist"
+        assets = assetStorageService.findAll(
+            new AssetQuery()
+                .select(selectExcludePathAndAttributes())
+                .attributes(new AttributePredicate().meta(
+                    new NameValuePredicate(AGENT_LINK, new StringPredicate("doesNotExist"), false, new NameValuePredicate.Path("id"))))
+        )
+
+        then: "no assets should be retrieved"
+        assets.isEmpty()
+
+        when: "a query is executed for assets with an attribute linked to any agent"
+        query = new AssetQuery()
+            .select(selectExcludePathAndAttributes())
+            .attributes(new AttributePredicate().meta(new NameValuePredicate(AGENT_LINK, null)))
+        assets = assetStorageService.findAll(query)
+
+        then: "the meta containment filter should be used and all agent linked assets retrieved"
+        assetStorageService.getPreparedQuery(query).key.querySql.contains("GET_ASSET_ATTRIBUTE_META(A.ATTRIBUTES) @>")
+        assets.collect {it.id} as Set == linkedAssetIds(null)
+
+        when: "a query is executed for the agent ID with a different case"
+        query = new AssetQuery()
+            .select(selectExcludePathAndAttributes())
+            .attributes(new AttributePredicate().meta(
+                new NameValuePredicate(AGENT_LINK, new StringPredicate(Match.EXACT, false, managerTestSetup.agentId.toUpperCase(Locale.ROOT)), false, new NameValuePredicate.Path("id"))))
+        assets = assetStorageService.findAll(query)
+
+        then: "the meta containment filter should not be used and the case insensitive predicate should still match"
+        !assetStorageService.getPreparedQuery(query).key.querySql.contains("GET_ASSET_ATTRIBUTE_META")
+        assets.collect {it.id} as Set == expectedAssetIds
+    }
 }
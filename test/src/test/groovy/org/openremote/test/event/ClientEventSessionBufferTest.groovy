@@ -0,0 +1,159 @@
+package org.openremote.test.event
+
+import org.openremote.manager.event.ClientEventService
+import org.openremote.manager.event.SessionOutboundBuffer
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.function.LongSupplier
+
+import static org.openremote.manager.event.ClientEventService.*
+
+class ClientEventSessionBufferTest extends Specification implements ManagerContainerTrait {
+
+    def "Check messages are conflated, dropped and sent in order by the session outbound buffer"() {
+
+        given: "an executor that runs the sender when requested and a controllable clock"
+        List<Runnable> senders = []
+        def executor = { Runnable sender -> senders.add(sender) } as Executor
+        long[] now = [0L]
+        def clock = { now[0] } as LongSupplier
+        List<String> sent = []
+
+        when: "messages are added to a buffer with conflation"
+        def buffer = new SessionOutboundBuffer("testSession", 3, true, executor, clock)
+        buffer.add("attribute1", { sent.add("attribute1 value 1") })
+        buffer.add("attribute2", { sent.add("attribute2 value 1") })
+        buffer.add("attribute1", { sent.add("attribute1 value 2") })
+        buffer.add(null, { sent.add("other") })
+
+        then: "a single sender should have been started and the superseded message replaced"
+        senders.size() == 1
+        buffer.getQueueDepth() == 3
+        buffer.getStatus().get("conflated").asLong() == 1
+
+        when: "the messages have been waiting for a while"
+        now[0] = 1500
+
+        then: "the lag should be reported"
+        buffer.getLagMillis() == 1500
+
+        when: "the sender runs"
+        senders.remove(0).run()
+
+        then: "the latest message of each key should have been sent in order and the lag recorded"
+        sent == ["attribute1 value 2", "attribute2 value 1", "other"]
+        buffer.getQueueDepth() == 0
+        buffer.getLagMillis() == 0
+        buffer.getStatus().get("sent").asLong() == 3
+        buffer.getStatus().get("maxLagMillis").asLong() == 1500
+
+        when: "more messages are added than the buffer can hold"
+        sent.clear()
+        def added = (1..4).collect { i -> buffer.add("attribute" + i, { sent.add("attribute" + i) }) }
+
+        then: "the oldest message should have been dropped"
+        added == [true, true, true, false]
+        buffer.getStatus().get("dropped").asLong() == 1
+
+        when: "the sender runs"
+        senders.remove(0).run()
+
+        then: "the remaining messages should have been sent"
+        sent == ["attribute2", "attribute3", "attribute4"]
+        senders.isEmpty()
+    }
+
+    def "Check the session outbound buffer keeps sending after the executor rejected the sender"() {
+
+        given: "an executor that can reject senders"
+        List<Runnable> senders = []
+        def rejecting = [true]
+        def executor = { Runnable sender ->
+            if (rejecting[0]) {
+                throw new RejectedExecutionException("Rejected by test")
+            }
+            senders.add(sender)
+        } as Executor
+        List<String> sent = []
+        def buffer = new SessionOutboundBuffer("testSession", 10, false, executor, { System.currentTimeMillis() } as LongSupplier)
+
+        when: "a message is added whilst the executor rejects the sender"
+        buffer.add(null, { sent.add("message 1") })
+
+        then: "the message should be kept"
+        buffer.getQueueDepth() == 1
+        senders.isEmpty()
+
+        when: "another message is added once the executor accepts the sender"
+        rejecting[0] = false
+        buffer.add(null, { sent.add("message 2") })
+
+        then: "a sender should have been started"
+        senders.size() == 1
+
+        when: "the sender runs"
+        senders.remove(0).run()
+
+        then: "both messages should have been sent in order"
+        sent == ["message 1", "message 2"]
+        buffer.getQueueDepth() == 0
+    }
+
+    def "Check slow consumer sessions are disconnected"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        when: "the container is started with buffered client event sessions and slow consumer detection"
+        def config = defaultConfig()
+        config << [(CLIENT_EVENT_SESSION_BUFFER_SIZE): "5"]
+        config << [(CLIENT_EVENT_SLOW_CONSUMER_MILLIS): "500"]
+        def container = startContainer(config, defaultServices())
+        def clientEventService = container.getService(ClientEventService.class)
+
+        and: "a session is registered whose messages can't be sent"
+        def lagSessionClosed = new CountDownLatch(1)
+        def releaseSenders = new CountDownLatch(1)
+        def lagSession = new ClientEventService.SessionInfo(HEADER_CONNECTION_TYPE_MQTT, { lagSessionClosed.countDown() })
+        lagSession.outboundBuffer = new SessionOutboundBuffer("lagSession", 5, true, clientEventService.sessionSenderExecutor, { System.currentTimeMillis() } as LongSupplier)
+        clientEventService.sessionKeyInfoMap.put("lagSession", lagSession)
+
+        and: "two messages are delivered to the session, the second waiting for the first to be sent"
+        clientEventService.deliverToSession("lagSession", null, { releaseSenders.await() })
+        clientEventService.deliverToSession("lagSession", null, {})
+
+        then: "the session should be disconnected once its lag exceeds the limit"
+        conditions.eventually {
+            assert lagSessionClosed.count == 0
+            assert clientEventService.getSessionBufferStatus().get("slowConsumerDisconnects").asLong() == 1
+        }
+
+        when: "another session is registered whose messages can't be sent"
+        def fullSessionClosed = new CountDownLatch(1)
+        def fullSession = new ClientEventService.SessionInfo(HEADER_CONNECTION_TYPE_MQTT, { fullSessionClosed.countDown() })
+        fullSession.outboundBuffer = new SessionOutboundBuffer("fullSession", 5, true, clientEventService.sessionSenderExecutor, { System.currentTimeMillis() } as LongSupplier)
+        clientEventService.sessionKeyInfoMap.put("fullSession", fullSession)
+
+        and: "more messages are delivered than the buffer can hold before the first has been sent"
+        clientEventService.deliverToSession("fullSession", null, { releaseSenders.await() })
+        conditions.eventually {
+            assert fullSession.outboundBuffer.getQueueDepth() == 0
+        }
+        (1..6).each { clientEventService.deliverToSession("fullSession", null, {}) }
+
+        then: "the session should be disconnected straight away"
+        fullSessionClosed.count == 0
+        clientEventService.getSessionBufferStatus().get("slowConsumerDisconnects").asLong() == 2
+        fullSession.outboundBuffer.getQueueDepth() == 0
+
+        cleanup: "the senders are released and the sessions removed"
+        releaseSenders?.countDown()
+        clientEventService?.sessionKeyInfoMap?.remove("lagSession")
+        clientEventService?.sessionKeyInfoMap?.remove("fullSession")
+    }
+}
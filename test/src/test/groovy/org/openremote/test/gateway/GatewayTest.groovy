@@ -928,4 +928,184 @@ class GatewayTest extends Specification implements ManagerContainerTrait {
             assert assetStorageService.find(mapAssetId(gateway.id, managerTestSetup.microphone1Id, false)) == null
         }
     }
+
+    def "Check the gateway connector requests the initial asset list in cursor pages"() {
+
+        given: "the initial sync page size is reduced"
+        def originalPageSize = GatewayConnector.SYNC_ASSET_PAGE_SIZE
+        GatewayConnector.SYNC_ASSET_PAGE_SIZE = 2
+
+        and: "the container environment is started"
+        def conditions = new PollingConditions(timeout: 15, delay: 0.2)
+        def container = startContainer(defaultConfig(), defaultServices())
+        def timerService = container.getService(TimerService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def gatewayService = container.getService(GatewayService.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+
+        and: "a gateway is provisioned in this manager"
+        GatewayAsset gateway = assetStorageService.merge(new GatewayAsset("Test paging gateway")
+            .setRealm(managerTestSetup.realmBuildingTenant))
+        conditions.eventually {
+            gateway = assetStorageService.find(gateway.getId(), true)
+            assert !isNullOrEmpty(gateway.getClientSecret().orElse(""))
+            assert gatewayService.gatewayConnectorMap.get(gateway.getId().toLowerCase(Locale.ROOT)) != null
+        }
+
+        and: "the assets of the gateway are defined"
+        List<Asset> assets = (1..3).collect { i ->
+            def assetId = UniqueIdentifierGenerator.generateId("Test Paging Building $i")
+            new BuildingAsset("Test Paging Building $i")
+                .setId(assetId)
+                .setCreatedOn(Date.from(timerService.getNow()))
+                .setRealm(MASTER_REALM)
+                .setPath((String[])[assetId].toArray(new String[0]))
+        }
+
+        and: "functions to connect the gateway client and read the requests it receives"
+        List<String> clientReceivedMessages = []
+        WebsocketIOClient<String> gatewayClient = null
+        def connectGatewayClient = {
+            gatewayClient = new WebsocketIOClient<String>(
+                new URIBuilder("ws://127.0.0.1:$serverPort/websocket/events?Auth-Realm=$managerTestSetup.realmBuildingTenant").build(),
+                null,
+                new OAuthClientCredentialsGrant("http://127.0.0.1:$serverPort/auth/realms/$managerTestSetup.realmBuildingTenant/protocol/openid-connect/token",
+                    gateway.getClientId().orElse(""),
+                    gateway.getClientSecret().orElse(""),
+                    null).setBasicAuthHeader(true))
+            gatewayClient.setEncoderDecoderProvider({
+                [new AbstractNettyIOClient.MessageToMessageDecoder<String>(String.class, gatewayClient)].toArray(new ChannelHandler[0])
+            })
+            gatewayClient.addMessageConsumer({
+                message -> clientReceivedMessages.add(message)
+            })
+            gatewayClient.connect()
+        }
+        def getReadRequest = { String messageId ->
+            clientReceivedMessages
+                .findAll { it.startsWith(EventRequestResponseWrapper.MESSAGE_PREFIX) && it.contains("read-assets") }
+                .collect { ValueUtil.JSON.readValue(it.substring(EventRequestResponseWrapper.MESSAGE_PREFIX.length()), EventRequestResponseWrapper.class) }
+                .find { it.messageId == messageId }
+        }
+        def reply = { String messageId, List<Asset> replyAssets ->
+            def replyEvent = new EventRequestResponseWrapper(messageId, new AssetsEvent(replyAssets))
+            gatewayClient.sendMessage(EventRequestResponseWrapper.MESSAGE_PREFIX + ValueUtil.asJSON(replyEvent).get())
+        }
+
+        when: "the gateway connects to this manager"
+        connectGatewayClient()
+
+        then: "the first page of asset IDs should be requested"
+        EventRequestResponseWrapper request = null
+        conditions.eventually {
+            request = getReadRequest(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL)
+            assert request != null
+        }
+        def query = (request.event as ReadAssetsEvent).assetQuery
+        query.limit == 2
+        query.after == null
+        query.orderBy.property == AssetQuery.OrderBy.Property.CREATED_ON
+
+        when: "the gateway returns the first page"
+        reply(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL, assets.subList(0, 2))
+
+        then: "the next page should be requested after the last asset of the first page"
+        conditions.eventually {
+            request = getReadRequest(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL + "2")
+            assert request != null
+        }
+        (request.event as ReadAssetsEvent).assetQuery.limit == 2
+        (request.event as ReadAssetsEvent).assetQuery.after == assets[1].id
+
+        when: "the gateway returns the last page"
+        reply(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL + "2", assets.subList(2, 3))
+
+        then: "the assets of both pages should be requested"
+        conditions.eventually {
+            request = getReadRequest(GatewayConnector.ASSET_READ_EVENT_NAME_BATCH + "0")
+            assert request != null
+        }
+        (request.event as ReadAssetsEvent).assetQuery.ids as Set == assets.collect { it.id } as Set
+
+        when: "the gateway returns the requested assets"
+        reply(GatewayConnector.ASSET_READ_EVENT_NAME_BATCH + "0", assets)
+
+        then: "the gateway should become connected and the assets synced"
+        conditions.eventually {
+            gateway = assetStorageService.find(gateway.getId())
+            assert gateway.getGatewayStatus().orElse(null) == ConnectionStatus.CONNECTED
+            assert assetStorageService.findAll(new AssetQuery().parents(gateway.getId())).size() == 3
+        }
+
+        when: "the gateway client disconnects"
+        gatewayClient.disconnect()
+        gatewayClient.removeAllMessageConsumers()
+
+        then: "the gateway should become disconnected"
+        conditions.eventually {
+            gateway = assetStorageService.find(gateway.getId())
+            assert gateway.getGatewayStatus().orElse(null) == ConnectionStatus.DISCONNECTED
+        }
+
+        when: "the gateway reconnects"
+        clientReceivedMessages.clear()
+        connectGatewayClient()
+
+        then: "the first page of asset IDs should be requested"
+        conditions.eventually {
+            request = getReadRequest(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL)
+            assert request != null
+        }
+        (request.event as ReadAssetsEvent).assetQuery.limit == 2
+
+        when: "the gateway returns the first page"
+        clientReceivedMessages.clear()
+        reply(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL, assets.subList(0, 2))
+
+        and: "the gateway ignores the cursor of the next page request and returns the first page again"
+        conditions.eventually {
+            request = getReadRequest(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL + "2")
+            assert request != null
+        }
+        reply(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL + "2", assets.subList(0, 2))
+
+        then: "all asset IDs should be requested at once"
+        conditions.eventually {
+            request = getReadRequest(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL)
+            assert request != null
+        }
+        (request.event as ReadAssetsEvent).assetQuery.limit == 0
+        (request.event as ReadAssetsEvent).assetQuery.after == null
+
+        when: "the gateway returns all asset IDs"
+        reply(GatewayConnector.ASSET_READ_EVENT_NAME_INITIAL, assets)
+
+        then: "the assets should be requested once each"
+        conditions.eventually {
+            request = getReadRequest(GatewayConnector.ASSET_READ_EVENT_NAME_BATCH + "0")
+            assert request != null
+        }
+        (request.event as ReadAssetsEvent).assetQuery.ids.length == 3
+        (request.event as ReadAssetsEvent).assetQuery.ids as Set == assets.collect { it.id } as Set
+
+        when: "the gateway returns the requested assets"
+        reply(GatewayConnector.ASSET_READ_EVENT_NAME_BATCH + "0", assets)
+
+        then: "the gateway should become connected"
+        conditions.eventually {
+            gateway = assetStorageService.find(gateway.getId())
+            assert gateway.getGatewayStatus().orElse(null) == ConnectionStatus.CONNECTED
+            assert assetStorageService.findAll(new AssetQuery().parents(gateway.getId())).size() == 3
+        }
+
+        cleanup: "the page size is restored and the gateway removed"
+        GatewayConnector.SYNC_ASSET_PAGE_SIZE = originalPageSize
+        if (gatewayClient != null) {
+            gatewayClient.disconnect()
+            gatewayClient.removeAllMessageConsumers()
+        }
+        if (gateway != null && assetStorageService != null) {
+            assetStorageService.delete([gateway.id])
+        }
+    }
 }
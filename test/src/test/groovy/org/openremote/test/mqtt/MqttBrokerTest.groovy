@@ -2,6 +2,9 @@ package org.openremote.test.mqtt
 
 
 import io.moquette.BrokerConstants
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.mqtt.MqttQoS
+import org.openremote.agent.protocol.mqtt.AbstractMQTT_IOClient
 import org.openremote.agent.protocol.mqtt.MQTTMessage
 import org.openremote.agent.protocol.mqtt.MQTT_IOClient
 import org.openremote.agent.protocol.simulator.SimulatorProtocol
@@ -12,6 +15,7 @@ import org.openremote.manager.event.ClientEventService
 import org.openremote.manager.mqtt.DefaultMQTTHandler
 import org.openremote.manager.mqtt.MQTTHandler
 import org.openremote.manager.mqtt.MqttBrokerService
+import org.openremote.manager.mqtt.PayloadEncoding
 import org.openremote.manager.setup.SetupService
 import org.openremote.model.asset.AssetEvent
 import org.openremote.model.asset.agent.ConnectionStatus
@@ -444,4 +448,114 @@ class MqttBrokerTest extends Specification implements ManagerContainerTrait {
             assert mqttBrokerService.clientIdConnectionMap.size() == 0
         }
     }
+
+    def "Mqtt broker CBOR encoding and shared event payload test"() {
+        given: "the container environment is started"
+        def conditions = new PollingConditions(timeout: 10, initialDelay: 0.1, delay: 0.2)
+        def container = startContainer(defaultConfig(), defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def mqttBrokerService = container.getService(MqttBrokerService.class)
+        def clientEventService = container.getService(ClientEventService.class)
+        def agentService = container.getService(AgentService.class)
+        def username = keycloakTestSetup.tenantBuilding.realm + ":" + keycloakTestSetup.serviceUser.username
+        def password = keycloakTestSetup.serviceUser.secret
+        def mqttHost = getString(container.getConfig(), MQTT_SERVER_LISTEN_HOST, BrokerConstants.HOST)
+        def mqttPort = getInteger(container.getConfig(), MQTT_SERVER_LISTEN_PORT, BrokerConstants.PORT)
+
+        and: "two mqtt clients that receive raw payloads are connected"
+        def clientIds = [UniqueIdentifierGenerator.generateId(), UniqueIdentifierGenerator.generateId()]
+        List<AbstractMQTT_IOClient<byte[]>> clients = clientIds.collect { clientId ->
+            new AbstractMQTT_IOClient<byte[]>(clientId, mqttHost, mqttPort, false, true, new UsernamePassword(username, password), null) {
+                @Override
+                byte[] messageToBytes(byte[] message) {
+                    return message != null ? message : new byte[0]
+                }
+
+                @Override
+                byte[] messageFromBytes(byte[] bytes) {
+                    return bytes
+                }
+            }
+        }
+        clients.each { it.connect() }
+
+        then: "the mqtt connections should exist"
+        conditions.eventually {
+            assert clients.every { it.getConnectionStatus() == ConnectionStatus.CONNECTED }
+            assert clientIds.every { mqttBrokerService.clientIdConnectionMap.get(it) != null }
+        }
+
+        when: "both clients subscribe to the attribute events of an asset using CBOR encoding"
+        Map<String, List<byte[]>> receivedPayloads = [:]
+        def subscribe = { AbstractMQTT_IOClient<byte[]> client, String topic ->
+            receivedPayloads.put(topic, [])
+            Consumer<MQTTMessage<byte[]>> consumer = { msg -> receivedPayloads.get(topic).add(msg.payload) }
+            client.addMessageConsumer(topic, consumer)
+        }
+        def eventTopics = clientIds.collect { clientId ->
+            "${keycloakTestSetup.tenantBuilding.realm}/$clientId/${PayloadEncoding.CBOR.topicPrefix}$DefaultMQTTHandler.ATTRIBUTE_TOPIC/$MQTTHandler.TOKEN_SINGLE_LEVEL_WILDCARD/$managerTestSetup.apartment1HallwayId".toString()
+        }
+        subscribe(clients[0], eventTopics[0])
+        subscribe(clients[1], eventTopics[1])
+
+        and: "the first client also subscribes to an attribute value using CBOR encoding"
+        def valueTopic = "${keycloakTestSetup.tenantBuilding.realm}/${clientIds[0]}/${PayloadEncoding.CBOR.topicPrefix}$DefaultMQTTHandler.ATTRIBUTE_VALUE_TOPIC/motionSensor/$managerTestSetup.apartment1HallwayId".toString()
+        subscribe(clients[0], valueTopic)
+
+        then: "the subscriptions should be created"
+        conditions.eventually {
+            assert clientEventService.eventSubscriptions.sessionSubscriptionIdMap.get(clientIds[0])?.size() == 2
+            assert clientEventService.eventSubscriptions.sessionSubscriptionIdMap.get(clientIds[1])?.size() == 1
+        }
+
+        when: "a subscribed attribute changes"
+        def attributeEvent = new AttributeEvent(managerTestSetup.apartment1HallwayId, "motionSensor", 70)
+        ((SimulatorProtocol)agentService.getProtocolInstance(managerTestSetup.apartment1ServiceAgentId)).updateSensor(attributeEvent)
+
+        then: "both clients should receive the same CBOR encoded event and the value subscription the CBOR encoded value"
+        conditions.eventually {
+            assert receivedPayloads.get(eventTopics[0]).size() == 1
+            assert receivedPayloads.get(eventTopics[1]).size() == 1
+            assert receivedPayloads.get(valueTopic).size() == 1
+        }
+        receivedPayloads.get(eventTopics[0])[0] == receivedPayloads.get(eventTopics[1])[0]
+        def receivedEvent = ValueUtil.JSON.treeToValue(PayloadEncoding.CBOR.decode(Unpooled.wrappedBuffer(receivedPayloads.get(eventTopics[0])[0])), SharedEvent.class)
+        receivedEvent instanceof AttributeEvent
+        (receivedEvent as AttributeEvent).assetId == managerTestSetup.apartment1HallwayId
+        (receivedEvent as AttributeEvent).attributeName == "motionSensor"
+        (receivedEvent as AttributeEvent).value.orElse(0) == 70
+        PayloadEncoding.CBOR.decode(Unpooled.wrappedBuffer(receivedPayloads.get(valueTopic)[0])).asInt() == 70
+
+        and: "the payload should not be JSON"
+        !ValueUtil.parse(new String(receivedPayloads.get(eventTopics[0])[0])).isPresent()
+
+        when: "an event is published directly to both clients"
+        receivedPayloads.values().each { it.clear() }
+        def sharedEvent = new AttributeEvent(managerTestSetup.apartment1HallwayId, "motionSensor", 80)
+        eventTopics.each { mqttBrokerService.publishEvent(it, sharedEvent, false, PayloadEncoding.CBOR, MqttQoS.AT_MOST_ONCE) }
+        mqttBrokerService.publishEvent(valueTopic, sharedEvent, true, PayloadEncoding.CBOR, MqttQoS.AT_MOST_ONCE)
+
+        then: "the event should have been encoded once per variant and the encoded payload shared by both publishes"
+        conditions.eventually {
+            assert receivedPayloads.get(eventTopics[0]).size() == 1
+            assert receivedPayloads.get(eventTopics[1]).size() == 1
+            assert receivedPayloads.get(valueTopic).size() == 1
+        }
+        def eventPayloads = mqttBrokerService.eventPayloadCache.getIfPresent(sharedEvent)
+        eventPayloads != null
+        eventPayloads.payloads.count { it != null } == 2
+        eventPayloads.get(false, PayloadEncoding.CBOR, { throw new IllegalStateException("Payload should already be encoded") }) == receivedPayloads.get(eventTopics[0])[0]
+        eventPayloads.get(false, PayloadEncoding.CBOR, { throw new IllegalStateException("Payload should already be encoded") }) == receivedPayloads.get(eventTopics[1])[0]
+        eventPayloads.get(true, PayloadEncoding.CBOR, { throw new IllegalStateException("Payload should already be encoded") }) == receivedPayloads.get(valueTopic)[0]
+
+        when: "the clients disconnect"
+        clients.each { it.disconnect() }
+
+        then: "no connection should be left"
+        conditions.eventually {
+            assert clients.every { it.getConnectionStatus() == ConnectionStatus.DISCONNECTED }
+            assert mqttBrokerService.clientIdConnectionMap.size() == 0
+        }
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.test.protocol
+
+import org.openremote.agent.protocol.ActuatorInbox
+import org.openremote.manager.agent.AgentService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.model.asset.agent.ConnectionStatus
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.MetaItem
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.function.Consumer
+
+import static org.openremote.model.Constants.MASTER_REALM
+import static org.openremote.model.value.MetaItemType.AGENT_LINK
+import static org.openremote.model.value.ValueType.NUMBER
+
+/**
+ * Tests the ordering and draining of linked attribute writes through the protocol {@link ActuatorInbox}.
+ */
+class ActuatorInboxTest extends Specification implements ManagerContainerTrait {
+
+    def "Check writes are consumed in order per attribute and across attributes"() {
+
+        given: "an executor that runs the drain task when requested"
+        List<Runnable> tasks = []
+        def executor = { Runnable task -> tasks.add(task) } as Executor
+        List<AttributeEvent> consumed = []
+        def inbox = new ActuatorInbox("test", 10, executor, { AttributeEvent event -> consumed.add(event) } as Consumer<AttributeEvent>)
+
+        when: "writes for two attributes are offered interleaved"
+        def writes = [
+            new AttributeEvent("asset1", "attribute1", 1d),
+            new AttributeEvent("asset1", "attribute2", 1d),
+            new AttributeEvent("asset1", "attribute1", 2d),
+            new AttributeEvent("asset1", "attribute2", 2d),
+            new AttributeEvent("asset1", "attribute1", 3d)
+        ]
+        def accepted = writes.collect { inbox.offer(it) }
+
+        then: "all writes should have been accepted and a single drain task scheduled"
+        accepted.every { it }
+        tasks.size() == 1
+        inbox.getQueueDepth() == 5
+        inbox.getStatus().get("maxQueueDepth").asInt() == 5
+
+        when: "the drain task runs"
+        tasks.remove(0).run()
+
+        then: "the writes should have been consumed in the order they were offered"
+        consumed == writes
+        inbox.getQueueDepth() == 0
+        inbox.getStatus().get("processedWrites").asLong() == 5
+        tasks.isEmpty()
+
+        and: "the last write of each attribute should have been consumed last for that attribute"
+        consumed.findAll { it.attributeName == "attribute1" }.collect { it.value.orElse(null) } == [1d, 2d, 3d]
+        consumed.findAll { it.attributeName == "attribute2" }.collect { it.value.orElse(null) } == [1d, 2d]
+    }
+
+    def "Check the inbox yields after a batch, drops writes when full and continues after a failed write"() {
+
+        given: "an executor that runs the drain task when requested"
+        List<Runnable> tasks = []
+        def executor = { Runnable task -> tasks.add(task) } as Executor
+        List<AttributeEvent> consumed = []
+        def consumer = { AttributeEvent event ->
+            if (event.value.orElse(null) == -1d) {
+                throw new IllegalStateException("Failed by test")
+            }
+            consumed.add(event)
+        } as Consumer<AttributeEvent>
+        def inbox = new ActuatorInbox("test", 150, executor, consumer)
+
+        when: "more writes are offered than a single drain task consumes"
+        (1..150).each { inbox.offer(new AttributeEvent("asset1", "attribute1", it as double)) }
+
+        and: "the drain task runs"
+        tasks.remove(0).run()
+
+        then: "a batch should have been consumed and another drain task scheduled for the rest"
+        consumed.size() == ActuatorInbox.DRAIN_BATCH_SIZE
+        tasks.size() == 1
+
+        when: "the inbox is filled up"
+        def overflow = (1..ActuatorInbox.DRAIN_BATCH_SIZE + 1).collect { inbox.offer(new AttributeEvent("asset1", "attribute2", it as double)) }
+
+        then: "the write that didn't fit should have been dropped"
+        overflow.count { !it } == 1
+        inbox.getStatus().get("droppedWrites").asLong() == 1
+
+        when: "the remaining drain tasks run"
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run()
+        }
+
+        then: "all accepted writes should have been consumed in order"
+        consumed.size() == 250
+        consumed.findAll { it.attributeName == "attribute1" }.collect { it.value.orElse(null) } == (1..150).collect { it as double }
+        consumed.findAll { it.attributeName == "attribute2" }.collect { it.value.orElse(null) } == (1..100).collect { it as double }
+
+        when: "a write fails followed by another write"
+        inbox.offer(new AttributeEvent("asset1", "attribute1", -1d))
+        inbox.offer(new AttributeEvent("asset1", "attribute1", 151d))
+        tasks.remove(0).run()
+
+        then: "the failure should be counted and the following write consumed"
+        inbox.getStatus().get("failedWrites").asLong() == 1
+        consumed.last().value.orElse(null) == 151d
+
+        when: "the inbox is closed"
+        inbox.close()
+
+        then: "further writes should be dropped"
+        !inbox.offer(new AttributeEvent("asset1", "attribute1", 152d))
+        inbox.getStatus().get("droppedWrites").asLong() == 2
+        tasks.isEmpty()
+    }
+
+    def "Check queued writes are drained after the executor rejected the drain task"() {
+
+        given: "an executor that can reject drain tasks"
+        List<Runnable> tasks = []
+        def rejecting = [true]
+        def executor = { Runnable task ->
+            if (rejecting[0]) {
+                throw new RejectedExecutionException("Rejected by test")
+            }
+            tasks.add(task)
+        } as Executor
+        List<AttributeEvent> consumed = []
+        def inbox = new ActuatorInbox("test", 10, executor, { AttributeEvent event -> consumed.add(event) } as Consumer<AttributeEvent>)
+
+        when: "writes are offered whilst the executor rejects the drain task"
+        def write1 = new AttributeEvent("asset1", "attribute1", 1d)
+        def write2 = new AttributeEvent("asset1", "attribute2", 1d)
+        def accepted = [inbox.offer(write1), inbox.offer(write2)]
+
+        then: "the writes should be kept in the inbox"
+        accepted == [true, true]
+        inbox.getQueueDepth() == 2
+        tasks.isEmpty()
+        consumed.isEmpty()
+
+        when: "another write is offered once the executor accepts the drain task"
+        rejecting[0] = false
+        def write3 = new AttributeEvent("asset1", "attribute1", 2d)
+        inbox.offer(write3)
+
+        then: "a drain task should have been scheduled"
+        tasks.size() == 1
+
+        when: "the drain task runs"
+        tasks.remove(0).run()
+
+        then: "all writes should have been consumed in order"
+        consumed == [write1, write2, write3]
+        inbox.getQueueDepth() == 0
+        inbox.getStatus().get("processedWrites").asLong() == 3
+    }
+
+    def "Check linked attribute writes are dispatched to the protocol in order"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        and: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def agentService = container.getService(AgentService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+
+        when: "a mock agent and a thing with two linked attributes are created"
+        def mockAgent = new MockAgent("Mock agent")
+            .setRealm(MASTER_REALM)
+            .setRequired(true)
+        mockAgent = assetStorageService.merge(mockAgent)
+
+        def mockThing = new ThingAsset("Mock Thing Asset")
+            .setRealm(MASTER_REALM)
+            .setParent(mockAgent)
+        mockThing.addOrReplaceAttributes(
+            new Attribute<>("target1", NUMBER)
+                .addOrReplaceMeta(new MetaItem<>(AGENT_LINK, new MockAgentLink(mockAgent.id).setRequiredValue("true"))),
+            new Attribute<>("target2", NUMBER)
+                .addOrReplaceMeta(new MetaItem<>(AGENT_LINK, new MockAgentLink(mockAgent.id).setRequiredValue("true")))
+        )
+        mockThing = assetStorageService.merge(mockThing)
+
+        then: "the attributes should be linked to the protocol"
+        conditions.eventually {
+            assert agentService.getAgent(mockAgent.id).getAgentStatus().orElse(null) == ConnectionStatus.CONNECTED
+            assert agentService.getProtocolInstance(mockAgent.id).linkedAttributes.size() == 2
+        }
+
+        when: "writes to both attributes are sent interleaved"
+        def protocol = (MockProtocol) agentService.getProtocolInstance(mockAgent.id)
+        def startTime = getClockTimeOf(container)
+        def writes = (1..5).collectMany { i ->
+            [
+                new AttributeEvent(mockThing.id, "target1", i as double, startTime + i * 2),
+                new AttributeEvent(mockThing.id, "target2", i as double, startTime + i * 2 + 1)
+            ]
+        }
+        writes.each { assetProcessingService.sendAttributeEvent(it) }
+
+        then: "the protocol should have received the writes in the order they were sent"
+        conditions.eventually {
+            assert protocol.protocolWriteAttributeEvents.size() == 10
+            assert protocol.protocolWriteAttributeEvents.collect { it.attributeName + ":" + it.value.orElse(null) } ==
+                writes.collect { it.attributeName + ":" + it.value.orElse(null) }
+            assert protocol.getActuatorInbox().getStatus().get("processedWrites").asLong() == 10
+        }
+
+        and: "the last write to each attribute should have been stored"
+        conditions.eventually {
+            def asset = assetStorageService.find(mockThing.id, true)
+            assert asset.getAttribute("target1").flatMap { it.value }.orElse(null) == 5d
+            assert asset.getAttribute("target2").flatMap { it.value }.orElse(null) == 5d
+        }
+    }
+}
@@ -72,6 +72,10 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
         private int successCount = 0
         private int failureCount = 0
         private String dynamicPathParam = ""
+        private int pollCountShared = 0
+        private int notModifiedCountShared = 0
+        private String sharedPollBody = "Shared values are 10% and 20%"
+        private String sharedPollETag = "\"1\""
 
         @Override
         void filter(ClientRequestContext requestContext) throws IOException {
@@ -201,6 +205,20 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
                             .build()
                     )
                     return
+                case "https://mockapi/get_poll_shared":
+                    pollCountShared++
+                    if (requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH) == sharedPollETag) {
+                        notModifiedCountShared++
+                        requestContext.abortWith(Response.notModified(sharedPollETag).build())
+                        return
+                    }
+                    requestContext.abortWith(
+                        Response
+                            .ok(sharedPollBody, MediaType.TEXT_PLAIN)
+                            .header(HttpHeaders.ETAG, sharedPollETag)
+                            .build()
+                    )
+                    return
                 case "https://mockapi/get_success_200":
                 case "https://redirected.mockapi/get_success_200":
                     successCount++
@@ -230,6 +248,10 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
         mockServer.successCount = 0
         mockServer.failureCount = 0
         mockServer.putRequestWithHeadersCalled = false
+        mockServer.pollCountShared = 0
+        mockServer.notModifiedCountShared = 0
+        mockServer.sharedPollBody = "Shared values are 10% and 20%"
+        mockServer.sharedPollETag = "\"1\""
     }
 
     def "Check HTTP client protocol and linked attribute deployment"() {
@@ -497,4 +519,167 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
             assert mockServer.successCount == 1
         }
     }
+
+    def "Check linked attributes share polling requests and unchanged responses are skipped"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, initialDelay: 1)
+
+        and: "the HTTP client protocol min times are adjusted for testing"
+        HTTPProtocol.MIN_POLLING_MILLIS = 10
+
+        and: "the container starts"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def agentService = container.getService(AgentService.class)
+
+        when: "the web target builder is configured to use the mock server"
+        if (!HTTPProtocol.client.configuration.isRegistered(mockServer)) {
+            HTTPProtocol.client.register(mockServer, Integer.MAX_VALUE)
+        }
+
+        and: "a HTTP client agent with conditional polling and polling jitter is created"
+        HTTPAgent agent = new HTTPAgent("Test polling agent")
+            .setRealm(Constants.MASTER_REALM)
+            .setBaseURI("https://mockapi")
+            .setOAuthGrant(
+                new OAuthPasswordGrant("https://mockapi/token",
+                    "TestClient",
+                    "TestSecret",
+                    "scope1 scope2",
+                    "testuser",
+                    "password")
+            )
+            .setConditionalPolling(true)
+            .setPollingJitterMillis(20)
+        agent = assetStorageService.merge(agent)
+
+        then: "the agent should be connected"
+        conditions.eventually {
+            agent = assetStorageService.find(agent.id, HTTPAgent.class)
+            assert agent.getAgentStatus().orElse(ConnectionStatus.DISCONNECTED) == ConnectionStatus.CONNECTED
+        }
+
+        when: "an asset is created with two attributes polling the same request"
+        def asset = new ThingAsset("Test Polling Asset")
+            .setParent(agent)
+            .addOrReplaceAttributes(
+                new Attribute<>("sharedPoll1", INTEGER)
+                    .addMeta(
+                        new MetaItem<>(AGENT_LINK, new HTTPAgentLink(agent.id)
+                            .setPath("get_poll_shared")
+                            .setPollingMillis(100)
+                            .setValueFilters([new RegexValueFilter(Pattern.compile("\\d+"))] as ValueFilter[])
+                        )
+                    ),
+                new Attribute<>("sharedPoll2", INTEGER)
+                    .addMeta(
+                        new MetaItem<>(AGENT_LINK, new HTTPAgentLink(agent.id)
+                            .setPath("get_poll_shared")
+                            .setPollingMillis(100)
+                            .setValueFilters([new RegexValueFilter(Pattern.compile("\\d+")).setMatchIndex(1)] as ValueFilter[])
+                        )
+                    )
+            )
+        asset = assetStorageService.merge(asset)
+        HTTPProtocol protocol = null
+
+        then: "both attributes should be polled with a single polling request"
+        conditions.eventually {
+            protocol = (HTTPProtocol)agentService.getProtocolInstance(agent.id)
+            assert protocol != null
+            assert protocol.pollingMap.size() == 2
+            assert protocol.pollingGroups.size() == 1
+            assert protocol.pollingGroups.values().first().getAttributeRefs().size() == 2
+        }
+
+        and: "both attributes should get their value from the shared response"
+        conditions.eventually {
+            asset = assetStorageService.find(asset.getId(), true)
+            assert asset.getAttribute("sharedPoll1").flatMap({it.value}).orElse(null) == 10
+            assert asset.getAttribute("sharedPoll2").flatMap({it.value}).orElse(null) == 20
+        }
+
+        when: "the server responds that the resource has not been modified whilst the body has changed"
+        mockServer.sharedPollBody = "Shared values are 30% and 40%"
+        def notModifiedCount = mockServer.notModifiedCountShared
+
+        then: "the polls should be skipped and the values left unchanged"
+        conditions.eventually {
+            assert mockServer.notModifiedCountShared > notModifiedCount + 2
+        }
+        assetStorageService.find(asset.getId(), true).getAttribute("sharedPoll1").flatMap({it.value}).orElse(null) == 10
+        assetStorageService.find(asset.getId(), true).getAttribute("sharedPoll2").flatMap({it.value}).orElse(null) == 20
+
+        when: "the resource is modified"
+        mockServer.sharedPollETag = "\"2\""
+
+        then: "the attributes should be updated"
+        conditions.eventually {
+            asset = assetStorageService.find(asset.getId(), true)
+            assert asset.getAttribute("sharedPoll1").flatMap({it.value}).orElse(null) == 30
+            assert asset.getAttribute("sharedPoll2").flatMap({it.value}).orElse(null) == 40
+        }
+
+        when: "another attribute polling the same request more often is linked whilst the resource hasn't changed"
+        asset.addOrReplaceAttributes(
+            new Attribute<>("sharedPoll3", INTEGER)
+                .addMeta(
+                    new MetaItem<>(AGENT_LINK, new HTTPAgentLink(agent.id)
+                        .setPath("get_poll_shared")
+                        .setPollingMillis(50)
+                        .setValueFilters([new RegexValueFilter(Pattern.compile("\\d+")).setMatchIndex(1)] as ValueFilter[])
+                    )
+                )
+        )
+        asset = assetStorageService.merge(asset)
+
+        then: "the attribute should join the polling request which should be rescheduled at the shortest interval"
+        conditions.eventually {
+            assert protocol.pollingMap.size() == 3
+            assert protocol.pollingGroups.size() == 1
+            assert protocol.pollingGroups.values().first().pollingMillis == 50
+        }
+
+        and: "the new attribute should get the value of the unchanged resource"
+        conditions.eventually {
+            asset = assetStorageService.find(asset.getId(), true)
+            assert asset.getAttribute("sharedPoll3").flatMap({it.value}).orElse(null) == 40
+        }
+
+        when: "the attribute with the shortest interval and one other attribute are removed"
+        asset.getAttributes().remove("sharedPoll1")
+        asset.getAttributes().remove("sharedPoll3")
+        asset = assetStorageService.merge(asset)
+
+        then: "the polling request should be rescheduled at the interval of the remaining attribute"
+        conditions.eventually {
+            assert protocol.pollingMap.size() == 1
+            assert protocol.pollingGroups.size() == 1
+            assert protocol.pollingGroups.values().first().pollingMillis == 100
+        }
+
+        and: "the server should still be polled"
+        def pollCount = mockServer.pollCountShared
+        conditions.eventually {
+            assert mockServer.pollCountShared > pollCount + 2
+        }
+
+        when: "the remaining attribute is removed"
+        asset.getAttributes().remove("sharedPoll2")
+        asset = assetStorageService.merge(asset)
+
+        then: "the polling request should be cancelled"
+        conditions.eventually {
+            assert protocol.pollingMap.isEmpty()
+            assert protocol.pollingGroups.isEmpty()
+        }
+
+        when: "some time passes"
+        pollCount = mockServer.pollCountShared
+        Thread.sleep(500)
+
+        then: "the server should no longer be polled"
+        mockServer.pollCountShared <= pollCount + 1
+    }
 }
@@ -22,6 +22,7 @@ import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 
 import static org.openremote.test.setup.ManagerTestSetup.*
@@ -406,4 +407,102 @@ class BasicRulesProcessingTest extends Specification implements ManagerContainer
         cleanup: "the static rules time variable is reset"
         TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS = expirationMillis
     }
+
+    def "Fire rules engines concurrently and queue fact changes whilst an engine is locked"() {
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        and: "the container is started with rules engines firing concurrently"
+        def expirationMillis = TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS
+        TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS = 500
+        def config = defaultConfig()
+        config << [(RulesService.RULES_MAX_CONCURRENCY): "4"]
+        def container = startContainer(config, defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def rulesService = container.getService(RulesService.class)
+        def rulesetStorageService = container.getService(RulesetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+
+        and: "some test rulesets have been imported"
+        def rulesImport = new BasicRulesImport(rulesetStorageService, keycloakTestSetup, managerTestSetup)
+
+        expect: "the rules engines to be ready and firing on their own executor"
+        rulesService.fireExecutorService != null
+        conditions.eventually {
+            assert rulesImport.assertEnginesReady(rulesService, keycloakTestSetup, managerTestSetup)
+            assert noRuleEngineFiringScheduled()
+        }
+
+        when: "an attribute event occurs"
+        rulesImport.resetRulesFired()
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(
+            managerTestSetup.apartment2LivingroomId, "presenceDetected", true
+        ))
+
+        then: "the engines in scope should have fired"
+        conditions.eventually {
+            assertRulesFired(rulesImport.globalEngine, 1)
+            assertRulesFired(rulesImport.tenantBuildingEngine, 1)
+            assertRulesFired(rulesImport.apartment2Engine, 1)
+            assertRulesFired(rulesImport.apartment3Engine, 0)
+            assert noRuleEngineFiringScheduled()
+        }
+
+        when: "the apartment 2 engine is scheduled to fire and its lock is held by another thread"
+        rulesImport.resetRulesFired()
+        def apartment2Engine = rulesImport.apartment2Engine
+        def lockHeld = new CountDownLatch(1)
+        def releaseLock = new CountDownLatch(1)
+        apartment2Engine.scheduleFire()
+        def lockHolder = Thread.start {
+            apartment2Engine.withEngineLock("Test lock holder", {
+                lockHeld.countDown()
+                releaseLock.await()
+            })
+        }
+        lockHeld.await()
+
+        and: "an attribute event for an asset in scope of the engine occurs"
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(
+            managerTestSetup.apartment2LivingroomId, "presenceDetected", false
+        ))
+
+        then: "the event should be processed without waiting for the engine lock and the fact change queued"
+        conditions.eventually {
+            assert assetStorageService.find(managerTestSetup.apartment2LivingroomId, true).getAttribute("presenceDetected").flatMap { it.getValue() }.orElse(null) == false
+            assert !apartment2Engine.pendingFactChanges.isEmpty()
+            assert apartment2Engine.facts.getAssetStates().find {
+                it.id == managerTestSetup.apartment2LivingroomId && it.name == "presenceDetected"
+            }.value.orElse(null) == true
+        }
+
+        when: "the firing that is waiting for the engine lock is interrupted"
+        Thread fireThread = null
+        conditions.eventually {
+            fireThread = Thread.getAllStackTraces().find { thread, trace ->
+                thread.name.startsWith("Rules engine fire") && trace.any { it.methodName.contains("submitFire") }
+            }?.key
+            assert fireThread != null
+        }
+        fireThread.interrupt()
+
+        and: "the engine lock is released"
+        releaseLock.countDown()
+        lockHolder.join()
+
+        then: "the queued fact change should have been applied and the engine should fire again"
+        conditions.eventually {
+            assert apartment2Engine.pendingFactChanges.isEmpty()
+            assert apartment2Engine.facts.getAssetStates().find {
+                it.id == managerTestSetup.apartment2LivingroomId && it.name == "presenceDetected"
+            }.value.orElse(null) == false
+            assertRulesFired(apartment2Engine, 1)
+            assert noRuleEngineFiringScheduled()
+        }
+
+        cleanup: "the static rules time variable is reset"
+        TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS = expirationMillis
+    }
 }
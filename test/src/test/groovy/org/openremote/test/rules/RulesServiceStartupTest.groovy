@@ -0,0 +1,98 @@
+package org.openremote.test.rules
+
+import org.openremote.manager.agent.AgentHealthStatusProvider
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesHealthStatusProvider
+import org.openremote.manager.rules.RulesService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.rules.AssetState
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import org.openremote.test.setup.ManagerTestSetup
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.container.concurrent.GlobalLock.withLock
+import static org.openremote.container.concurrent.GlobalLock.withLockReturning
+import static org.openremote.manager.rules.RulesService.RULES_MAX_CONCURRENCY
+import static org.openremote.test.setup.TestSetupTasks.SETUP_CREATE_RULES
+
+class RulesServiceStartupTest extends Specification implements ManagerContainerTrait {
+
+    @Unroll
+    def "Check rules engines are loaded with the initial asset states on startup (max concurrency #maxConcurrency)"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 15, delay: 0.2)
+
+        when: "the container is started with rulesets so rules engines are created on startup"
+        def config = defaultConfig()
+        config << [(SETUP_CREATE_RULES): "true"]
+        config << [(RULES_MAX_CONCURRENCY): maxConcurrency]
+        def container = startContainer(config, defaultServices())
+        def rulesService = container.getService(RulesService.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def rulesHealthStatus = container.getService(RulesHealthStatusProvider.class).getHealthStatus()
+        def agentHealthStatus = container.getService(AgentHealthStatusProvider.class).getHealthStatus()
+
+        then: "the rules engines should have been created and started"
+        conditions.eventually {
+            assert rulesService.tenantEngines.get(keycloakTestSetup.tenantBuilding.realm) != null
+            assert rulesService.tenantEngines.get(keycloakTestSetup.tenantCity.realm) != null
+            assert rulesService.assetEngines.get(managerTestSetup.apartment1Id) != null
+            assert rulesService.tenantEngines.values().every { it.isRunning() && !it.isError() }
+            assert rulesService.assetEngines.values().every { it.isRunning() && !it.isError() }
+        }
+
+        and: "the rules health status should contain the timing of each startup phase"
+        rulesHealthStatus.get("maxConcurrency").asInt() == Integer.parseInt(maxConcurrency)
+        def rulesStartup = rulesHealthStatus.get("startup")
+        ["deployRulesetsMillis", "loadAssetStatesMillis", "insertAssetStatesMillis", "startEnginesMillis"].every {
+            rulesStartup.has(it) && rulesStartup.get(it).asLong() >= 0
+        }
+        rulesStartup.get("totalMillis").asLong() == ["deployRulesetsMillis", "loadAssetStatesMillis", "insertAssetStatesMillis", "startEnginesMillis"].sum { rulesStartup.get(it).asLong() }
+
+        and: "the agent health status should contain the timing of each startup phase"
+        def agentStartup = agentHealthStatus.get("startup")
+        ["loadAgentsMillis", "loadLinkedAttributesMillis", "startProtocolsMillis"].every {
+            agentStartup.has(it) && agentStartup.get(it).asLong() >= 0
+        }
+
+        and: "the rules service should have the rule state of all assets"
+        conditions.eventually {
+            def storedStates = rulesService.findRuleStateAssetStates().collect { it.id + ":" + it.name } as Set
+            def serviceStates = withLockReturning("test", { rulesService.assetStates.collect { it.id + ":" + it.name } as Set })
+            assert !storedStates.isEmpty()
+            assert serviceStates == storedStates
+        }
+
+        and: "each rules engine should have the asset states in its scope"
+        conditions.eventually {
+            withLock("test", {
+                def assetStates = new ArrayList<AssetState<?>>(rulesService.assetStates)
+                def expectedStates = { Closure<Boolean> inScope ->
+                    assetStates.findAll(inScope).collect { it.id + ":" + it.name } as Set
+                }
+                def engineStates = { RulesEngine<?> engine ->
+                    engine.facts.getAssetStates().collect { it.id + ":" + it.name } as Set
+                }
+
+                rulesService.tenantEngines.each { realm, engine ->
+                    assert engineStates(engine) == expectedStates({ AssetState<?> state -> state.realm == realm })
+                }
+                rulesService.assetEngines.each { assetId, engine ->
+                    assert engineStates(engine) == expectedStates({ AssetState<?> state -> state.path != null && state.path.contains(assetId) })
+                }
+
+                def apartment1Engine = rulesService.assetEngines.get(managerTestSetup.apartment1Id)
+                assert engineStates(apartment1Engine).any { it.startsWith(managerTestSetup.apartment1LivingroomId + ":") }
+                assert engineStates(apartment1Engine).every { !it.startsWith(managerTestSetup.apartment2LivingroomId + ":") }
+            })
+        }
+
+        where:
+        maxConcurrency << ["0", "4"]
+    }
+}
@@ -3,13 +3,16 @@ package org.openremote.test.rules.residence
 import com.fasterxml.jackson.databind.node.ObjectNode
 import com.google.firebase.messaging.Message
 import net.fortuna.ical4j.model.Recur
+import org.openremote.container.persistence.PersistenceEvent
 import org.openremote.container.timer.TimerService
 import org.openremote.manager.asset.AssetProcessingService
 import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.notification.EmailNotificationHandler
 import org.openremote.manager.notification.NotificationService
 import org.openremote.manager.notification.PushNotificationHandler
+import org.openremote.manager.rules.JsonRulesBuilder
 import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesFacts
 import org.openremote.manager.rules.RulesService
 import org.openremote.manager.rules.RulesetDeployment
 import org.openremote.manager.rules.RulesetStorageService
@@ -18,6 +21,8 @@ import org.openremote.manager.setup.SetupService
 import org.openremote.test.setup.KeycloakTestSetup
 import org.openremote.test.setup.ManagerTestSetup
 import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
 import org.openremote.model.attribute.AttributeEvent
 import org.openremote.model.attribute.MetaItem
 import org.openremote.model.calendar.CalendarEvent
@@ -29,10 +34,15 @@ import org.openremote.model.notification.AbstractNotificationMessage
 import org.openremote.model.notification.Notification
 import org.openremote.model.notification.NotificationSendResult
 import org.openremote.model.notification.PushNotificationMessage
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.NumberPredicate
+import org.openremote.model.rules.AssetState
 import org.openremote.model.rules.Ruleset
 import org.openremote.model.rules.RulesetStatus
 import org.openremote.model.rules.TemporaryFact
 import org.openremote.model.rules.TenantRuleset
+import org.openremote.model.rules.json.RuleCondition
 import org.openremote.model.rules.json.JsonRulesetDefinition
 import org.openremote.model.util.ValueUtil
 import org.openremote.test.ManagerContainerTrait
@@ -42,12 +52,15 @@ import spock.util.concurrent.PollingConditions
 
 import java.time.Instant
 import java.time.temporal.ChronoUnit
+import java.util.function.Predicate
 
 import static java.util.concurrent.TimeUnit.HOURS
 import static java.util.concurrent.TimeUnit.MILLISECONDS
 import static org.openremote.test.setup.ManagerTestSetup.DEMO_RULE_STATES_SMART_BUILDING
 import static org.openremote.model.Constants.KEYCLOAK_CLIENT_ID
+import static org.openremote.model.Constants.MASTER_REALM
 import static org.openremote.model.util.ValueUtil.parse
+import static org.openremote.model.value.ValueType.NUMBER
 
 class JsonRulesTest extends Specification implements ManagerContainerTrait {
 
@@ -478,4 +491,84 @@ class JsonRulesTest extends Specification implements ManagerContainerTrait {
             notificationService.notificationHandlerMap.put(pushNotificationHandler.getTypeName(), pushNotificationHandler)
         }
     }
+
+    def "Only re-test changed asset states when evaluating a rule condition"() {
+
+        given: "rule facts with the temperature of some things"
+        def timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        def rulesFacts = new RulesFacts(timerService, new AssetStorageService(), null, this, RulesEngine.RULES_LOG)
+        def temperatureState = { String assetId, double temperature ->
+            def asset = new ThingAsset("Thing " + assetId).setRealm(MASTER_REALM).setId(assetId)
+            new AssetState<>(asset, new Attribute<>("temperature", NUMBER, temperature), AttributeEvent.Source.SENSOR)
+        }
+        rulesFacts.putAssetState(temperatureState("thing1", 25d))
+        rulesFacts.putAssetState(temperatureState("thing2", 10d))
+        rulesFacts.putAssetState(temperatureState("thing3", 30d))
+
+        and: "the state of a rule condition matching things warmer than 20 degrees"
+        def ruleCondition = new RuleCondition()
+        ruleCondition.assets = new AssetQuery()
+            .types(ThingAsset.class)
+            .attributes(new AttributePredicate("temperature", new NumberPredicate(20, AssetQuery.Operator.GREATER_THAN)))
+        def conditionState = new JsonRulesBuilder.RuleConditionState(ruleCondition, false, timerService)
+
+        and: "the asset states tested by the attribute predicates are recorded"
+        List<AssetState<?>> testedStates = []
+        def assetStatePredicate = conditionState.assetStatePredicate
+        conditionState.assetStatePredicate = { AssetState<?> assetState ->
+            testedStates.add(assetState)
+            assetStatePredicate.test(assetState)
+        } as Predicate<AssetState<?>>
+
+        expect: "the condition to be evaluated incrementally"
+        conditionState.incremental
+
+        when: "the condition is evaluated for the first time"
+        conditionState.updateUnfilteredAssetStates(rulesFacts, null)
+        conditionState.update([:])
+
+        then: "every asset state should have been tested and the warm things matched"
+        testedStates.size() == 3
+        conditionState.lastEvaluationResult.matchedAssetIds as Set == ["thing1", "thing3"] as Set
+
+        when: "the asset states are refreshed without any of them changing and the condition is evaluated again"
+        conditionState.updateUnfilteredAssetStates(rulesFacts, null)
+        conditionState.update([:])
+
+        then: "no asset state should have been tested and the previous result reused"
+        testedStates.size() == 3
+        conditionState.lastEvaluationResult.matchedAssetIds as Set == ["thing1", "thing3"] as Set
+
+        when: "a thing warms up"
+        def thing2State = temperatureState("thing2", 40d)
+        rulesFacts.putAssetState(thing2State)
+        conditionState.updateUnfilteredAssetStates(rulesFacts, new RulesEngine.AssetStateChangeEvent(PersistenceEvent.Cause.UPDATE, thing2State))
+        conditionState.update([:])
+
+        then: "only the changed asset state should have been tested and the thing matched"
+        testedStates.size() == 4
+        testedStates.last().is(thing2State)
+        conditionState.lastEvaluationResult.matchedAssetIds as Set == ["thing1", "thing2", "thing3"] as Set
+
+        when: "a thing cools down"
+        def thing1State = temperatureState("thing1", 5d)
+        rulesFacts.putAssetState(thing1State)
+        conditionState.updateUnfilteredAssetStates(rulesFacts, new RulesEngine.AssetStateChangeEvent(PersistenceEvent.Cause.UPDATE, thing1State))
+        conditionState.update([:])
+
+        then: "only the changed asset state should have been tested and the thing no longer matched"
+        testedStates.size() == 5
+        testedStates.last().is(thing1State)
+        conditionState.lastEvaluationResult.matchedAssetIds as Set == ["thing2", "thing3"] as Set
+
+        when: "a thing is removed"
+        rulesFacts.removeAssetState(thing2State)
+        conditionState.updateUnfilteredAssetStates(rulesFacts, new RulesEngine.AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, thing2State))
+        conditionState.update([:])
+
+        then: "no asset state should have been tested and the thing no longer matched"
+        testedStates.size() == 5
+        conditionState.lastEvaluationResult.matchedAssetIds == ["thing3"]
+    }
 }
@@ -0,0 +1,229 @@
+package org.openremote.test.users
+
+import org.openremote.container.security.AuthContext
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.security.AuthorizationCache
+import org.openremote.manager.security.ManagerIdentityService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.UserAssetLink
+import org.openremote.model.security.Tenant
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import org.openremote.test.setup.ManagerTestSetup
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.function.BiPredicate
+import java.util.function.Function
+
+import static org.openremote.manager.security.ManagerIdentityService.AUTHORIZATION_CACHE_SIZE
+
+class AuthorizationCacheTest extends Specification implements ManagerContainerTrait {
+
+    def "Check cached entries are used until invalidated"() {
+
+        given: "an authorization cache and loaders that count their calls"
+        def cache = new AuthorizationCache(100, 60)
+        def userAssetLoads = 0
+        def userAssets = [["user1", "asset1"]]
+        def userAssetLoader = { String userId, String assetId ->
+            userAssetLoads++
+            userAssets.contains([userId, assetId])
+        } as BiPredicate<String, String>
+        def tenantLoads = 0
+        def tenantLoader = { String realm ->
+            tenantLoads++
+            realm == "realm1" ? new Tenant().setRealm(realm) : null
+        } as Function<String, Tenant>
+
+        expect: "the first calls to load from the loaders"
+        cache.isUserAsset("user1", "asset1", userAssetLoader)
+        !cache.isUserAsset("user1", "asset2", userAssetLoader)
+        cache.getTenant("realm1", tenantLoader).realm == "realm1"
+        cache.getTenant("realm2", tenantLoader) == null
+        userAssetLoads == 2
+        tenantLoads == 2
+
+        and: "further calls to be served from the cache, including missing tenants"
+        cache.isUserAsset("user1", "asset1", userAssetLoader)
+        !cache.isUserAsset("user1", "asset2", userAssetLoader)
+        cache.getTenant("realm1", tenantLoader).realm == "realm1"
+        cache.getTenant("realm2", tenantLoader) == null
+        userAssetLoads == 2
+        tenantLoads == 2
+
+        when: "a user asset link is added and invalidated"
+        userAssets.add(["user1", "asset2"])
+        cache.invalidateUserAssets("user1", "asset2")
+
+        then: "the link should be loaded again"
+        cache.isUserAsset("user1", "asset2", userAssetLoader)
+        cache.isUserAsset("user1", "asset2", userAssetLoader)
+
+        and: "the other link should be loaded once more for the new generation and then cached again"
+        cache.isUserAsset("user1", "asset1", userAssetLoader)
+        cache.isUserAsset("user1", "asset1", userAssetLoader)
+        userAssetLoads == 4
+
+        when: "the links of a user are invalidated"
+        userAssets.clear()
+        cache.invalidateUserAssets("user1", null)
+
+        then: "the links of the user should be loaded again"
+        !cache.isUserAsset("user1", "asset1", userAssetLoader)
+        !cache.isUserAsset("user1", "asset2", userAssetLoader)
+        userAssetLoads == 6
+
+        when: "a tenant is invalidated"
+        cache.invalidateTenant("realm2")
+
+        then: "the tenant should be loaded again"
+        cache.getTenant("realm2", tenantLoader) == null
+        cache.getTenant("realm2", tenantLoader) == null
+        tenantLoads == 3
+    }
+
+    def "Check an entry loaded before an invalidation and stored after it isn't used"() {
+
+        given: "an authorization cache and a loader that can be held whilst loading"
+        def cache = new AuthorizationCache(100, 60)
+        def linked = [false]
+        def loading = new CountDownLatch(1)
+        def releaseLoad = new CountDownLatch(1)
+        def loads = 0
+        def loader = { String userId, String assetId ->
+            loads++
+            boolean result = linked[0]
+            if (loads == 1) {
+                loading.countDown()
+                releaseLoad.await(10, TimeUnit.SECONDS)
+            }
+            result
+        } as BiPredicate<String, String>
+
+        when: "a load reads the state before a link is created"
+        boolean[] firstResult = [true]
+        def loadThread = Thread.start {
+            firstResult[0] = cache.isUserAsset("user1", "asset1", loader)
+        }
+        loading.await(10, TimeUnit.SECONDS)
+
+        and: "the link is created and invalidated whilst the load is in progress"
+        linked[0] = true
+        cache.invalidateUserAssets("user1", "asset1")
+
+        and: "the load completes and stores the old state"
+        releaseLoad.countDown()
+        loadThread.join(10000)
+
+        then: "the in progress load should have returned the state it read"
+        !firstResult[0]
+        cache.userAssetCache.getIfPresent(["user1", "asset1"]) != null
+
+        and: "the stored entry should not be used"
+        cache.isUserAsset("user1", "asset1", loader)
+        loads == 2
+
+        and: "the reloaded entry should be cached"
+        cache.isUserAsset("user1", "asset1", loader)
+        loads == 2
+    }
+
+    def "Check the authorization cache is invalidated when tenants and user asset links change"() {
+
+        given: "the container is started with the authorization cache enabled"
+        def config = defaultConfig()
+        config << [(AUTHORIZATION_CACHE_SIZE): "100"]
+        def container = startContainer(config, defaultServices())
+        def identityService = container.getService(ManagerIdentityService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def authorizationCache = identityService.getAuthorizationCache()
+        def realm = keycloakTestSetup.tenantBuilding.realm
+        def identityProvider = identityService.getIdentityProvider()
+
+        and: "a user authenticated in the building realm"
+        def authContext = new AuthContext() {
+            @Override
+            String getAuthenticatedRealm() {
+                return realm
+            }
+
+            @Override
+            String getUsername() {
+                return "testuser2"
+            }
+
+            @Override
+            String getUserId() {
+                return keycloakTestSetup.testuser2Id
+            }
+
+            @Override
+            String getClientId() {
+                return null
+            }
+
+            @Override
+            boolean hasRealmRole(String role) {
+                return false
+            }
+
+            @Override
+            boolean hasResourceRole(String role, String resource) {
+                return false
+            }
+        }
+
+        expect: "the cache to be enabled"
+        authorizationCache != null
+
+        when: "the user asset links of a user are checked"
+        def linkedAsset = assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1Id)
+        def unlinkedAsset = assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment2Id)
+
+        then: "the results should match the links and be cached"
+        linkedAsset
+        !unlinkedAsset
+        authorizationCache.userAssetCache.getIfPresent([keycloakTestSetup.testuser3Id, managerTestSetup.apartment1Id])?.value
+        authorizationCache.userAssetCache.getIfPresent([keycloakTestSetup.testuser3Id, managerTestSetup.apartment2Id])?.value == false
+
+        when: "the user is linked to the other asset"
+        assetStorageService.storeUserAssetLinks([new UserAssetLink(realm, keycloakTestSetup.testuser3Id, managerTestSetup.apartment2Id)])
+
+        then: "the link should be used straight away"
+        authorizationCache.userAssetCache.getIfPresent([keycloakTestSetup.testuser3Id, managerTestSetup.apartment2Id]) == null
+        assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment2Id)
+
+        when: "the link is deleted again"
+        assetStorageService.deleteUserAssetLinks([new UserAssetLink(realm, keycloakTestSetup.testuser3Id, managerTestSetup.apartment2Id)])
+
+        then: "the removal should be used straight away"
+        !assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment2Id)
+        assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1Id)
+
+        when: "the tenant of the user is checked"
+        def accessible = identityProvider.isTenantActiveAndAccessible(authContext, realm)
+
+        then: "the tenant should be accessible and cached"
+        accessible
+        authorizationCache.tenantCache.getIfPresent(realm)?.value?.isPresent()
+
+        when: "the tenant is disabled"
+        def tenant = keycloakTestSetup.tenantBuilding
+        tenant.setEnabled(false)
+        identityProvider.updateTenant(tenant)
+
+        then: "the tenant should no longer be accessible"
+        !identityProvider.isTenantActiveAndAccessible(authContext, realm)
+
+        when: "the tenant is enabled again"
+        tenant.setEnabled(true)
+        identityProvider.updateTenant(tenant)
+
+        then: "the tenant should be accessible again"
+        identityProvider.isTenantActiveAndAccessible(authContext, realm)
+    }
+}